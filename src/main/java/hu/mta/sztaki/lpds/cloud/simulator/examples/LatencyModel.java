@@ -0,0 +1,455 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  (C) Copyright 2017, Gabor Kecskemeti (g.kecskemeti@ljmu.ac.uk)
+ */
+package hu.mta.sztaki.lpds.cloud.simulator.examples;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Describes the network latencies amongst a set of networked entities without
+ * storing a separate latency map for each of them. The entities are identified
+ * with consecutive integer indexes (see {@link NodeIndex}), the latency between
+ * two entities is determined by {@link #getLatency(int, int)}.
+ *
+ * The repositories of the simulator expect a latency map, such maps can be
+ * acquired with {@link #latenciesFrom(int)}. These maps are read only views
+ * of the model, so their memory footprint does not depend on the number of
+ * entities.
+ *
+ * @author "Gabor Kecskemeti, Department of Computer Science, Liverpool John
+ *         Moores University, (c) 2017"
+ */
+public abstract class LatencyModel {
+	/**
+	 * Assigns consecutive indexes (starting from 0) to the names of the
+	 * networked entities.
+	 */
+	public interface NodeIndex {
+		/**
+		 * @return the index of the named entity or -1 if it is not known
+		 */
+		int indexOf(String name);
+
+		/**
+		 * @return the name of the entity with the given index
+		 */
+		String nameOf(int index);
+
+		/**
+		 * @return the number of entities known
+		 */
+		int size();
+	}
+
+	/**
+	 * An index that stores all names explicitly
+	 */
+	private static class ListedNodes implements NodeIndex {
+		private final String[] names;
+		private final HashMap<String, Integer> lookup;
+
+		ListedNodes(final String... names) {
+			this.names = names.clone();
+			lookup = new HashMap<String, Integer>(names.length * 2);
+			for (int i = 0; i < names.length; i++) {
+				lookup.put(names[i], i);
+			}
+		}
+
+		@Override
+		public int indexOf(final String name) {
+			final Integer idx = lookup.get(name);
+			return idx == null ? -1 : idx;
+		}
+
+		@Override
+		public String nameOf(final int index) {
+			return names[index];
+		}
+
+		@Override
+		public int size() {
+			return names.length;
+		}
+	}
+
+	/**
+	 * An index for entities named with a common prefix and a sequence number
+	 * (e.g., VHNode1, VHNode2 etc.). The index is determined by parsing the
+	 * name.
+	 */
+	private static class NumberedNodes implements NodeIndex {
+		private final String prefix;
+		private final int first;
+		private final int count;
+
+		NumberedNodes(final String prefix, final int first, final int count) {
+			this.prefix = prefix;
+			this.first = first;
+			this.count = count;
+		}
+
+		@Override
+		public int indexOf(final String name) {
+			if (name == null || !name.startsWith(prefix)) {
+				return -1;
+			}
+			final int start = prefix.length();
+			final int len = name.length();
+			if (len == start || len - start > 9 || (name.charAt(start) == '0' && len - start > 1)) {
+				return -1;
+			}
+			int num = 0;
+			for (int i = start; i < len; i++) {
+				final char c = name.charAt(i);
+				if (c < '0' || c > '9') {
+					return -1;
+				}
+				num = num * 10 + (c - '0');
+			}
+			num -= first;
+			return num >= 0 && num < count ? num : -1;
+		}
+
+		@Override
+		public String nameOf(final int index) {
+			return prefix + (first + index);
+		}
+
+		@Override
+		public int size() {
+			return count;
+		}
+	}
+
+	/**
+	 * Joins several indexes, the entities of a later part are numbered after
+	 * the ones of the earlier parts.
+	 */
+	private static class CombinedNodes implements NodeIndex {
+		private final NodeIndex[] parts;
+		private final int[] offsets;
+
+		CombinedNodes(final NodeIndex... parts) {
+			this.parts = parts.clone();
+			offsets = new int[parts.length + 1];
+			for (int i = 0; i < parts.length; i++) {
+				offsets[i + 1] = offsets[i] + parts[i].size();
+			}
+		}
+
+		@Override
+		public int indexOf(final String name) {
+			for (int i = 0; i < parts.length; i++) {
+				final int idx = parts[i].indexOf(name);
+				if (idx >= 0) {
+					return offsets[i] + idx;
+				}
+			}
+			return -1;
+		}
+
+		@Override
+		public String nameOf(final int index) {
+			int part = Arrays.binarySearch(offsets, index);
+			// on exact hits we might land on an empty part
+			part = part >= 0 ? part : -part - 2;
+			while (offsets[part + 1] == index) {
+				part++;
+			}
+			return parts[part].nameOf(index - offsets[part]);
+		}
+
+		@Override
+		public int size() {
+			return offsets[parts.length];
+		}
+	}
+
+	private static class ConstantLatency extends LatencyModel {
+		private final int latency;
+
+		ConstantLatency(final NodeIndex nodes, final int latency) {
+			super(nodes);
+			this.latency = latency;
+		}
+
+		@Override
+		public int getLatency(final int from, final int to) {
+			return latency;
+		}
+	}
+
+	/**
+	 * Groups the entities to ranges of consecutive indexes. The latency is
+	 * determined by the groups of the two entities.
+	 */
+	private static abstract class GroupedLatency extends LatencyModel {
+		/**
+		 * The first index of every group
+		 */
+		private final int[] groupStarts;
+
+		GroupedLatency(final NodeIndex nodes, final int[] groupStarts) {
+			super(nodes);
+			if (groupStarts.length == 0 || groupStarts[0] != 0) {
+				throw new IllegalArgumentException("The first group must start at index 0");
+			}
+			for (int i = 1; i < groupStarts.length; i++) {
+				if (groupStarts[i] <= groupStarts[i - 1]) {
+					throw new IllegalArgumentException("The groups must start at increasing indexes");
+				}
+			}
+			this.groupStarts = groupStarts.clone();
+		}
+
+		final int groupOf(final int node) {
+			final int pos = Arrays.binarySearch(groupStarts, node);
+			return pos >= 0 ? pos : -pos - 2;
+		}
+	}
+
+	private static class RackLatency extends GroupedLatency {
+		private final int intraRack;
+		private final int interRack;
+
+		RackLatency(final NodeIndex nodes, final int intraRack, final int interRack, final int[] rackStarts) {
+			super(nodes, rackStarts);
+			this.intraRack = intraRack;
+			this.interRack = interRack;
+		}
+
+		@Override
+		public int getLatency(final int from, final int to) {
+			return groupOf(from) == groupOf(to) ? intraRack : interRack;
+		}
+	}
+
+	private static class MatrixLatency extends GroupedLatency {
+		private final int[][] matrix;
+
+		MatrixLatency(final NodeIndex nodes, final int[][] matrix, final int[] groupStarts) {
+			super(nodes, groupStarts);
+			for (int[] row : matrix) {
+				if (row.length != groupStarts.length) {
+					throw new IllegalArgumentException("The latency matrix must be square with a row for each group");
+				}
+			}
+			if (matrix.length != groupStarts.length) {
+				throw new IllegalArgumentException("The latency matrix must be square with a row for each group");
+			}
+			this.matrix = matrix;
+		}
+
+		@Override
+		public int getLatency(final int from, final int to) {
+			return matrix[groupOf(from)][groupOf(to)];
+		}
+	}
+
+	/**
+	 * The map view offered for the repositories
+	 */
+	private class LatencyView extends AbstractMap<String, Integer> {
+		private final int from;
+
+		LatencyView(final int from) {
+			this.from = from;
+		}
+
+		@Override
+		public Integer get(final Object key) {
+			if (!(key instanceof String)) {
+				return null;
+			}
+			final int to = nodes.indexOf((String) key);
+			if (to < 0) {
+				return null;
+			}
+			final int latency = getLatency(from, to);
+			return latency < 0 ? null : latency;
+		}
+
+		@Override
+		public boolean containsKey(final Object key) {
+			return get(key) != null;
+		}
+
+		@Override
+		public Set<Map.Entry<String, Integer>> entrySet() {
+			return new AbstractSet<Map.Entry<String, Integer>>() {
+				@Override
+				public int size() {
+					int count = 0;
+					for (int i = 0; i < nodes.size(); i++) {
+						if (getLatency(from, i) >= 0) {
+							count++;
+						}
+					}
+					return count;
+				}
+
+				@Override
+				public Iterator<Map.Entry<String, Integer>> iterator() {
+					return new Iterator<Map.Entry<String, Integer>>() {
+						private int next = skipUnreachable(0);
+
+						private int skipUnreachable(int idx) {
+							while (idx < nodes.size() && getLatency(from, idx) < 0) {
+								idx++;
+							}
+							return idx;
+						}
+
+						@Override
+						public boolean hasNext() {
+							return next < nodes.size();
+						}
+
+						@Override
+						public Map.Entry<String, Integer> next() {
+							if (!hasNext()) {
+								throw new NoSuchElementException();
+							}
+							final int curr = next;
+							next = skipUnreachable(next + 1);
+							return new SimpleImmutableEntry<String, Integer>(nodes.nameOf(curr),
+									getLatency(from, curr));
+						}
+					};
+				}
+			};
+		}
+	}
+
+	/**
+	 * The entities the model knows about
+	 */
+	public final NodeIndex nodes;
+
+	protected LatencyModel(final NodeIndex nodes) {
+		this.nodes = nodes;
+	}
+
+	/**
+	 * Determines the latency between two entities.
+	 *
+	 * @param from
+	 *            the index of the source entity
+	 * @param to
+	 *            the index of the target entity
+	 * @return the latency in ms, or a negative value if the two entities
+	 *         cannot reach each other
+	 */
+	public abstract int getLatency(int from, int to);
+
+	/**
+	 * Determines the latency between two named entities.
+	 *
+	 * @return the latency in ms, or a negative value if the two entities
+	 *         cannot reach each other or one of them is unknown
+	 */
+	public int getLatency(final String from, final String to) {
+		final int f = nodes.indexOf(from);
+		final int t = nodes.indexOf(to);
+		return f < 0 || t < 0 ? -1 : getLatency(f, t);
+	}
+
+	/**
+	 * Offers the latencies of a particular entity in the form expected by the
+	 * repositories of the simulator.
+	 *
+	 * @param from
+	 *            the index of the entity
+	 * @return a read only map view from the names of the reachable entities to
+	 *         their latency
+	 */
+	public Map<String, Integer> latenciesFrom(final int from) {
+		return new LatencyView(from);
+	}
+
+	/**
+	 * An index for entities with explicitly listed names
+	 */
+	public static NodeIndex listedNodes(final String... names) {
+		return new ListedNodes(names);
+	}
+
+	/**
+	 * An index for entities with the names prefix+first ... prefix+(first+count-1)
+	 */
+	public static NodeIndex numberedNodes(final String prefix, final int first, final int count) {
+		return new NumberedNodes(prefix, first, count);
+	}
+
+	/**
+	 * Joins several indexes into one, the indexes of the entities in a later
+	 * part follow the ones in the earlier parts.
+	 */
+	public static NodeIndex combinedNodes(final NodeIndex... parts) {
+		return new CombinedNodes(parts);
+	}
+
+	/**
+	 * All entities reach each other with the same latency.
+	 */
+	public static LatencyModel constant(final NodeIndex nodes, final int latency) {
+		return new ConstantLatency(nodes, latency);
+	}
+
+	/**
+	 * Entities are organised into racks of consecutive indexes. Entities in
+	 * the same rack reach each other with the intra rack latency, otherwise the
+	 * inter rack latency is used.
+	 *
+	 * @param rackStarts
+	 *            the index of the first entity in every rack (the first rack
+	 *            must start at 0)
+	 */
+	public static LatencyModel perRack(final NodeIndex nodes, final int intraRack, final int interRack,
+			final int... rackStarts) {
+		return new RackLatency(nodes, intraRack, interRack, rackStarts);
+	}
+
+	/**
+	 * Entities are organised into groups of consecutive indexes, the latencies
+	 * between the groups are given in a matrix. If every entity forms its own
+	 * group, then this is a complete entity to entity latency matrix.
+	 *
+	 * @param matrix
+	 *            the latencies between the groups, negative values mark
+	 *            unreachable groups
+	 * @param groupStarts
+	 *            the index of the first entity in every group (the first group
+	 *            must start at 0)
+	 */
+	public static LatencyModel matrix(final NodeIndex nodes, final int[][] matrix, final int... groupStarts) {
+		return new MatrixLatency(nodes, matrix, groupStarts);
+	}
+}
@@ -35,7 +35,6 @@ import hu.mta.sztaki.lpds.cloud.simulator.util.SeedSyncer;
 
 import java.util.Calendar;
 import java.util.EnumMap;
-import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -173,11 +172,9 @@ public class TransferDemo extends ConsumptionEventAdapter {
 			System.out.println("Creating the repositories");
 		}
 		final long bandwidth = 111111111; // bytes per ms
-		HashMap<String, Integer> latencyMap = new HashMap<String, Integer>();
-		for (int i = 0; i < repoCount; i++) {
-			latencyMap.put("Repo" + i, 6); // between all networked entities we
-											// will have a 6 ms latency
-		}
+		// between all networked entities we will have a 6 ms latency
+		LatencyModel latencies = LatencyModel.constant(
+				LatencyModel.numberedNodes("Repo", 0, repoCount), 6);
 		final EnumMap<PowerTransitionGenerator.PowerStateKind, Map<String, PowerState>> transitions = PowerTransitionGenerator
 				.generateTransitions(20, 296, 493, 50, 108);
 
@@ -187,7 +184,7 @@ public class TransferDemo extends ConsumptionEventAdapter {
 		for (int i = 0; i < repoCount; i++) {
 			// Each repository is capable of storing 111PBs of data.
 			repos[i] = new Repository(111111111111111111L, "Repo" + i,
-					bandwidth, bandwidth, bandwidth, latencyMap,transitions
+					bandwidth, bandwidth, bandwidth, latencies.latenciesFrom(i),transitions
 					.get(PowerTransitionGenerator.PowerStateKind.storage),transitions
 					.get(PowerTransitionGenerator.PowerStateKind.network));
 			repos[i].setState(NetworkNode.State.RUNNING);
@@ -0,0 +1,220 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  (C) Copyright 2017, Gabor Kecskemeti (g.kecskemeti@ljmu.ac.uk)
+ */
+package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+
+import hu.mta.sztaki.lpds.cloud.simulator.Timed;
+import hu.mta.sztaki.lpds.cloud.simulator.helpers.job.Job;
+
+/**
+ * A dispatcher side waiting queue with EASY backfilling. Jobs are only sent to
+ * the clouds if the processors they need are not used by the other jobs sent
+ * by the dispatcher. Otherwise they wait in a FIFO queue.
+ * 
+ * If the first job of the queue cannot start, it receives a reservation: the
+ * time when enough processors are expected to become free for it (based on
+ * the execution times of the running jobs). Later jobs in the queue can start
+ * before the first one (i.e., they are backfilled) if they fit into the
+ * currently free processors and either complete before the reservation or
+ * only use the processors not needed by the first job at the time of the
+ * reservation.
+ * 
+ * The processor accounting is independent from the actual VM placement in
+ * the clouds. The execution times do not include the startup of the VMs.
+ * 
+ * @author "Gabor Kecskemeti, Department of Computer Science, Liverpool John
+ *         Moores University, (c) 2017"
+ */
+class BackfillScheduler {
+	/**
+	 * The processors used by a job and when it is expected to complete
+	 */
+	private static class RunningJob {
+		final int procs;
+		final long expectedEnd;
+
+		RunningJob(final int procs, final long expectedEnd) {
+			this.procs = procs;
+			this.expectedEnd = expectedEnd;
+		}
+	}
+
+	private final MultiIaaSJobDispatcher dispatcher;
+	/**
+	 * The number of processors in all clouds
+	 */
+	private final long totalProcs;
+	private long usedProcs = 0;
+	/**
+	 * The rows of the waiting jobs in the job table of the dispatcher (in
+	 * submission order)
+	 */
+	private ArrayList<Integer> waiting = new ArrayList<Integer>();
+	private final IdentityHashMap<Job, RunningJob> running = new IdentityHashMap<Job, RunningJob>();
+	/**
+	 * Processes the queue after some jobs terminated
+	 */
+	private final TimerWheel.Entry rescheduling = new TimerWheel.Entry() {
+		@Override
+		protected void expired(final long fires) {
+			schedule();
+		}
+	};
+
+	long backfilledJobs = 0;
+	long startedJobs = 0;
+	/**
+	 * The total time the started jobs spent in the waiting queue (in ms)
+	 */
+	long totalWait = 0;
+
+	BackfillScheduler(final MultiIaaSJobDispatcher dispatcher, final long totalProcs) {
+		this.dispatcher = dispatcher;
+		this.totalProcs = totalProcs;
+	}
+
+	/**
+	 * Adds a newly submitted job to the queue. Jobs that would never fit are
+	 * passed directly to the dispatcher (which will ignore them).
+	 * 
+	 * @param row
+	 *            the row of the job in the dispatcher's job table
+	 */
+	void submit(final int row) {
+		if (dispatcher.jobs.getNprocs(row) > totalProcs) {
+			dispatcher.dispatchJob(row);
+		} else {
+			waiting.add(row);
+		}
+	}
+
+	/**
+	 * Tells the row of a waiting job
+	 * 
+	 * @param i
+	 *            the position of the job in the queue
+	 */
+	int getWaitingRow(final int i) {
+		return waiting.get(i);
+	}
+
+	/**
+	 * Tells how many jobs are waiting in the queue
+	 */
+	int size() {
+		return waiting.size();
+	}
+
+	/**
+	 * Starts the jobs that can be started now: first the ones at the head of
+	 * the queue, then the ones that can be backfilled.
+	 */
+	void schedule() {
+		final long now = Timed.getFireCount();
+		final JobTable jobs = dispatcher.jobs;
+		int head = 0;
+		while (head < waiting.size() && jobs.getNprocs(waiting.get(head)) <= totalProcs - usedProcs) {
+			start(waiting.get(head++), now);
+		}
+		if (head == waiting.size()) {
+			waiting.clear();
+			return;
+		}
+		// The reservation of the first waiting job
+		final int headProcs = jobs.getNprocs(waiting.get(head));
+		final RunningJob[] byEnd = running.values().toArray(new RunningJob[running.size()]);
+		Arrays.sort(byEnd, new Comparator<RunningJob>() {
+			@Override
+			public int compare(final RunningJob a, final RunningJob b) {
+				return Long.compare(a.expectedEnd, b.expectedEnd);
+			}
+		});
+		long shadowTime = Long.MAX_VALUE;
+		long extraProcs = 0;
+		long available = totalProcs - usedProcs;
+		for (RunningJob r : byEnd) {
+			available += r.procs;
+			if (available >= headProcs) {
+				shadowTime = r.expectedEnd;
+				extraProcs = available - headProcs;
+				break;
+			}
+		}
+		// Backfilling the rest of the queue
+		final ArrayList<Integer> stillWaiting = new ArrayList<Integer>(waiting.size() - head);
+		stillWaiting.add(waiting.get(head));
+		for (int i = head + 1; i < waiting.size(); i++) {
+			final int row = waiting.get(i);
+			final int procs = jobs.getNprocs(row);
+			if (procs <= totalProcs - usedProcs) {
+				final boolean endsInTime = now + jobs.getExectimeSecs(row) * 1000 <= shadowTime;
+				if (endsInTime || procs <= extraProcs) {
+					if (!endsInTime) {
+						extraProcs -= procs;
+					}
+					backfilledJobs++;
+					start(row, now);
+					continue;
+				}
+			}
+			stillWaiting.add(row);
+		}
+		waiting = stillWaiting;
+	}
+
+	private void start(final int row, final long now) {
+		final JobTable jobs = dispatcher.jobs;
+		totalWait += now - jobs.getSubmittimeSecs(row) * 1000;
+		startedJobs++;
+		final int procs = jobs.getNprocs(row);
+		final long expectedEnd = now + jobs.getExectimeSecs(row) * 1000;
+		final Job started = dispatcher.dispatchJob(row);
+		if (started != null) {
+			running.put(started, new RunningJob(procs, expectedEnd));
+			usedProcs += procs;
+		}
+	}
+
+	/**
+	 * Frees up the processors of a job that is no longer running, the queue
+	 * is processed again shortly (not in the middle of the event that
+	 * terminated the job).
+	 * 
+	 * @param job
+	 *            the terminated job
+	 */
+	void terminated(final Job job) {
+		final RunningJob r = running.remove(job);
+		if (r == null) {
+			return;
+		}
+		usedProcs -= r.procs;
+		if (!rescheduling.isScheduled() && !waiting.isEmpty()) {
+			dispatcher.timeoutWheel.schedule(rescheduling, 1);
+		}
+	}
+}
@@ -0,0 +1,232 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  (C) Copyright 2017, Gabor Kecskemeti (g.kecskemeti@ljmu.ac.uk)
+ */
+package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Memory maps a time series written by {@link BinarySeriesWriter} and offers
+ * random access to its values.
+ *
+ * File layout (all values are little-endian):
+ * <ul>
+ * <li>header: magic, version, time of the first sample, sampling period,
+ * rows per block, total row count, column count (without the time column),
+ * then for every column its type (1 byte) and its UTF-8 name (prefixed with
+ * its length as a short)
+ * <li>blocks: the number of rows in the block, then for every column (the
+ * time deviations first): the width of the values in bytes (0, 1, 2, 4 or
+ * 8), the base value and the values themselves. Integer values are stored as
+ * unsigned differences from the base, doubles are stored as they are (with
+ * width 8).
+ * </ul>
+ *
+ * If started as a program, the reader prints the series in the csv format of
+ * the state monitor.
+ *
+ * @author "Gabor Kecskemeti, Department of Computer Science, Liverpool John
+ *         Moores University, (c) 2017"
+ */
+public class BinarySeriesReader {
+	/**
+	 * Identifies the series files ("DCFS")
+	 */
+	public static final int magic = 0x53464344;
+	public static final int version = 1;
+	static final byte typeLong = 0;
+	static final byte typeDouble = 1;
+	/**
+	 * The number of rows in a complete block
+	 */
+	static final int blockRows = 4096;
+	/**
+	 * Where the row count is stored in the header
+	 */
+	static final int rowCountOffset = 4 + 4 + 8 + 8 + 4;
+
+	private final MappedByteBuffer data;
+	private final long startTime;
+	private final long period;
+	private final int rowsPerBlock;
+	private final int rows;
+	private final String[] names;
+	private final boolean[] integral;
+	/**
+	 * For every block and column (the time deviation is column 0): where the
+	 * values start, their width and their base
+	 */
+	private final int[][] offsets;
+	private final byte[][] widths;
+	private final long[][] bases;
+
+	/**
+	 * Maps the file and indexes its blocks.
+	 *
+	 * @param fileName
+	 *            the series to read
+	 * @throws IOException
+	 *             if the file cannot be read or it is not a series file
+	 */
+	public BinarySeriesReader(final String fileName) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(fileName, "r"); FileChannel ch = raf.getChannel()) {
+			if (ch.size() > Integer.MAX_VALUE) {
+				throw new IOException("Series files over 2GB are not supported");
+			}
+			data = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+		}
+		data.order(ByteOrder.LITTLE_ENDIAN);
+		if (data.getInt() != magic || data.getInt() != version) {
+			throw new IOException(fileName + " is not a series file of a supported version");
+		}
+		startTime = data.getLong();
+		period = data.getLong();
+		rowsPerBlock = data.getInt();
+		final long rowCount = data.getLong();
+		if (rowCount > Integer.MAX_VALUE) {
+			throw new IOException("Too many rows in " + fileName);
+		}
+		rows = (int) rowCount;
+		final int cols = data.getInt();
+		names = new String[cols];
+		integral = new boolean[cols];
+		for (int i = 0; i < cols; i++) {
+			integral[i] = data.get() == typeLong;
+			final byte[] name = new byte[data.getShort()];
+			data.get(name);
+			names[i] = new String(name, StandardCharsets.UTF_8);
+		}
+		final int blocks = (rows + rowsPerBlock - 1) / rowsPerBlock;
+		offsets = new int[blocks][cols + 1];
+		widths = new byte[blocks][cols + 1];
+		bases = new long[blocks][cols + 1];
+		int pos = data.position();
+		for (int b = 0; b < blocks; b++) {
+			final int blockSize = data.getInt(pos);
+			pos += 4;
+			for (int c = 0; c <= cols; c++) {
+				widths[b][c] = data.get(pos);
+				bases[b][c] = data.getLong(pos + 1);
+				offsets[b][c] = pos + 9;
+				pos += 9 + widths[b][c] * blockSize;
+			}
+		}
+	}
+
+	public int getRowCount() {
+		return rows;
+	}
+
+	public int getColumnCount() {
+		return names.length;
+	}
+
+	public String getColumnName(final int col) {
+		return names[col];
+	}
+
+	public boolean isIntegral(final int col) {
+		return integral[col];
+	}
+
+	private long getRaw(final int row, final int col) {
+		final int block = row / rowsPerBlock;
+		final int offset = offsets[block][col];
+		final int idx = row % rowsPerBlock;
+		final long base = bases[block][col];
+		switch (widths[block][col]) {
+		case 0:
+			return base;
+		case 1:
+			return base + (data.get(offset + idx) & 0xFFL);
+		case 2:
+			return base + (data.getShort(offset + idx * 2) & 0xFFFFL);
+		case 4:
+			return base + (data.getInt(offset + idx * 4) & 0xFFFFFFFFL);
+		default:
+			return base + data.getLong(offset + idx * 8);
+		}
+	}
+
+	/**
+	 * The time the sample in the given row was taken
+	 */
+	public long getTime(final int row) {
+		return startTime + row * period + getRaw(row, 0);
+	}
+
+	/**
+	 * The value of an integer column
+	 */
+	public long getLong(final int row, final int col) {
+		return integral[col] ? getRaw(row, col + 1) : (long) getDouble(row, col);
+	}
+
+	/**
+	 * The value of any column
+	 */
+	public double getDouble(final int row, final int col) {
+		if (integral[col]) {
+			return getRaw(row, col + 1);
+		}
+		return data.getDouble(offsets[row / rowsPerBlock][col + 1] + (row % rowsPerBlock) * 8);
+	}
+
+	/**
+	 * Prints the series stored in the file given as the first argument to the
+	 * standard output in the csv format.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.out.println("Expected parameter: the series file to convert to csv");
+			System.exit(0);
+		}
+		final BinarySeriesReader reader = new BinarySeriesReader(args[0]);
+		final BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(System.out), 64 * 1024);
+		final StringBuilder sb = new StringBuilder("UnixTime*1000");
+		for (int c = 0; c < reader.getColumnCount(); c++) {
+			sb.append(',').append(reader.getColumnName(c));
+		}
+		bw.write(sb.append('\n').toString());
+		for (int r = 0; r < reader.getRowCount(); r++) {
+			sb.setLength(0);
+			sb.append(reader.getTime(r));
+			for (int c = 0; c < reader.getColumnCount(); c++) {
+				sb.append(',');
+				if (reader.isIntegral(c)) {
+					sb.append(reader.getLong(r, c));
+				} else {
+					sb.append(reader.getDouble(r, c));
+				}
+			}
+			bw.write(sb.append('\n').toString());
+		}
+		bw.flush();
+	}
+}
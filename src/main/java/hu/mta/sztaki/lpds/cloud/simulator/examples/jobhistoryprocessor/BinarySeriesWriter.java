@@ -0,0 +1,222 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  (C) Copyright 2017, Gabor Kecskemeti (g.kecskemeti@ljmu.ac.uk)
+ */
+package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes a periodically sampled time series in a compact, column oriented
+ * binary form (see {@link BinarySeriesReader} for the layout and for reading
+ * the files back).
+ *
+ * The rows are collected in blocks. When a block is full, every column of it
+ * is written one after the other with the smallest fixed width that can hold
+ * the difference of its values from the block's minimum. The time of the
+ * samples is stored as the deviation from the regular sampling schedule, so
+ * it occupies no space at all as long as the samples arrive on time.
+ *
+ * @author "Gabor Kecskemeti, Department of Computer Science, Liverpool John
+ *         Moores University, (c) 2017"
+ */
+public class BinarySeriesWriter implements Closeable {
+	private final FileChannel channel;
+	private final RandomAccessFile file;
+	private final boolean[] integral;
+	private final long startTime;
+	private final long period;
+	/**
+	 * The values of the current block, column by column. Column 0 holds the
+	 * deviations of the sample times from the schedule.
+	 */
+	private final long[][] longBlock;
+	private final double[][] doubleBlock;
+	private int rowsInBlock = 0;
+	private long totalRows = 0;
+	private final ByteBuffer out;
+
+	/**
+	 * Creates the file and writes its header.
+	 *
+	 * @param fileName
+	 *            where to write the series
+	 * @param names
+	 *            the names of the columns (without the time column)
+	 * @param integral
+	 *            tells which columns hold integer values, all other columns
+	 *            are stored as doubles
+	 * @param startTime
+	 *            the time of the first sample
+	 * @param period
+	 *            the time between two samples
+	 * @throws IOException
+	 *             if the file cannot be created
+	 */
+	public BinarySeriesWriter(final String fileName, final String[] names, final boolean[] integral,
+			final long startTime, final long period) throws IOException {
+		if (names.length != integral.length) {
+			throw new IllegalArgumentException("All columns must have a name and a type");
+		}
+		this.integral = integral.clone();
+		this.startTime = startTime;
+		this.period = period;
+		final int cols = integral.length + 1;
+		longBlock = new long[cols][BinarySeriesReader.blockRows];
+		doubleBlock = new double[cols][];
+		for (int i = 1; i < cols; i++) {
+			if (!integral[i - 1]) {
+				doubleBlock[i] = new double[BinarySeriesReader.blockRows];
+			}
+		}
+		// The largest possible block with some room for the block headers
+		out = ByteBuffer.allocateDirect(cols * (BinarySeriesReader.blockRows * 8 + 16) + 16)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		file = new RandomAccessFile(fileName, "rw");
+		file.setLength(0);
+		channel = file.getChannel();
+		out.putInt(BinarySeriesReader.magic).putInt(BinarySeriesReader.version);
+		out.putLong(startTime).putLong(period).putInt(BinarySeriesReader.blockRows);
+		// The row count is filled in when the file is closed
+		out.putLong(0);
+		out.putInt(names.length);
+		for (int i = 0; i < names.length; i++) {
+			final byte[] name = names[i].getBytes(StandardCharsets.UTF_8);
+			out.put(integral[i] ? BinarySeriesReader.typeLong : BinarySeriesReader.typeDouble);
+			out.putShort((short) name.length).put(name);
+		}
+		writeOut();
+	}
+
+	/**
+	 * Adds a new sample to the series
+	 *
+	 * @param time
+	 *            the time of the sample
+	 * @param values
+	 *            the values of the columns (in the order of the column names)
+	 * @throws IOException
+	 *             if a completed block could not be written
+	 */
+	public void append(final long time, final double[] values) throws IOException {
+		longBlock[0][rowsInBlock] = time - (startTime + totalRows * period);
+		for (int i = 0; i < integral.length; i++) {
+			if (integral[i]) {
+				longBlock[i + 1][rowsInBlock] = (long) values[i];
+			} else {
+				doubleBlock[i + 1][rowsInBlock] = values[i];
+			}
+		}
+		rowsInBlock++;
+		totalRows++;
+		if (rowsInBlock == BinarySeriesReader.blockRows) {
+			writeBlock();
+		}
+	}
+
+	private void writeBlock() throws IOException {
+		out.putInt(rowsInBlock);
+		for (int c = 0; c < longBlock.length; c++) {
+			if (doubleBlock[c] != null) {
+				out.put((byte) 8).putLong(0);
+				for (int r = 0; r < rowsInBlock; r++) {
+					out.putDouble(doubleBlock[c][r]);
+				}
+			} else {
+				final long[] col = longBlock[c];
+				long min = col[0];
+				long max = col[0];
+				for (int r = 1; r < rowsInBlock; r++) {
+					min = Math.min(min, col[r]);
+					max = Math.max(max, col[r]);
+				}
+				final long range = max - min;
+				// a negative range means the difference overflowed
+				final byte width;
+				if (range == 0) {
+					width = 0;
+				} else if (range > 0 && range < 0x100L) {
+					width = 1;
+				} else if (range > 0 && range < 0x10000L) {
+					width = 2;
+				} else if (range > 0 && range < 0x100000000L) {
+					width = 4;
+				} else {
+					width = 8;
+				}
+				out.put(width).putLong(min);
+				for (int r = 0; r < rowsInBlock; r++) {
+					final long delta = col[r] - min;
+					switch (width) {
+					case 1:
+						out.put((byte) delta);
+						break;
+					case 2:
+						out.putShort((short) delta);
+						break;
+					case 4:
+						out.putInt((int) delta);
+						break;
+					case 8:
+						out.putLong(delta);
+						break;
+					default:
+						// constant column, nothing to store
+					}
+				}
+			}
+		}
+		rowsInBlock = 0;
+		writeOut();
+	}
+
+	private void writeOut() throws IOException {
+		out.flip();
+		while (out.hasRemaining()) {
+			channel.write(out);
+		}
+		out.clear();
+	}
+
+	/**
+	 * Writes out the last, partial block and completes the header.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			if (rowsInBlock > 0) {
+				writeBlock();
+			}
+			out.putLong(totalRows);
+			out.flip();
+			channel.write(out, BinarySeriesReader.rowCountOffset);
+			out.clear();
+		} finally {
+			file.close();
+		}
+	}
+}
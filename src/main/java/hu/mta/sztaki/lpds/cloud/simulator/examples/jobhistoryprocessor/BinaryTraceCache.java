@@ -0,0 +1,261 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  (C) Copyright 2017, Gabor Kecskemeti (g.kecskemeti@ljmu.ac.uk)
+ */
+package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Stores the job table of a trace in a compact binary form next to the
+ * original trace file, so later runs on the same trace do not need to parse
+ * the textual trace again. The cached file is only used if the source trace
+ * still has the same size and modification time as it had when the cache was
+ * written, and the cache was produced for the same job range.
+ *
+ * File layout (all values little-endian): a fixed header, the numeric
+ * columns one after the other, the string dictionary and finally the job ids
+ * that could not be represented as numbers.
+ *
+ * @author "Gabor Kecskemeti, Department of Computer Science, Liverpool John
+ *         Moores University, (c) 2017"
+ */
+public class BinaryTraceCache {
+	/**
+	 * Identifies the cache files ("DCFT")
+	 */
+	public static final int magic = 0x54464344;
+	/**
+	 * Must be increased with every change in the file layout
+	 */
+	public static final int version = 1;
+	/**
+	 * The extension added to the name of the trace file
+	 */
+	public static final String extension = ".dcfbin";
+	/**
+	 * magic, version, source size, source mtime, from, to, maxProcs, rows,
+	 * dictionary size, textual id count
+	 */
+	private static final int headerSize = 4 + 4 + 8 + 8 + 4 + 4 + 4 + 4 + 4 + 4;
+
+	/**
+	 * Determines the name of the cache file for a particular part of a trace
+	 *
+	 * @param traceFile
+	 *            the source trace
+	 * @param from
+	 *            the first job loaded from the trace
+	 * @param to
+	 *            the last job loaded from the trace
+	 * @return the cache file's location
+	 */
+	public static File cacheFileFor(final String traceFile, final int from, final int to) {
+		return new File(traceFile + "." + from + "-" + to + extension);
+	}
+
+	/**
+	 * Loads the cached version of the trace if it is still valid.
+	 *
+	 * @param traceFile
+	 *            the source trace
+	 * @param from
+	 *            the first job loaded from the trace
+	 * @param to
+	 *            the last job loaded from the trace
+	 * @param maxProcs
+	 *            the processor limit applied while the trace was loaded
+	 * @return the cached jobs or null if there is no valid cache for the trace
+	 * @throws IOException
+	 *             if the cache file exists but cannot be read
+	 */
+	public static JobTable load(final String traceFile, final int from, final int to, final int maxProcs)
+			throws IOException {
+		final File source = new File(traceFile);
+		final File cache = cacheFileFor(traceFile, from, to);
+		if (!cache.exists() || cache.length() < headerSize || cache.length() > Integer.MAX_VALUE) {
+			return null;
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(cache, "r"); FileChannel ch = raf.getChannel()) {
+			final MappedByteBuffer mbb = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+			mbb.order(ByteOrder.LITTLE_ENDIAN);
+			if (mbb.getInt() != magic || mbb.getInt() != version || mbb.getLong() != source.length()
+					|| mbb.getLong() != source.lastModified() || mbb.getInt() != from || mbb.getInt() != to
+					|| mbb.getInt() != maxProcs) {
+				return null;
+			}
+			final int rows = mbb.getInt();
+			final int dictSize = mbb.getInt();
+			final int textualIds = mbb.getInt();
+			final long[] submit = new long[rows];
+			final long[] queue = new long[rows];
+			final long[] exec = new long[rows];
+			final int[] nprocs = new int[rows];
+			final double[] ppCpu = new double[rows];
+			final long[] ppMem = new long[rows];
+			final long[] numericIds = new long[rows];
+			final int[] user = new int[rows];
+			final int[] group = new int[rows];
+			final int[] executable = new int[rows];
+			readLongs(mbb, submit);
+			readLongs(mbb, queue);
+			readLongs(mbb, exec);
+			readInts(mbb, nprocs);
+			mbb.asDoubleBuffer().get(ppCpu);
+			mbb.position(mbb.position() + rows * 8);
+			readLongs(mbb, ppMem);
+			readLongs(mbb, numericIds);
+			readInts(mbb, user);
+			readInts(mbb, group);
+			readInts(mbb, executable);
+			final String[] dictionary = new String[dictSize];
+			for (int i = 0; i < dictSize; i++) {
+				dictionary[i] = readString(mbb);
+			}
+			final String[] ids = new String[rows];
+			for (int i = 0; i < textualIds; i++) {
+				final int row = mbb.getInt();
+				ids[row] = readString(mbb);
+			}
+			return new JobTable(rows, submit, queue, exec, nprocs, ppCpu, ppMem, numericIds, ids, user, group,
+					executable, dictionary);
+		}
+	}
+
+	/**
+	 * Writes the job table next to the trace file.
+	 *
+	 * @param traceFile
+	 *            the source trace
+	 * @param from
+	 *            the first job loaded from the trace
+	 * @param to
+	 *            the last job loaded from the trace
+	 * @param maxProcs
+	 *            the processor limit applied while the trace was loaded
+	 * @param jobs
+	 *            the jobs loaded from the trace (before any adjustments)
+	 * @throws IOException
+	 *             if the cache could not be written
+	 */
+	public static void store(final String traceFile, final int from, final int to, final int maxProcs,
+			final JobTable jobs) throws IOException {
+		final File source = new File(traceFile);
+		final File cache = cacheFileFor(traceFile, from, to);
+		final File temp = new File(cache.getPath() + ".tmp");
+		final int rows = jobs.size();
+		final byte[][] dictionary = new byte[jobs.dictionary.length][];
+		long stringBytes = 0;
+		for (int i = 0; i < dictionary.length; i++) {
+			dictionary[i] = jobs.dictionary[i] == null ? null : jobs.dictionary[i].getBytes(StandardCharsets.UTF_8);
+			stringBytes += 4 + (dictionary[i] == null ? 0 : dictionary[i].length);
+		}
+		int textualIds = 0;
+		for (int i = 0; i < rows; i++) {
+			if (jobs.ids[i] != null) {
+				textualIds++;
+				stringBytes += 8 + jobs.ids[i].getBytes(StandardCharsets.UTF_8).length;
+			}
+		}
+		final long total = headerSize + (long) rows * (8 * 6 + 4 * 4) + stringBytes;
+		if (total > Integer.MAX_VALUE) {
+			throw new IOException("The trace is too large to be cached in a single mapped file");
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(temp, "rw"); FileChannel ch = raf.getChannel()) {
+			raf.setLength(total);
+			final MappedByteBuffer mbb = ch.map(FileChannel.MapMode.READ_WRITE, 0, total);
+			mbb.order(ByteOrder.LITTLE_ENDIAN);
+			mbb.putInt(magic).putInt(version).putLong(source.length()).putLong(source.lastModified());
+			mbb.putInt(from).putInt(to).putInt(maxProcs);
+			mbb.putInt(rows).putInt(dictionary.length).putInt(textualIds);
+			writeLongs(mbb, jobs.submit, rows);
+			writeLongs(mbb, jobs.queue, rows);
+			writeLongs(mbb, jobs.exec, rows);
+			writeInts(mbb, jobs.nprocs, rows);
+			mbb.asDoubleBuffer().put(jobs.ppCpu, 0, rows);
+			mbb.position(mbb.position() + rows * 8);
+			writeLongs(mbb, jobs.ppMem, rows);
+			writeLongs(mbb, jobs.numericIds, rows);
+			writeInts(mbb, jobs.user, rows);
+			writeInts(mbb, jobs.group, rows);
+			writeInts(mbb, jobs.executable, rows);
+			for (byte[] entry : dictionary) {
+				writeString(mbb, entry);
+			}
+			for (int i = 0; i < rows; i++) {
+				if (jobs.ids[i] != null) {
+					mbb.putInt(i);
+					writeString(mbb, jobs.ids[i].getBytes(StandardCharsets.UTF_8));
+				}
+			}
+			mbb.force();
+		}
+		if ((cache.exists() && !cache.delete()) || !temp.renameTo(cache)) {
+			throw new IOException("Could not replace the trace cache " + cache);
+		}
+	}
+
+	private static void readLongs(final ByteBuffer bb, final long[] target) {
+		bb.asLongBuffer().get(target);
+		bb.position(bb.position() + target.length * 8);
+	}
+
+	private static void readInts(final ByteBuffer bb, final int[] target) {
+		bb.asIntBuffer().get(target);
+		bb.position(bb.position() + target.length * 4);
+	}
+
+	private static void writeLongs(final ByteBuffer bb, final long[] source, final int len) {
+		bb.asLongBuffer().put(source, 0, len);
+		bb.position(bb.position() + len * 8);
+	}
+
+	private static void writeInts(final ByteBuffer bb, final int[] source, final int len) {
+		bb.asIntBuffer().put(source, 0, len);
+		bb.position(bb.position() + len * 4);
+	}
+
+	private static String readString(final ByteBuffer bb) {
+		final int len = bb.getInt();
+		if (len < 0) {
+			return null;
+		}
+		final byte[] raw = new byte[len];
+		bb.get(raw);
+		return new String(raw, StandardCharsets.UTF_8);
+	}
+
+	private static void writeString(final ByteBuffer bb, final byte[] raw) {
+		if (raw == null) {
+			bb.putInt(-1);
+		} else {
+			bb.putInt(raw.length);
+			bb.put(raw);
+		}
+	}
+}
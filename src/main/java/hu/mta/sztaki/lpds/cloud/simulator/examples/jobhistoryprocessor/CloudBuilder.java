@@ -0,0 +1,227 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  (C) Copyright 2017, Gabor Kecskemeti (g.kecskemeti@ljmu.ac.uk)
+ */
+package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import hu.mta.sztaki.lpds.cloud.simulator.energy.powermodelling.PowerState;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.LatencyModel;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.IaaSService;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.PhysicalMachine;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.pmscheduling.PhysicalMachineController;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.vmscheduling.Scheduler;
+import hu.mta.sztaki.lpds.cloud.simulator.io.Repository;
+import hu.mta.sztaki.lpds.cloud.simulator.util.PowerTransitionGenerator;
+
+/**
+ * Constructs a set of equally sized, homogeneous clouds (as specified with
+ * the nodes@cores@clouds format of {@link JobDispatchingDemo}). The physical
+ * machines of all clouds are created in parallel on a fork-join pool, while
+ * everything that interacts with the simulation itself (e.g., the creation of
+ * the IaaS services with their schedulers and the registration of the hosts)
+ * is done on the thread calling {@link #build()}.
+ *
+ * The latencies of the generated clouds are not stored node by node, they are
+ * determined by a per cloud {@link LatencyModel}.
+ *
+ * The number of threads used can be set with the system property
+ * {@link #threadsProperty}. Setting it to 1 constructs the machines one after
+ * the other (in the order of their identifiers).
+ *
+ * @author "Gabor Kecskemeti, Department of Computer Science, Liverpool John
+ *         Moores University, (c) 2017"
+ */
+public class CloudBuilder {
+	public static final String threadsProperty = "hu.mta.sztaki.lpds.cloud.simulator.examples.builderThreads";
+	/**
+	 * The number of machines below which a construction task is not split
+	 * further
+	 */
+	private static final int chunkSize = 1024;
+
+	/**
+	 * Creates the physical machines of a cloud with indexes in the range of
+	 * [from, to). The task splits itself until the range is small enough.
+	 */
+	private static class MachineConstruction extends RecursiveAction {
+		private static final long serialVersionUID = 3016720475325958541L;
+		private final CloudSpec cloud;
+		private final int from;
+		private final int to;
+
+		MachineConstruction(final CloudSpec cloud, final int from, final int to) {
+			this.cloud = cloud;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > chunkSize) {
+				final int mid = (from + to) >>> 1;
+				invokeAll(new MachineConstruction(cloud, from, mid), new MachineConstruction(cloud, mid, to));
+			} else {
+				for (int i = from; i < to; i++) {
+					cloud.machines[i] = cloud.createMachine(i + 1);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Everything that is needed to create the machines of a single cloud.
+	 */
+	private class CloudSpec {
+		final String machineid;
+		final LatencyModel latencies;
+		final Map<String, PowerState> cpuTransitions;
+		final Map<String, PowerState> stTransitions;
+		final Map<String, PowerState> nwTransitions;
+		final PhysicalMachine[] machines = new PhysicalMachine[numofNodes];
+
+		CloudSpec(final String machineid, final LatencyModel latencies,
+				final Map<String, PowerState> cpuTransitions, final Map<String, PowerState> stTransitions,
+				final Map<String, PowerState> nwTransitions) {
+			this.machineid = machineid;
+			this.latencies = latencies;
+			this.cpuTransitions = cpuTransitions;
+			this.stTransitions = stTransitions;
+			this.nwTransitions = nwTransitions;
+		}
+
+		PhysicalMachine createMachine(final int num) {
+			final double pmBWRatio = Math.max(numofCores / 7f, 1);
+			return new PhysicalMachine(numofCores, 0.001, 256000000000l,
+					new Repository(5000000000000l, machineid + num, (long) (pmBWRatio * 250000),
+							(long) (pmBWRatio * 250000), (long) (pmBWRatio * 50000), latencies.latenciesFrom(num),
+							stTransitions, nwTransitions),
+					89000, 29000, cpuTransitions);
+		}
+	}
+
+	private final Class<? extends Scheduler> vmSched;
+	private final Class<? extends PhysicalMachineController> pmSched;
+	private final int numofClouds;
+	private final int numofNodes;
+	private final int numofCores;
+
+	/**
+	 * Prepares the construction of the clouds.
+	 *
+	 * @param vmSched
+	 *            the VM scheduler to be used in all clouds
+	 * @param pmSched
+	 *            the PM controller to be used in all clouds
+	 * @param numofClouds
+	 *            the number of clouds to build
+	 * @param numofNodes
+	 *            the number of physical machines in each cloud
+	 * @param numofCores
+	 *            the number of CPU cores in each physical machine
+	 */
+	public CloudBuilder(final Class<? extends Scheduler> vmSched,
+			final Class<? extends PhysicalMachineController> pmSched, final int numofClouds, final int numofNodes,
+			final int numofCores) {
+		this.vmSched = vmSched;
+		this.pmSched = pmSched;
+		this.numofClouds = numofClouds;
+		this.numofNodes = numofNodes;
+		this.numofCores = numofCores;
+	}
+
+	/**
+	 * Creates the clouds. Must be called from the thread that runs the
+	 * simulation.
+	 *
+	 * @return the IaaS services with all their hosts and repositories
+	 *         registered
+	 */
+	public List<IaaSService> build() throws IllegalArgumentException, SecurityException, InstantiationException,
+			IllegalAccessException, NoSuchFieldException {
+		final ArrayList<IaaSService> iaasList = new ArrayList<IaaSService>(numofClouds);
+		final ArrayList<CloudSpec> specs = new ArrayList<CloudSpec>(numofClouds);
+		final ArrayList<MachineConstruction> tasks = new ArrayList<MachineConstruction>(numofClouds);
+		for (int clid = 0; clid < numofClouds; clid++) {
+			System.err.println("Scaling datacenter to " + numofNodes + " nodes with " + numofCores + " cpu cores each");
+			final IaaSService iaas = new IaaSService(vmSched, pmSched);
+			final String repoid = clid + "VHStorageDell";
+			final String machineid = clid + "VHNode";
+			// Specification of the default power behavior
+			final EnumMap<PowerTransitionGenerator.PowerStateKind, Map<String, PowerState>> transitions = PowerTransitionGenerator
+					.generateTransitions(20, 296, 493, 50, 108);
+			final Map<String, PowerState> cpuTransitions = transitions.get(PowerTransitionGenerator.PowerStateKind.host);
+			final Map<String, PowerState> stTransitions = transitions
+					.get(PowerTransitionGenerator.PowerStateKind.storage);
+			final Map<String, PowerState> nwTransitions = transitions
+					.get(PowerTransitionGenerator.PowerStateKind.network);
+
+			// The repo is at index 0, the machines follow it with their own
+			// numbers. The repo is in a rack of its own: 5 ms latency between
+			// the repo and the machines, 3 ms between the machines themselves
+			final LatencyModel latencies = LatencyModel.perRack(LatencyModel.combinedNodes(
+					LatencyModel.listedNodes(repoid), LatencyModel.numberedNodes(machineid, 1, numofNodes)), 3, 5, 0, 1);
+
+			// scaling the bandwidth accroding to the size of the cloud
+			final double bwRatio = (numofCores * numofNodes) / (7f * 64f);
+			// A single repo will hold 36T of data
+			iaas.registerRepository(new Repository(36000000000000l, repoid, (long) (bwRatio * 1250000),
+					(long) (bwRatio * 1250000), (long) (bwRatio * 250000), latencies.latenciesFrom(0), stTransitions,
+					nwTransitions));
+
+			final CloudSpec spec = new CloudSpec(machineid, latencies, cpuTransitions, stTransitions,
+					nwTransitions);
+			specs.add(spec);
+			tasks.add(new MachineConstruction(spec, 0, numofNodes));
+			iaasList.add(iaas);
+		}
+
+		// Creating the PMs for all clouds
+		final int threads = Math.max(1,
+				Integer.getInteger(threadsProperty, Runtime.getRuntime().availableProcessors()));
+		final ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			pool.invoke(new RecursiveAction() {
+				private static final long serialVersionUID = -2264127150424733290L;
+
+				@Override
+				protected void compute() {
+					invokeAll(tasks);
+				}
+			});
+		} finally {
+			pool.shutdown();
+		}
+
+		// registering the hosts with the IaaS services on the caller's thread
+		for (int clid = 0; clid < numofClouds; clid++) {
+			iaasList.get(clid).bulkHostRegistration(Arrays.asList(specs.get(clid).machines));
+		}
+		return iaasList;
+	}
+}
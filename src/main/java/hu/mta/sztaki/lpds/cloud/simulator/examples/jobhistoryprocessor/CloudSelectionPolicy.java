@@ -0,0 +1,578 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  (C) Copyright 2017, Gabor Kecskemeti (g.kecskemeti@ljmu.ac.uk)
+ */
+package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.IaaSService;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.PhysicalMachine;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.VMManager;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.constraints.ResourceConstraints;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.vmscheduling.Scheduler;
+import hu.mta.sztaki.lpds.cloud.simulator.util.SeedSyncer;
+
+/**
+ * Decides which cloud should receive the next VM request of the dispatcher.
+ * 
+ * The following policies are available (by their names used in the
+ * {@link #policyProperty} system property):
+ * <ul>
+ * <li>roundrobin: the clouds are used one after the other (the default)
+ * <li>leastqueued: the cloud with the shortest VM queue is used
+ * <li>mostfree: the cloud with the most free CPU cores is used
+ * <li>twochoices: the shorter queued of two randomly picked clouds is used
+ * </ul>
+ * 
+ * The requests of a single job are spread over several clouds if the job
+ * does not fit into a single one. To ensure this, the clouds already used by
+ * the job are excluded from the selection.
+ * 
+ * @author "Gabor Kecskemeti, Department of Computer Science, Liverpool John
+ *         Moores University, (c) 2017"
+ */
+public abstract class CloudSelectionPolicy {
+	/**
+	 * The system property that can hold the name of the policy to use
+	 */
+	public static final String policyProperty = "hu.mta.sztaki.lpds.cloud.simulator.examples.cloudSelection";
+
+	/**
+	 * The clouds to select from
+	 */
+	protected final List<IaaSService> clouds;
+
+	protected CloudSelectionPolicy(final List<IaaSService> clouds) {
+		this.clouds = clouds;
+	}
+
+	/**
+	 * Picks the cloud for the next VM request
+	 * 
+	 * @param rc
+	 *            the resources needed for each VM (null if the VMs will be
+	 *            shaped after the cloud is selected)
+	 * @param count
+	 *            the number of VMs requested (0 if not yet known)
+	 * @param excluded
+	 *            the clouds that should not be selected (can be null)
+	 * @return the index of the selected cloud in the cloud list
+	 */
+	public abstract int select(ResourceConstraints rc, int count, BitSet excluded);
+
+	/**
+	 * Signals that the request was successfully sent to the selected cloud
+	 * 
+	 * @param cloud
+	 *            the index of the cloud that received the request
+	 * @param rc
+	 *            the resources needed for each VM
+	 * @param count
+	 *            the number of VMs requested
+	 */
+	public void requested(final int cloud, final ResourceConstraints rc, final int count) {
+		// Most policies do not care
+	}
+
+	/**
+	 * Signals that the policy is no longer used, so it should cancel its
+	 * subscriptions to the events of the clouds (if it has any).
+	 */
+	public void detach() {
+		// Most policies do not subscribe to anything
+	}
+
+	private static boolean isExcluded(final BitSet excluded, final int cloud) {
+		return excluded != null && excluded.get(cloud);
+	}
+
+	/**
+	 * Uses the clouds one after the other
+	 */
+	public static class RoundRobin extends CloudSelectionPolicy {
+		private int next = 0;
+
+		public RoundRobin(final List<IaaSService> clouds) {
+			super(clouds);
+		}
+
+		@Override
+		public int select(final ResourceConstraints rc, final int count, final BitSet excluded) {
+			int cloud = next;
+			for (int i = 0; i < clouds.size() && isExcluded(excluded, cloud); i++) {
+				cloud = (cloud + 1) % clouds.size();
+			}
+			return cloud;
+		}
+
+		@Override
+		public void requested(final int cloud, final ResourceConstraints rc, final int count) {
+			next = (cloud + 1) % clouds.size();
+		}
+	}
+
+	/**
+	 * Base of the policies that rank the clouds by some incrementally
+	 * maintained load figure. The clouds are organised in a tournament tree,
+	 * so the best cloud is known at any time, and a change of a single cloud
+	 * only updates the path from its leaf. A cloud is marked as changed
+	 * whenever the free capacity of one of its PMs changes (which is also the
+	 * case when a queued VM is placed), when its queue starts and when the
+	 * policy sends a request to it. The changed clouds are refreshed at the
+	 * next selection, as the schedulers only remove the placed VMs from their
+	 * queues after the capacity changes are signalled.
+	 */
+	protected static abstract class Tournament extends CloudSelectionPolicy {
+		/**
+		 * Follows the free capacity of a single PM
+		 */
+		private class MachineView implements VMManager.CapacityChangeEvent<ResourceConstraints> {
+			final int cloud;
+			final PhysicalMachine pm;
+			double lastFree;
+
+			MachineView(final int cloud, final PhysicalMachine pm) {
+				this.cloud = cloud;
+				this.pm = pm;
+				lastFree = pm.freeCapacities.getRequiredCPUs();
+				pm.subscribeToIncreasingFreeapacityChanges(this);
+				pm.subscribeToDecreasingFreeCapacityChanges(this);
+			}
+
+			void detach() {
+				pm.unsubscribeFromIncreasingFreeCapacityChanges(this);
+				pm.unsubscribeFromDecreasingFreeCapacityChanges(this);
+			}
+
+			@Override
+			public void capacityChanged(final ResourceConstraints newCapacity,
+					final List<ResourceConstraints> affectedCapacity) {
+				final double newFree = newCapacity.getRequiredCPUs();
+				final double change = newFree - lastFree;
+				lastFree = newFree;
+				freeCapacityChanged(cloud, change);
+				changed(cloud);
+			}
+		}
+
+		/**
+		 * Follows the queue of a single cloud
+		 */
+		private class QueueView implements Scheduler.QueueingEvent {
+			final int cloud;
+
+			QueueView(final int cloud) {
+				this.cloud = cloud;
+				clouds.get(cloud).sched.subscribeQueueingEvents(this);
+			}
+
+			void detach() {
+				clouds.get(cloud).sched.unsubscribeQueueingEvents(this);
+			}
+
+			@Override
+			public void queueingStarted() {
+				changed(cloud);
+			}
+		}
+
+		/**
+		 * The tournament tree: the leaves (from the index of the cloud count)
+		 * are the clouds, every inner node holds the better of its children
+		 */
+		private final int[] tree;
+		/**
+		 * The clouds temporarily removed from the tournament during a
+		 * selection
+		 */
+		private final boolean[] excludedNow;
+		/**
+		 * The clouds to refresh before the next selection
+		 */
+		private final int[] changedClouds;
+		private final boolean[] isChanged;
+		private int changedCount = 0;
+		/**
+		 * The subscriptions to the events of the clouds
+		 */
+		private final ArrayList<MachineView> machineViews = new ArrayList<MachineView>();
+		private final ArrayList<QueueView> queueViews = new ArrayList<QueueView>();
+
+		protected Tournament(final List<IaaSService> clouds) {
+			super(clouds);
+			tree = new int[2 * clouds.size()];
+			excludedNow = new boolean[clouds.size()];
+			changedClouds = new int[clouds.size()];
+			isChanged = new boolean[clouds.size()];
+		}
+
+		/**
+		 * Subscribes to the events of the clouds and builds the tree. Must be
+		 * called by the subclasses once their load figures are initialised.
+		 * 
+		 * @param followMachines
+		 *            should the free capacity changes of the PMs be followed
+		 * @param followQueues
+		 *            should the starts of the queues be followed
+		 */
+		protected void startFollowing(final boolean followMachines, final boolean followQueues) {
+			final int size = clouds.size();
+			for (int i = 0; i < size; i++) {
+				tree[size + i] = i;
+				if (followMachines) {
+					for (PhysicalMachine pm : clouds.get(i).machines) {
+						final MachineView view = new MachineView(i, pm);
+						machineViews.add(view);
+						freeCapacityChanged(i, view.lastFree);
+					}
+				}
+				if (followQueues) {
+					queueViews.add(new QueueView(i));
+				}
+			}
+			for (int i = size - 1; i > 0; i--) {
+				tree[i] = better(tree[2 * i], tree[2 * i + 1]);
+			}
+		}
+
+		/**
+		 * Decides if a cloud should be preferred over another one
+		 * 
+		 * @return true if cloud a is strictly better than cloud b
+		 */
+		protected abstract boolean prefers(int a, int b);
+
+		/**
+		 * Called when the free cores of a PM change in a cloud (and with the
+		 * initial free cores of all PMs)
+		 * 
+		 * @param cloud
+		 *            the index of the cloud of the PM
+		 * @param change
+		 *            the change in the free cores (positive if cores became
+		 *            free)
+		 */
+		protected void freeCapacityChanged(final int cloud, final double change) {
+			// Only matters for some policies
+		}
+
+		/**
+		 * Called before a selection for the clouds marked as changed, so
+		 * their loads can be read from the clouds
+		 * 
+		 * @param cloud
+		 *            the index of the cloud
+		 */
+		protected void refresh(final int cloud) {
+			// Only matters for some policies
+		}
+
+		/**
+		 * Marks a cloud to be refreshed before the next selection
+		 * 
+		 * @param cloud
+		 *            the index of the cloud
+		 */
+		protected void changed(final int cloud) {
+			if (!isChanged[cloud]) {
+				isChanged[cloud] = true;
+				changedClouds[changedCount++] = cloud;
+			}
+		}
+
+		/**
+		 * Picks the better of two clouds, the one with the lower index if
+		 * they are equally good
+		 */
+		private int better(final int a, final int b) {
+			if (excludedNow[a]) {
+				return b;
+			}
+			if (excludedNow[b]) {
+				return a;
+			}
+			return prefers(b, a) || !prefers(a, b) && b < a ? b : a;
+		}
+
+		/**
+		 * Updates the tree after the load of a cloud has changed
+		 * 
+		 * @param cloud
+		 *            the index of the cloud
+		 */
+		private void update(final int cloud) {
+			for (int i = (cloud + clouds.size()) / 2; i > 0; i /= 2) {
+				tree[i] = better(tree[2 * i], tree[2 * i + 1]);
+			}
+		}
+
+		@Override
+		public void detach() {
+			for (MachineView view : machineViews) {
+				view.detach();
+			}
+			machineViews.clear();
+			for (QueueView view : queueViews) {
+				view.detach();
+			}
+			queueViews.clear();
+		}
+
+		/**
+		 * Picks the best cloud. The excluded clouds are removed from the
+		 * tournament for the time of the selection, so the selection costs
+		 * O(excluded * log clouds).
+		 */
+		@Override
+		public int select(final ResourceConstraints rc, final int count, final BitSet excluded) {
+			if (clouds.size() == 1) {
+				return 0;
+			}
+			while (changedCount > 0) {
+				final int cloud = changedClouds[--changedCount];
+				isChanged[cloud] = false;
+				refresh(cloud);
+				update(cloud);
+			}
+			if (excluded == null || excluded.isEmpty()) {
+				return tree[1];
+			}
+			for (int i = excluded.nextSetBit(0); i >= 0; i = excluded.nextSetBit(i + 1)) {
+				excludedNow[i] = true;
+				update(i);
+			}
+			final int best = tree[1];
+			for (int i = excluded.nextSetBit(0); i >= 0; i = excluded.nextSetBit(i + 1)) {
+				excludedNow[i] = false;
+				update(i);
+			}
+			return best;
+		}
+	}
+
+	/**
+	 * Uses the cloud with the shortest VM queue. The queue lengths of the
+	 * changed clouds are read from the schedulers (which is a constant time
+	 * operation), clouds with the same queue length are used in a round robin
+	 * fashion (the least recently used first).
+	 * 
+	 * Requests sent to a cloud by others while the cloud's queue is not empty
+	 * are only noticed at the next event of that cloud.
+	 */
+	public static class LeastQueued extends Tournament {
+		private final int[] queues;
+		/**
+		 * When the clouds received their last request (in the number of
+		 * requests sent by the policy)
+		 */
+		private final long[] lastUse;
+		private long requests = 0;
+
+		public LeastQueued(final List<IaaSService> clouds) {
+			super(clouds);
+			queues = new int[clouds.size()];
+			lastUse = new long[clouds.size()];
+			for (int i = 0; i < queues.length; i++) {
+				queues[i] = clouds.get(i).sched.getQueueLength();
+			}
+			startFollowing(true, true);
+		}
+
+		@Override
+		protected boolean prefers(final int a, final int b) {
+			return queues[a] < queues[b] || queues[a] == queues[b] && lastUse[a] < lastUse[b];
+		}
+
+		@Override
+		protected void refresh(final int cloud) {
+			queues[cloud] = clouds.get(cloud).sched.getQueueLength();
+		}
+
+		@Override
+		public void requested(final int cloud, final ResourceConstraints rc, final int count) {
+			lastUse[cloud] = ++requests;
+			changed(cloud);
+		}
+	}
+
+	/**
+	 * Uses the cloud with the most free CPU cores. The free cores of the
+	 * clouds are updated whenever the free capacity of one of their PMs
+	 * changes.
+	 * 
+	 * The cores of the VMs requested by the policy are reserved until the VMs
+	 * are placed on the PMs of their cloud, so the requests sent during a
+	 * burst (when the VMs are queued) do not all go to the same cloud. The
+	 * placements reduce the free cores of the cloud, and thus they release the
+	 * reservations of the cloud. Placements that happen while the request is
+	 * sent (i.e., before the policy is notified about it) release the
+	 * reservation of the request right away. The reservations of a cloud are
+	 * dropped once its queue becomes empty.
+	 */
+	public static class MostFreeCapacity extends Tournament {
+		/**
+		 * The free cores of every cloud
+		 */
+		private final double[] freeCores;
+		/**
+		 * The cores of the queued VMs requested by the policy
+		 */
+		private final double[] reservedCores;
+		/**
+		 * The cores placed since the last selection of a cloud that did not
+		 * belong to a reservation (they are likely the VMs of the request just
+		 * being sent)
+		 */
+		private final double[] unreservedPlacements;
+
+		public MostFreeCapacity(final List<IaaSService> clouds) {
+			super(clouds);
+			freeCores = new double[clouds.size()];
+			reservedCores = new double[clouds.size()];
+			unreservedPlacements = new double[clouds.size()];
+			startFollowing(true, false);
+		}
+
+		@Override
+		protected boolean prefers(final int a, final int b) {
+			return freeCores[a] - reservedCores[a] > freeCores[b] - reservedCores[b];
+		}
+
+		@Override
+		protected void freeCapacityChanged(final int cloud, final double change) {
+			freeCores[cloud] += change;
+			if (change < 0) {
+				final double placed = Math.min(reservedCores[cloud], -change);
+				reservedCores[cloud] -= placed;
+				unreservedPlacements[cloud] -= change + placed;
+			}
+		}
+
+		@Override
+		protected void refresh(final int cloud) {
+			if (clouds.get(cloud).sched.getQueueLength() == 0) {
+				reservedCores[cloud] = 0;
+			}
+		}
+
+		@Override
+		public int select(final ResourceConstraints rc, final int count, final BitSet excluded) {
+			final int cloud = super.select(rc, count, excluded);
+			unreservedPlacements[cloud] = 0;
+			return cloud;
+		}
+
+		@Override
+		public void requested(final int cloud, final ResourceConstraints rc, final int count) {
+			if (clouds.get(cloud).sched.getQueueLength() == 0) {
+				// Everything is placed already
+				reservedCores[cloud] = 0;
+			} else {
+				final double cores = rc.getRequiredCPUs() * count;
+				final double placed = Math.min(unreservedPlacements[cloud], cores);
+				reservedCores[cloud] += cores - placed;
+			}
+			unreservedPlacements[cloud] = 0;
+			changed(cloud);
+		}
+	}
+
+	/**
+	 * Picks two clouds randomly and uses the one with the shorter VM queue
+	 * ("power of two choices"). The queue lengths are queried from the
+	 * schedulers directly.
+	 */
+	public static class TwoChoices extends CloudSelectionPolicy {
+		public TwoChoices(final List<IaaSService> clouds) {
+			super(clouds);
+		}
+
+		/**
+		 * Determines the cloud at a given position among the clouds that are
+		 * not excluded. Only the excluded clouds are visited.
+		 * 
+		 * @param excluded
+		 *            the clouds that should not be selected (can be null)
+		 * @param nth
+		 *            the position of the cloud among the not excluded ones
+		 * @return the index of the cloud in the cloud list
+		 */
+		private static int nthAvailable(final BitSet excluded, int nth) {
+			if (excluded != null) {
+				for (int i = excluded.nextSetBit(0); i >= 0 && i <= nth; i = excluded.nextSetBit(i + 1)) {
+					nth++;
+				}
+			}
+			return nth;
+		}
+
+		@Override
+		public int select(final ResourceConstraints rc, final int count, final BitSet excluded) {
+			final int available = clouds.size() - (excluded == null ? 0 : excluded.cardinality());
+			final int firstPos = SeedSyncer.centralRnd.nextInt(available);
+			final int first = nthAvailable(excluded, firstPos);
+			if (available == 1) {
+				return first;
+			}
+			// The second one is picked from the rest of the available clouds
+			int secondPos = SeedSyncer.centralRnd.nextInt(available - 1);
+			if (secondPos >= firstPos) {
+				secondPos++;
+			}
+			final int second = nthAvailable(excluded, secondPos);
+			return clouds.get(second).sched.getQueueLength() < clouds.get(first).sched.getQueueLength() ? second
+					: first;
+		}
+	}
+
+
+	/**
+	 * Creates a policy by its name (see the class documentation)
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if there is no such policy
+	 */
+	public static CloudSelectionPolicy forName(final String name, final List<IaaSService> clouds) {
+		switch (name) {
+		case "roundrobin":
+			return new RoundRobin(clouds);
+		case "leastqueued":
+			return new LeastQueued(clouds);
+		case "mostfree":
+			return new MostFreeCapacity(clouds);
+		case "twochoices":
+			return new TwoChoices(clouds);
+		default:
+			throw new IllegalArgumentException("Unknown cloud selection policy: " + name);
+		}
+	}
+
+	/**
+	 * Creates the policy named in the {@link #policyProperty} system property
+	 * (round robin if it is not set)
+	 */
+	public static CloudSelectionPolicy fromSystemProperties(final List<IaaSService> clouds) {
+		return forName(System.getProperty(policyProperty, "roundrobin"), clouds);
+	}
+}
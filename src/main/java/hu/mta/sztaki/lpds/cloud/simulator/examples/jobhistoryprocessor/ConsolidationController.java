@@ -1,12 +1,10 @@
 package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Properties;
+import java.util.Map;
 
 import hu.mta.sztaki.lpds.cloud.simulator.iaas.vmconsolidation.AbcConsolidator;
 import hu.mta.sztaki.lpds.cloud.simulator.iaas.vmconsolidation.GaConsolidator;
@@ -22,26 +20,37 @@ import hu.mta.sztaki.lpds.cloud.simulator.iaas.vmconsolidation.PsoConsolidator;
  *         consolidation of some algorithms.
  */
 public class ConsolidationController {
+	/**
+	 * Receives the parameter combinations the test cases produce
+	 */
+	public interface PointHandler {
+		/**
+		 * Called for every combination
+		 * 
+		 * @param consType
+		 *            the class name of the consolidator to be configured
+		 * @param config
+		 *            the consolidator configuration of the combination
+		 */
+		void handle(String consType, ConsolidatorConfiguration config);
+	}
+
 	private int propCounter = 0;
-	Properties props; // the properties-file, contains the constants of the pso-, abc- and
-						// ga-consolidator
-
-	private String psoDefaultSwarmSize = "20";
-	private String psoDefaultNrIterations = "50";
-	private String psoDefaultC1 = "2";
-	private String psoDefaultC2 = "2";
-	private String abcDefaultPopulationSize = "10";
-	private String abcDefaultNrIterations = "50";
-	private String abcDefaultLimitTrials = "5";
-	private String gaDefaultPopulationSize = "10";
-	private String gaDefaultNrIterations = "50";
-	private String gaDefaultNrCrossovers = "10";
-	private String upperThreshold = "1.0";
-	private String lowerThreshold = "0.25";
-	private String mutationProb = "0.2";
-	private String seed = "123";
-	private String doLocalSearch2 = "false";
-	private String doLocalSearch1 = "false";
+	/**
+	 * By default the combinations are saved in numbered properties files
+	 */
+	private PointHandler pointHandler = new PointHandler() {
+		@Override
+		public void handle(final String consType, final ConsolidatorConfiguration config) {
+			try {
+				config.storeToXML(new File(consType + "-consolidationProperties" + propCounter++ + ".xml"), null);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	};
+	ConsolidatorConfiguration config; // contains the constants of the pso-, abc- and
+										// ga-consolidator
 
 	public static void main(String[] args) throws IOException {
 		new ConsolidationController().runTestcaseOne(false);
@@ -49,36 +58,41 @@ public class ConsolidationController {
 
 	/**
 	 * Sets all default values (which are the origin ones) and reads the
-	 * properties-file. The file is saved in .xml in the root of the simulator.
+	 * properties-file if there is one. The file is saved in .xml in the root of
+	 * the simulator, only its properties unknown to
+	 * {@link ConsolidatorConfiguration} are kept.
 	 * 
-	 * @param trace
-	 *            The location of the trace-file.
 	 * @throws IOException
 	 */
 	public ConsolidationController() throws IOException {
-
-		props = new Properties();
 		File file = new File("consolidationProperties.xml");
-		FileInputStream fileInput = new FileInputStream(file);
-		props.loadFromXML(fileInput);
-		fileInput.close();
-
-		// set the default values
-
-		props.setProperty("upperThreshold", upperThreshold);
-		props.setProperty("lowerThreshold", lowerThreshold);
-		props.setProperty("mutationProb", mutationProb);
-		props.setProperty("seed", seed);
-		props.setProperty("doLocalSearch1", doLocalSearch1);
-		props.setProperty("doLocalSearch2", doLocalSearch2);
-		
-		setPsoProperties(psoDefaultSwarmSize, psoDefaultNrIterations, psoDefaultC1, psoDefaultC2, doLocalSearch1, 
-				doLocalSearch2, lowerThreshold, true);
-		setAbcProperties(abcDefaultPopulationSize, abcDefaultNrIterations, abcDefaultLimitTrials, mutationProb,
-				doLocalSearch1, doLocalSearch2, lowerThreshold, true);
-		setGaProperties(gaDefaultPopulationSize, gaDefaultNrIterations, gaDefaultNrCrossovers, mutationProb, 
-				doLocalSearch1, doLocalSearch2, lowerThreshold, true);
+		final ConsolidatorConfiguration.Builder builder = new ConsolidatorConfiguration.Builder();
+		if (file.exists()) {
+			for (Map.Entry<String, String> e : ConsolidatorConfiguration.loadFromXML(file).others.entrySet()) {
+				builder.setOther(e.getKey(), e.getValue());
+			}
+		}
+		// the builder starts with the default values
+		config = builder.build();
+	}
+
+	/**
+	 * The configuration of the last combination produced (or the defaults if
+	 * no test case was run yet)
+	 */
+	public ConsolidatorConfiguration getConfiguration() {
+		return config;
+	}
 
+	/**
+	 * Replaces what happens with the parameter combinations of the test cases
+	 * (e.g., they can be run directly instead of being saved).
+	 * 
+	 * @param handler
+	 *            receives the combinations
+	 */
+	public void setPointHandler(final PointHandler handler) {
+		pointHandler = handler;
 	}
 
 	/**
@@ -196,14 +210,7 @@ public class ConsolidationController {
 									continue;
 								}									
 								for (double seventh : lowerThresholdValues) {
-									setPsoProperties(
-											psoSwarmSizeValues.get(psoSwarmSizeValues.indexOf(first)).toString(),
-											psoNrIterationsValues.get(psoNrIterationsValues.indexOf(second)).toString(),
-											psoC1Values.get(psoC1Values.indexOf(third)).toString(),
-											psoC2Values.get(psoC2Values.indexOf(fourth)).toString(),
-											doLocalSearch1Values.get(doLocalSearch1Values.indexOf(fifth)).toString(),
-											doLocalSearch2Values.get(doLocalSearch2Values.indexOf(sixth)).toString(),
-											Double.toString(seventh), false);
+									setPsoProperties(first, second, third, fourth, fifth, sixth, seventh, false);
 									if (!fifth && !sixth) // if no local search -> value of lowerThreshold plays no role -> there is
 										// no point in testing more than one value
 										break;
@@ -228,15 +235,7 @@ public class ConsolidationController {
 									continue;
 								}	
 								for (double seventh : lowerThresholdValues) {
-									setGaProperties(
-											gaPopulationSizeValues.get(gaPopulationSizeValues.indexOf(first)).toString(),
-											gaNrIterationsValues.get(gaNrIterationsValues.indexOf(second)).toString(),
-											gaNrCrossoversValues.get(gaNrCrossoversValues.indexOf(third)).toString(),
-											gaMutationProbValues.get(gaMutationProbValues.indexOf(fourth)).toString(),
-											doLocalSearch1Values.get(doLocalSearch1Values.indexOf(fifth)).toString(),
-											doLocalSearch2Values.get(doLocalSearch2Values.indexOf(sixth)).toString(),
-											lowerThresholdValues.get(lowerThresholdValues.indexOf(seventh)).toString(),
-											false);
+									setGaProperties(first, second, third, fourth, fifth, sixth, seventh, false);
 
 									if (!fifth && !sixth) // if no local search -> value of lowerThreshold plays no role -> there is
 										// no point in testing more than one value
@@ -262,15 +261,7 @@ public class ConsolidationController {
 									continue;
 								}	
 								for (double seventh : lowerThresholdValues) {
-									setAbcProperties(
-											abcPopulationSizeValues.get(abcPopulationSizeValues.indexOf(first)).toString(),
-											abcNrIterationsValues.get(abcNrIterationsValues.indexOf(second)).toString(),
-											abcLimitTrialsValues.get(abcLimitTrialsValues.indexOf(third)).toString(),
-											abcMutationProbValues.get(abcMutationProbValues.indexOf(fourth)).toString(),
-											doLocalSearch1Values.get(doLocalSearch1Values.indexOf(fifth)).toString(),
-											doLocalSearch2Values.get(doLocalSearch2Values.indexOf(sixth)).toString(),
-											lowerThresholdValues.get(lowerThresholdValues.indexOf(seventh)).toString(),
-											false);
+									setAbcProperties(first, second, third, fourth, fifth, sixth, seventh, false);
 									if (!fifth && !sixth) // if no local search -> value of lowerThreshold plays no role -> there is
 										// no point in testing more than one value
 										break;
@@ -303,16 +294,11 @@ public class ConsolidationController {
 	 * @param noWrite
 	 * 			  	Determines if the properties shall be saved.
 	 */
-	private void setPsoProperties(String swarmSize, String iterations, String c1, String c2, String doLocalSearch1,
-			String doLocalSearch2, String lowerThreshold, boolean noWrite) {
+	private void setPsoProperties(int swarmSize, int iterations, int c1, int c2, boolean doLocalSearch1,
+			boolean doLocalSearch2, double lowerThreshold, boolean noWrite) {
 
-		props.setProperty("psoSwarmSize", swarmSize);
-		props.setProperty("psoNrIterations", iterations);
-		props.setProperty("psoC1", c1);
-		props.setProperty("psoC2", c2);
-		props.setProperty("doLocalSearch1", doLocalSearch1);
-		props.setProperty("doLocalSearch2", doLocalSearch2);
-		props.setProperty("lowerThreshold", lowerThreshold);
+		config = config.toBuilder().setPso(swarmSize, iterations, c1, c2).setDoLocalSearch1(doLocalSearch1)
+				.setDoLocalSearch2(doLocalSearch2).setLowerThreshold(lowerThreshold).build();
 
 		this.saveProps(PsoConsolidator.class.getName(), noWrite);
 	}
@@ -338,16 +324,12 @@ public class ConsolidationController {
 	 * @param noWrite
 	 * 			  	Determines if the properties shall be saved.
 	 */
-	private void setAbcProperties(String populationSize, String iterations, String limitTrials, String mutationProb,
-			String doLocalSearch1, String doLocalSearch2, String lowerThreshold, boolean noWrite) {
+	private void setAbcProperties(int populationSize, int iterations, int limitTrials, double mutationProb,
+			boolean doLocalSearch1, boolean doLocalSearch2, double lowerThreshold, boolean noWrite) {
 
-		props.setProperty("abcPopulationSize", populationSize);
-		props.setProperty("abcNrIterations", iterations);
-		props.setProperty("abcLimitTrials", limitTrials);
-		props.setProperty("mutationProb", mutationProb);
-		props.setProperty("doLocalSearch1", doLocalSearch1);
-		props.setProperty("doLocalSearch2", doLocalSearch2);
-		props.setProperty("lowerThreshold", lowerThreshold);
+		config = config.toBuilder().setAbc(populationSize, iterations, limitTrials).setMutationProb(mutationProb)
+				.setDoLocalSearch1(doLocalSearch1).setDoLocalSearch2(doLocalSearch2).setLowerThreshold(lowerThreshold)
+				.build();
 
 		this.saveProps(AbcConsolidator.class.getName(), noWrite);
 	}
@@ -373,39 +355,28 @@ public class ConsolidationController {
 	 * 				Determines if the properties shall be saved.
 	 * 			  
 	 */
-	private void setGaProperties(String populationSize, String iterations, String crossovers, String mutationProb,
-			String doLocalSearch1, String doLocalSearch2, String lowerThreshold, boolean noWrite) {
+	private void setGaProperties(int populationSize, int iterations, int crossovers, double mutationProb,
+			boolean doLocalSearch1, boolean doLocalSearch2, double lowerThreshold, boolean noWrite) {
 
-		props.setProperty("gaPopulationSize", populationSize);
-		props.setProperty("gaNrIterations", iterations);
-		props.setProperty("gaNrCrossovers", crossovers);
-		props.setProperty("mutationProb", mutationProb);
-		props.setProperty("doLocalSearch1", doLocalSearch1);
-		props.setProperty("doLocalSearch2", doLocalSearch2);
-		props.setProperty("lowerThreshold", lowerThreshold);
+		config = config.toBuilder().setGa(populationSize, iterations, crossovers).setMutationProb(mutationProb)
+				.setDoLocalSearch1(doLocalSearch1).setDoLocalSearch2(doLocalSearch2).setLowerThreshold(lowerThreshold)
+				.build();
 
 		this.saveProps(GaConsolidator.class.getName(), noWrite);
 	}
 
 	/**
-	 * Saves the properties in the data after changing them.
+	 * Passes the configuration to the point handler after changing it.
 	 * 
 	 * @param consType
 	 * 				The type of the consolidator.
 	 * @param noWrite
-	 * 				If true, the properties do not get stored.
+	 * 				If true, the properties are not passed on.
 	 */
 	private void saveProps(String consType, boolean noWrite) {
 		if (noWrite)
 			return;
-		try {
-			FileOutputStream fileOutput = new FileOutputStream(
-					new File(consType + "-consolidationProperties" + propCounter++ + ".xml"));
-			props.storeToXML(fileOutput, null);
-			fileOutput.close();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		pointHandler.handle(consType, config);
 	}
 
 }
@@ -0,0 +1,396 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  (C) Copyright 2017, Gabor Kecskemeti (g.kecskemeti@ljmu.ac.uk)
+ */
+package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the parameter combinations of {@link ConsolidationController} as
+ * separate simulations. As the simulator keeps its state in static fields,
+ * every combination is simulated by {@link JobDispatchingDemo} in its own
+ * worker process. The processes run in parallel (by default as many as there
+ * are cores), each in a directory of its own that holds the
+ * consolidationProperties.xml of the combination, the output of the demo
+ * and its monitoring data.
+ * 
+ * The results of all combinations are collected in a single csv file, one
+ * row per combination as soon as it is completed. If the file already
+ * exists, the sweep is resumed: the combinations with an ok row in the file
+ * are not simulated again (the failed ones are, and get a new row).
+ * 
+ * @author "Gabor Kecskemeti, Department of Computer Science, Liverpool John
+ *         Moores University, (c) 2017"
+ */
+public class ConsolidationSweep {
+	public static final String propertyPrefix = "hu.mta.sztaki.lpds.cloud.simulator.examples.";
+	/**
+	 * The number of worker processes to run at once
+	 */
+	public static final String workersProperty = propertyPrefix + "sweep.workers";
+	/**
+	 * If set, only the default parameters of the consolidators are simulated
+	 */
+	public static final String testProperty = propertyPrefix + "sweep.test";
+	/**
+	 * Additional (space separated) JVM arguments for the worker processes,
+	 * e.g., -Xmx2g
+	 */
+	public static final String jvmArgsProperty = propertyPrefix + "sweep.jvmArgs";
+	/**
+	 * The results collected for each combination (in the order of the csv
+	 * columns) and the keys they are read from in the demo's summary
+	 */
+	private static final String[] resultColumns = { "EnergyKWh", "Migrations", "SimulatedTimespan", "RealTime" };
+	private static final String[] summaryKeys = { "energyKWh", "migrations", "simulatedTimespan", "realTime" };
+
+	private final File results;
+	private final File runsDir;
+	private final String[] demoArgs;
+	private final List<String> command = workerCommand();
+	/**
+	 * The combinations with an ok row in the results file
+	 */
+	private final HashSet<Integer> done = new HashSet<Integer>();
+	private BufferedWriter out;
+	/**
+	 * The names of the consolidator properties in the order of their columns
+	 */
+	private String[] paramNames;
+	private int points = 0, simulated = 0, failed = 0;
+
+	/**
+	 * Prepares the sweep, reading the results of an earlier interrupted sweep
+	 * if there are any.
+	 * 
+	 * @param results
+	 *            the csv file to collect the results in
+	 * @param demoArgs
+	 *            the arguments of {@link JobDispatchingDemo} for every
+	 *            combination
+	 * @throws IOException
+	 *             if the earlier results cannot be read
+	 */
+	public ConsolidationSweep(final String results, final String[] demoArgs) throws IOException {
+		this.results = new File(results).getAbsoluteFile();
+		runsDir = new File(this.results.getPath() + ".runs");
+		this.demoArgs = absoluteArgs(demoArgs);
+		if (this.results.exists()) {
+			try (BufferedReader br = new BufferedReader(new FileReader(this.results))) {
+				final String header = br.readLine();
+				final int status = header == null ? -1 : header.split(",").length - resultColumns.length - 1;
+				String line;
+				while ((line = br.readLine()) != null) {
+					final String[] cols = line.split(",");
+					if (status > 0 && cols.length > status && "ok".equals(cols[status])) {
+						done.add(Integer.parseInt(cols[0]));
+					}
+				}
+			}
+			System.err.println("Resuming the sweep, " + done.size() + " combinations are already simulated");
+		}
+	}
+
+	/**
+	 * Runs all combinations not yet simulated and waits for their completion
+	 * 
+	 * @param test
+	 *            should only the default parameters be simulated
+	 * @param workers
+	 *            the number of worker processes to run at once
+	 */
+	public void run(final boolean test, final int workers) throws IOException, InterruptedException {
+		runsDir.mkdirs();
+		final boolean resumed = results.exists();
+		out = new BufferedWriter(new FileWriter(results, true));
+		final ExecutorService pool = Executors.newFixedThreadPool(workers);
+		// Limits the number of combinations waiting for a worker
+		final Semaphore pending = new Semaphore(workers * 2);
+		final ConsolidationController controller = new ConsolidationController();
+		controller.setPointHandler(new ConsolidationController.PointHandler() {
+			@Override
+			public void handle(final String consType, final ConsolidatorConfiguration config) {
+				final int point = points++;
+				if (paramNames == null) {
+					paramNames = new TreeSet<String>(config.toProperties().stringPropertyNames())
+							.toArray(new String[0]);
+					if (!resumed) {
+						writeHeader();
+					}
+				}
+				if (done.contains(point)) {
+					return;
+				}
+				if (simulated++ == 0) {
+					// The first run prepares the trace cache, the rest can
+					// use it in parallel
+					simulate(point, consType, config);
+					return;
+				}
+				pending.acquireUninterruptibly();
+				pool.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							simulate(point, consType, config);
+						} finally {
+							pending.release();
+						}
+					}
+				});
+			}
+		});
+		try {
+			controller.runTestcaseOne(test);
+		} finally {
+			pool.shutdown();
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			out.close();
+		}
+		System.err.println("Sweep completed: " + points + " combinations, " + simulated + " simulated now, "
+				+ failed + " failed");
+	}
+
+	private synchronized void writeHeader() {
+		final StringBuilder sb = new StringBuilder("Point,Consolidator");
+		for (String p : paramNames) {
+			sb.append(',').append(p);
+		}
+		sb.append(",Status");
+		for (String c : resultColumns) {
+			sb.append(',').append(c);
+		}
+		writeRow(sb);
+	}
+
+	private synchronized void writeRow(final StringBuilder row) {
+		try {
+			out.write(row.append('\n').toString());
+			// Every completed combination is kept even if the sweep is
+			// interrupted
+			out.flush();
+		} catch (IOException e) {
+			throw new RuntimeException("Could not write the sweep results", e);
+		}
+	}
+
+	/**
+	 * Simulates a single combination in a worker process and records its
+	 * results
+	 */
+	private void simulate(final int point, final String consType, final ConsolidatorConfiguration config) {
+		final File dir = new File(runsDir, Integer.toString(point));
+		Properties res = null;
+		try {
+			res = runWorker(command, dir, consType, config, demoArgs);
+		} catch (IOException e) {
+			System.err.println("Could not simulate combination " + point + ": " + e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		final boolean ok = res != null;
+		if (!ok) {
+			res = new Properties();
+		}
+		final StringBuilder row = new StringBuilder();
+		row.append(point).append(',').append(consType);
+		final Properties props = config.toProperties();
+		for (String p : paramNames) {
+			row.append(',').append(props.getProperty(p, ""));
+		}
+		row.append(',').append(ok ? "ok" : "failed");
+		for (String k : summaryKeys) {
+			row.append(',').append(res.getProperty(k, ""));
+		}
+		writeRow(row);
+		if (!ok) {
+			synchronized (this) {
+				failed++;
+			}
+			System.err.println("Combination " + point + " failed, see " + new File(dir, "output.log"));
+		}
+	}
+
+	/**
+	 * Makes the file names amongst the arguments absolute, as the workers run
+	 * in other directories
+	 */
+	static String[] absoluteArgs(final String[] args) {
+		final String[] abs = args.clone();
+		for (int i = 0; i < abs.length; i++) {
+			final File f = new File(abs[i]);
+			if (f.exists()) {
+				abs[i] = f.getAbsolutePath();
+			}
+		}
+		return abs;
+	}
+
+	/**
+	 * Prepares the command line that starts the JVM of a worker process. The
+	 * workers get the same simulation settings (system properties) as the
+	 * current JVM.
+	 */
+	static List<String> workerCommand() {
+		final List<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		final String jvmArgs = System.getProperty(jvmArgsProperty);
+		if (jvmArgs != null) {
+			for (String arg : jvmArgs.trim().split("\\s+")) {
+				command.add(arg);
+			}
+		}
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		for (Map.Entry<Object, Object> p : System.getProperties().entrySet()) {
+			final String key = p.getKey().toString();
+			if (key.startsWith(propertyPrefix) && !key.startsWith(propertyPrefix + "sweep.")
+					&& !key.startsWith(propertyPrefix + "tune.")
+					&& !key.startsWith(propertyPrefix + "ensemble.")) {
+				command.add("-D" + key + "=" + p.getValue());
+			}
+		}
+		return command;
+	}
+
+	/**
+	 * Simulates a single combination with {@link JobDispatchingDemo} in a
+	 * worker process.
+	 * 
+	 * @param command
+	 *            the JVM command line of the worker (see
+	 *            {@link #workerCommand()})
+	 * @param dir
+	 *            the working directory of the worker, it receives the
+	 *            consolidationProperties.xml of the combination, the output of
+	 *            the demo and its monitoring data
+	 * @param consType
+	 *            the class name of the consolidator
+	 * @param config
+	 *            the configuration of the consolidator
+	 * @param demoArgs
+	 *            the arguments of the demo
+	 * @return the summary written by the demo or null if the simulation
+	 *         failed
+	 * @throws IOException
+	 *             if the worker could not be set up
+	 */
+	static Properties runWorker(final List<String> command, final File dir, final String consType,
+			final ConsolidatorConfiguration config, final String[] demoArgs) throws IOException, InterruptedException {
+		dir.mkdirs();
+		// The consolidators read their parameters from the working
+		// directory
+		config.storeToXML(new File(dir, "consolidationProperties.xml"), null);
+		final List<String> cmd = new ArrayList<String>(command);
+		cmd.add("-D" + propertyPrefix + "consolidator=" + consType);
+		return runDemo(cmd, dir, demoArgs);
+	}
+
+	/**
+	 * Runs {@link JobDispatchingDemo} in a worker process. If the calling
+	 * thread is interrupted while waiting for the worker, the worker is
+	 * killed.
+	 * 
+	 * @param command
+	 *            the JVM command line of the worker with all the simulation
+	 *            specific system properties
+	 * @param dir
+	 *            the working directory of the worker, it receives the output
+	 *            of the demo and its monitoring data
+	 * @param demoArgs
+	 *            the arguments of the demo
+	 * @return the summary written by the demo or null if the simulation
+	 *         failed
+	 * @throws IOException
+	 *             if the worker could not be started
+	 */
+	static Properties runDemo(final List<String> command, final File dir, final String[] demoArgs)
+			throws IOException, InterruptedException {
+		final File summary = new File(dir, "summary.properties");
+		dir.mkdirs();
+		summary.delete();
+		final List<String> cmd = new ArrayList<String>(command);
+		cmd.add("-D" + JobDispatchingDemo.summaryProperty + "=" + summary.getAbsolutePath());
+		cmd.add("-D" + MonitoringConfiguration.outputProperty + "=" + new File(dir, "monitoring").getAbsolutePath());
+		cmd.add(JobDispatchingDemo.class.getName());
+		for (String arg : demoArgs) {
+			cmd.add(arg);
+		}
+		final Process p = new ProcessBuilder(cmd).directory(dir).redirectErrorStream(true)
+				.redirectOutput(new File(dir, "output.log")).start();
+		try {
+			if (p.waitFor() != 0 || !summary.exists()) {
+				return null;
+			}
+		} catch (InterruptedException e) {
+			p.destroy();
+			throw e;
+		}
+		final Properties res = new Properties();
+		try (FileInputStream fis = new FileInputStream(summary)) {
+			res.load(fis);
+		}
+		return res;
+	}
+
+	/**
+	 * Expected parameters: the results file of the sweep followed by the
+	 * parameters of {@link JobDispatchingDemo} (used for every combination).
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 4) {
+			System.out.println("Expected parameters:");
+			System.out.println("1. The csv file to collect (and resume) the results in");
+			System.out.println("2-5. The parameters of JobDispatchingDemo for every simulation");
+			System.out.println("Supported system properties:");
+			System.out.println(workersProperty);
+			System.out.println("\tThe number of parallel worker processes (default: the number of cores)");
+			System.out.println(testProperty);
+			System.out.println("\tOnly simulate the default consolidator parameters");
+			System.out.println(jvmArgsProperty);
+			System.out.println("\tSpace separated JVM arguments for the worker processes");
+			System.out.println("All other " + propertyPrefix + "* properties are passed to the workers");
+			System.exit(0);
+		}
+		final String[] demoArgs = new String[args.length - 1];
+		System.arraycopy(args, 1, demoArgs, 0, demoArgs.length);
+		final int workers = Integer.parseInt(System.getProperty(workersProperty,
+				Integer.toString(Runtime.getRuntime().availableProcessors())));
+		new ConsolidationSweep(args[0], demoArgs).run(System.getProperty(testProperty) != null, workers);
+	}
+}
@@ -0,0 +1,369 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  (C) Copyright 2017, Gabor Kecskemeti (g.kecskemeti@ljmu.ac.uk)
+ */
+package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tunes the parameters of the consolidators with successive halving instead
+ * of simulating the full grids of {@link ConsolidationController}.
+ * 
+ * For every consolidator, a random sample of the combinations of the
+ * controller's grid is taken. All sampled combinations are simulated with a
+ * short prefix of the trace first. Only the best 1/eta part of them is kept
+ * for the next round, where the trace prefix is eta times longer. The rounds
+ * continue until a single combination remains per consolidator, which is
+ * simulated with the complete job range given. The simulations run in
+ * worker processes just like in {@link ConsolidationSweep}.
+ * 
+ * The results of all simulations are collected in a csv file, and the best
+ * combination of every consolidator is saved as
+ * [consolidator]-consolidationProperties-best.xml next to it.
+ * 
+ * @author "Gabor Kecskemeti, Department of Computer Science, Liverpool John
+ *         Moores University, (c) 2017"
+ */
+public class ConsolidationTuner {
+	/**
+	 * The number of combinations sampled for each consolidator
+	 */
+	public static final String samplesProperty = ConsolidationSweep.propertyPrefix + "tune.samples";
+	/**
+	 * The reduction factor between the rounds
+	 */
+	public static final String etaProperty = ConsolidationSweep.propertyPrefix + "tune.eta";
+	/**
+	 * The seed of the sampling of the combinations
+	 */
+	public static final String seedProperty = ConsolidationSweep.propertyPrefix + "tune.seed";
+	/**
+	 * The value of the demo's summary to minimise
+	 */
+	public static final String objectiveProperty = ConsolidationSweep.propertyPrefix + "tune.objective";
+
+	/**
+	 * A combination under evaluation
+	 */
+	public static class Candidate {
+		public final int id;
+		public final String consType;
+		public final ConsolidatorConfiguration config;
+		/**
+		 * The objective achieved in the last round the candidate took part
+		 * in (infinite if the simulation failed)
+		 */
+		public double score = Double.POSITIVE_INFINITY;
+
+		Candidate(final int id, final String consType, final ConsolidatorConfiguration config) {
+			this.id = id;
+			this.consType = consType;
+			this.config = config;
+		}
+	}
+
+	private static final Comparator<Candidate> byScore = new Comparator<Candidate>() {
+		@Override
+		public int compare(final Candidate a, final Candidate b) {
+			return Double.compare(a.score, b.score);
+		}
+	};
+
+	private final File results;
+	private final File runsDir;
+	private final String[] demoArgs;
+	private final List<String> command = ConsolidationSweep.workerCommand();
+	private final String objective;
+	/**
+	 * The parts of the job specification of the demo around the job range
+	 */
+	private final String specPrefix, specSuffix;
+	private final int from, to;
+	private BufferedWriter out;
+	private String[] paramNames;
+
+	/**
+	 * @param results
+	 *            the csv file to collect the results in
+	 * @param demoArgs
+	 *            the arguments of {@link JobDispatchingDemo}, the job range
+	 *            in them is the one used in the last round
+	 * @param objective
+	 *            the key of the value in the demo's summary to minimise (e.g.,
+	 *            energyKWh)
+	 */
+	public ConsolidationTuner(final String results, final String[] demoArgs, final String objective) {
+		this.results = new File(results).getAbsoluteFile();
+		runsDir = new File(this.results.getPath() + ".runs");
+		this.demoArgs = ConsolidationSweep.absoluteArgs(demoArgs);
+		this.objective = objective;
+		// Splitting the job specification to be able to shorten its range
+		String spec = demoArgs[1];
+		specPrefix = spec.startsWith("+") ? "+" : "";
+		spec = spec.substring(specPrefix.length());
+		final int at = spec.indexOf('@');
+		specSuffix = at < 0 ? "" : spec.substring(at);
+		spec = at < 0 ? spec : spec.substring(0, at);
+		final int dash = spec.indexOf('-');
+		from = dash < 0 ? 0 : Integer.parseInt(spec.substring(0, dash));
+		to = Integer.parseInt(spec.substring(dash + 1));
+		if (!specPrefix.isEmpty() && "energyKWh".equals(objective)) {
+			System.err.println("WARNING: the energy consumption is only available with monitoring (no + in the job range)");
+		}
+	}
+
+	/**
+	 * Samples the combinations of the controller's grid with reservoir
+	 * sampling, so the grid is never held in memory.
+	 */
+	private List<Candidate> sample(final int samples, final long seed) throws IOException {
+		final Random rnd = new Random(seed);
+		final LinkedHashMap<String, List<ConsolidatorConfiguration>> reservoirs = new LinkedHashMap<String, List<ConsolidatorConfiguration>>();
+		final Map<String, int[]> seen = new LinkedHashMap<String, int[]>();
+		final ConsolidationController controller = new ConsolidationController();
+		controller.setPointHandler(new ConsolidationController.PointHandler() {
+			@Override
+			public void handle(final String consType, final ConsolidatorConfiguration config) {
+				List<ConsolidatorConfiguration> reservoir = reservoirs.get(consType);
+				if (reservoir == null) {
+					reservoir = new ArrayList<ConsolidatorConfiguration>(samples);
+					reservoirs.put(consType, reservoir);
+					seen.put(consType, new int[1]);
+				}
+				final int n = seen.get(consType)[0]++;
+				if (n < samples) {
+					reservoir.add(config);
+				} else {
+					final int slot = rnd.nextInt(n + 1);
+					if (slot < samples) {
+						reservoir.set(slot, config);
+					}
+				}
+			}
+		});
+		controller.runTestcaseOne(false);
+		final ArrayList<Candidate> candidates = new ArrayList<Candidate>();
+		for (Map.Entry<String, List<ConsolidatorConfiguration>> e : reservoirs.entrySet()) {
+			System.err.println("Sampled " + e.getValue().size() + " of " + seen.get(e.getKey())[0]
+					+ " combinations for " + e.getKey());
+			for (ConsolidatorConfiguration p : e.getValue()) {
+				candidates.add(new Candidate(candidates.size(), e.getKey(), p));
+			}
+		}
+		if (candidates.isEmpty()) {
+			throw new IllegalStateException("The controller did not offer any combinations to tune");
+		}
+		paramNames = new TreeSet<String>(candidates.get(0).config.toProperties().stringPropertyNames())
+				.toArray(new String[0]);
+		return candidates;
+	}
+
+	/**
+	 * Runs the successive halving rounds
+	 * 
+	 * @param samples
+	 *            the number of combinations to start with per consolidator
+	 * @param eta
+	 *            the reduction factor between the rounds
+	 * @param seed
+	 *            the seed of the sampling
+	 * @param workers
+	 *            the number of worker processes to run at once
+	 * @return the best combination of every consolidator
+	 */
+	public Map<String, Candidate> run(final int samples, final int eta, final long seed, final int workers)
+			throws IOException, InterruptedException {
+		if (eta < 2 || samples < 1) {
+			throw new IllegalArgumentException("At least one sample and a reduction factor of 2 is needed");
+		}
+		List<Candidate> alive = sample(samples, seed);
+		int rounds = 1;
+		for (long n = samples; n > 1; n = (n + eta - 1) / eta) {
+			rounds++;
+		}
+		runsDir.mkdirs();
+		out = new BufferedWriter(new FileWriter(results));
+		writeHeader();
+		final ExecutorService pool = Executors.newFixedThreadPool(workers);
+		int simulations = 0;
+		try {
+			for (int round = 0; round < rounds && !alive.isEmpty(); round++) {
+				long jobs = to - from;
+				for (int r = round; r < rounds - 1; r++) {
+					jobs /= eta;
+				}
+				jobs = Math.max(1, jobs);
+				System.err.println("Round " + round + ": " + alive.size() + " combinations with " + jobs + " jobs");
+				evaluate(pool, alive, round, (int) jobs);
+				simulations += alive.size();
+				// Keeping the best part of every consolidator's candidates
+				final LinkedHashMap<String, List<Candidate>> byType = new LinkedHashMap<String, List<Candidate>>();
+				for (Candidate c : alive) {
+					List<Candidate> l = byType.get(c.consType);
+					if (l == null) {
+						l = new ArrayList<Candidate>();
+						byType.put(c.consType, l);
+					}
+					l.add(c);
+				}
+				alive = new ArrayList<Candidate>();
+				for (List<Candidate> l : byType.values()) {
+					Collections.sort(l, byScore);
+					alive.addAll(l.subList(0, round == rounds - 1 ? 1 : Math.max(1, (l.size() + eta - 1) / eta)));
+				}
+			}
+		} finally {
+			pool.shutdown();
+			out.close();
+		}
+		final LinkedHashMap<String, Candidate> best = new LinkedHashMap<String, Candidate>();
+		for (Candidate c : alive) {
+			best.put(c.consType, c);
+			c.config.storeToXML(new File(results.getParentFile(), c.consType + "-consolidationProperties-best.xml"),
+					objective + "=" + c.score);
+			System.err.println("Best " + c.consType + ": " + objective + "=" + c.score + " " + c.config);
+		}
+		System.err.println("Tuning completed with " + simulations + " simulations");
+		return best;
+	}
+
+	/**
+	 * Simulates the candidates of a round in parallel. The first one is
+	 * simulated alone, so it can prepare the trace cache for the job range of
+	 * the round.
+	 */
+	private void evaluate(final ExecutorService pool, final List<Candidate> candidates, final int round,
+			final int jobs) throws InterruptedException {
+		final String[] args = demoArgs.clone();
+		args[1] = specPrefix + from + "-" + (from + jobs) + specSuffix;
+		final ArrayList<Future<?>> running = new ArrayList<Future<?>>();
+		for (int i = 0; i < candidates.size(); i++) {
+			final Candidate c = candidates.get(i);
+			final Runnable sim = new Runnable() {
+				@Override
+				public void run() {
+					c.score = Double.POSITIVE_INFINITY;
+					Properties res = null;
+					try {
+						res = ConsolidationSweep.runWorker(command, new File(runsDir, "r" + round + "-" + c.id), c.consType,
+								c.config, args);
+					} catch (IOException e) {
+						System.err.println("Could not simulate combination " + c.id + ": " + e.getMessage());
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					if (res != null && res.getProperty(objective) != null) {
+						c.score = Double.parseDouble(res.getProperty(objective));
+					}
+					writeRow(round, jobs, c, res != null);
+				}
+			};
+			if (i == 0) {
+				sim.run();
+			} else {
+				running.add(pool.submit(sim));
+			}
+		}
+		for (Future<?> f : running) {
+			try {
+				f.get();
+			} catch (ExecutionException e) {
+				throw new RuntimeException("Unexpected error in a tuning simulation", e.getCause());
+			}
+		}
+	}
+
+	private synchronized void writeHeader() throws IOException {
+		final StringBuilder sb = new StringBuilder("Round,Jobs,Candidate,Consolidator");
+		for (String p : paramNames) {
+			sb.append(',').append(p);
+		}
+		out.write(sb.append(",Status,").append(objective).append('\n').toString());
+	}
+
+	private synchronized void writeRow(final int round, final int jobs, final Candidate c, final boolean ok) {
+		final StringBuilder sb = new StringBuilder();
+		sb.append(round).append(',').append(jobs).append(',').append(c.id).append(',').append(c.consType);
+		final Properties props = c.config.toProperties();
+		for (String p : paramNames) {
+			sb.append(',').append(props.getProperty(p, ""));
+		}
+		sb.append(',').append(ok ? "ok" : "failed").append(',').append(c.score).append('\n');
+		try {
+			out.write(sb.toString());
+			out.flush();
+		} catch (IOException e) {
+			throw new RuntimeException("Could not write the tuning results", e);
+		}
+	}
+
+	/**
+	 * Expected parameters: the results file of the tuning followed by the
+	 * parameters of {@link JobDispatchingDemo} (the job range given is used
+	 * in the last round).
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 4) {
+			System.out.println("Expected parameters:");
+			System.out.println("1. The csv file to collect the results in");
+			System.out.println("2-5. The parameters of JobDispatchingDemo, the job range is shortened in the early rounds");
+			System.out.println("Supported system properties:");
+			System.out.println(samplesProperty);
+			System.out.println("\tThe number of combinations sampled for each consolidator (default: 27)");
+			System.out.println(etaProperty);
+			System.out.println("\tThe factor the candidates are reduced with and the trace is extended with in every round (default: 3)");
+			System.out.println(seedProperty);
+			System.out.println("\tThe seed of the sampling (default: 123)");
+			System.out.println(objectiveProperty);
+			System.out.println("\tThe result of the demo to minimise, e.g., energyKWh (default), migrations or simulatedTimespan");
+			System.out.println(ConsolidationSweep.workersProperty);
+			System.out.println("\tThe number of parallel worker processes (default: the number of cores)");
+			System.out.println(ConsolidationSweep.jvmArgsProperty);
+			System.out.println("\tSpace separated JVM arguments for the worker processes");
+			System.exit(0);
+		}
+		final String[] demoArgs = new String[args.length - 1];
+		System.arraycopy(args, 1, demoArgs, 0, demoArgs.length);
+		new ConsolidationTuner(args[0], demoArgs, System.getProperty(objectiveProperty, "energyKWh")).run(
+				Integer.parseInt(System.getProperty(samplesProperty, "27")),
+				Integer.parseInt(System.getProperty(etaProperty, "3")),
+				Long.parseLong(System.getProperty(seedProperty, "123")),
+				Integer.parseInt(System.getProperty(ConsolidationSweep.workersProperty,
+						Integer.toString(Runtime.getRuntime().availableProcessors()))));
+	}
+}
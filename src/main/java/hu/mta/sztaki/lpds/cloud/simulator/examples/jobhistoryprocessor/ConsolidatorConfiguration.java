@@ -0,0 +1,393 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  (C) Copyright 2017, Gabor Kecskemeti (g.kecskemeti@ljmu.ac.uk)
+ */
+package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * The parameters of the PSO, GA and ABC consolidators in a typed, immutable
+ * form. Configurations are derived from each other with a {@link Builder},
+ * so they can be shared freely (e.g., between the threads of a parameter
+ * sweep).
+ * 
+ * The properties format (usually stored as consolidationProperties.xml, as
+ * the consolidators expect it) is only used to import and export the
+ * configurations. Properties unknown to this class are kept as they are.
+ * 
+ * @author "Gabor Kecskemeti, Department of Computer Science, Liverpool John
+ *         Moores University, (c) 2017"
+ */
+public final class ConsolidatorConfiguration {
+	/**
+	 * The configuration with the original default values of the consolidators
+	 */
+	public static final ConsolidatorConfiguration defaults = new Builder().build();
+
+	/**
+	 * Collects the values of a new configuration
+	 */
+	public static class Builder {
+		private double upperThreshold = 1.0;
+		private double lowerThreshold = 0.25;
+		private double mutationProb = 0.2;
+		private long seed = 123;
+		private boolean doLocalSearch1 = false;
+		private boolean doLocalSearch2 = false;
+		private int psoSwarmSize = 20;
+		private int psoNrIterations = 50;
+		private int psoC1 = 2;
+		private int psoC2 = 2;
+		private int abcPopulationSize = 10;
+		private int abcNrIterations = 50;
+		private int abcLimitTrials = 5;
+		private int gaPopulationSize = 10;
+		private int gaNrIterations = 50;
+		private int gaNrCrossovers = 10;
+		private final TreeMap<String, String> others = new TreeMap<String, String>();
+
+		/**
+		 * Starts from the default values
+		 */
+		public Builder() {
+		}
+
+		/**
+		 * Starts from the values of an existing configuration
+		 */
+		public Builder(final ConsolidatorConfiguration from) {
+			upperThreshold = from.upperThreshold;
+			lowerThreshold = from.lowerThreshold;
+			mutationProb = from.mutationProb;
+			seed = from.seed;
+			doLocalSearch1 = from.doLocalSearch1;
+			doLocalSearch2 = from.doLocalSearch2;
+			psoSwarmSize = from.psoSwarmSize;
+			psoNrIterations = from.psoNrIterations;
+			psoC1 = from.psoC1;
+			psoC2 = from.psoC2;
+			abcPopulationSize = from.abcPopulationSize;
+			abcNrIterations = from.abcNrIterations;
+			abcLimitTrials = from.abcLimitTrials;
+			gaPopulationSize = from.gaPopulationSize;
+			gaNrIterations = from.gaNrIterations;
+			gaNrCrossovers = from.gaNrCrossovers;
+			others.putAll(from.others);
+		}
+
+		public Builder setUpperThreshold(final double upperThreshold) {
+			this.upperThreshold = upperThreshold;
+			return this;
+		}
+
+		public Builder setLowerThreshold(final double lowerThreshold) {
+			this.lowerThreshold = lowerThreshold;
+			return this;
+		}
+
+		public Builder setMutationProb(final double mutationProb) {
+			this.mutationProb = mutationProb;
+			return this;
+		}
+
+		public Builder setSeed(final long seed) {
+			this.seed = seed;
+			return this;
+		}
+
+		/**
+		 * @param doLocalSearch1
+		 *            If activated, Solution.improve() is additionally used.
+		 */
+		public Builder setDoLocalSearch1(final boolean doLocalSearch1) {
+			this.doLocalSearch1 = doLocalSearch1;
+			return this;
+		}
+
+		/**
+		 * @param doLocalSearch2
+		 *            If activated, Solution.simpleConsolidatorImprove() is
+		 *            additionally used.
+		 */
+		public Builder setDoLocalSearch2(final boolean doLocalSearch2) {
+			this.doLocalSearch2 = doLocalSearch2;
+			return this;
+		}
+
+		/**
+		 * Sets the constant values of the pso algorithm.
+		 * 
+		 * @param swarmSize
+		 *            the amount of particles
+		 * @param iterations
+		 *            the number of iterations
+		 * @param c1
+		 *            the first learning factor
+		 * @param c2
+		 *            the second learning factor
+		 */
+		public Builder setPso(final int swarmSize, final int iterations, final int c1, final int c2) {
+			psoSwarmSize = swarmSize;
+			psoNrIterations = iterations;
+			psoC1 = c1;
+			psoC2 = c2;
+			return this;
+		}
+
+		/**
+		 * Sets the constant values of the abc algorithm.
+		 * 
+		 * @param populationSize
+		 *            the amount of individuals in the population
+		 * @param iterations
+		 *            the number of iterations
+		 * @param limitTrials
+		 *            the maximum number of trials for improvement before a
+		 *            solution is abandoned
+		 */
+		public Builder setAbc(final int populationSize, final int iterations, final int limitTrials) {
+			abcPopulationSize = populationSize;
+			abcNrIterations = iterations;
+			abcLimitTrials = limitTrials;
+			return this;
+		}
+
+		/**
+		 * Sets the constant values of the ga algorithm.
+		 * 
+		 * @param populationSize
+		 *            the amount of individuals in the population
+		 * @param iterations
+		 *            the number of iterations
+		 * @param crossovers
+		 *            the number of recombinations to perform in each
+		 *            generation
+		 */
+		public Builder setGa(final int populationSize, final int iterations, final int crossovers) {
+			gaPopulationSize = populationSize;
+			gaNrIterations = iterations;
+			gaNrCrossovers = crossovers;
+			return this;
+		}
+
+		/**
+		 * Sets a property not known by this class (it is only passed on to
+		 * the consolidators)
+		 */
+		public Builder setOther(final String key, final String value) {
+			others.put(key, value);
+			return this;
+		}
+
+		public ConsolidatorConfiguration build() {
+			return new ConsolidatorConfiguration(this);
+		}
+	}
+
+	public final double upperThreshold;
+	public final double lowerThreshold;
+	public final double mutationProb;
+	public final long seed;
+	public final boolean doLocalSearch1;
+	public final boolean doLocalSearch2;
+	public final int psoSwarmSize;
+	public final int psoNrIterations;
+	public final int psoC1;
+	public final int psoC2;
+	public final int abcPopulationSize;
+	public final int abcNrIterations;
+	public final int abcLimitTrials;
+	public final int gaPopulationSize;
+	public final int gaNrIterations;
+	public final int gaNrCrossovers;
+	/**
+	 * The properties not known by this class
+	 */
+	public final Map<String, String> others;
+
+	private ConsolidatorConfiguration(final Builder b) {
+		upperThreshold = b.upperThreshold;
+		lowerThreshold = b.lowerThreshold;
+		mutationProb = b.mutationProb;
+		seed = b.seed;
+		doLocalSearch1 = b.doLocalSearch1;
+		doLocalSearch2 = b.doLocalSearch2;
+		psoSwarmSize = b.psoSwarmSize;
+		psoNrIterations = b.psoNrIterations;
+		psoC1 = b.psoC1;
+		psoC2 = b.psoC2;
+		abcPopulationSize = b.abcPopulationSize;
+		abcNrIterations = b.abcNrIterations;
+		abcLimitTrials = b.abcLimitTrials;
+		gaPopulationSize = b.gaPopulationSize;
+		gaNrIterations = b.gaNrIterations;
+		gaNrCrossovers = b.gaNrCrossovers;
+		others = Collections.unmodifiableMap(new TreeMap<String, String>(b.others));
+	}
+
+	/**
+	 * Starts a new configuration from this one
+	 */
+	public Builder toBuilder() {
+		return new Builder(this);
+	}
+
+	/**
+	 * Exports the configuration in the form the consolidators read it
+	 */
+	public Properties toProperties() {
+		final Properties props = new Properties();
+		for (Map.Entry<String, String> e : others.entrySet()) {
+			props.setProperty(e.getKey(), e.getValue());
+		}
+		props.setProperty("upperThreshold", Double.toString(upperThreshold));
+		props.setProperty("lowerThreshold", Double.toString(lowerThreshold));
+		props.setProperty("mutationProb", Double.toString(mutationProb));
+		props.setProperty("seed", Long.toString(seed));
+		props.setProperty("doLocalSearch1", Boolean.toString(doLocalSearch1));
+		props.setProperty("doLocalSearch2", Boolean.toString(doLocalSearch2));
+		props.setProperty("psoSwarmSize", Integer.toString(psoSwarmSize));
+		props.setProperty("psoNrIterations", Integer.toString(psoNrIterations));
+		props.setProperty("psoC1", Integer.toString(psoC1));
+		props.setProperty("psoC2", Integer.toString(psoC2));
+		props.setProperty("abcPopulationSize", Integer.toString(abcPopulationSize));
+		props.setProperty("abcNrIterations", Integer.toString(abcNrIterations));
+		props.setProperty("abcLimitTrials", Integer.toString(abcLimitTrials));
+		props.setProperty("gaPopulationSize", Integer.toString(gaPopulationSize));
+		props.setProperty("gaNrIterations", Integer.toString(gaNrIterations));
+		props.setProperty("gaNrCrossovers", Integer.toString(gaNrCrossovers));
+		return props;
+	}
+
+	/**
+	 * Imports a configuration, the values missing from the properties are
+	 * taken from the defaults.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if a known property has a malformed value
+	 */
+	public static ConsolidatorConfiguration fromProperties(final Properties props) {
+		final Builder b = new Builder();
+		for (String key : props.stringPropertyNames()) {
+			final String value = props.getProperty(key).trim();
+			try {
+				switch (key) {
+				case "upperThreshold":
+					b.upperThreshold = Double.parseDouble(value);
+					break;
+				case "lowerThreshold":
+					b.lowerThreshold = Double.parseDouble(value);
+					break;
+				case "mutationProb":
+					b.mutationProb = Double.parseDouble(value);
+					break;
+				case "seed":
+					b.seed = Long.parseLong(value);
+					break;
+				case "doLocalSearch1":
+					b.doLocalSearch1 = Boolean.parseBoolean(value);
+					break;
+				case "doLocalSearch2":
+					b.doLocalSearch2 = Boolean.parseBoolean(value);
+					break;
+				case "psoSwarmSize":
+					b.psoSwarmSize = Integer.parseInt(value);
+					break;
+				case "psoNrIterations":
+					b.psoNrIterations = Integer.parseInt(value);
+					break;
+				case "psoC1":
+					b.psoC1 = Integer.parseInt(value);
+					break;
+				case "psoC2":
+					b.psoC2 = Integer.parseInt(value);
+					break;
+				case "abcPopulationSize":
+					b.abcPopulationSize = Integer.parseInt(value);
+					break;
+				case "abcNrIterations":
+					b.abcNrIterations = Integer.parseInt(value);
+					break;
+				case "abcLimitTrials":
+					b.abcLimitTrials = Integer.parseInt(value);
+					break;
+				case "gaPopulationSize":
+					b.gaPopulationSize = Integer.parseInt(value);
+					break;
+				case "gaNrIterations":
+					b.gaNrIterations = Integer.parseInt(value);
+					break;
+				case "gaNrCrossovers":
+					b.gaNrCrossovers = Integer.parseInt(value);
+					break;
+				default:
+					b.others.put(key, props.getProperty(key));
+				}
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Malformed consolidator property " + key + "=" + value, e);
+			}
+		}
+		return b.build();
+	}
+
+	/**
+	 * Reads a configuration stored in the XML properties format
+	 */
+	public static ConsolidatorConfiguration loadFromXML(final InputStream in) throws IOException {
+		final Properties props = new Properties();
+		props.loadFromXML(in);
+		return fromProperties(props);
+	}
+
+	public static ConsolidatorConfiguration loadFromXML(final File file) throws IOException {
+		try (FileInputStream in = new FileInputStream(file)) {
+			return loadFromXML(in);
+		}
+	}
+
+	/**
+	 * Writes the configuration in the XML properties format
+	 */
+	public void storeToXML(final OutputStream out, final String comment) throws IOException {
+		toProperties().storeToXML(out, comment);
+	}
+
+	public void storeToXML(final File file, final String comment) throws IOException {
+		try (FileOutputStream out = new FileOutputStream(file)) {
+			storeToXML(out, comment);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return toProperties().toString();
+	}
+}
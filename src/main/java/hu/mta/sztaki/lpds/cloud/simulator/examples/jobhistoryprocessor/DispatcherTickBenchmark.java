@@ -0,0 +1,137 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  (C) Copyright 2017, Gabor Kecskemeti (g.kecskemeti@ljmu.ac.uk)
+ */
+package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
+
+import java.util.List;
+
+import hu.mta.sztaki.lpds.cloud.simulator.Timed;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.IaaSService;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.pmscheduling.SchedulingDependentMachines;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.vmscheduling.FirstFitScheduler;
+
+/**
+ * Measures the cost of the dispatcher's timing events for traces of
+ * different lengths. Every trace has the same beginning (a few jobs per
+ * second), only the number of jobs after it differs. Only this common
+ * prefix is simulated and the time spent in
+ * {@link MultiIaaSJobDispatcher#tick(long)} is divided by the number of jobs
+ * that became due in it. As the dispatcher only looks at the jobs due at the
+ * time of its event, the cost per due job should not grow with the length of
+ * the trace.
+ * 
+ * The bytes allocated by the simulation thread during the ticks are measured
+ * as well (if the JVM supports it). Apart from the warm-up of the runner pool
+ * and the buffers, the dispatcher itself should not allocate per job, so
+ * this shows what the simulator allocates for the VM requests of a job.
+ * 
+ * Not part of the unit tests, run it as a command line program (with enough
+ * heap for the largest trace).
+ * 
+ * @author "Gabor Kecskemeti, Department of Computer Science, Liverpool John
+ *         Moores University, (c) 2017"
+ */
+public class DispatcherTickBenchmark {
+	private static final int jobsPerSecond = 5;
+	private static final long execSecs = 60;
+	/**
+	 * The simulated part of every trace in seconds
+	 */
+	private static final long prefixSecs = 2000;
+	private static final int repetitions = 5;
+
+	/**
+	 * The time spent and the bytes allocated in the ticks of the current
+	 * dispatcher
+	 */
+	private static long tickNanos, tickBytes;
+	/**
+	 * The job runners created by the current dispatcher
+	 */
+	private static long createdRunners;
+
+	private static JobTable generateTrace(final int jobCount) {
+		final JobTable.Builder builder = new JobTable.Builder(jobCount);
+		for (int i = 0; i < jobCount; i++) {
+			builder.add(Integer.toString(i), i / jobsPerSecond, 0, execSecs, 1, -1, -1, "", "", "");
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Simulates the prefix of the trace once, the results are left in
+	 * {@link #tickNanos}, {@link #tickBytes} and {@link #createdRunners}
+	 */
+	private static void measure(final JobTable trace) throws Exception {
+		Timed.resetTimed();
+		final List<IaaSService> clouds = new CloudBuilder(FirstFitScheduler.class,
+				SchedulingDependentMachines.class, 1, 200, 64).build();
+		tickNanos = 0;
+		tickBytes = 0;
+		final MultiIaaSJobDispatcher dispatcher = new MultiIaaSJobDispatcher(trace, clouds) {
+			@Override
+			public void tick(final long currTime) {
+				final long allocBefore = JobDispatchingDemo.allocatedBytes();
+				final long before = System.nanoTime();
+				super.tick(currTime);
+				tickNanos += System.nanoTime() - before;
+				tickBytes += JobDispatchingDemo.allocatedBytes() - allocBefore;
+			}
+		};
+		// The jobs of the first second after the prefix are not due yet
+		Timed.simulateUntil(prefixSecs * 1000 - 1);
+		createdRunners = dispatcher.getCreatedRunners();
+	}
+
+	/**
+	 * Expected parameters: the comma separated trace lengths to measure
+	 * (default: 10000,100000,1000000)
+	 */
+	public static void main(String[] args) throws Exception {
+		final String[] sizes = (args.length > 0 ? args[0] : "10000,100000,1000000").split(",");
+		final long dueJobs = prefixSecs * jobsPerSecond;
+		// Warming up the JIT
+		measure(generateTrace((int) dueJobs));
+		final boolean allocationMeasured = JobDispatchingDemo.allocatedBytes() >= 0;
+		System.out.println(
+				"Jobs,Due jobs,Best ns/due job,Average ns/due job,Best bytes/due job,Job runners created");
+		for (String size : sizes) {
+			final int jobCount = Integer.parseInt(size.trim());
+			if (jobCount < dueJobs) {
+				throw new IllegalArgumentException("The traces should be at least " + dueJobs + " jobs long");
+			}
+			final JobTable trace = generateTrace(jobCount);
+			double best = Double.MAX_VALUE, sum = 0;
+			long bestBytes = Long.MAX_VALUE;
+			for (int r = 0; r < repetitions; r++) {
+				measure(trace);
+				final double perJob = (double) tickNanos / dueJobs;
+				best = Math.min(best, perJob);
+				sum += perJob;
+				bestBytes = Math.min(bestBytes, tickBytes / dueJobs);
+			}
+			System.out.println(jobCount + "," + dueJobs + "," + best + "," + sum / repetitions + ","
+					+ (allocationMeasured ? Long.toString(bestBytes) : "n/a") + "," + createdRunners);
+		}
+		System.exit(0);
+	}
+}
@@ -0,0 +1,598 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  (C) Copyright 2017, Gabor Kecskemeti (g.kecskemeti@ljmu.ac.uk)
+ */
+package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs replications of the same {@link JobDispatchingDemo} setup with
+ * different seeds (e.g., over synthetic traces of
+ * RepetitiveRandomTraceGenerator) and summarises their results with
+ * confidence intervals.
+ * 
+ * Every replication is simulated in its own worker process (see
+ * {@link ConsolidationSweep}) with the seed [base seed]+[replication]. The
+ * replications are aggregated in the order of their seeds (not in the order
+ * they complete), so the ensemble stops after the same replications
+ * regardless the number of workers: as soon as at least the minimum number
+ * of replications are done and the confidence intervals of all target
+ * metrics are narrower than the requested precision (relative to their
+ * means), the remaining replications are cancelled.
+ * 
+ * The results of the replications are collected in a csv file, the summary
+ * of the ensemble is written to [results].summary.properties.
+ * 
+ * @author "Gabor Kecskemeti, Department of Computer Science, Liverpool John
+ *         Moores University, (c) 2017"
+ */
+public class DispatchingEnsemble {
+	/**
+	 * The number of worker processes to run at once
+	 */
+	public static final String workersProperty = ConsolidationSweep.propertyPrefix + "ensemble.workers";
+	/**
+	 * The number of replications done before the precision is checked
+	 */
+	public static final String minRunsProperty = ConsolidationSweep.propertyPrefix + "ensemble.minRuns";
+	/**
+	 * The number of replications done at most
+	 */
+	public static final String maxRunsProperty = ConsolidationSweep.propertyPrefix + "ensemble.maxRuns";
+	/**
+	 * The targeted half width of the confidence intervals relative to the
+	 * means
+	 */
+	public static final String precisionProperty = ConsolidationSweep.propertyPrefix + "ensemble.precision";
+	/**
+	 * The confidence level of the intervals
+	 */
+	public static final String confidenceProperty = ConsolidationSweep.propertyPrefix + "ensemble.confidence";
+	/**
+	 * The seed of the first replication
+	 */
+	public static final String seedProperty = ConsolidationSweep.propertyPrefix + "ensemble.seed";
+	/**
+	 * The comma separated list of metrics that should reach the precision
+	 */
+	public static final String targetsProperty = ConsolidationSweep.propertyPrefix + "ensemble.targets";
+	/**
+	 * The metrics collected from the summaries of the demo: the makespan
+	 * (simulatedTimespan), the ignored jobs, the reused VMs, the migrations,
+	 * the energy consumption (only when monitoring) and the VMs/ms throughput
+	 * of the simulator
+	 */
+	public static final String[] metrics = { "simulatedTimespan", "ignoredJobs", "reusedVMs", "migrations",
+			"energyKWh", "throughput" };
+
+	/**
+	 * Accumulates the samples of a metric (with Welford's algorithm).
+	 */
+	public static class Statistic {
+		private long count = 0;
+		private double mean = 0, m2 = 0;
+
+		public void add(final double sample) {
+			count++;
+			final double delta = sample - mean;
+			mean += delta / count;
+			m2 += delta * (sample - mean);
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public double getMean() {
+			return mean;
+		}
+
+		/**
+		 * The sample standard deviation (0 if there are less than two samples)
+		 */
+		public double getStandardDeviation() {
+			return count < 2 ? 0 : Math.sqrt(m2 / (count - 1));
+		}
+
+		/**
+		 * Determines the half width of the confidence interval of the mean
+		 * (based on Student's t-distribution)
+		 * 
+		 * @param confidence
+		 *            the confidence level, e.g., 0.95
+		 * @return the half width or infinity if there are less than two
+		 *         samples
+		 */
+		public double getHalfWidth(final double confidence) {
+			if (count < 2) {
+				return Double.POSITIVE_INFINITY;
+			}
+			return studentQuantile(1 - (1 - confidence) / 2, count - 1) * getStandardDeviation()
+					/ Math.sqrt(count);
+		}
+
+		/**
+		 * Tells if the confidence interval is narrower than the given part of
+		 * the mean
+		 */
+		public boolean isPrecise(final double precision, final double confidence) {
+			return getHalfWidth(confidence) <= precision * Math.abs(mean);
+		}
+	}
+
+	/**
+	 * Above this many degrees of freedom the quantiles of Student's
+	 * t-distribution are approximated
+	 */
+	private static final long exactQuantilesUpTo = 30;
+
+	/**
+	 * Determines the quantile function of Student's t-distribution. Up to 30
+	 * degrees of freedom (i.e., for the small ensembles where the stopping
+	 * rule is the most sensitive) the distribution function is inverted
+	 * numerically. Above that, the Cornish-Fisher expansion around the normal
+	 * quantile is used, its relative error is below 1e-5 there.
+	 * 
+	 * @param p
+	 *            the probability, in (0,1)
+	 * @param dof
+	 *            the degrees of freedom, at least 1
+	 */
+	public static double studentQuantile(final double p, final long dof) {
+		if (dof < 1) {
+			throw new IllegalArgumentException("At least one degree of freedom is needed");
+		}
+		if (p < 0.5) {
+			return -studentQuantile(1 - p, dof);
+		}
+		if (dof <= exactQuantilesUpTo) {
+			// Bisection on the distribution function
+			double lo = 0, hi = 1;
+			while (studentCdf(hi, dof) < p) {
+				lo = hi;
+				hi *= 2;
+			}
+			for (int i = 0; i < 200 && hi - lo > 1e-12 * hi; i++) {
+				final double mid = (lo + hi) / 2;
+				if (studentCdf(mid, dof) < p) {
+					lo = mid;
+				} else {
+					hi = mid;
+				}
+			}
+			return (lo + hi) / 2;
+		}
+		final double z = normalQuantile(p);
+		final double z2 = z * z;
+		final double n = dof;
+		return z + z * (z2 + 1) / (4 * n) + z * ((5 * z2 + 16) * z2 + 3) / (96 * n * n)
+				+ z * (((3 * z2 + 19) * z2 + 17) * z2 - 15) / (384 * n * n * n)
+				+ z * ((((79 * z2 + 776) * z2 + 1482) * z2 - 1920) * z2 - 945) / (92160 * n * n * n * n);
+	}
+
+	/**
+	 * The distribution function of Student's t-distribution (for t >= 0)
+	 */
+	private static double studentCdf(final double t, final long dof) {
+		return 1 - 0.5 * regularizedBeta(dof / (dof + t * t), dof / 2.0, 0.5);
+	}
+
+	/**
+	 * The regularized incomplete beta function I_x(a,b), evaluated with its
+	 * continued fraction (after Numerical Recipes)
+	 */
+	private static double regularizedBeta(final double x, final double a, final double b) {
+		if (x <= 0) {
+			return 0;
+		}
+		if (x >= 1) {
+			return 1;
+		}
+		final double front = Math.exp(logGamma(a + b) - logGamma(a) - logGamma(b) + a * Math.log(x)
+				+ b * Math.log(1 - x));
+		// The continued fraction converges quickly only on this side
+		if (x < (a + 1) / (a + b + 2)) {
+			return front * betaContinuedFraction(x, a, b) / a;
+		}
+		return 1 - front * betaContinuedFraction(1 - x, b, a) / b;
+	}
+
+	private static double betaContinuedFraction(final double x, final double a, final double b) {
+		final double tiny = 1e-300;
+		double c = 1, d = 1 - (a + b) * x / (a + 1);
+		d = 1 / (Math.abs(d) < tiny ? tiny : d);
+		double h = d;
+		for (int m = 1; m <= 300; m++) {
+			final int m2 = 2 * m;
+			// The even step
+			double aa = m * (b - m) * x / ((a + m2 - 1) * (a + m2));
+			d = 1 + aa * d;
+			d = 1 / (Math.abs(d) < tiny ? tiny : d);
+			c = 1 + aa / c;
+			c = Math.abs(c) < tiny ? tiny : c;
+			h *= d * c;
+			// The odd step
+			aa = -(a + m) * (a + b + m) * x / ((a + m2) * (a + m2 + 1));
+			d = 1 + aa * d;
+			d = 1 / (Math.abs(d) < tiny ? tiny : d);
+			c = 1 + aa / c;
+			c = Math.abs(c) < tiny ? tiny : c;
+			final double delta = d * c;
+			h *= delta;
+			if (Math.abs(delta - 1) < 1e-15) {
+				break;
+			}
+		}
+		return h;
+	}
+
+	/**
+	 * The logarithm of the gamma function (Lanczos approximation)
+	 */
+	private static double logGamma(final double x) {
+		final double[] coefficients = { 76.18009172947146, -86.50532032941677, 24.01409824083091,
+				-1.231739572450155, 0.1208650973866179e-2, -0.5395239384953e-5 };
+		double y = x;
+		final double tmp = x + 5.5 - (x + 0.5) * Math.log(x + 5.5);
+		double ser = 1.000000000190015;
+		for (double coefficient : coefficients) {
+			ser += coefficient / ++y;
+		}
+		return -tmp + Math.log(2.5066282746310005 * ser / x);
+	}
+
+	/**
+	 * Approximates the quantile function of the standard normal distribution
+	 * (Acklam's rational approximation, the relative error is below 1.2e-9)
+	 */
+	static double normalQuantile(final double p) {
+		if (p <= 0 || p >= 1) {
+			throw new IllegalArgumentException("Quantiles are only defined for probabilities in (0,1)");
+		}
+		final double[] a = { -3.969683028665376e+01, 2.209460984245205e+02, -2.759285104469687e+02,
+				1.383577518672690e+02, -3.066479806614716e+01, 2.506628277459239e+00 };
+		final double[] b = { -5.447609879822406e+01, 1.615858368580409e+02, -1.556989798598866e+02,
+				6.680131188771972e+01, -1.328068155288572e+01 };
+		final double[] c = { -7.784894002430293e-03, -3.223964580411365e-01, -2.400758277161838e+00,
+				-2.549732539343734e+00, 4.374664141464968e+00, 2.938163982698783e+00 };
+		final double[] d = { 7.784695709041462e-03, 3.224671290700398e-01, 2.445134137142996e+00,
+				3.754408661907416e+00 };
+		final double low = 0.02425;
+		if (p < low || p > 1 - low) {
+			// The tails
+			final double q = Math.sqrt(-2 * Math.log(p < low ? p : 1 - p));
+			final double x = (((((c[0] * q + c[1]) * q + c[2]) * q + c[3]) * q + c[4]) * q + c[5])
+					/ ((((d[0] * q + d[1]) * q + d[2]) * q + d[3]) * q + 1);
+			return p < low ? x : -x;
+		}
+		final double q = p - 0.5;
+		final double r = q * q;
+		return (((((a[0] * r + a[1]) * r + a[2]) * r + a[3]) * r + a[4]) * r + a[5]) * q
+				/ (((((b[0] * r + b[1]) * r + b[2]) * r + b[3]) * r + b[4]) * r + 1);
+	}
+
+	private final File results;
+	private final File runsDir;
+	private final String[] demoArgs;
+	private final List<String> command = ConsolidationSweep.workerCommand();
+	private final int minRuns, maxRuns;
+	private final double precision, confidence;
+	private final long baseSeed;
+	private final String[] targets;
+	private final LinkedHashMap<String, Statistic> stats = new LinkedHashMap<String, Statistic>();
+	/**
+	 * The results of the replications (null if it failed) until they are
+	 * aggregated
+	 */
+	private final Properties[] done;
+	private final boolean[] completed;
+	/**
+	 * The number of replications aggregated so far
+	 */
+	private int aggregated = 0;
+	private int failed = 0;
+	private boolean precise = false;
+	private ExecutorService pool;
+	private BufferedWriter out;
+
+	/**
+	 * Prepares the ensemble
+	 * 
+	 * @param results
+	 *            the csv file to collect the results of the replications in
+	 * @param demoArgs
+	 *            the arguments of {@link JobDispatchingDemo} for every
+	 *            replication
+	 * @param minRuns
+	 *            the number of replications to do before checking the
+	 *            precision
+	 * @param maxRuns
+	 *            the number of replications to do at most
+	 * @param precision
+	 *            the targeted half width of the confidence intervals
+	 *            relative to the means
+	 * @param confidence
+	 *            the confidence level of the intervals
+	 * @param baseSeed
+	 *            the seed of the first replication
+	 * @param targets
+	 *            the metrics that should reach the precision (the ones not
+	 *            reported by the demo are ignored)
+	 */
+	public DispatchingEnsemble(final String results, final String[] demoArgs, final int minRuns, final int maxRuns,
+			final double precision, final double confidence, final long baseSeed, final String[] targets) {
+		if (minRuns < 2 || maxRuns < minRuns) {
+			throw new IllegalArgumentException("At least two replications are needed and maxRuns >= minRuns");
+		}
+		if (confidence <= 0 || confidence >= 1) {
+			throw new IllegalArgumentException("The confidence level should be in (0,1)");
+		}
+		this.results = new File(results).getAbsoluteFile();
+		runsDir = new File(this.results.getPath() + ".runs");
+		this.demoArgs = ConsolidationSweep.absoluteArgs(demoArgs);
+		this.minRuns = minRuns;
+		this.maxRuns = maxRuns;
+		this.precision = precision;
+		this.confidence = confidence;
+		this.baseSeed = baseSeed;
+		this.targets = targets.clone();
+		done = new Properties[maxRuns];
+		completed = new boolean[maxRuns];
+		for (String m : metrics) {
+			stats.put(m, new Statistic());
+		}
+		for (String t : this.targets) {
+			if (!stats.containsKey(t)) {
+				throw new IllegalArgumentException("Unknown ensemble metric: " + t);
+			}
+		}
+		// Every replication gets its own seed
+		final String seedArg = "-D" + JobDispatchingDemo.seedProperty + "=";
+		for (Iterator<String> it = command.iterator(); it.hasNext();) {
+			if (it.next().startsWith(seedArg)) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Runs the replications until the precision is reached (or all of them
+	 * are done) and writes the summary.
+	 * 
+	 * @param workers
+	 *            the number of worker processes to run at once
+	 * @return the statistics of the metrics reported by the replications
+	 */
+	public Map<String, Statistic> run(final int workers) throws IOException, InterruptedException {
+		runsDir.mkdirs();
+		out = new BufferedWriter(new FileWriter(results));
+		final StringBuilder header = new StringBuilder("Replication,Seed,Status");
+		for (String m : metrics) {
+			header.append(',').append(m);
+		}
+		writeRow(header);
+		pool = Executors.newFixedThreadPool(workers);
+		try {
+			// The first replication prepares the trace cache (if there is
+			// one), the rest can use it in parallel
+			replicate(0);
+			for (int i = 1; i < maxRuns; i++) {
+				final int replication = i;
+				synchronized (this) {
+					if (pool.isShutdown()) {
+						break;
+					}
+					pool.execute(new Runnable() {
+						@Override
+						public void run() {
+							replicate(replication);
+						}
+					});
+				}
+			}
+		} finally {
+			synchronized (this) {
+				pool.shutdown();
+			}
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			out.close();
+		}
+		final LinkedHashMap<String, Statistic> reported = new LinkedHashMap<String, Statistic>();
+		for (Map.Entry<String, Statistic> e : stats.entrySet()) {
+			if (e.getValue().getCount() > 0) {
+				reported.put(e.getKey(), e.getValue());
+			}
+		}
+		writeSummary(reported);
+		return reported;
+	}
+
+	/**
+	 * Simulates a single replication in a worker process
+	 */
+	private void replicate(final int replication) {
+		final long seed = baseSeed + replication;
+		final File dir = new File(runsDir, Integer.toString(replication));
+		final List<String> cmd = new ArrayList<String>(command);
+		cmd.add("-D" + JobDispatchingDemo.seedProperty + "=" + seed);
+		Properties res = null;
+		try {
+			res = ConsolidationSweep.runDemo(cmd, dir, demoArgs);
+		} catch (IOException e) {
+			System.err.println("Could not simulate replication " + replication + ": " + e.getMessage());
+		} catch (InterruptedException e) {
+			// The ensemble is already precise enough
+			return;
+		}
+		final StringBuilder row = new StringBuilder();
+		row.append(replication).append(',').append(seed).append(',').append(res != null ? "ok" : "failed");
+		for (String m : metrics) {
+			row.append(',').append(res == null ? "" : res.getProperty(m, ""));
+		}
+		writeRow(row);
+		if (res == null) {
+			System.err.println("Replication " + replication + " failed, see " + new File(dir, "output.log"));
+		}
+		completed(replication, res);
+	}
+
+	/**
+	 * Aggregates the replications completed in the order of their seeds and
+	 * stops the ensemble if it is precise enough
+	 */
+	private synchronized void completed(final int replication, final Properties res) {
+		if (precise) {
+			// Finished while the ensemble was stopped, it is not aggregated
+			// so the result does not depend on the number of workers
+			return;
+		}
+		done[replication] = res;
+		completed[replication] = true;
+		while (aggregated < maxRuns && completed[aggregated]) {
+			final Properties r = done[aggregated];
+			done[aggregated++] = null;
+			if (r == null) {
+				failed++;
+				continue;
+			}
+			for (String m : metrics) {
+				final String v = r.getProperty(m);
+				if (v != null) {
+					stats.get(m).add(Double.parseDouble(v));
+				}
+			}
+		}
+		if (aggregated - failed >= minRuns && isPrecise()) {
+			precise = true;
+			System.err.println("Target precision reached after " + (aggregated - failed) + " replications");
+			// Cancels the replications still waiting and kills the running
+			// ones
+			pool.shutdownNow();
+		}
+	}
+
+	private boolean isPrecise() {
+		boolean any = false;
+		for (String t : targets) {
+			final Statistic s = stats.get(t);
+			if (s.getCount() == 0) {
+				// Not reported by the demo (e.g., energy without monitoring)
+				continue;
+			}
+			if (!s.isPrecise(precision, confidence)) {
+				return false;
+			}
+			any = true;
+		}
+		return any;
+	}
+
+	private synchronized void writeRow(final StringBuilder row) {
+		try {
+			out.write(row.append('\n').toString());
+			out.flush();
+		} catch (IOException e) {
+			throw new RuntimeException("Could not write the ensemble results", e);
+		}
+	}
+
+	private void writeSummary(final Map<String, Statistic> reported) throws IOException {
+		final Properties summary = new Properties();
+		summary.setProperty("replications", Integer.toString(aggregated - failed));
+		summary.setProperty("failed", Integer.toString(failed));
+		summary.setProperty("confidence", Double.toString(confidence));
+		summary.setProperty("precise", Boolean.toString(precise));
+		System.err.println("Ensemble of " + (aggregated - failed) + " replications (" + failed + " failed), "
+				+ confidence * 100 + "% confidence intervals:");
+		for (Map.Entry<String, Statistic> e : reported.entrySet()) {
+			final Statistic s = e.getValue();
+			final double hw = s.getHalfWidth(confidence);
+			summary.setProperty(e.getKey() + ".mean", Double.toString(s.getMean()));
+			summary.setProperty(e.getKey() + ".halfWidth", Double.toString(hw));
+			summary.setProperty(e.getKey() + ".stdDev", Double.toString(s.getStandardDeviation()));
+			System.err.println(e.getKey() + ": " + s.getMean() + " +- " + hw);
+		}
+		if (!precise) {
+			System.err.println("WARNING: The target precision was not reached");
+		}
+		try (FileOutputStream fos = new FileOutputStream(results.getPath() + ".summary.properties")) {
+			summary.store(fos, "Summary of the job dispatching ensemble");
+		}
+	}
+
+	/**
+	 * Expected parameters: the results file of the ensemble followed by the
+	 * parameters of {@link JobDispatchingDemo} (used for every replication).
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 4) {
+			System.out.println("Expected parameters:");
+			System.out.println("1. The csv file to collect the results of the replications in");
+			System.out.println("2-5. The parameters of JobDispatchingDemo for every replication");
+			System.out.println("Supported system properties:");
+			System.out.println(workersProperty);
+			System.out.println("\tThe number of parallel worker processes (default: the number of cores)");
+			System.out.println(minRunsProperty);
+			System.out.println("\tThe number of replications before the precision is checked (default: 5)");
+			System.out.println(maxRunsProperty);
+			System.out.println("\tThe maximum number of replications (default: 100)");
+			System.out.println(precisionProperty);
+			System.out.println(
+					"\tThe targeted half width of the confidence intervals relative to the means (default: 0.05)");
+			System.out.println(confidenceProperty);
+			System.out.println("\tThe confidence level of the intervals (default: 0.95)");
+			System.out.println(seedProperty);
+			System.out.println("\tThe seed of the first replication, the others get the subsequent ones (default: 1)");
+			System.out.println(targetsProperty);
+			System.out.println(
+					"\tThe comma separated metrics that should reach the precision (default: simulatedTimespan,energyKWh)");
+			System.out.println(
+					"\tNote: the throughput (VMs/ms) depends on the load of the machine running the workers");
+			System.out.println(
+					"All other " + ConsolidationSweep.propertyPrefix + "* properties are passed to the workers");
+			System.exit(0);
+		}
+		final String[] demoArgs = new String[args.length - 1];
+		System.arraycopy(args, 1, demoArgs, 0, demoArgs.length);
+		final int workers = Integer.parseInt(System.getProperty(workersProperty,
+				Integer.toString(Runtime.getRuntime().availableProcessors())));
+		new DispatchingEnsemble(args[0], demoArgs, Integer.parseInt(System.getProperty(minRunsProperty, "5")),
+				Integer.parseInt(System.getProperty(maxRunsProperty, "100")),
+				Double.parseDouble(System.getProperty(precisionProperty, "0.05")),
+				Double.parseDouble(System.getProperty(confidenceProperty, "0.95")),
+				Long.parseLong(System.getProperty(seedProperty, "1")),
+				System.getProperty(targetsProperty, "simulatedTimespan,energyKWh").split(",")).run(workers);
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  (C) Copyright 2017, Gabor Kecskemeti (g.kecskemeti@ljmu.ac.uk)
+ */
+package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import hu.mta.sztaki.lpds.cloud.simulator.Timed;
+import hu.mta.sztaki.lpds.cloud.simulator.energy.powermodelling.PowerState;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.IaaSService;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.PhysicalMachine;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.resourcemodel.ResourceSpreader;
+
+/**
+ * Accounts the energy consumption of the PMs of a set of clouds without
+ * periodic metering events.
+ *
+ * The consumption of every resource spreader (the CPUs of the PMs and the
+ * network and disk spreaders of their local storage) is integrated piecewise:
+ * a segment lasts until the power behaviour of the spreader changes (e.g.,
+ * because the PM is switched off). The energy of a segment is calculated with
+ * the average load of the segment, which is derived from the amount of
+ * resources processed by the spreader during the segment. For the linear
+ * consumption models used by the examples this is exactly the integral of the
+ * power over the segment, regardless of how the load changed in between. For
+ * non-linear models it is an approximation.
+ *
+ * The accountant does not subscribe to timing events at all, the only cost
+ * during the simulation is the handling of the power behaviour changes.
+ * Queries for the total consumption visit all spreaders, so they should be
+ * made at the sampling rate of the monitoring.
+ *
+ * The results are in the same units as the ones of the energy meters of
+ * DISSECT-CF (i.e., the power of the power states multiplied by ticks).
+ *
+ * @author "Gabor Kecskemeti, Department of Computer Science, Liverpool John
+ *         Moores University, (c) 2017"
+ */
+public class EnergyAccountant {
+	/**
+	 * The currently open segment of a single spreader
+	 */
+	private class Segment implements ResourceSpreader.PowerBehaviorChangeListener {
+		final ResourceSpreader spreader;
+		PowerState behavior;
+		long start;
+		double processedAtStart;
+
+		Segment(final ResourceSpreader spreader) {
+			this.spreader = spreader;
+			open(spreader.getCurrentPowerBehavior());
+			spreader.subscribePowerBehaviorChangeEvents(this);
+		}
+
+		private void open(final PowerState newBehavior) {
+			behavior = newBehavior;
+			start = Timed.getFireCount();
+			processedAtStart = spreader.getTotalProcessed();
+		}
+
+		/**
+		 * Calculates the consumption of the segment if it would end now
+		 */
+		double consumptionSoFar() {
+			final long duration = Timed.getFireCount() - start;
+			if (duration <= 0 || behavior == null) {
+				return 0;
+			}
+			final double capacity = spreader.getPerTickProcessingPower() * duration;
+			final double load = capacity <= 0 ? 0
+					: Math.min(1, Math.max(0, (spreader.getTotalProcessed() - processedAtStart) / capacity));
+			return behavior.getCurrentPower(load) * duration;
+		}
+
+		@Override
+		public void behaviorChanged(final ResourceSpreader onSpreader, final PowerState newState) {
+			closedConsumption += consumptionSoFar();
+			open(newState);
+		}
+
+		void close() {
+			spreader.unsubscribePowerBehaviorChangeEvents(this);
+			closedConsumption += consumptionSoFar();
+			behavior = null;
+		}
+	}
+
+	private final ArrayList<Segment> segments = new ArrayList<Segment>();
+	/**
+	 * The energy consumed in the already finished segments
+	 */
+	private double closedConsumption = 0;
+	private boolean stopped = false;
+
+	/**
+	 * Starts accounting the consumption of all PMs of the given clouds. Just
+	 * like the state monitor, the accountant does not recognize the changes in
+	 * the set of PMs in an IaaSService.
+	 *
+	 * @param iaasList
+	 *            the clouds to account for
+	 */
+	public EnergyAccountant(final List<IaaSService> iaasList) {
+		for (IaaSService iaas : iaasList) {
+			for (PhysicalMachine pm : iaas.machines) {
+				segments.add(new Segment(pm));
+				if (pm.localDisk != null) {
+					segments.add(new Segment(pm.localDisk.inbws));
+					segments.add(new Segment(pm.localDisk.outbws));
+					segments.add(new Segment(pm.localDisk.diskinbws));
+					segments.add(new Segment(pm.localDisk.diskoutbws));
+				}
+			}
+		}
+	}
+
+	/**
+	 * The total energy consumed since the accountant was created (or until it
+	 * was stopped).
+	 */
+	public double getTotalConsumption() {
+		double sum = closedConsumption;
+		if (!stopped) {
+			final int size = segments.size();
+			for (int i = 0; i < size; i++) {
+				sum += segments.get(i).consumptionSoFar();
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * Closes all segments and stops following the power behaviour changes.
+	 */
+	public void stop() {
+		if (!stopped) {
+			for (Segment s : segments) {
+				s.close();
+			}
+			stopped = true;
+		}
+	}
+}
@@ -25,16 +25,16 @@
 package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.EnumMap;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.Properties;
 
 import hu.mta.sztaki.lpds.cloud.simulator.Timed;
-import hu.mta.sztaki.lpds.cloud.simulator.energy.powermodelling.PowerState;
 import hu.mta.sztaki.lpds.cloud.simulator.helpers.trace.FileBasedTraceProducerFactory;
 import hu.mta.sztaki.lpds.cloud.simulator.helpers.trace.GenericTraceProducer;
 import hu.mta.sztaki.lpds.cloud.simulator.helpers.trace.TraceFilter;
@@ -48,9 +48,8 @@ import hu.mta.sztaki.lpds.cloud.simulator.iaas.pmscheduling.PhysicalMachineContr
 import hu.mta.sztaki.lpds.cloud.simulator.iaas.pmscheduling.SchedulingDependentMachines;
 import hu.mta.sztaki.lpds.cloud.simulator.iaas.vmscheduling.FirstFitScheduler;
 import hu.mta.sztaki.lpds.cloud.simulator.iaas.vmscheduling.Scheduler;
-import hu.mta.sztaki.lpds.cloud.simulator.io.Repository;
 import hu.mta.sztaki.lpds.cloud.simulator.util.CloudLoader;
-import hu.mta.sztaki.lpds.cloud.simulator.util.PowerTransitionGenerator;
+import hu.mta.sztaki.lpds.cloud.simulator.util.SeedSyncer;
 
 /**
  * This command line program sets up one or more cloud infrastructures, sends a
@@ -72,6 +71,26 @@ import hu.mta.sztaki.lpds.cloud.simulator.util.PowerTransitionGenerator;
  *         MTA SZTAKI (c) 2012-5"
  */
 public class JobDispatchingDemo {
+	/**
+	 * If set, the main results of the simulation are written to the
+	 * properties file named here
+	 */
+	public static final String summaryProperty = "hu.mta.sztaki.lpds.cloud.simulator.examples.summary";
+	/**
+	 * If set, the central random number generator of the simulator (also used
+	 * by the synthetic trace generator) is seeded with this number
+	 */
+	public static final String seedProperty = "hu.mta.sztaki.lpds.cloud.simulator.examples.seed";
+	/**
+	 * If set (as [simulated time in ms]@[file]), the simulation is stopped at
+	 * the given time and its {@link SimulationSnapshot} is written to the file
+	 */
+	public static final String snapshotTakeProperty = "hu.mta.sztaki.lpds.cloud.simulator.examples.snapshot.take";
+	/**
+	 * If set, the simulation continues from the {@link SimulationSnapshot}
+	 * stored in the file named here instead of starting with the trace
+	 */
+	public static final String snapshotRestoreProperty = "hu.mta.sztaki.lpds.cloud.simulator.examples.snapshot.restore";
 
 	@SuppressWarnings("unchecked")
 	public static void main(String[] args) throws Exception {
@@ -129,9 +148,58 @@ public class JobDispatchingDemo {
 			System.out.println("\tThe consolidator frequency to be used for all clouds");
 			System.out.println("hu.mta.sztaki.lpds.cloud.simulator.examples.verbosity");
 			System.out.println("\tTurn on additional logging information");
+			System.out.println("hu.mta.sztaki.lpds.cloud.simulator.examples.streamingWindow");
+			System.out.println(
+					"\tStream file based traces in windows of the given number of jobs instead of loading them completely");
+			System.out.println("hu.mta.sztaki.lpds.cloud.simulator.examples.noTraceCache");
+			System.out.println(
+					"\tDo not use (or create) the binary cache of file based traces (stored next to the trace file)");
+			System.out.println(MonitoringConfiguration.configProperty);
+			System.out.println(
+					"\tThe metrics to monitor with their sampling periods, e.g., finished,queued@300000;pmstates@1000 (default: "
+							+ MonitoringConfiguration.defaultSpec + ")");
+			System.out.println(MonitoringConfiguration.outputProperty);
+			System.out.println("\tThe base name of the monitoring output files (default: the trace file's name)");
+			System.out.println(summaryProperty);
+			System.out.println("\tWrite the main results of the simulation to this properties file");
+			System.out.println(seedProperty);
+			System.out.println(
+					"\tSeed the random number generator of the simulator, e.g., to get reproducible synthetic traces");
+			System.out.println(snapshotTakeProperty);
+			System.out.println(
+					"\tStop the simulation at the given time and save its state, e.g., 86400000@day1.snapshot (not available with the streamed traces)");
+			System.out.println(snapshotRestoreProperty);
+			System.out.println(
+					"\tContinue the simulation from a saved state instead of the first job of the trace (the jobs running at the time of the snapshot are resubmitted with their remaining execution time, the simulatedTimespan, completedJobs and energyKWh of the summary cover the whole trace, the rest of it only the resumed part)");
+			System.out.println(MonitoringConfiguration.binaryProperty);
+			System.out.println(
+					"\tWrite the monitored metrics in a compact binary format (.dcfts files, convert them to csv with BinarySeriesReader)");
+			System.out.println(MonitoringConfiguration.periodicMetersProperty);
+			System.out.println(
+					"\tCollect the energy consumption with periodic energy meters polling at the interval of the fourth parameter (by default the consumption is accounted at power state changes only)");
+			System.out.println("hu.mta.sztaki.lpds.cloud.simulator.examples.prewarm");
+			System.out.println(
+					"\tRequest the VMs of the jobs this many ms before they are due (default: 0, no VMs are requested in advance)");
+			System.out.println("hu.mta.sztaki.lpds.cloud.simulator.examples.heterogeneous");
+			System.out.println(
+					"\tShape the VMs according to the PMs of the cloud they are requested from (instead of assuming uniform clouds), the processing power ratio of the shaped and the uniform VMs is reported");
+			System.out.println("hu.mta.sztaki.lpds.cloud.simulator.examples.backfilling");
+			System.out.println(
+					"\tQueue the jobs at the dispatcher until enough processors are free for them and backfill the queue (not available with the streamed traces)");
+			System.out.println(CloudSelectionPolicy.policyProperty);
+			System.out.println(
+					"\tThe policy to pick the cloud for the VM requests: roundrobin (default), leastqueued, mostfree or twochoices");
+			System.out.println(CloudBuilder.threadsProperty);
+			System.out.println(
+					"\tThe number of threads used to construct the generated clouds (default: the number of available processors)");
 			System.exit(0);
 		}
 
+		final String seed = System.getProperty(seedProperty);
+		if (seed != null) {
+			SeedSyncer.centralRnd.setSeed(Long.parseLong(seed));
+		}
+
 		String consolidatorClass = System.getProperty("hu.mta.sztaki.lpds.cloud.simulator.examples.consolidator");
 		Class<? extends Consolidator> consolidator = null;
 		if (consolidatorClass != null) {
@@ -194,62 +262,12 @@ public class JobDispatchingDemo {
 			System.err.println(
 					"Using schedulers: " + vmSched.getName() + " for VMs and " + pmSched.getName() + " for PMs");
 			// Creating the each cloud requested
-			for (int clid = 0; clid < numofClouds; clid++) {
-				int numofNodes = totNumofNodes / numofClouds;
+			int numofNodes = totNumofNodes / numofClouds;
+			if (numofNodes * numofClouds != totNumofNodes) {
 				System.err.println(
-						"Scaling datacenter to " + numofNodes + " nodes with " + numofCores + " cpu cores each");
-				if (numofNodes * numofClouds != totNumofNodes) {
-					System.err.println(
-							"WARNING: with equally sized clouds we cannot reach the total number of nodes specified!");
-				}
-				// Default constructs
-
-				HashMap<String, Integer> latencyMapRepo = new HashMap<String, Integer>(numofNodes + 2);
-				HashMap<String, Integer> latencyMapMachine = new HashMap<String, Integer>(numofNodes + 2);
-				IaaSService iaas = new IaaSService(vmSched, pmSched);
-				final String repoid = clid + "VHStorageDell";
-				final String machineid = clid + "VHNode";
-				// Specification of the default power behavior
-				final EnumMap<PowerTransitionGenerator.PowerStateKind, Map<String, PowerState>> transitions = PowerTransitionGenerator
-						.generateTransitions(20, 296, 493, 50, 108);
-				final Map<String, PowerState> cpuTransitions = transitions
-						.get(PowerTransitionGenerator.PowerStateKind.host);
-				final Map<String, PowerState> stTransitions = transitions
-						.get(PowerTransitionGenerator.PowerStateKind.storage);
-				final Map<String, PowerState> nwTransitions = transitions
-						.get(PowerTransitionGenerator.PowerStateKind.network);
-
-				// Creating the Repositories for the cloud
-
-				// scaling the bandwidth accroding to the size of the cloud
-				final double bwRatio = (numofCores * numofNodes) / (7f * 64f);
-				// A single repo will hold 36T of data
-				iaas.registerRepository(
-						new Repository(36000000000000l, repoid, (long) (bwRatio * 1250000), (long) (bwRatio * 1250000),
-								(long) (bwRatio * 250000), latencyMapRepo, stTransitions, nwTransitions));
-				latencyMapMachine.put(repoid, 5); // 5 ms latency towards the
-													// repos
-
-				// Creating the PMs for the cloud
-
-				ArrayList<PhysicalMachine> completePMList = new ArrayList<PhysicalMachine>(numofNodes);
-				for (int i = 1; i <= numofNodes; i++) {
-					String currid = machineid + i;
-					final double pmBWRatio = Math.max(numofCores / 7f, 1);
-					PhysicalMachine pm = new PhysicalMachine(numofCores, 0.001, 256000000000l,
-							new Repository(5000000000000l, currid, (long) (pmBWRatio * 250000),
-									(long) (pmBWRatio * 250000), (long) (pmBWRatio * 50000), latencyMapMachine,
-									stTransitions, nwTransitions),
-							89000, 29000, cpuTransitions);
-					latencyMapRepo.put(currid, 5);
-					latencyMapMachine.put(currid, 3);
-					completePMList.add(pm);
-				}
-
-				// registering the hosts and the IaaS services
-				iaas.bulkHostRegistration(completePMList);
-				iaasList.add(iaas);
+						"WARNING: with equally sized clouds we cannot reach the total number of nodes specified!");
 			}
+			iaasList.addAll(new CloudBuilder(vmSched, pmSched, numofClouds, numofNodes, numofCores).build());
 		}
 		// Wait until the PM Controllers finish their initial activities
 		Timed.simulateUntilLastEvent();
@@ -275,17 +293,53 @@ public class JobDispatchingDemo {
 			to = Integer.parseInt(args[1]);
 		}
 
+		// Checking if the trace should be streamed
+		final boolean fileBasedTrace = new File(args[0]).exists();
+		int streamingWindow = 0;
+		String windowSpec = System.getProperty("hu.mta.sztaki.lpds.cloud.simulator.examples.streamingWindow");
+		if (windowSpec != null && fileBasedTrace) {
+			// Only file based traces are streamed, the generated ones are produced in
+			// memory anyways
+			streamingWindow = Integer.parseInt(windowSpec);
+			System.err.println("Streaming the trace in windows of " + streamingWindow + " jobs");
+		}
+		// Only complete, unfiltered file based traces are cached
+		final String restoreFile = System.getProperty(snapshotRestoreProperty);
+		final boolean useTraceCache = fileBasedTrace && filterSpec == null && streamingWindow == 0
+				&& restoreFile == null
+				&& System.getProperty("hu.mta.sztaki.lpds.cloud.simulator.examples.noTraceCache") == null;
+
 		// Loading the trace
-		GenericTraceProducer producer;
-		if (new File(args[0]).exists()) {
+		GenericTraceProducer producer = null;
+		JobTable cachedTrace = null;
+		int maxTotalProcs = 0;
+		SimulationSnapshot restored = null;
+		if (restoreFile != null) {
+			// The trace was already processed till the snapshot, we continue
+			// with the jobs left in it
+			restored = SimulationSnapshot.read(new File(restoreFile));
+			cachedTrace = restored.jobs;
+			System.err.println("Resuming the simulation at " + restored.time + " from " + restoreFile + " with "
+					+ restored.jobs.size() + " jobs left (" + restored.completedJobs + " completed before)");
+		} else if (fileBasedTrace) {
 			// The trace comes from a file, we need to see what kind to pick the
 			// right loader
-			int maxTotalProcs = 0;
 			for (IaaSService curr : iaasList) {
 				maxTotalProcs += curr.getCapacities().getRequiredCPUs();
 			}
-			producer = FileBasedTraceProducerFactory.getProducerFromFile(args[0], from, to, false, maxTotalProcs,
-					DCFJob.class);
+			if (useTraceCache) {
+				try {
+					cachedTrace = BinaryTraceCache.load(args[0], from, to, maxTotalProcs);
+				} catch (IOException e) {
+					System.err.println("WARNING: Could not read the trace cache: " + e.getMessage());
+				}
+			}
+			if (cachedTrace == null) {
+				producer = FileBasedTraceProducerFactory.getProducerFromFile(args[0], from, to, false, maxTotalProcs,
+						DCFJob.class);
+			} else {
+				System.err.println("Using the cached trace " + BinaryTraceCache.cacheFileFor(args[0], from, to));
+			}
 		} else {
 			// The trace comes in the form of generic random trace
 			// characteristics.
@@ -304,12 +358,29 @@ public class JobDispatchingDemo {
 			trgen.setMaxTotalProcs(Integer.parseInt(params[8]));
 		}
 
-		if (filterSpec != null) {
+		if (filterSpec != null && producer != null) {
 			producer = new TraceFilter(producer, new RunningAtaGivenTime(Long.parseLong(filterSpec)));
 		}
 
+		if (useTraceCache && cachedTrace == null) {
+			// First run on this trace, we prepare the cache for the later ones
+			cachedTrace = JobTable.fromJobs(producer.getAllJobs()).sortBySubmitTime();
+			try {
+				BinaryTraceCache.store(args[0], from, to, maxTotalProcs, cachedTrace);
+			} catch (IOException e) {
+				System.err.println("WARNING: Could not write the trace cache: " + e.getMessage());
+			}
+		}
+
+		if (restored != null) {
+			// The resubmitted jobs should not arrive before the snapshot was
+			// taken
+			Timed.skipEventsTill(restored.time);
+		}
 		// Preparing for sending the jobs to the clouds with the dispatcher
-		MultiIaaSJobDispatcher dispatcher = new MultiIaaSJobDispatcher(producer, iaasList);
+		MultiIaaSJobDispatcher dispatcher = cachedTrace == null
+				? new MultiIaaSJobDispatcher(producer, iaasList, streamingWindow)
+				: new MultiIaaSJobDispatcher(cachedTrace, iaasList);
 		if (args.length > (doMonitoring ? 4 : 3)) {
 			Thread.sleep(50000);
 		}
@@ -330,11 +401,13 @@ public class JobDispatchingDemo {
 		}
 		long beforeSimu = Calendar.getInstance().getTimeInMillis();
 		System.err.println(
-				"Job dispatcher (with " + dispatcher.jobs.length + " jobs)  is completely prepared at " + beforeSimu);
+				"Job dispatcher (with " + (dispatcher.isStreaming() ? "streamed" : dispatcher.jobs.size())
+						+ " jobs)  is completely prepared at " + beforeSimu);
 		// Moving the simulator's time just before the first event would come
 		// from the dispatcher
-		Timed.skipEventsTill(dispatcher.getMinsubmittime() * 1000);
+		Timed.skipEventsTill(dispatcher.getFirstEventTime());
 		System.err.println("Current simulation time: " + Timed.getFireCount());
+		StateMonitor monitor = null;
 		if (doMonitoring) {
 			// Final monitoring related CLI arguments parsing
 			final int interval = Integer.parseInt(args[3]);
@@ -344,15 +417,50 @@ public class JobDispatchingDemo {
 			}
 			// Creation of the state monitor object (it will register and
 			// deregister itself with timed once there are no more activites
-			// expected in the cloud, so we don't need to keep its reference)
-			new StateMonitor(args[0], dispatcher, iaasList, interval);
+			// expected in the cloud, we only keep its reference for the
+			// summary)
+			monitor = new StateMonitor(System.getProperty(MonitoringConfiguration.outputProperty, args[0]), dispatcher,
+					iaasList, interval, MonitoringConfiguration.fromSystemProperties());
+		}
+		final String takeSpec = System.getProperty(snapshotTakeProperty);
+		long snapshotAt = -1;
+		File snapshotFile = null;
+		if (takeSpec != null) {
+			final String[] parts = takeSpec.split("@", 2);
+			if (parts.length != 2) {
+				System.err.println("ERROR: The snapshot should be specified as [time]@[file]!");
+				System.exit(1);
+			}
+			if (dispatcher.isStreaming()) {
+				System.err.println("ERROR: Snapshots cannot be taken of streamed traces!");
+				System.exit(1);
+			}
+			snapshotAt = Long.parseLong(parts[0]);
+			snapshotFile = new File(parts[1]);
 		}
 		// Now everything is prepared for launching the simulation
 
 		// The actual simulation
-		Timed.simulateUntilLastEvent();
+		final long allocBefore = allocatedBytes();
+		if (snapshotFile == null) {
+			Timed.simulateUntilLastEvent();
+		} else {
+			// Only the prefix of the trace is simulated, the rest is left for
+			// the runs continuing from the snapshot
+			Timed.simulateUntil(snapshotAt);
+			final SimulationSnapshot snapshot = SimulationSnapshot.capture(dispatcher, restored,
+					monitor == null ? Double.NaN : monitor.getTotalConsumption());
+			snapshot.write(snapshotFile);
+			System.err.println("Snapshot taken at " + snapshot.time + " with " + snapshot.jobs.size()
+					+ " jobs left, written to " + snapshotFile);
+			if (monitor != null) {
+				// The monitoring series of the prefix is completed
+				monitor.stop();
+			}
+		}
+		final long allocated = allocatedBytes() - allocBefore;
 		// The simulation is complete all activities have finished by the
-		// dispatcher and monitor
+		// dispatcher and monitor (or the snapshot is taken)
 		long afterSimu = Calendar.getInstance().getTimeInMillis();
 		long duration = afterSimu - beforeSimu;
 
@@ -365,12 +473,82 @@ public class JobDispatchingDemo {
 		if (consolidator != null) {
 			System.err.println("Total migrations done: " + SimpleConsolidator.migrationCount);
 		}
+		if (allocBefore >= 0 && dispatcher.getCompletedJobs() > 0) {
+			System.err.println("Allocated on the simulation thread: " + allocated / dispatcher.getCompletedJobs()
+					+ " bytes/job, job runners created: " + dispatcher.getCreatedRunners());
+		}
+		System.err.println("Average queue time of the completed jobs: " + dispatcher.getAverageQueueTime()
+				+ "s utilisation: " + dispatcher.getUtilisation());
+		if (MultiIaaSJobDispatcher.backfilling) {
+			System.err.println("Backfilled jobs: " + dispatcher.getBackfilledJobs() + " average wait in the dispatcher: "
+					+ dispatcher.getAverageDispatcherWait() + "s");
+		}
+		if (MultiIaaSJobDispatcher.heterogeneous) {
+			System.err.println("Processing power ratio of the cloud specific VMs to uniform ones (not throughput): "
+					+ dispatcher.getShapedProcPowerRatio());
+		}
+		if (MultiIaaSJobDispatcher.prewarmLead > 0) {
+			System.err.println("Prewarmed VMs: " + dispatcher.getPrewarmedVMs() + " used: "
+					+ dispatcher.getUsedPrewarmedVMs() + " wasted: " + dispatcher.getWastedPrewarmedVMs()
+					+ " queue time reduction: " + dispatcher.getPrewarmQueueTimeReduction() + "ms extra VM hours: "
+					+ dispatcher.getPrewarmExtraVMHours());
+		}
 		long vmcount = 0;
 		for (IaaSService lociaas : iaasList) {
 			for (PhysicalMachine pm : lociaas.machines) {
 				vmcount += pm.getCompletedVMs();
 			}
 		}
-		System.err.println("Performance: " + (((double) vmcount) / duration) + " VMs/ms ");
+		final double throughput = ((double) vmcount) / duration;
+		System.err.println("Performance: " + throughput + " VMs/ms ");
+		final String summaryFile = System.getProperty(summaryProperty);
+		if (summaryFile != null) {
+			// Machine readable results (e.g., for parameter sweeps)
+			final Properties summary = new Properties();
+			// The totals of a resumed run include the part before the snapshot
+			final long startTime = restored == null ? dispatcher.getMinsubmittime() * 1000 : restored.startTime;
+			final long completedBefore = restored == null ? 0 : restored.completedJobs;
+			final double consumedBefore = restored == null ? 0 : restored.consumedEnergy;
+			summary.setProperty("simulatedTimespan", Long.toString(Timed.getFireCount() - startTime));
+			summary.setProperty("realTime", Long.toString(duration));
+			summary.setProperty("ignoredJobs", Long.toString(dispatcher.getIgnorecounter()));
+			summary.setProperty("destroyedVMs", Long.toString(dispatcher.getDestroycounter()));
+			summary.setProperty("reusedVMs", Long.toString(dispatcher.reuseCounter));
+			summary.setProperty("completedJobs", Long.toString(completedBefore + dispatcher.getCompletedJobs()));
+			summary.setProperty("averageQueueTime", Double.toString(dispatcher.getAverageQueueTime()));
+			summary.setProperty("utilisation", Double.toString(dispatcher.getUtilisation()));
+			if (consolidator != null) {
+				summary.setProperty("migrations", Long.toString(SimpleConsolidator.migrationCount));
+			}
+			summary.setProperty("throughput", Double.toString(throughput));
+			if (monitor != null) {
+				if (Double.isNaN(consumedBefore)) {
+					System.err.println(
+							"WARNING: The energy consumption before the snapshot is unknown, energyKWh is not reported");
+				} else {
+					summary.setProperty("energyKWh",
+							Double.toString((consumedBefore + monitor.getTotalConsumption()) / 1000 / 3600000));
+				}
+			}
+			try (FileOutputStream out = new FileOutputStream(summaryFile)) {
+				summary.store(out, "Results of the job dispatching simulation");
+			}
+		}
+	}
+
+	/**
+	 * Determines how many bytes were allocated by the current thread so far.
+	 * 
+	 * @return the allocated bytes or -1 if the JVM cannot tell
+	 */
+	static long allocatedBytes() {
+		final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			final com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+			if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+				return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return -1;
 	}
-}
\ No newline at end of file
+}
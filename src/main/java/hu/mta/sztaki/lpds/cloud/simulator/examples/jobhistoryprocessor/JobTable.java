@@ -0,0 +1,312 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  (C) Copyright 2017, Gabor Kecskemeti (g.kecskemeti@ljmu.ac.uk)
+ */
+package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import hu.mta.sztaki.lpds.cloud.simulator.helpers.job.Job;
+
+/**
+ * A compact, column oriented store for the jobs of a trace. Instead of
+ * keeping a complete job object for every line of the trace, the numeric
+ * properties of the jobs are held in parallel primitive arrays while their
+ * textual properties are interned in a shared dictionary. Job objects are only
+ * created on demand (see {@link #createView(int)}) when a job is actually sent
+ * to the clouds.
+ *
+ * Note: the dependencies between the jobs are not represented in the table.
+ *
+ * @author "Gabor Kecskemeti, Department of Computer Science, Liverpool John
+ *         Moores University, (c) 2017"
+ */
+public class JobTable {
+	/**
+	 * Incrementally collects jobs for a new table.
+	 */
+	public static class Builder {
+		private int size = 0;
+		private long[] submit;
+		private long[] queue;
+		private long[] exec;
+		private int[] nprocs;
+		private double[] ppCpu;
+		private long[] ppMem;
+		private long[] numericIds;
+		private String[] ids;
+		private int[] user;
+		private int[] group;
+		private int[] executable;
+		private final ArrayList<String> dictionary = new ArrayList<String>();
+		private final HashMap<String, Integer> dictionaryLookup = new HashMap<String, Integer>();
+
+		public Builder(final int expectedSize) {
+			final int capacity = Math.max(expectedSize, 16);
+			submit = new long[capacity];
+			queue = new long[capacity];
+			exec = new long[capacity];
+			nprocs = new int[capacity];
+			ppCpu = new double[capacity];
+			ppMem = new long[capacity];
+			numericIds = new long[capacity];
+			ids = new String[capacity];
+			user = new int[capacity];
+			group = new int[capacity];
+			executable = new int[capacity];
+		}
+
+		private void ensureCapacity() {
+			if (size == submit.length) {
+				final int capacity = size + (size >> 1);
+				submit = Arrays.copyOf(submit, capacity);
+				queue = Arrays.copyOf(queue, capacity);
+				exec = Arrays.copyOf(exec, capacity);
+				nprocs = Arrays.copyOf(nprocs, capacity);
+				ppCpu = Arrays.copyOf(ppCpu, capacity);
+				ppMem = Arrays.copyOf(ppMem, capacity);
+				numericIds = Arrays.copyOf(numericIds, capacity);
+				ids = Arrays.copyOf(ids, capacity);
+				user = Arrays.copyOf(user, capacity);
+				group = Arrays.copyOf(group, capacity);
+				executable = Arrays.copyOf(executable, capacity);
+			}
+		}
+
+		private int intern(final String s) {
+			Integer code = dictionaryLookup.get(s);
+			if (code == null) {
+				code = dictionary.size();
+				dictionary.add(s);
+				dictionaryLookup.put(s, code);
+			}
+			return code;
+		}
+
+		/**
+		 * Adds a single job with all its details to the end of the table
+		 */
+		public Builder add(final String id, final long submit, final long queue, final long exec, final int nprocs,
+				final double ppCpu, final long ppMem, final String user, final String group,
+				final String executable) {
+			ensureCapacity();
+			this.submit[size] = submit;
+			this.queue[size] = queue;
+			this.exec[size] = exec;
+			this.nprocs[size] = nprocs;
+			this.ppCpu[size] = ppCpu;
+			this.ppMem[size] = ppMem;
+			this.ids[size] = null;
+			try {
+				final long numericId = Long.parseLong(id);
+				this.numericIds[size] = numericId;
+				if (!Long.toString(numericId).equals(id)) {
+					// e.g., leading zeros, we need to keep the original
+					this.ids[size] = id;
+				}
+			} catch (NumberFormatException e) {
+				this.ids[size] = id;
+			}
+			this.user[size] = intern(user);
+			this.group[size] = intern(group);
+			this.executable[size] = intern(executable);
+			size++;
+			return this;
+		}
+
+		/**
+		 * Adds a job object to the end of the table
+		 */
+		public Builder add(final Job job) {
+			return add(job.getId(), job.getSubmittimeSecs(), job.getQueuetimeSecs(), job.getExectimeSecs(),
+					job.nprocs, job.perProcCPUTime, job.usedMemory, job.user, job.group, job.executable);
+		}
+
+		/**
+		 * Copies a row of another table to the end of this one
+		 */
+		public Builder add(final JobTable from, final int row) {
+			return add(from.getId(row), from.submit[row], from.queue[row], from.exec[row], from.nprocs[row],
+					from.ppCpu[row], from.ppMem[row], from.dictionary[from.user[row]],
+					from.dictionary[from.group[row]], from.dictionary[from.executable[row]]);
+		}
+
+		/**
+		 * Creates the table from the jobs collected so far. The builder should
+		 * not be used afterwards.
+		 */
+		public JobTable build() {
+			return new JobTable(size, Arrays.copyOf(submit, size), Arrays.copyOf(queue, size),
+					Arrays.copyOf(exec, size), Arrays.copyOf(nprocs, size), Arrays.copyOf(ppCpu, size),
+					Arrays.copyOf(ppMem, size), Arrays.copyOf(numericIds, size), Arrays.copyOf(ids, size),
+					Arrays.copyOf(user, size), Arrays.copyOf(group, size), Arrays.copyOf(executable, size),
+					dictionary.toArray(new String[dictionary.size()]));
+		}
+	}
+
+	private final int size;
+	final long[] submit;
+	final long[] queue;
+	final long[] exec;
+	final int[] nprocs;
+	final double[] ppCpu;
+	final long[] ppMem;
+	/**
+	 * The ids of the jobs that are plain decimal numbers
+	 */
+	final long[] numericIds;
+	/**
+	 * The ids of the jobs that could not be stored as numbers (null for the
+	 * numeric ones)
+	 */
+	final String[] ids;
+	final int[] user;
+	final int[] group;
+	final int[] executable;
+	/**
+	 * The interned user, group and executable names
+	 */
+	final String[] dictionary;
+
+	JobTable(final int size, final long[] submit, final long[] queue, final long[] exec, final int[] nprocs,
+			final double[] ppCpu, final long[] ppMem, final long[] numericIds, final String[] ids, final int[] user,
+			final int[] group, final int[] executable, final String[] dictionary) {
+		this.size = size;
+		this.submit = submit;
+		this.queue = queue;
+		this.exec = exec;
+		this.nprocs = nprocs;
+		this.ppCpu = ppCpu;
+		this.ppMem = ppMem;
+		this.numericIds = numericIds;
+		this.ids = ids;
+		this.user = user;
+		this.group = group;
+		this.executable = executable;
+		this.dictionary = dictionary;
+	}
+
+	/**
+	 * Transforms a list of jobs to a table, the order of the jobs is kept.
+	 *
+	 * @param jobs
+	 *            the jobs to be stored in the table
+	 * @return the new table
+	 */
+	public static JobTable fromJobs(final List<Job> jobs) {
+		final Builder builder = new Builder(jobs.size());
+		for (Job job : jobs) {
+			builder.add(job);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Tells how many jobs are in the table
+	 */
+	public int size() {
+		return size;
+	}
+
+	public long getSubmittimeSecs(final int row) {
+		return submit[row];
+	}
+
+	public long getQueuetimeSecs(final int row) {
+		return queue[row];
+	}
+
+	public long getExectimeSecs(final int row) {
+		return exec[row];
+	}
+
+	public int getNprocs(final int row) {
+		return nprocs[row];
+	}
+
+	public String getId(final int row) {
+		return ids[row] == null ? Long.toString(numericIds[row]) : ids[row];
+	}
+
+	/**
+	 * Shifts the submission time of all jobs in the table
+	 *
+	 * @param adjustTime
+	 *            the amount of seconds to shift with
+	 */
+	public void adjust(final long adjustTime) {
+		for (int i = 0; i < size; i++) {
+			submit[i] += adjustTime;
+		}
+	}
+
+	/**
+	 * Creates a job object representing a particular row of the table. The job
+	 * object is independent from the table, thus it is advised to only create
+	 * it when it is really needed (e.g., when the job is executed), so it can
+	 * be garbage collected after its use.
+	 *
+	 * @param row
+	 *            the job's row in the table
+	 * @return the new job object
+	 */
+	public DCFJob createView(final int row) {
+		return new DCFJob(getId(row), submit[row], queue[row], exec[row], nprocs[row], ppCpu[row], ppMem[row],
+				dictionary[user[row]], dictionary[group[row]], dictionary[executable[row]], null, 0);
+	}
+
+	/**
+	 * Provides a version of this table where the jobs are ordered by their
+	 * submission time. The relative order of jobs with the same submission time
+	 * is kept.
+	 *
+	 * @return this table if it is already ordered, a new table otherwise
+	 */
+	public JobTable sortBySubmitTime() {
+		boolean sorted = true;
+		for (int i = 1; i < size && sorted; i++) {
+			sorted = submit[i - 1] <= submit[i];
+		}
+		if (sorted) {
+			return this;
+		}
+		final Integer[] order = new Integer[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = i;
+		}
+		// Arrays.sort on objects is stable
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Long.compare(submit[a], submit[b]);
+			}
+		});
+		final Builder builder = new Builder(size);
+		for (int i = 0; i < size; i++) {
+			builder.add(this, order[i]);
+		}
+		return builder.build();
+	}
+}
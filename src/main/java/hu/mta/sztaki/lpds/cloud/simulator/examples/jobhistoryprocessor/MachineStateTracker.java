@@ -0,0 +1,199 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  (C) Copyright 2017, Gabor Kecskemeti (g.kecskemeti@ljmu.ac.uk)
+ */
+package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.IaaSService;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.PhysicalMachine;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.VMManager;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.VirtualMachine;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.constraints.ResourceConstraints;
+
+/**
+ * Maintains the machine related aggregates of the overall system state (see
+ * {@link OverallSystemState}) without walking through all physical machines
+ * every time the state is queried.
+ *
+ * The tracker keeps the last known contribution of every PM to the aggregates.
+ * PMs are marked as changed when their state or their free capacity changes,
+ * or when a VM hosted by them changes its state. Only the changed PMs are
+ * queried again during the next {@link #update()}.
+ *
+ * To observe the VMs, the tracker must be subscribed to their state changes
+ * (e.g., via {@link MultiIaaSJobDispatcher#addVMObserver(VirtualMachine.StateChange)}).
+ * Just like the state monitor, the tracker does not recognize the changes in
+ * the set of PMs in an IaaSService.
+ *
+ * @author "Gabor Kecskemeti, Department of Computer Science, Liverpool John
+ *         Moores University, (c) 2017"
+ */
+public class MachineStateTracker implements VirtualMachine.StateChange {
+	/**
+	 * The used cores are summed as fixed point numbers so the aggregate does
+	 * not drift with fractional core counts
+	 */
+	private static final double coreScale = 1000000;
+
+	/**
+	 * The last known contribution of a single PM to the aggregates.
+	 */
+	private class MachineCounters
+			implements PhysicalMachine.StateChangeListener, VMManager.CapacityChangeEvent<ResourceConstraints> {
+		final PhysicalMachine pm;
+		int completedVMs = 0;
+		int currentVMs = 0;
+		long scaledUsedCores = 0;
+		boolean running = false;
+		PhysicalMachine.State state = null;
+		boolean dirty = false;
+
+		MachineCounters(final PhysicalMachine pm) {
+			this.pm = pm;
+		}
+
+		void markDirty() {
+			if (!dirty) {
+				dirty = true;
+				dirtyMachines.add(this);
+			}
+		}
+
+		/**
+		 * Queries the PM and replaces its old contribution to the aggregates
+		 * with the current one.
+		 */
+		void refresh() {
+			final int newCompleted = pm.getCompletedVMs();
+			final int newCurrent = pm.numofCurrentVMs();
+			final long newUsed = Math.round(
+					(pm.getCapacities().getRequiredCPUs() - pm.freeCapacities.getRequiredCPUs()) * coreScale);
+			final boolean newRunning = pm.isRunning();
+			final PhysicalMachine.State newState = pm.getState();
+			finishedVMs += newCompleted - completedVMs;
+			runningVMs += newCurrent - currentVMs;
+			scaledUsedCores += newUsed - this.scaledUsedCores;
+			runningPMs += (newRunning ? 1 : 0) - (running ? 1 : 0);
+			completedVMs = newCompleted;
+			currentVMs = newCurrent;
+			this.scaledUsedCores = newUsed;
+			running = newRunning;
+			if (newState != state) {
+				if (state != null) {
+					stateCounts[state.ordinal()]--;
+				}
+				stateCounts[newState.ordinal()]++;
+				state = newState;
+			}
+			dirty = false;
+		}
+
+		@Override
+		public void stateChanged(final PhysicalMachine pm, final PhysicalMachine.State oldState,
+				final PhysicalMachine.State newState) {
+			markDirty();
+		}
+
+		@Override
+		public void capacityChanged(final ResourceConstraints newCapacity,
+				final List<ResourceConstraints> affectedCapacity) {
+			markDirty();
+		}
+	}
+
+	private final HashMap<PhysicalMachine, MachineCounters> counters = new HashMap<PhysicalMachine, MachineCounters>();
+	/**
+	 * The PMs that need to be queried during the next update
+	 */
+	private final ArrayList<MachineCounters> dirtyMachines = new ArrayList<MachineCounters>();
+	private int finishedVMs = 0;
+	private int runningVMs = 0;
+	private long scaledUsedCores = 0;
+	private int runningPMs = 0;
+	private final int[] stateCounts = new int[PhysicalMachine.State.values().length];
+
+	/**
+	 * Starts tracking all PMs of the given clouds.
+	 *
+	 * @param iaasList
+	 *            the clouds to track
+	 */
+	public MachineStateTracker(final List<IaaSService> iaasList) {
+		for (IaaSService iaas : iaasList) {
+			for (PhysicalMachine pm : iaas.machines) {
+				final MachineCounters mc = new MachineCounters(pm);
+				counters.put(pm, mc);
+				pm.subscribeStateChangeEvents(mc);
+				pm.subscribeToIncreasingFreeapacityChanges(mc);
+				pm.subscribeToDecreasingFreeCapacityChanges(mc);
+				mc.markDirty();
+			}
+		}
+	}
+
+	/**
+	 * Marks the host of the VM as changed
+	 */
+	@Override
+	public void stateChanged(final VirtualMachine vm, final VirtualMachine.State oldState,
+			final VirtualMachine.State newState) {
+		final PhysicalMachine.ResourceAllocation ra = vm.getResourceAllocation();
+		if (ra != null) {
+			final MachineCounters mc = counters.get(ra.getHost());
+			if (mc != null) {
+				mc.markDirty();
+			}
+		}
+	}
+
+	/**
+	 * Brings the aggregates up to date by querying the PMs that changed since
+	 * the last update.
+	 */
+	public void update() {
+		final int size = dirtyMachines.size();
+		for (int i = 0; i < size; i++) {
+			dirtyMachines.get(i).refresh();
+		}
+		dirtyMachines.clear();
+	}
+
+	/**
+	 * Copies the aggregates (as of the last update) to a system state record.
+	 */
+	public void fillIn(final OverallSystemState st) {
+		st.finishedVMs = finishedVMs;
+		st.runningVMs = runningVMs;
+		st.usedCores = (int) (scaledUsedCores / coreScale);
+		st.runningPMs = runningPMs;
+	}
+
+	/**
+	 * Tells how many PMs were in a particular state at the last update
+	 */
+	public int getPMCount(final PhysicalMachine.State state) {
+		return stateCounts[state.ordinal()];
+	}
+}
@@ -0,0 +1,273 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  (C) Copyright 2017, Gabor Kecskemeti (g.kecskemeti@ljmu.ac.uk)
+ */
+package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Specifies what the state monitor should collect and how often. The metrics
+ * are organised into groups, all metrics of a group are sampled with the same
+ * period and are written to the same output file as separate columns.
+ *
+ * The textual form of the configuration lists the groups separated by
+ * semicolons. Every group is a comma separated list of metric names followed
+ * by '@' and the sampling period in ms. E.g.:
+ * <code>finished,queued@300000;pmstates,queue.percloud@1000</code>
+ *
+ * Groups with the same period are merged. The first group is written to the
+ * [trace].converted file, the others to [trace].converted.[period]ms files.
+ * If binary output is requested, the files get the .dcfts extension and are
+ * written with {@link BinarySeriesWriter}.
+ *
+ * @author "Gabor Kecskemeti, Department of Computer Science, Liverpool John
+ *         Moores University, (c) 2017"
+ */
+public class MonitoringConfiguration {
+	/**
+	 * The system property that can hold the textual form of the configuration
+	 */
+	public static final String configProperty = "hu.mta.sztaki.lpds.cloud.simulator.examples.monitoring";
+	/**
+	 * If this system property is set, the monitoring data is written in the
+	 * binary columnar format instead of csv
+	 */
+	public static final String binaryProperty = "hu.mta.sztaki.lpds.cloud.simulator.examples.monitoring.binary";
+	/**
+	 * If this system property is set, the energy consumption is collected with
+	 * the periodic energy meters of DISSECT-CF instead of the event driven
+	 * {@link EnergyAccountant}
+	 */
+	public static final String periodicMetersProperty = "hu.mta.sztaki.lpds.cloud.simulator.examples.monitoring.periodicMeters";
+	/**
+	 * The base name of the output files (by default the name of the trace
+	 * file is used)
+	 */
+	public static final String outputProperty = "hu.mta.sztaki.lpds.cloud.simulator.examples.monitoring.output";
+	/**
+	 * The seven column output sampled every 5 minutes, as it was always
+	 * produced by the state monitor
+	 */
+	public static final String defaultSpec = "finished,queued,vms,cores,onpms,repotx@300000";
+
+	/**
+	 * The metrics the state monitor can collect
+	 */
+	public enum Metric {
+		/**
+		 * The number of VMs that finished their operation (NrFinished)
+		 */
+		FINISHED("finished"),
+		/**
+		 * The total length of the VM queues of all clouds (NrQueued)
+		 */
+		QUEUED("queued"),
+		/**
+		 * The length of the VM queue of every cloud in a separate column
+		 * (NrQueued-[cloud index])
+		 */
+		QUEUE_PER_CLOUD("queue.percloud"),
+		/**
+		 * The number of VMs currently present in the clouds (VMNum)
+		 */
+		VMS("vms"),
+		/**
+		 * The number of CPU cores allocated to VMs (UsedCores)
+		 */
+		CORES("cores"),
+		/**
+		 * The number of running PMs (OnPMs)
+		 */
+		ONPMS("onpms"),
+		/**
+		 * The number of PMs in each power state (PMs-[state])
+		 */
+		PMSTATES("pmstates"),
+		/**
+		 * The total amount of bytes sent by the central repositories
+		 * (CentralRepoTX)
+		 */
+		REPOTX("repotx"),
+		/**
+		 * The total amount of bytes received by the central repositories
+		 * (CentralRepoRX)
+		 */
+		REPORX("reporx"),
+		/**
+		 * The average incoming and outgoing bandwidth utilisation of the
+		 * central repositories since the previous sample in bytes/tick
+		 * (CentralRepoInBW,CentralRepoOutBW)
+		 */
+		REPOBW("repobw"),
+		/**
+		 * The total energy consumption recorded by the energy meters of the
+		 * clouds so far (TotalConsumption)
+		 */
+		ENERGY("energy"),
+		/**
+		 * The energy consumed since the previous sample of the group
+		 * (IntervalConsumption)
+		 */
+		ENERGY_INTERVAL("energy.interval");
+
+		public final String name;
+
+		private Metric(final String name) {
+			this.name = name;
+		}
+
+		/**
+		 * Finds a metric by its name used in the textual configuration
+		 *
+		 * @throws IllegalArgumentException
+		 *             if there is no such metric
+		 */
+		public static Metric byName(final String name) {
+			for (Metric m : values()) {
+				if (m.name.equals(name)) {
+					return m;
+				}
+			}
+			throw new IllegalArgumentException("Unknown monitoring metric: " + name);
+		}
+	}
+
+	/**
+	 * A set of metrics sampled together
+	 */
+	public static class Group {
+		/**
+		 * The sampling period in ticks (ms)
+		 */
+		public final long period;
+		/**
+		 * The metrics in the order of their columns
+		 */
+		public final List<Metric> metrics;
+
+		public Group(final long period, final List<Metric> metrics) {
+			if (period <= 0) {
+				throw new IllegalArgumentException("Sampling periods must be positive");
+			}
+			if (metrics.isEmpty()) {
+				throw new IllegalArgumentException("Empty monitoring group for period " + period);
+			}
+			this.period = period;
+			this.metrics = Collections.unmodifiableList(new ArrayList<Metric>(metrics));
+		}
+	}
+
+	/**
+	 * The groups in the order they were specified
+	 */
+	public final List<Group> groups;
+	/**
+	 * Should the data be written in the binary columnar format?
+	 */
+	public final boolean binaryOutput;
+	/**
+	 * Should the energy consumption be collected with periodic energy meters
+	 * (polling every PM at the metering interval)?
+	 */
+	public final boolean periodicMeters;
+
+	public MonitoringConfiguration(final List<Group> groups) {
+		this(groups, false, false);
+	}
+
+	public MonitoringConfiguration(final List<Group> groups, final boolean binaryOutput,
+			final boolean periodicMeters) {
+		if (groups.isEmpty()) {
+			throw new IllegalArgumentException("At least a single monitoring group is needed");
+		}
+		this.groups = Collections.unmodifiableList(new ArrayList<Group>(groups));
+		this.binaryOutput = binaryOutput;
+		this.periodicMeters = periodicMeters;
+	}
+
+	/**
+	 * Parses the textual form of the configuration (see the class
+	 * documentation).
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the specification is malformed
+	 */
+	public static MonitoringConfiguration parse(final String spec) {
+		final LinkedHashMap<Long, EnumSet<Metric>> byPeriod = new LinkedHashMap<Long, EnumSet<Metric>>();
+		final LinkedHashMap<Long, List<Metric>> ordered = new LinkedHashMap<Long, List<Metric>>();
+		for (String groupSpec : spec.split(";")) {
+			groupSpec = groupSpec.trim();
+			if (groupSpec.isEmpty()) {
+				continue;
+			}
+			final String[] parts = groupSpec.split("@");
+			if (parts.length != 2) {
+				throw new IllegalArgumentException("Monitoring group '" + groupSpec + "' has no sampling period");
+			}
+			final long period = Long.parseLong(parts[1].trim());
+			EnumSet<Metric> seen = byPeriod.get(period);
+			if (seen == null) {
+				seen = EnumSet.noneOf(Metric.class);
+				byPeriod.put(period, seen);
+				ordered.put(period, new ArrayList<Metric>());
+			}
+			for (String name : parts[0].split(",")) {
+				final Metric m = Metric.byName(name.trim());
+				if (seen.add(m)) {
+					ordered.get(period).add(m);
+				}
+			}
+		}
+		final ArrayList<Group> groups = new ArrayList<Group>(ordered.size());
+		for (Map.Entry<Long, List<Metric>> e : ordered.entrySet()) {
+			groups.add(new Group(e.getKey(), e.getValue()));
+		}
+		return new MonitoringConfiguration(groups);
+	}
+
+	/**
+	 * Loads the configuration from the system property {@link #configProperty}
+	 * or falls back to {@link #defaultSpec} if it is not set. The output format
+	 * is determined by {@link #binaryProperty}, the energy metering approach by
+	 * {@link #periodicMetersProperty}.
+	 */
+	public static MonitoringConfiguration fromSystemProperties() {
+		return new MonitoringConfiguration(parse(System.getProperty(configProperty, defaultSpec)).groups,
+				System.getProperty(binaryProperty) != null, System.getProperty(periodicMetersProperty) != null);
+	}
+
+	/**
+	 * Determines the smallest sampling period amongst the groups
+	 */
+	public long getShortestPeriod() {
+		long min = Long.MAX_VALUE;
+		for (Group g : groups) {
+			min = Math.min(min, g.period);
+		}
+		return min;
+	}
+}
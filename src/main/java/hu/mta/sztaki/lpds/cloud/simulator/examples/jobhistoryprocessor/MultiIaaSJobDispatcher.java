@@ -24,13 +24,14 @@
  */
 package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Date;
-import java.util.Iterator;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
-import java.util.TreeSet;
 
 import hu.mta.sztaki.lpds.cloud.simulator.Timed;
 import hu.mta.sztaki.lpds.cloud.simulator.helpers.job.Job;
@@ -60,6 +61,49 @@ import hu.mta.sztaki.lpds.cloud.simulator.io.VirtualAppliance;
  *         MTA SZTAKI (c) 2012-5"
  */
 public class MultiIaaSJobDispatcher extends Timed {
+	/**
+	 * The set of VMs required to run a job with a particular processor count.
+	 */
+	protected static class JobShape {
+		/**
+		 * The number of VMs to be used for the job
+		 */
+		public final int instances;
+		/**
+		 * The resource requirements of each VM
+		 */
+		public final ConstantConstraints constraints;
+
+		public JobShape(final int instances, final ConstantConstraints constraints) {
+			this.instances = instances;
+			this.constraints = constraints;
+		}
+	}
+
+	/**
+	 * The capabilities of the PMs of a single cloud, used to shape the VMs
+	 * requested from it if the clouds are treated as heterogeneous.
+	 */
+	protected static class CloudProfile {
+		/**
+		 * The number of CPU cores in the biggest PM of the cloud
+		 */
+		public final double maxCores;
+		/**
+		 * The smallest per core processing power amongst the PMs of the cloud
+		 */
+		public final double procPower;
+		/**
+		 * The number of PMs in the cloud
+		 */
+		public final int machines;
+
+		public CloudProfile(final double maxCores, final double procPower, final int machines) {
+			this.maxCores = maxCores;
+			this.procPower = procPower;
+			this.machines = machines;
+		}
+	}
 
 	/**
 	 * Shows if the verbosity is switched on for the simulation run. Allows some
@@ -70,18 +114,77 @@ public class MultiIaaSJobDispatcher extends Timed {
 
 	public static final long baseBillingPeriod = 3600000;
 
+	/**
+	 * If set, the new VMs are shaped according to the PMs of the cloud they
+	 * are requested from, instead of assuming that all clouds are built from
+	 * the same PMs.
+	 */
+	public static final boolean heterogeneous = System
+			.getProperty("hu.mta.sztaki.lpds.cloud.simulator.examples.heterogeneous") != null;
+
+	/**
+	 * If positive, the dispatcher requests the VMs of the jobs this many ms
+	 * before the jobs are due, so the VMs can already be running when the jobs
+	 * arrive.
+	 */
+	public static final long prewarmLead = Long
+			.parseLong(System.getProperty("hu.mta.sztaki.lpds.cloud.simulator.examples.prewarm", "0"));
+
+	/**
+	 * If set, the jobs wait in a queue at the dispatcher until there are
+	 * enough free processors in the clouds for them, and the queue is
+	 * processed with EASY backfilling (see {@link BackfillScheduler}).
+	 * Without it, the jobs are sent to the clouds as soon as they are
+	 * submitted and wait in the VM queues of the clouds.
+	 */
+	public static final boolean backfilling = System
+			.getProperty("hu.mta.sztaki.lpds.cloud.simulator.examples.backfilling") != null;
+
 	/**
 	 * Allows the termination of the processing of the trace
 	 */
 	private boolean isStopped = false;
 	/**
-	 * The list of jobs (i.e., the trace) in a more rapidly processable form
+	 * The list of jobs (i.e., the trace) in a more rapidly processable and
+	 * compact form
 	 */
-	protected Job[] jobs;
+	protected JobTable jobs;
 	/**
 	 * The first unprocessed job in the trace
 	 */
 	protected int minindex = 0;
+	/**
+	 * The jobs of the trace grouped by their submission times
+	 */
+	protected SubmissionIndex submissionIndex;
+	/**
+	 * The first bucket in the submission index that still has unprocessed jobs
+	 */
+	protected int currentBucket = 0;
+	/**
+	 * The background reader of the trace if the trace is streamed, null if the
+	 * complete trace is held in the jobs array (or the stream is exhausted)
+	 */
+	private TracePrefetcher prefetcher = null;
+	/**
+	 * Shows if the dispatcher was set up to stream its trace
+	 */
+	private final boolean streaming;
+	/**
+	 * The number of jobs processed in the already dropped windows of a
+	 * streamed trace
+	 */
+	protected long windowOffset = 0;
+	/**
+	 * The amount of seconds all submission times were shifted with to avoid
+	 * jobs submitted before the dispatcher was created
+	 */
+	protected long adjustTime = 0;
+	/**
+	 * The VM sets already determined for the various processor counts listed
+	 * in the trace
+	 */
+	protected final HashMap<Integer, JobShape> shapeCache = new HashMap<Integer, JobShape>();
 	/**
 	 * the iaas services to be used for executing the jobs
 	 */
@@ -91,9 +194,72 @@ public class MultiIaaSJobDispatcher extends Timed {
 	 */
 	protected List<Repository> repo;
 	/**
-	 * the list of Virtual Machine keepers - the list of VMs that might be alive
+	 * the free Virtual Machine keepers - indexed by the size of their VMs
+	 */
+	protected VMPool pooledVMs = new VMPool();
+	/**
+	 * Tracks the billing periods of all VMs kept by the dispatcher
+	 */
+	protected final TimerWheel billingWheel = new TimerWheel();
+	/**
+	 * Holds the short lived timers of the dispatcher (e.g., the wake up for
+	 * the earliest startup timeout)
+	 */
+	protected final TimerWheel timeoutWheel = new TimerWheel();
+	/**
+	 * The startup timeouts of the job runners waiting for their VMs
+	 */
+	final StartupTimeouts startupTimeouts = new StartupTimeouts(SingleJobRunner.startupTimeout, timeoutWheel);
+	/**
+	 * The job runners that completed their jobs and can be used again
+	 */
+	private final ArrayDeque<SingleJobRunner> idleRunners = new ArrayDeque<SingleJobRunner>();
+	/**
+	 * The first of the runners with a job (the runners are linked through
+	 * their own fields to avoid allocations)
+	 */
+	private SingleJobRunner activeRunners = null;
+	/**
+	 * The number of job runners ever created by the dispatcher
+	 */
+	private long createdRunners = 0;
+	/**
+	 * Collects the keepers of the job being dispatched
+	 */
+	private VMKeeper[] keeperBuffer = new VMKeeper[16];
+	/**
+	 * The gangs whose VMs are all terminated and can be used again (for the
+	 * VMs of the jobs and for the prewarmed VMs)
+	 */
+	private final ArrayDeque<VMGang> idleGangs = new ArrayDeque<VMGang>(),
+			idlePrewarmGangs = new ArrayDeque<VMGang>();
+	/**
+	 * The clouds already used by the request being sent
+	 */
+	private final BitSet usedClouds = new BitSet();
+	/**
+	 * How long before their jobs are due the VMs are requested (see
+	 * {@link #prewarmLead})
 	 */
-	protected Set<VMKeeper> pooledVMs = new TreeSet<VMKeeper>(VMKeeper.compareKeepers);
+	private long leadTime = prewarmLead;
+	/**
+	 * Keeps the VMs requested in advance, null if prewarming is off
+	 */
+	private VMPrewarmer prewarmer = prewarmLead > 0 ? new VMPrewarmer(pooledVMs) : null;
+	/**
+	 * Should the VMs of the dispatcher be kept after their jobs until the end
+	 * of their billing period (see {@link VMKeeper#keepVMs})
+	 */
+	private boolean keepVMs = VMKeeper.keepVMs;
+	/**
+	 * The first bucket in the submission index that did not get its VMs
+	 * requested in advance yet
+	 */
+	protected int prewarmBucket = 0;
+	/**
+	 * The dispatcher side job queue, null if backfilling is off
+	 */
+	private BackfillScheduler backfill = null;
 	/**
 	 * the virtual appliance that will be used as the generic image for each VM in
 	 * the clouds
@@ -111,6 +277,43 @@ public class MultiIaaSJobDispatcher extends Timed {
 	 * maximum number of physical machines
 	 */
 	protected long maxIaaSmachines = 0;
+	/**
+	 * the capabilities of each target cloud (in the order of the target list)
+	 */
+	protected CloudProfile[] profiles;
+	/**
+	 * the total number of CPU cores the VMs could have in all clouds together
+	 */
+	protected double federationCores = 0;
+	/**
+	 * the total number of CPU cores of all PMs in all clouds
+	 */
+	protected long totalCores = 0;
+	/**
+	 * Shows if the processing power of the VMs was set explicitly, in this
+	 * case even the heterogeneous shapes cannot request more
+	 */
+	private boolean procPowerSet = false;
+	/**
+	 * The processing power (cores * per core processing power) of the
+	 * heterogeneously shaped VMs, and the power they would have had with the
+	 * uniform shapes
+	 */
+	private double shapedProcessing = 0, uniformProcessing = 0;
+	/**
+	 * Shows if the new VMs of this dispatcher are shaped according to the PMs
+	 * of their cloud (see {@link #heterogeneous})
+	 */
+	private boolean shapeVMs = heterogeneous;
+	/**
+	 * The number of jobs completed, their total queueing time (in s) and the
+	 * total amount of processor time they occupied (in core*s)
+	 */
+	private long completedJobs = 0, totalQueueTime = 0, busyCoreSecs = 0;
+	/**
+	 * When the last job completed (in ms)
+	 */
+	private long lastCompletion = 0;
 	/**
 	 * number of jobs ignored
 	 */
@@ -130,9 +333,14 @@ public class MultiIaaSJobDispatcher extends Timed {
 	 */
 	protected boolean isMinimumProcPower = false;
 	/**
-	 * current IaaS service to be used for VM creation
+	 * Decides which IaaS service receives the next VM request
+	 */
+	private CloudSelectionPolicy cloudSelection;
+	/**
+	 * These listeners are subscribed to the state changes of all VMs created
+	 * by the dispatcher
 	 */
-	private int targetIndex = 0;
+	private final ArrayList<VirtualMachine.StateChange> vmObservers = new ArrayList<VirtualMachine.StateChange>();
 
 	public int reuseCounter = 0;
 
@@ -156,27 +364,86 @@ public class MultiIaaSJobDispatcher extends Timed {
 	 */
 	public MultiIaaSJobDispatcher(GenericTraceProducer producer, List<IaaSService> target)
 			throws TraceManagementException {
+		this(producer, target, 0);
+	}
+
+	/**
+	 * Dispatcher setup that allows the trace to be streamed in. If a positive
+	 * window size is given, only a window of the trace is fetched at once (with
+	 * some more windows read ahead in the background), and the further windows
+	 * are pulled in as the dispatching progresses. This keeps the memory
+	 * footprint of the trace independent from its length. The trace is expected
+	 * to be (close to) ordered by submission time, as jobs are only sorted within
+	 * the windows currently held.
+	 * 
+	 * @param producer
+	 *            the trace
+	 * @param target
+	 *            the iaas systems to be used for submitting the trace to
+	 * @param windowSize
+	 *            the number of jobs to be read from the trace at once, if 0 then
+	 *            the complete trace is read in advance
+	 */
+	public MultiIaaSJobDispatcher(GenericTraceProducer producer, List<IaaSService> target, int windowSize)
+			throws TraceManagementException {
 		this.target = target;
+		streaming = windowSize > 0;
 		// Collecting the jobs
-		List<Job> jobs = producer.getAllJobs();
+		List<Job> jobs;
+		if (streaming) {
+			prefetcher = new TracePrefetcher(producer, windowSize, TracePrefetcher.defaultDepth);
+			jobs = prefetcher.nextWindow();
+		} else {
+			jobs = producer.getAllJobs();
+		}
 
 		// Ensuring they are listed in submission order
 		Collections.sort(jobs, JobListAnalyser.submitTimeComparator);
 		// Analyzing the jobs for min and max submission time
 		minsubmittime = JobListAnalyser.getEarliestSubmissionTime(jobs);
 		// Transforming the job list for rapid access arrays:
-		this.jobs = jobs.toArray(new Job[jobs.size()]);
+		this.jobs = JobTable.fromJobs(jobs);
 		jobs.clear();
+		prepareClouds();
+	}
+
+	/**
+	 * Dispatcher setup for an already loaded trace (e.g., one read from a
+	 * binary trace cache). The jobs are sorted by their submission time if
+	 * necessary and the target IaaS services are prepared as with the trace
+	 * producer based setup.
+	 * 
+	 * @param jobs
+	 *            the trace
+	 * @param target
+	 *            the iaas systems to be used for submitting the trace to
+	 */
+	public MultiIaaSJobDispatcher(JobTable jobs, List<IaaSService> target) {
+		this.target = target;
+		streaming = false;
+		this.jobs = jobs.sortBySubmitTime();
+		minsubmittime = this.jobs.size() == 0 ? 0 : this.jobs.getSubmittimeSecs(0);
+		prepareClouds();
+	}
 
+	/**
+	 * Analyzes and prepares the target IaaS services and subscribes for the
+	 * first job submission.
+	 */
+	private void prepareClouds() {
 		// Preparing the repositories with VAs
 		repo = new ArrayList<Repository>(target.size());
 		va = new VirtualAppliance("test", 30, 0, false, 100000000);
-		for (IaaSService iaas : target) {
+		profiles = new CloudProfile[target.size()];
+		for (int c = 0; c < profiles.length; c++) {
+			final IaaSService iaas = target.get(c);
 			Repository currentRepo = iaas.repositories.get(0);
 			repo.add(currentRepo);
 			// actually registering the VA
 			currentRepo.registerObject(va);
 			// determining the maximum number of CPU cores available in a PM
+			double cloudCores = 0;
+			double cloudProcPower = Double.MAX_VALUE;
 			for (PhysicalMachine pm : iaas.machines) {
 				double cores = pm.getCapacities().getRequiredCPUs();
 				double pp = pm.getCapacities().getRequiredProcessingPower();
@@ -186,10 +453,25 @@ public class MultiIaaSJobDispatcher extends Timed {
 				if (pp < useThisProcPower) {
 					useThisProcPower = pp;
 				}
+				cloudCores = Math.max(cloudCores, cores);
+				totalCores += (long) cores;
+				cloudProcPower = Math.min(cloudProcPower, pp);
 			}
 			if (iaas.machines.size() > maxIaaSmachines) {
 				maxIaaSmachines = iaas.machines.size();
 			}
+			profiles[c] = new CloudProfile(cloudCores, cloudProcPower, iaas.machines.size());
+			federationCores += cloudCores * iaas.machines.size();
+		}
+
+		cloudSelection = CloudSelectionPolicy.fromSystemProperties(target);
+		if (backfilling) {
+			if (streaming) {
+				// The queued rows would be lost when the window slides
+				System.err.println("Backfilling is not supported with streamed traces, the jobs are not queued");
+			} else {
+				backfill = new BackfillScheduler(this, totalCores);
+			}
 		}
 
 		// Ensuring we will receive a notification once the first job should be
@@ -198,14 +480,13 @@ public class MultiIaaSJobDispatcher extends Timed {
 		final long currentTime = Timed.getFireCount();
 		final long msTime = minsubmittime * 1000;
 		if (currentTime > msTime) {
-			final long adjustTime = (long) Math.ceil((currentTime - msTime) / 1000f);
+			adjustTime = (long) Math.ceil((currentTime - msTime) / 1000f);
 			minsubmittime += adjustTime;
-			for (Job job : this.jobs) {
-				job.adjust(adjustTime);
-			}
+			this.jobs.adjust(adjustTime);
 		}
+		submissionIndex = new SubmissionIndex(this.jobs);
 
-		subscribe(minsubmittime * 1000 - currentTime);
+		subscribe(getFirstEventTime() - currentTime);
 		if (verbosity) {
 			new Thread() {
 				private void printLog(String s) {
@@ -214,7 +495,8 @@ public class MultiIaaSJobDispatcher extends Timed {
 
 				private void printStats() {
 					printLog("subscibed=" + MultiIaaSJobDispatcher.this.isSubscribed() + " simTime="
-							+ Timed.getFireCount() + " destroys=" + getDestroycounter() + " startedjobs=" + minindex);
+							+ Timed.getFireCount() + " destroys=" + getDestroycounter() + " startedjobs="
+							+ (windowOffset + minindex));
 				}
 
 				public void run() {
@@ -253,154 +535,446 @@ public class MultiIaaSJobDispatcher extends Timed {
 	}
 
 	/**
-	 * Handling the jobs one by one when they are due.
+	 * Handling the jobs bucket by bucket when they are due.
 	 */
 	@Override
 	public void tick(final long currTime) {
-		// One ore more jobs must be submitted as we received this event
-		for (int i = minindex; i < jobs.length; i++) {
-			final Job toprocess = jobs[i];
-			long submittime = toprocess.getSubmittimeSecs() * 1000;
-			if (currTime == submittime) {
-				// the ith job is due now
-				boolean retry;
-				do {
-					retry = false;
-					// to fulfill the ith job's cpu core requirements we need the
-					// following set of VMs with the following number of CPUs
-					int requestedTotalInstances = maxmachinecores >= toprocess.nprocs ? 1
-							: (toprocess.nprocs / ((int) maxmachinecores))
-									+ ((toprocess.nprocs % (int) maxmachinecores) == 0 ? 0 : 1);
-					final double requestedprocs = (double) toprocess.nprocs / requestedTotalInstances;
-					ConstantConstraints reqRC = new ConstantConstraints(requestedprocs, useThisProcPower,
-							isMinimumProcPower, 512000000);
-					// For simplicity, here we have an assumption that our clouds
-					// are uniform...
-					int requestedClouds = (int) Math.ceil(requestedTotalInstances > maxIaaSmachines
-							? (double) requestedTotalInstances / maxIaaSmachines
-							: 1);
-					if (requestedClouds <= target.size()) {
-						// We have a chance to fit the job request in
-
-						// Clean up the VM keeper list of ours
-						Iterator<VMKeeper> it = pooledVMs.iterator();
-						while (it.hasNext()) {
-							VMKeeper curr = it.next();
-							if (!curr.isAlive()) {
-								it.remove();
-							}
-						}
+		// We are awake anyway, the expired startup timeouts can be handled
+		startupTimeouts.expire(currTime);
+		// One ore more buckets of jobs must be submitted as we received this event
+		while (true) {
+			if (prefetcher != null && currentBucket >= submissionIndex.size() - 1) {
+				// The last bucket of the window might continue in the next one
+				slideWindow();
+			}
+			if (currentBucket >= submissionIndex.size()) {
+				break;
+			}
+			if (prewarmer != null) {
+				prewarm(currTime);
+			}
+			final long submittime = submissionIndex.getSubmitTimeSecs(currentBucket) * 1000;
+			if (currTime < submittime) {
+				// the next bucket is not due yet, we have to ask for a new
+				// notification which will arrive when its jobs are due (or
+				// when the VMs of a later bucket should be requested)
+				long nextEvent = submittime;
+				if (prewarmer != null && prewarmBucket < submissionIndex.size()) {
+					nextEvent = Math.min(nextEvent,
+							submissionIndex.getSubmitTimeSecs(prewarmBucket) * 1000 - leadTime);
+				}
+				updateFrequency(nextEvent - currTime);
+				return;
+			}
+			final int bucketEnd = submissionIndex.getBucketEnd(currentBucket);
+			if (backfill == null) {
+				for (int i = submissionIndex.getBucketStart(currentBucket); i < bucketEnd; i++) {
+					dispatchJob(i);
+				}
+			} else {
+				for (int i = submissionIndex.getBucketStart(currentBucket); i < bucketEnd; i++) {
+					backfill.submit(i);
+				}
+				backfill.schedule();
+			}
+			minindex = bucketEnd;
+			currentBucket++;
+		}
+		// No more jobs are listed in the trace, we can just make sure no
+		// further events are coming to this dispatcher
+		unsubscribe();
+	}
 
-						int vmpointer = 0;
-						VMKeeper[] vms = new VMKeeper[requestedTotalInstances];
-
-						// Make sure the smallest VMs are listed first
-						// This ensures we leave the smallest amount of unused resources in the VMs
-						it = pooledVMs.iterator();
-						while (it.hasNext() && requestedTotalInstances > 0) {
-							VMKeeper current = it.next();
-							if (current.isFree() && current.wouldFit(reqRC)) {
-								reuseCounter++;
-								it.remove();
-								vms[vmpointer++] = current;
-								requestedTotalInstances--;
-								retry = true;
-							}
-						}
+	/**
+	 * Drops the already processed part of the current window of a streamed
+	 * trace and merges the rest with the next window.
+	 */
+	private void slideWindow() {
+		final List<Job> next;
+		try {
+			next = prefetcher.nextWindow();
+		} catch (TraceManagementException e) {
+			throw new RuntimeException("Could not stream the trace further", e);
+		}
+		if (next.isEmpty()) {
+			// The trace is over
+			prefetcher = null;
+			return;
+		}
+		final int start = submissionIndex.getBucketStart(currentBucket);
+		final JobTable.Builder window = new JobTable.Builder(jobs.size() - start + next.size());
+		for (int i = start; i < jobs.size(); i++) {
+			window.add(jobs, i);
+		}
+		for (Job job : next) {
+			if (adjustTime != 0) {
+				job.adjust(adjustTime);
+			}
+			window.add(job);
+		}
+		next.clear();
+		windowOffset += start;
+		jobs = window.build().sortBySubmitTime();
+		submissionIndex = new SubmissionIndex(jobs);
+		// The buckets already prewarmed are at the beginning of the new window
+		prewarmBucket = Math.max(0, prewarmBucket - currentBucket);
+		currentBucket = 0;
+		minindex = 0;
+	}
+
+	/**
+	 * Determines the VM set needed for a job with the given amount of
+	 * processors. The shapes are cached so jobs with the same processor
+	 * requirements do not need to repeat the split calculation.
+	 * 
+	 * @param nprocs
+	 *            the number of processors the job needs
+	 * @return the VM count and the resource constraints of each VM
+	 */
+	protected JobShape getShape(final int nprocs) {
+		JobShape shape = shapeCache.get(nprocs);
+		if (shape == null) {
+			// to fulfill the job's cpu core requirements we need the
+			// following set of VMs with the following number of CPUs
+			final int instances = maxmachinecores >= nprocs ? 1
+					: (nprocs / ((int) maxmachinecores)) + ((nprocs % (int) maxmachinecores) == 0 ? 0 : 1);
+			final double requestedprocs = (double) nprocs / instances;
+			shape = new JobShape(instances, new ConstantConstraints(requestedprocs, useThisProcPower,
+					isMinimumProcPower, 512000000));
+			shapeCache.put(nprocs, shape);
+		}
+		return shape;
+	}
 
-						if (requestedTotalInstances > 0) {
-							// recalculate requested clouds after reusing VMs
-							requestedClouds = (int) Math.ceil(requestedTotalInstances > maxIaaSmachines
-									? (double) requestedTotalInstances / maxIaaSmachines
-									: 1);
-
-							final int uniformSpread = requestedTotalInstances / requestedClouds;
-							int remainder = requestedTotalInstances % requestedClouds;
-
-							for (int j = 0; j < requestedClouds; j++) {
-								final int expectedSpread = uniformSpread + remainder;
-								final int currentRequestSize = (int) Math.min(maxIaaSmachines, expectedSpread);
-								remainder = expectedSpread - currentRequestSize;
-								// Starting the VMs for the job
-								try {
-									IaaSService currentTarget = target.get(targetIndex);
-									final VirtualMachine[] vmsTemp = currentTarget.requestVM(va, reqRC,
-											repo.get(targetIndex), currentRequestSize);
-									for (int k = 0; k < currentRequestSize; k++) {
-										VMKeeper newKeeper = new VMKeeper(currentTarget, vmsTemp[k], 3600 * 1000);
-										newKeeper.setListener(new VMKeeper.ReleaseListener() {
-
-											@Override
-											public void released(VMKeeper me) {
-												pooledVMs.add(me);
-											}
-										});
-										vms[vmpointer++] = newKeeper;
+	/**
+	 * Sends a single job to the clouds. Reuses the pooled VMs if possible and
+	 * requests new ones for the rest of the job's needs. The job object itself
+	 * is only created once the VMs for the job are available.
+	 * 
+	 * @param i
+	 *            the job's row in the job table
+	 * @return the job sent to the clouds, or null if the job was ignored
+	 */
+	Job dispatchJob(final int i) {
+		Job dispatched = null;
+		final JobShape shape = getShape(jobs.getNprocs(i));
+		final ConstantConstraints reqRC = shape.constraints;
+		boolean retry;
+		do {
+			retry = false;
+			int requestedTotalInstances = shape.instances;
+			// For simplicity, here we have an assumption that our clouds
+			// are uniform...
+			int requestedClouds = (int) Math.ceil(requestedTotalInstances > maxIaaSmachines
+					? (double) requestedTotalInstances / maxIaaSmachines
+					: 1);
+			if (shapeVMs ? jobs.getNprocs(i) <= federationCores : requestedClouds <= target.size()) {
+				// We have a chance to fit the job request in
 
-									}
+				int vmpointer = 0;
+				int vmCount = requestedTotalInstances;
+				VMKeeper[] vms = keeperBuffer(vmCount);
 
-									// doing a round robin scheduling for the target
-									// infrastructures
-									targetIndex++;
-									if (targetIndex == target.size()) {
-										targetIndex = 0;
-									}
-								} catch (VMManager.VMManagementException e) {
-									// VM cannot be served because of too large resource
-									// request
-									if (verbosity) {
-										System.err
-												.println("The oversized job's id: " + toprocess.getId() + " idx: " + i);
-									}
-									ignorecounter++;
-								} catch (Exception e) {
-									System.err.println("Unknown VM creation error: " + e.getMessage());
-									e.printStackTrace();
-									ignorecounter++;
-								}
-							}
-						}
-						boolean servability = true;
-						for (int j = 0; j < vms.length && servability; j++) {
-							// check if the job was not servable because it would
-							// have needed more resources than the target clouds
-							// could offer in total.
-							servability &= vms[j].isServable();
-						}
-						if (servability) {
-							retry = false;
-							new SingleJobRunner(toprocess, vms, this);
-						} else {
-							for (int j = 0; j < vms.length; j++) {
-								if (vms[j].isServable()) {
-									vms[j].prematureDestroy();
-								}
-							}
-							ignorecounter++;
+				// VMs requested in advance for this kind of job come first
+				final int prewarmed = prewarmer == null ? 0
+						: prewarmer.take(jobs.getNprocs(i), vms, vmpointer, vmCount);
+				if (prewarmed > 0) {
+					vmpointer += prewarmed;
+					requestedTotalInstances -= prewarmed;
+					retry = true;
+				}
+
+				// Make sure the smallest fitting VMs are reused first
+				// This ensures we leave the smallest amount of unused resources in the VMs
+				VMKeeper reused;
+				while (requestedTotalInstances > 0 && (reused = pooledVMs.acquireFitting(reqRC)) != null) {
+					reuseCounter++;
+					vms[vmpointer++] = reused;
+					requestedTotalInstances--;
+					retry = true;
+				}
+
+				// All new VMs of the job share their billing period
+				VMGang gang = null;
+				boolean servability = true;
+				if (requestedTotalInstances > 0) {
+					gang = obtainGang(idleGangs, pooledVMs);
+					if (shapeVMs) {
+						// The processors not covered by the reused VMs are
+						// spread over VMs shaped for their clouds
+						vmpointer = requestShapedVMs(requestedTotalInstances * reqRC.getRequiredCPUs(), vmpointer,
+								gang, i);
+						if (vmpointer < 0) {
+							servability = false;
+							vmpointer = ~vmpointer;
 						}
+						vmCount = vmpointer;
+						vms = keeperBuffer;
 					} else {
-						if (verbosity) {
-							System.err
-									.println("Bigger job than all clouds. Job id: " + toprocess.getId() + " idx: " + i);
+						vmpointer = requestNewVMs(reqRC, requestedTotalInstances, vms, vmpointer, gang, i);
+					}
+				}
+				for (int j = 0; j < vmCount && servability; j++) {
+					// check if the job was not servable because it would
+					// have needed more resources than the target clouds
+					// could offer in total.
+					servability &= vms[j].isServable();
+				}
+				if (servability) {
+					retry = false;
+					if (prewarmed > 0) {
+						prewarmer.jobServed(gang != null);
+					}
+					dispatched = jobs.createView(i);
+					final SingleJobRunner runner = idleRunners.pollLast();
+					if (runner == null) {
+						createdRunners++;
+						new SingleJobRunner(dispatched, vms, vmCount, this);
+					} else {
+						runner.start(dispatched, vms, vmCount, this);
+					}
+				} else {
+					for (int j = 0; j < vmCount; j++) {
+						if (vms[j].isServable()) {
+							vms[j].prematureDestroy();
 						}
-						ignorecounter++;
 					}
-				} while (retry);
-				minindex = i + 1;
-			} else if (currTime < submittime) {
-				// the ith job is not due yet, we have to ask for a new
-				// notification which will arrive when the ith job is due
-				updateFrequency(submittime - currTime);
-				break;
+					ignorecounter++;
+				}
+				if (gang != null) {
+					// The unused VMs of the gang are kept from now on
+					gang.seal();
+				}
+				// The runner has its own copy of the keepers
+				Arrays.fill(vms, 0, vmCount, null);
+			} else {
+				if (verbosity) {
+					System.err
+							.println("Bigger job than all clouds. Job id: " + jobs.getId(i) + " idx: " + i);
+				}
+				ignorecounter++;
 			}
+		} while (retry);
+		return dispatched;
+	}
+
+	/**
+	 * Provides a gang for a new set of VMs, an idle one if possible
+	 * 
+	 * @param idle
+	 *            the pool of idle gangs with the same listener
+	 * @param listener
+	 *            the release listener of the gang's VMs
+	 * @return the gang with its billing period starting now
+	 */
+	private VMGang obtainGang(final ArrayDeque<VMGang> idle, final VMKeeper.ReleaseListener listener) {
+		VMGang gang = idle.pollLast();
+		if (gang == null) {
+			gang = new VMGang(baseBillingPeriod, listener, billingWheel, idle);
+		} else {
+			gang.restart();
 		}
-		if (minindex == jobs.length)
+		gang.setKeepVMs(keepVMs);
+		return gang;
+	}
 
-		{
-			// No more jobs are listed in the trace, we can just make sure no
-			// further events are coming to this dispatcher
-			unsubscribe();
+	/**
+	 * Provides the reusable keeper array for the job being dispatched. The
+	 * keepers already placed in the array are kept if it needs to grow.
+	 * 
+	 * @param length
+	 *            the number of keepers the job needs
+	 * @return an array with at least the requested length
+	 */
+	private VMKeeper[] keeperBuffer(final int length) {
+		if (keeperBuffer.length < length) {
+			keeperBuffer = Arrays.copyOf(keeperBuffer, Math.max(length, keeperBuffer.length * 2));
 		}
+		return keeperBuffer;
+	}
+
+	/**
+	 * Requests new VMs from the clouds. The VMs are spread over as few clouds
+	 * as possible, the clouds are picked by the cloud selection policy.
+	 * 
+	 * @param reqRC
+	 *            the resources needed for each VM
+	 * @param count
+	 *            the number of VMs to request
+	 * @param into
+	 *            the array to store the keepers of the new VMs in
+	 * @param pointer
+	 *            the first free position in the array
+	 * @param gang
+	 *            the gang the new VMs belong to
+	 * @param forJob
+	 *            the row of the job in the job table the VMs are requested for
+	 *            or -1 if they are requested in advance
+	 * @return the first free position in the array after the new keepers
+	 */
+	private int requestNewVMs(final ConstantConstraints reqRC, final int count, final VMKeeper[] into, int pointer,
+			final VMGang gang, final int forJob) {
+		// For simplicity, here we have an assumption that our clouds
+		// are uniform...
+		final int requestedClouds = (int) Math.ceil(count > maxIaaSmachines ? (double) count / maxIaaSmachines : 1);
+
+		final int uniformSpread = count / requestedClouds;
+		int remainder = count % requestedClouds;
+		// The parts of the request should go to different clouds
+		usedClouds.clear();
+
+		for (int j = 0; j < requestedClouds; j++) {
+			final int expectedSpread = uniformSpread + remainder;
+			final int currentRequestSize = (int) Math.min(maxIaaSmachines, expectedSpread);
+			remainder = expectedSpread - currentRequestSize;
+			// Starting the VMs for the job
+			try {
+				final int targetIndex = cloudSelection.select(reqRC, currentRequestSize,
+						requestedClouds > 1 ? usedClouds : null);
+				IaaSService currentTarget = target.get(targetIndex);
+				final VirtualMachine[] vmsTemp = currentTarget.requestVM(va, reqRC, repo.get(targetIndex),
+						currentRequestSize);
+				for (int k = 0; k < currentRequestSize; k++) {
+					for (VirtualMachine.StateChange observer : vmObservers) {
+						vmsTemp[k].subscribeStateChange(observer);
+					}
+					into[pointer++] = new VMKeeper(currentTarget, vmsTemp[k], gang);
+				}
+
+				cloudSelection.requested(targetIndex, reqRC, currentRequestSize);
+				usedClouds.set(targetIndex);
+			} catch (VMManager.VMManagementException e) {
+				// VM cannot be served because of too large resource
+				// request
+				if (forJob < 0) {
+					// Nothing is lost if a VM cannot be requested in advance
+					continue;
+				}
+				if (verbosity) {
+					System.err.println("The oversized job's id: " + jobs.getId(forJob) + " idx: " + forJob);
+				}
+				ignorecounter++;
+			} catch (Exception e) {
+				System.err.println("Unknown VM creation error: " + e.getMessage());
+				e.printStackTrace();
+				if (forJob >= 0) {
+					ignorecounter++;
+				}
+			}
+		}
+		return pointer;
+	}
+
+	/**
+	 * Requests new VMs for a given amount of processors, using VMs that match
+	 * the PMs of the cloud they are requested from. The clouds are picked by
+	 * the cloud selection policy, every cloud receives as many VMs as
+	 * necessary (but not more than its PM count) to host the processors not
+	 * yet covered. The keepers of the new VMs are added to the keeper buffer.
+	 * 
+	 * @param procs
+	 *            the number of processors needed
+	 * @param pointer
+	 *            the first free position in the keeper buffer
+	 * @param gang
+	 *            the gang the new VMs belong to
+	 * @param forJob
+	 *            the row of the job in the job table the VMs are requested for
+	 *            or -1 if they are requested in advance
+	 * @return the first free position in the keeper buffer after the new
+	 *         keepers if all processors are covered by the new VMs, otherwise
+	 *         the bitwise complement of that position (i.e., a negative value)
+	 */
+	private int requestShapedVMs(double procs, int pointer, final VMGang gang, final int forJob) {
+		usedClouds.clear();
+		while (procs > 1e-9 && usedClouds.cardinality() < target.size()) {
+			final int targetIndex = cloudSelection.select(null, 0, usedClouds);
+			usedClouds.set(targetIndex);
+			final CloudProfile profile = profiles[targetIndex];
+			if (profile.machines == 0) {
+				continue;
+			}
+			final int count = (int) Math.min(profile.machines, Math.ceil(procs / profile.maxCores));
+			final double cores = Math.min(profile.maxCores, procs / count);
+			final double procPower = procPowerSet ? Math.min(useThisProcPower, profile.procPower)
+					: profile.procPower;
+			final ConstantConstraints reqRC = new ConstantConstraints(cores, procPower, isMinimumProcPower,
+					512000000);
+			try {
+				IaaSService currentTarget = target.get(targetIndex);
+				final VirtualMachine[] vmsTemp = currentTarget.requestVM(va, reqRC, repo.get(targetIndex), count);
+				final VMKeeper[] into = keeperBuffer(pointer + count);
+				for (int k = 0; k < count; k++) {
+					for (VirtualMachine.StateChange observer : vmObservers) {
+						vmsTemp[k].subscribeStateChange(observer);
+					}
+					into[pointer++] = new VMKeeper(currentTarget, vmsTemp[k], gang);
+				}
+				cloudSelection.requested(targetIndex, reqRC, count);
+				procs -= count * cores;
+				shapedProcessing += count * cores * procPower;
+				uniformProcessing += count * cores * useThisProcPower;
+			} catch (VMManager.VMManagementException e) {
+				if (verbosity && forJob >= 0) {
+					System.err.println("The oversized job's id: " + jobs.getId(forJob) + " idx: " + forJob);
+				}
+			} catch (Exception e) {
+				System.err.println("Unknown VM creation error: " + e.getMessage());
+				e.printStackTrace();
+			}
+		}
+		return procs <= 1e-9 ? pointer : ~pointer;
+	}
+
+	/**
+	 * Requests VMs in advance for the jobs of the buckets that will be due
+	 * within the prewarming lead time.
+	 * 
+	 * @param currTime
+	 *            the current time
+	 */
+	private void prewarm(final long currTime) {
+		if (prewarmBucket < currentBucket) {
+			prewarmBucket = currentBucket;
+		}
+		while (prewarmBucket < submissionIndex.size()) {
+			final long submittime = submissionIndex.getSubmitTimeSecs(prewarmBucket) * 1000;
+			if (submittime - leadTime > currTime) {
+				break;
+			}
+			if (submittime > currTime) {
+				// The bucket is not dispatched right now, so its VMs could
+				// be ready by the time its jobs arrive
+				final int bucketEnd = submissionIndex.getBucketEnd(prewarmBucket);
+				for (int i = submissionIndex.getBucketStart(prewarmBucket); i < bucketEnd; i++) {
+					final int nprocs = jobs.getNprocs(i);
+					final JobShape shape = getShape(nprocs);
+					if (shape.instances > maxIaaSmachines * target.size()) {
+						// Would not fit anyway
+						continue;
+					}
+					final VMGang gang = obtainGang(idlePrewarmGangs, prewarmer);
+					final VMKeeper[] keepers = keeperBuffer(shape.instances);
+					final int count = requestNewVMs(shape.constraints, shape.instances, keepers, 0, gang, -1);
+					for (int k = 0; k < count; k++) {
+						prewarmer.add(nprocs, keepers[k], keepers[k].getVM());
+					}
+					Arrays.fill(keepers, 0, count, null);
+					gang.seal();
+				}
+			}
+			prewarmBucket++;
+		}
+	}
+
+	/**
+	 * Determines when the dispatcher first needs to act: at the earliest
+	 * submission time, or earlier if the VMs are prewarmed.
+	 * 
+	 * @return the time of the dispatcher's first event (in ms)
+	 */
+	public long getFirstEventTime() {
+		return Math.max(Timed.getFireCount(), minsubmittime * 1000 - Math.max(0, leadTime));
 	}
 
 	/**
@@ -445,6 +1019,231 @@ public class MultiIaaSJobDispatcher extends Timed {
 		destroycounter += finishedVMs;
 	}
 
+	/**
+	 * Offers a job runner for reuse once its job is no longer running
+	 * 
+	 * @param runner
+	 *            the idle runner
+	 */
+	void recycleRunner(final SingleJobRunner runner) {
+		idleRunners.addLast(runner);
+	}
+
+	/**
+	 * Registers a runner that received a job
+	 */
+	void runnerActivated(final SingleJobRunner runner) {
+		runner.prevActive = null;
+		runner.nextActive = activeRunners;
+		if (activeRunners != null) {
+			activeRunners.prevActive = runner;
+		}
+		activeRunners = runner;
+	}
+
+	/**
+	 * Removes a runner from the active ones once its job terminated
+	 */
+	void runnerDeactivated(final SingleJobRunner runner) {
+		if (runner.prevActive == null) {
+			activeRunners = runner.nextActive;
+		} else {
+			runner.prevActive.nextActive = runner.nextActive;
+		}
+		if (runner.nextActive != null) {
+			runner.nextActive.prevActive = runner.prevActive;
+		}
+		runner.prevActive = runner.nextActive = null;
+	}
+
+	/**
+	 * The first runner with a job, the rest can be reached through
+	 * {@link SingleJobRunner#nextActive}
+	 */
+	SingleJobRunner getActiveRunners() {
+		return activeRunners;
+	}
+
+	/**
+	 * Lists the runners that currently have a job (either running or waiting
+	 * for its VMs)
+	 */
+	public List<SingleJobRunner> listActiveRunners() {
+		final ArrayList<SingleJobRunner> list = new ArrayList<SingleJobRunner>();
+		for (SingleJobRunner r = activeRunners; r != null; r = r.nextActive) {
+			list.add(r);
+		}
+		return list;
+	}
+
+	/**
+	 * Collects the rows of the job table that were not sent to the clouds
+	 * yet: the ones waiting in the backfilling queue and the ones not yet
+	 * submitted.
+	 * 
+	 * @return the row indices in the order the jobs would be handled
+	 */
+	int[] getPendingRows() {
+		final int waiting = backfill == null ? 0 : backfill.size();
+		final int unsubmitted = currentBucket < submissionIndex.size()
+				? jobs.size() - submissionIndex.getBucketStart(currentBucket)
+				: 0;
+		final int[] rows = new int[waiting + unsubmitted];
+		for (int i = 0; i < waiting; i++) {
+			rows[i] = backfill.getWaitingRow(i);
+		}
+		for (int i = 0; i < unsubmitted; i++) {
+			rows[waiting + i] = jobs.size() - unsubmitted + i;
+		}
+		return rows;
+	}
+
+	/**
+	 * Tells how many job runners were created by the dispatcher. As runners
+	 * are reused, this is the highest number of jobs the dispatcher had
+	 * running at the same time (not the number of jobs dispatched).
+	 */
+	public long getCreatedRunners() {
+		return createdRunners;
+	}
+
+	/**
+	 * Allows single job runners to let us know that their job is no longer
+	 * running (either because it completed or because its VMs did not start
+	 * in time).
+	 * 
+	 * @param job
+	 *            the job of the runner
+	 * @param completed
+	 *            true if the job was executed completely
+	 */
+	void jobTerminated(final Job job, final boolean completed) {
+		if (completed) {
+			completedJobs++;
+			totalQueueTime += job.getRealqueueTime();
+			busyCoreSecs += job.nprocs * (job.getRealstopTime() - job.getRealqueueTime());
+			lastCompletion = Timed.getFireCount();
+		}
+		if (backfill != null) {
+			backfill.terminated(job);
+		}
+	}
+
+	/**
+	 * Tells how many jobs wait in the dispatcher's own queue (always 0 if
+	 * backfilling is off)
+	 */
+	public int getWaitingJobs() {
+		return backfill == null ? 0 : backfill.size();
+	}
+
+	/**
+	 * Tells how many jobs were executed completely
+	 */
+	public long getCompletedJobs() {
+		return completedJobs;
+	}
+
+	/**
+	 * Determines the average time the completed jobs spent between their
+	 * submission and their start (including the time spent in the
+	 * dispatcher's queue and the startup of their VMs).
+	 * 
+	 * @return the average queueing time in seconds
+	 */
+	public double getAverageQueueTime() {
+		return completedJobs == 0 ? 0 : (double) totalQueueTime / completedJobs;
+	}
+
+	/**
+	 * Determines what portion of the processors of all clouds were occupied
+	 * by the completed jobs between the first submission and the last
+	 * completion.
+	 * 
+	 * @return the utilisation in the range of [0,1]
+	 */
+	public double getUtilisation() {
+		final long span = lastCompletion / 1000 - minsubmittime;
+		return span <= 0 || totalCores == 0 ? 0 : (double) busyCoreSecs / ((double) totalCores * span);
+	}
+
+	/**
+	 * Tells how many jobs were started before an earlier submitted one by the
+	 * backfilling queue
+	 */
+	public long getBackfilledJobs() {
+		return backfill == null ? 0 : backfill.backfilledJobs;
+	}
+
+	/**
+	 * Determines the average time the jobs spent in the dispatcher's queue
+	 * before they were sent to the clouds
+	 * 
+	 * @return the average waiting time in seconds
+	 */
+	public double getAverageDispatcherWait() {
+		return backfill == null || backfill.startedJobs == 0 ? 0
+				: backfill.totalWait / 1000.0 / backfill.startedJobs;
+	}
+
+	/**
+	 * Compares the processing power of the VMs shaped for their clouds (see
+	 * {@link #heterogeneous}) with the power the same VMs would have had with
+	 * the uniform shapes using the slowest PMs of all clouds. This is the
+	 * ratio of the requested capacities, not a measured throughput: the
+	 * effect on the jobs is shown by their queueing and completion
+	 * statistics.
+	 * 
+	 * @return the ratio of the two, or 1 if no VMs were shaped yet
+	 */
+	public double getShapedProcPowerRatio() {
+		return uniformProcessing == 0 ? 1 : shapedProcessing / uniformProcessing;
+	}
+
+	/**
+	 * Tells how many VMs were requested in advance
+	 */
+	public long getPrewarmedVMs() {
+		return prewarmer == null ? 0 : prewarmer.requestedVMs;
+	}
+
+	/**
+	 * Tells how many of the VMs requested in advance were used by a job
+	 */
+	public long getUsedPrewarmedVMs() {
+		return prewarmer == null ? 0 : prewarmer.usedVMs;
+	}
+
+	/**
+	 * Tells how many of the VMs requested in advance were never used by a job
+	 * (they expired or were terminated before a job could take them)
+	 */
+	public long getWastedPrewarmedVMs() {
+		return prewarmer == null ? 0 : prewarmer.wastedVMs;
+	}
+
+	/**
+	 * Estimates how much the queueing time of the jobs was reduced by the VMs
+	 * requested in advance. Only jobs served exclusively by already existing
+	 * VMs are counted, with the smallest head start amongst their prewarmed
+	 * VMs.
+	 * 
+	 * @return the total reduction in ms
+	 */
+	public long getPrewarmQueueTimeReduction() {
+		return prewarmer == null ? 0 : prewarmer.savedQueueTime;
+	}
+
+	/**
+	 * Tells how long the VMs requested in advance were running (or starting
+	 * up, in case of the never used ones) without a job
+	 * 
+	 * @return the extra VM time in hours
+	 */
+	public double getPrewarmExtraVMHours() {
+		return prewarmer == null ? 0 : prewarmer.extraVMTime / 3600000.0;
+	}
+
 	/**
 	 * Sets the processing power related requirements for the resource allocation
 	 * requests for all VMs.
@@ -457,6 +1256,100 @@ public class MultiIaaSJobDispatcher extends Timed {
 	public void setUsableProcPower(final double usableProcPower, final boolean minimum) {
 		this.useThisProcPower = usableProcPower;
 		isMinimumProcPower = minimum;
+		procPowerSet = true;
+		// The cached VM sets were determined with the old processing power
+		shapeCache.clear();
+	}
+
+	/**
+	 * Replaces the policy that decides which cloud receives the next VM
+	 * request (by default the policy is determined by
+	 * {@link CloudSelectionPolicy#policyProperty}). The replaced policy is
+	 * detached from the clouds.
+	 * 
+	 * @param policy
+	 *            the new policy
+	 */
+	public void setCloudSelectionPolicy(final CloudSelectionPolicy policy) {
+		if (cloudSelection != policy) {
+			// The replaced policy should not follow the clouds any longer
+			cloudSelection.detach();
+		}
+		cloudSelection = policy;
+	}
+
+	/**
+	 * Requests the VMs of the jobs in advance even if {@link #prewarmLead} is
+	 * not set. Only possible before the dispatcher's first event.
+	 * 
+	 * @param lead
+	 *            how long before their jobs are due the VMs are requested (in
+	 *            ms)
+	 */
+	public void enablePrewarming(final long lead) {
+		if (lead <= 0) {
+			throw new IllegalArgumentException("The prewarming lead time must be positive");
+		}
+		if (currentBucket > 0 || prewarmBucket > 0) {
+			throw new IllegalStateException("Some jobs are already dispatched");
+		}
+		leadTime = lead;
+		if (prewarmer == null) {
+			prewarmer = new VMPrewarmer(pooledVMs);
+		}
+		// The first event could be earlier now
+		unsubscribe();
+		subscribe(getFirstEventTime() - Timed.getFireCount());
+	}
+
+	/**
+	 * Shapes the new VMs according to the PMs of the cloud they are requested
+	 * from even if {@link #heterogeneous} is not set. Only possible before the
+	 * first job is dispatched.
+	 */
+	public void enableHeterogeneousShapes() {
+		if (currentBucket > 0) {
+			throw new IllegalStateException("Some jobs are already dispatched");
+		}
+		shapeVMs = true;
+	}
+
+	/**
+	 * Keeps the VMs of the dispatcher after their jobs until the end of their
+	 * billing period even if {@link VMKeeper#keepVMs} is not set, so later
+	 * jobs can reuse them. Affects the VMs requested from now on.
+	 */
+	public void enableVMKeeping() {
+		keepVMs = true;
+	}
+
+	/**
+	 * Queues the jobs at the dispatcher with EASY backfilling even if
+	 * {@link #backfilling} is not set. Only possible before the first job is
+	 * dispatched.
+	 */
+	public void enableBackfilling() {
+		if (backfill != null) {
+			return;
+		}
+		if (streaming) {
+			throw new IllegalStateException("Backfilling is not supported with streamed traces");
+		}
+		if (currentBucket > 0) {
+			throw new IllegalStateException("Some jobs are already dispatched");
+		}
+		backfill = new BackfillScheduler(this, totalCores);
+	}
+
+	/**
+	 * Allows third parties (e.g., monitoring) to follow the state of all VMs
+	 * created by the dispatcher from now on.
+	 * 
+	 * @param observer
+	 *            the listener to subscribe to the state changes of the new VMs
+	 */
+	public void addVMObserver(final VirtualMachine.StateChange observer) {
+		vmObservers.add(observer);
 	}
 
 	/**
@@ -466,6 +1359,20 @@ public class MultiIaaSJobDispatcher extends Timed {
 	public void stopTraceProcessing() {
 		unsubscribe();
 		isStopped = true;
+		if (prefetcher != null) {
+			prefetcher.shutdown();
+			prefetcher = null;
+		}
+	}
+
+	/**
+	 * Tells if the trace is streamed in windows (and thus the jobs array only
+	 * holds part of the trace)
+	 * 
+	 * @return true if the trace is streamed
+	 */
+	public boolean isStreaming() {
+		return streaming;
 	}
 
 	public boolean isStopped() {
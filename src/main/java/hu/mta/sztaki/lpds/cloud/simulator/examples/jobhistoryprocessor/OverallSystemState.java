@@ -75,8 +75,20 @@ public class OverallSystemState {
 	 */
 	@Override
 	public String toString() {
-		return timeStamp + "," + finishedVMs + "," + queueLen + ","
-				+ runningVMs + "," + usedCores + "," + runningPMs + ","
-				+ (long) (totalTransferredData) + "\n";
+		return appendTo(new StringBuilder(64)).toString();
+	}
+
+	/**
+	 * Formats the state in the same way as {@link #toString()} but without
+	 * creating intermediate strings.
+	 * 
+	 * @param sb
+	 *            the builder to append the state to
+	 * @return the builder received as the parameter
+	 */
+	public StringBuilder appendTo(StringBuilder sb) {
+		return sb.append(timeStamp).append(',').append(finishedVMs).append(',').append(queueLen).append(',')
+				.append(runningVMs).append(',').append(usedCores).append(',').append(runningPMs).append(',')
+				.append((long) (totalTransferredData)).append('\n');
 	}
 }
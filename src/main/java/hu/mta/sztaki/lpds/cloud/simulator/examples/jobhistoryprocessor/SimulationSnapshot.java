@@ -0,0 +1,233 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  (C) Copyright 2017, Gabor Kecskemeti (g.kecskemeti@ljmu.ac.uk)
+ */
+package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import hu.mta.sztaki.lpds.cloud.simulator.Timed;
+import hu.mta.sztaki.lpds.cloud.simulator.helpers.job.Job;
+
+/**
+ * Captures the progress of a job dispatching simulation, so several variants
+ * (e.g., with different consolidators) can continue from the same warmed up
+ * state without simulating the beginning of the trace again.
+ * 
+ * The state of the simulator itself (the event queue of {@link Timed}, the
+ * PMs, VMs and ongoing transfers) is kept in the simulator library and
+ * cannot be saved. The snapshot therefore only records the dispatcher's view
+ * of the simulation: the time it was taken at and the jobs that did not
+ * complete by then. When the snapshot is restored, the jobs already running
+ * are resubmitted at the time of the snapshot with their remaining execution
+ * time, the jobs waiting for their VMs or in the dispatcher's queue are
+ * resubmitted with their original execution time, and the rest of the trace
+ * follows with its original submission times. The clouds start from their
+ * initial state, so the resubmitted jobs need new VMs (i.e., the VM startup
+ * is paid again and the VM placement is not preserved).
+ * 
+ * The snapshot also carries the totals of the simulation so far (completed
+ * jobs, consumed energy), so the results of a resumed run can cover the
+ * whole trace.
+ * 
+ * @author "Gabor Kecskemeti, Department of Computer Science, Liverpool John
+ *         Moores University, (c) 2017"
+ */
+public class SimulationSnapshot {
+	/**
+	 * Identifies the snapshot files ("DCFK")
+	 */
+	public static final int magic = 0x4b464344;
+	public static final int version = 2;
+
+	/**
+	 * The simulated time the snapshot was taken at (in ms)
+	 */
+	public final long time;
+	/**
+	 * The number of jobs completed before the snapshot (since the beginning
+	 * of the trace, including the runs the snapshot's run was resumed from)
+	 */
+	public final long completedJobs;
+	/**
+	 * The submission time of the first job of the trace (in ms)
+	 */
+	public final long startTime;
+	/**
+	 * The energy consumed by the clouds before the snapshot (in W*ms, since
+	 * the beginning of the trace), NaN if it was not monitored all along
+	 */
+	public final double consumedEnergy;
+	/**
+	 * The jobs still to be simulated
+	 */
+	public final JobTable jobs;
+
+	private SimulationSnapshot(final long time, final long completedJobs, final long startTime,
+			final double consumedEnergy, final JobTable jobs) {
+		this.time = time;
+		this.completedJobs = completedJobs;
+		this.startTime = startTime;
+		this.consumedEnergy = consumedEnergy;
+		this.jobs = jobs;
+	}
+
+	/**
+	 * Captures the current state of a dispatcher that started with the
+	 * beginning of its trace and whose energy consumption is not known
+	 * 
+	 * @param dispatcher
+	 *            the dispatcher of the simulation, it must not stream its
+	 *            trace
+	 * @return the snapshot
+	 */
+	public static SimulationSnapshot capture(final MultiIaaSJobDispatcher dispatcher) {
+		return capture(dispatcher, null, Double.NaN);
+	}
+
+	/**
+	 * Captures the current state of a dispatcher
+	 * 
+	 * @param dispatcher
+	 *            the dispatcher of the simulation, it must not stream its
+	 *            trace
+	 * @param resumedFrom
+	 *            the snapshot the simulation was resumed from, null if it
+	 *            started with the beginning of the trace
+	 * @param consumedEnergy
+	 *            the energy consumed by the clouds since the simulation was
+	 *            started or resumed (in W*ms), NaN if not monitored
+	 * @return the snapshot with its totals covering the runs it was resumed
+	 *         from as well
+	 */
+	public static SimulationSnapshot capture(final MultiIaaSJobDispatcher dispatcher,
+			final SimulationSnapshot resumedFrom, final double consumedEnergy) {
+		if (dispatcher.isStreaming()) {
+			throw new IllegalStateException("Snapshots of streamed traces are not supported");
+		}
+		final long now = Timed.getFireCount();
+		// The resubmissions must not precede the snapshot
+		final long resubmit = (now + 999) / 1000;
+		final JobTable table = dispatcher.jobs;
+		final int[] pending = dispatcher.getPendingRows();
+		final JobTable.Builder builder = new JobTable.Builder(pending.length + 1024);
+		for (SingleJobRunner r = dispatcher.getActiveRunners(); r != null; r = r.nextActive) {
+			final Job job = r.getJob();
+			long exec = job.getExectimeSecs();
+			if (r.getStartTime() >= 0) {
+				exec = Math.max(1, exec - (now - r.getStartTime()) / 1000);
+			}
+			builder.add(job.getId(), resubmit, job.getQueuetimeSecs(), exec, job.nprocs, job.perProcCPUTime,
+					job.usedMemory, job.user, job.group, job.executable);
+		}
+		for (int row : pending) {
+			if (table.getSubmittimeSecs(row) < resubmit) {
+				// Already submitted, but waiting in the dispatcher's queue
+				builder.add(table.getId(row), resubmit, table.queue[row], table.exec[row], table.nprocs[row],
+						table.ppCpu[row], table.ppMem[row], table.dictionary[table.user[row]],
+						table.dictionary[table.group[row]], table.dictionary[table.executable[row]]);
+			} else {
+				builder.add(table, row);
+			}
+		}
+		final JobTable rest = builder.build().sortBySubmitTime();
+		if (resumedFrom == null) {
+			return new SimulationSnapshot(now, dispatcher.getCompletedJobs(), dispatcher.getMinsubmittime() * 1000,
+					consumedEnergy, rest);
+		}
+		return new SimulationSnapshot(now, resumedFrom.completedJobs + dispatcher.getCompletedJobs(),
+				resumedFrom.startTime, resumedFrom.consumedEnergy + consumedEnergy, rest);
+	}
+
+	/**
+	 * Saves the snapshot
+	 * 
+	 * @throws IOException
+	 *             if the file could not be written
+	 */
+	public void write(final File file) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file), 64 * 1024))) {
+			out.writeInt(magic);
+			out.writeInt(version);
+			out.writeLong(time);
+			out.writeLong(completedJobs);
+			out.writeLong(startTime);
+			out.writeDouble(consumedEnergy);
+			out.writeInt(jobs.size());
+			for (int i = 0; i < jobs.size(); i++) {
+				out.writeUTF(jobs.getId(i));
+				out.writeLong(jobs.submit[i]);
+				out.writeLong(jobs.queue[i]);
+				out.writeLong(jobs.exec[i]);
+				out.writeInt(jobs.nprocs[i]);
+				out.writeDouble(jobs.ppCpu[i]);
+				out.writeLong(jobs.ppMem[i]);
+				writeNullable(out, jobs.dictionary[jobs.user[i]]);
+				writeNullable(out, jobs.dictionary[jobs.group[i]]);
+				writeNullable(out, jobs.dictionary[jobs.executable[i]]);
+			}
+		}
+	}
+
+	/**
+	 * Loads a snapshot saved with {@link #write(File)}
+	 * 
+	 * @throws IOException
+	 *             if the file could not be read or it is not a snapshot
+	 */
+	public static SimulationSnapshot read(final File file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+			if (in.readInt() != magic || in.readInt() != version) {
+				throw new IOException(file + " is not a simulation snapshot of a supported version");
+			}
+			final long time = in.readLong();
+			final long completedJobs = in.readLong();
+			final long startTime = in.readLong();
+			final double consumedEnergy = in.readDouble();
+			final int rows = in.readInt();
+			final JobTable.Builder builder = new JobTable.Builder(rows);
+			for (int i = 0; i < rows; i++) {
+				builder.add(in.readUTF(), in.readLong(), in.readLong(), in.readLong(), in.readInt(), in.readDouble(),
+						in.readLong(), readNullable(in), readNullable(in), readNullable(in));
+			}
+			return new SimulationSnapshot(time, completedJobs, startTime, consumedEnergy, builder.build());
+		}
+	}
+
+	private static void writeNullable(final DataOutputStream out, final String s) throws IOException {
+		out.writeBoolean(s != null);
+		if (s != null) {
+			out.writeUTF(s);
+		}
+	}
+
+	private static String readNullable(final DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+}
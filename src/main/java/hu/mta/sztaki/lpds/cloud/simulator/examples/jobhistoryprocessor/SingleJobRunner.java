@@ -22,13 +22,26 @@
  */
 package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
 
-import hu.mta.sztaki.lpds.cloud.simulator.DeferredEvent;
+import hu.mta.sztaki.lpds.cloud.simulator.Timed;
 import hu.mta.sztaki.lpds.cloud.simulator.helpers.job.Job;
 import hu.mta.sztaki.lpds.cloud.simulator.iaas.VMManager;
 import hu.mta.sztaki.lpds.cloud.simulator.iaas.VirtualMachine;
 import hu.mta.sztaki.lpds.cloud.simulator.iaas.resourcemodel.ResourceConsumption;
 import hu.mta.sztaki.lpds.cloud.simulator.iaas.resourcemodel.ResourceConsumption.ConsumptionEvent;
 
+/**
+ * Runs a single job on a set of VMs: waits until all VMs are running, then
+ * starts the job's part in every VM and releases the VMs once all parts
+ * complete. If the VMs do not start within the startup timeout, the job is
+ * dropped.
+ * 
+ * Runners are reusable: once their job terminated, they return to the idle
+ * runner pool of their dispatcher, which hands them out again for later jobs
+ * (see {@link #start(Job, VMKeeper[], int, MultiIaaSJobDispatcher)}). Their
+ * arrays are kept and only grow if a job needs more VMs than any earlier one.
+ * The startup timeouts are only set if some VMs are not running yet, and they
+ * are tracked by the dispatcher's {@link StartupTimeouts}.
+ */
 public class SingleJobRunner implements VirtualMachine.StateChange, ConsumptionEvent {
 	public static final long defaultStartupTimeout = 24 * 3600000; // a day
 	public static final long startupTimeout;
@@ -39,28 +52,67 @@ public class SingleJobRunner implements VirtualMachine.StateChange, ConsumptionE
 		System.err.println("VM startup timeout is set to " + startupTimeout);
 	}
 	private Job toProcess;
-	private VMKeeper[] keeperSet;
-	private VirtualMachine[] vmSet;
+	private VMKeeper[] keeperSet = new VMKeeper[1];
+	private VirtualMachine[] vmSet = new VirtualMachine[1];
+	/**
+	 * The number of VMs used for the current job, the arrays could be longer
+	 */
+	private int vmCount = 0;
 	private MultiIaaSJobDispatcher parent;
 	private int readyVMCounter = 0;
 	private int completionCounter = 0;
-	private DeferredEvent timeout = new DeferredEvent(startupTimeout) {
-
-		@Override
-		protected void eventAction() {
-			// After our timeout we still don't have all VMs started, we just forget about
-			// this job
-			releaseVMset();
-		}
-	};
+	/**
+	 * The time the startup timeout of the current job expires, negative if
+	 * no timeout is set (maintained by {@link StartupTimeouts})
+	 */
+	long startupDeadline = -1;
+	/**
+	 * The time the current job was started in its VMs, negative if it still
+	 * waits for them
+	 */
+	private long startTime = -1;
+	/**
+	 * The neighbours of the runner in the dispatcher's list of runners with
+	 * a job
+	 */
+	SingleJobRunner prevActive, nextActive;
 
 	public SingleJobRunner(final Job runMe, final VMKeeper[] onUs, MultiIaaSJobDispatcher forMe) {
+		this(runMe, onUs, onUs.length, forMe);
+	}
+
+	SingleJobRunner(final Job runMe, final VMKeeper[] onUs, final int count, MultiIaaSJobDispatcher forMe) {
+		start(runMe, onUs, count, forMe);
+	}
+
+	/**
+	 * Starts running a new job with this runner. The runner must be idle.
+	 * 
+	 * @param runMe
+	 *            the job to run
+	 * @param onUs
+	 *            the keepers of the VMs to run the job on, the runner copies
+	 *            them so the array can be reused by the caller
+	 * @param count
+	 *            the number of keepers in the array
+	 * @param forMe
+	 *            the dispatcher to report the job's termination to
+	 */
+	void start(final Job runMe, final VMKeeper[] onUs, final int count, final MultiIaaSJobDispatcher forMe) {
+		if (toProcess != null) {
+			throw new IllegalStateException("The runner is already in use");
+		}
 		toProcess = runMe;
-		keeperSet = onUs;
 		parent = forMe;
-		vmSet = new VirtualMachine[keeperSet.length];
+		vmCount = count;
+		if (keeperSet.length < count) {
+			keeperSet = new VMKeeper[count];
+			vmSet = new VirtualMachine[count];
+		}
+		System.arraycopy(onUs, 0, keeperSet, 0, count);
+		parent.runnerActivated(this);
 		// Ensuring we receive state dependent events about the new VMs
-		for (int i = 0; i < keeperSet.length; i++) {
+		for (int i = 0; i < count; i++) {
 			vmSet[i] = keeperSet[i].acquire();
 			if (VirtualMachine.State.RUNNING.equals(vmSet[i].getState())) {
 				readyVMCounter++;
@@ -72,9 +124,43 @@ public class SingleJobRunner implements VirtualMachine.StateChange, ConsumptionE
 		// is not yet finished (so the premature termination of the simulation
 		// will show the job ignored)
 		parent.ignorecounter++;
+		if (readyVMCounter < count) {
+			// Only needed if we actually wait for some VMs
+			parent.startupTimeouts.add(this);
+		}
 		startProcess();
 	}
 
+	/**
+	 * The job currently handled by the runner (null if the runner is idle)
+	 */
+	public Job getJob() {
+		return toProcess;
+	}
+
+	/**
+	 * Tells when the current job was started in its VMs
+	 * 
+	 * @return the start time or a negative value if the job still waits for
+	 *         its VMs
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * Called if the VMs did not start within the startup timeout
+	 */
+	void startupTimedOut() {
+		// After our timeout we still don't have all VMs started, we just forget about
+		// this job
+		releaseVMset();
+		final MultiIaaSJobDispatcher dispatcher = parent;
+		final Job job = toProcess;
+		recycle();
+		dispatcher.jobTerminated(job, false);
+	}
+
 	@Override
 	public void stateChanged(final VirtualMachine vm, final VirtualMachine.State oldState,
 			final VirtualMachine.State newState) {
@@ -108,13 +194,14 @@ public class SingleJobRunner implements VirtualMachine.StateChange, ConsumptionE
 	}
 
 	private void startProcess() {
-		if (readyVMCounter == vmSet.length) {
+		if (readyVMCounter == vmCount) {
 			// Mark that we start the job / no further queuing
 			toProcess.started();
-			timeout.cancel();
+			startTime = Timed.getFireCount();
+			parent.startupTimeouts.cancel(this);
 			try {
-				// vmset could get null if the compute task is rapidly terminating!
-				for (int i = 0; vmSet != null && i < vmSet.length; i++) {
+				// the runner could be recycled if the compute task is rapidly terminating!
+				for (int i = 0; i < vmCount; i++) {
 					// run the job's relevant part in the VM
 					vmSet[i].newComputeTask(
 							toProcess.getExectimeSecs() * vmSet[i].getResourceAllocation().allocated.getRequiredCPUs(),
@@ -135,21 +222,37 @@ public class SingleJobRunner implements VirtualMachine.StateChange, ConsumptionE
 	@Override
 	public void conComplete() {
 
-		if (++completionCounter == vmSet.length) {
+		if (++completionCounter == vmCount) {
 			// everything went smoothly we mark it in the job
 			toProcess.completed();
 			// the VMs are no longer needed
 			releaseVMset();
-			parent.increaseDestroyCounter(completionCounter);
-			parent.ignorecounter--;
-			parent = null;
-			vmSet = null;
-			toProcess = null;
+			final MultiIaaSJobDispatcher dispatcher = parent;
+			final Job job = toProcess;
+			dispatcher.increaseDestroyCounter(completionCounter);
+			dispatcher.ignorecounter--;
+			recycle();
+			dispatcher.jobTerminated(job, true);
 		}
 	}
 
+	/**
+	 * Forgets the current job and offers the runner for the next one
+	 */
+	private void recycle() {
+		final MultiIaaSJobDispatcher dispatcher = parent;
+		dispatcher.runnerDeactivated(this);
+		toProcess = null;
+		parent = null;
+		startTime = -1;
+		vmCount = 0;
+		readyVMCounter = 0;
+		completionCounter = 0;
+		dispatcher.recycleRunner(this);
+	}
+
 	private void releaseVMset() {
-		for (int i = 0; i < vmSet.length; i++) {
+		for (int i = 0; i < vmCount; i++) {
 			vmSet[i].unsubscribeStateChange(this);
 			keeperSet[i].release(vmSet[i]);
 			keeperSet[i] = null;
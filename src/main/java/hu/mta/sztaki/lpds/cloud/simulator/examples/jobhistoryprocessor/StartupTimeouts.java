@@ -0,0 +1,175 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  (C) Copyright 2017, Gabor Kecskemeti (g.kecskemeti@ljmu.ac.uk)
+ */
+package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
+
+import hu.mta.sztaki.lpds.cloud.simulator.Timed;
+
+/**
+ * Tracks the VM startup timeouts of the job runners of a dispatcher. All
+ * runners use the same timeout length, so the deadlines arrive in the order
+ * the timeouts were set and a simple FIFO keeps them ordered.
+ * 
+ * Cancelling a timeout does not touch the FIFO: the runner just forgets its
+ * deadline and the entry is dropped once it reaches the head of the FIFO. The
+ * expired timeouts are checked lazily, at the ticks of the dispatcher and by
+ * a single timer that is set for the earliest live deadline only. This way
+ * setting and cancelling a timeout does not involve the event queue of the
+ * simulator in general.
+ * 
+ * @author "Gabor Kecskemeti, Department of Computer Science, Liverpool John
+ *         Moores University, (c) 2017"
+ */
+class StartupTimeouts {
+	/**
+	 * The runners with their deadlines in a ring buffer
+	 */
+	private SingleJobRunner[] runners = new SingleJobRunner[64];
+	private long[] deadlines = new long[64];
+	private int head = 0, size = 0;
+	/**
+	 * The number of timeouts set and not yet cancelled or expired
+	 */
+	private int live = 0;
+	private final long timeout;
+	private final TimerWheel wheel;
+	/**
+	 * Wakes us up when the earliest live deadline is reached even if the
+	 * dispatcher does not tick at that time
+	 */
+	private final TimerWheel.Entry wakeup = new TimerWheel.Entry() {
+		@Override
+		protected void expired(final long fires) {
+			expire(fires);
+		}
+	};
+
+	/**
+	 * @param timeout
+	 *            the length of all timeouts
+	 * @param wheel
+	 *            where the wake up timer is set
+	 */
+	StartupTimeouts(final long timeout, final TimerWheel wheel) {
+		this.timeout = timeout;
+		this.wheel = wheel;
+	}
+
+	/**
+	 * Sets the startup timeout of a runner
+	 * 
+	 * @param runner
+	 *            the runner that waits for its VMs
+	 */
+	void add(final SingleJobRunner runner) {
+		final long deadline = Timed.getFireCount() + timeout;
+		runner.startupDeadline = deadline;
+		dropCancelled();
+		if (size == runners.length) {
+			// Unrolling the ring into the bigger arrays
+			final SingleJobRunner[] newRunners = new SingleJobRunner[size * 2];
+			final long[] newDeadlines = new long[size * 2];
+			for (int i = 0; i < size; i++) {
+				final int from = (head + i) % runners.length;
+				newRunners[i] = runners[from];
+				newDeadlines[i] = deadlines[from];
+			}
+			runners = newRunners;
+			deadlines = newDeadlines;
+			head = 0;
+		}
+		final int tail = (head + size) % runners.length;
+		runners[tail] = runner;
+		deadlines[tail] = deadline;
+		size++;
+		live++;
+		if (!wakeup.isScheduled()) {
+			wheel.schedule(wakeup, timeout);
+		}
+	}
+
+	/**
+	 * Cancels the timeout of a runner as its VMs are all running
+	 * 
+	 * @param runner
+	 *            the runner with a timeout set
+	 */
+	void cancel(final SingleJobRunner runner) {
+		if (runner.startupDeadline < 0) {
+			return;
+		}
+		runner.startupDeadline = -1;
+		if (--live == 0) {
+			// Nothing to wait for, we should not keep the simulation alive
+			clear();
+			wheel.cancel(wakeup);
+		}
+	}
+
+	/**
+	 * Fires the timeouts with a deadline not later than the given time and
+	 * sets the wake up timer for the next live deadline.
+	 * 
+	 * @param now
+	 *            the current time
+	 */
+	void expire(final long now) {
+		dropCancelled();
+		while (size > 0 && deadlines[head] <= now) {
+			final SingleJobRunner runner = runners[head];
+			pop();
+			live--;
+			runner.startupDeadline = -1;
+			runner.startupTimedOut();
+			dropCancelled();
+		}
+		if (size == 0) {
+			wheel.cancel(wakeup);
+		} else if (!wakeup.isScheduled()) {
+			// An already set wake up is never later than the head's deadline
+			wheel.schedule(wakeup, deadlines[head] - now);
+		}
+	}
+
+	/**
+	 * Removes the entries from the head of the FIFO that belong to cancelled
+	 * timeouts. An entry is cancelled if its runner no longer waits for the
+	 * same deadline (the runner could even wait for a later job's VMs).
+	 */
+	private void dropCancelled() {
+		while (size > 0 && runners[head].startupDeadline != deadlines[head]) {
+			pop();
+		}
+	}
+
+	private void pop() {
+		runners[head] = null;
+		head = (head + 1) % runners.length;
+		size--;
+	}
+
+	private void clear() {
+		while (size > 0) {
+			pop();
+		}
+	}
+}
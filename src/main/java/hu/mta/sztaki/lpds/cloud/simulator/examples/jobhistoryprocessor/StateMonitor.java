@@ -24,22 +24,26 @@
  */
 package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
 
-import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import hu.mta.sztaki.lpds.cloud.simulator.Timed;
 import hu.mta.sztaki.lpds.cloud.simulator.energy.specialized.IaaSEnergyMeter;
 import hu.mta.sztaki.lpds.cloud.simulator.iaas.IaaSService;
 import hu.mta.sztaki.lpds.cloud.simulator.iaas.PhysicalMachine;
+import hu.mta.sztaki.lpds.cloud.simulator.io.Repository;
 
 /**
  * Collects and aggregates statistical data representing a particular run of a
- * cloud system.
+ * cloud system. The collected metrics and their sampling periods are defined
+ * by a {@link MonitoringConfiguration}, every group of the configuration is
+ * written to its own csv file.
  * 
  * @author "Gabor Kecskemeti, Department of Computer Science, Liverpool John
  *         Moores University, (c) 2017"
@@ -47,49 +51,306 @@ import hu.mta.sztaki.lpds.cloud.simulator.iaas.PhysicalMachine;
  *         MTA SZTAKI (c) 2012-5"
  */
 class StateMonitor extends Timed {
+	/**
+	 * The maximum number of collected samples that can wait for being written
+	 * out. If the flusher thread falls behind this much, the simulation waits
+	 * for it.
+	 */
+	private static final int queueCapacity = 8192;
+	/**
+	 * The amount of characters collected for a single output file before they
+	 * are written out in a single operation.
+	 */
+	private static final int writeBatchSize = 64 * 1024;
+
+	/**
+	 * The values collected for a group of metrics at a particular time
+	 */
+	private static class Sample {
+		final Sampler sampler;
+		final long timeStamp;
+		final double[] values;
+
+		Sample(final Sampler sampler, final long timeStamp, final double[] values) {
+			this.sampler = sampler;
+			this.timeStamp = timeStamp;
+			this.values = values;
+		}
+	}
+
+	/**
+	 * Marks the end of the monitoring data in the queue
+	 */
+	private static final Sample endOfData = new Sample(null, 0, null);
 	/**
 	 * All collected data that has not been written out yet
 	 */
-	private ConcurrentLinkedQueue<OverallSystemState> monitoringDataQueue = new ConcurrentLinkedQueue<OverallSystemState>();
-	private boolean continueRunning = true;
+	private final ArrayBlockingQueue<Sample> monitoringDataQueue = new ArrayBlockingQueue<Sample>(queueCapacity);
+
+	/**
+	 * Collects the metrics of a single group of the monitoring configuration.
+	 * The output related fields are only used by the flusher thread.
+	 */
+	class Sampler {
+		final MonitoringConfiguration.Group group;
+		/**
+		 * Tells which columns should be written as integers
+		 */
+		final boolean[] integral;
+		/**
+		 * The time of the next sample
+		 */
+		long nextDue;
+		/**
+		 * The repository traffic at the time of the previous sample (for the
+		 * bandwidth metric)
+		 */
+		private double prevRx, prevTx;
+		private long prevTime;
+		/**
+		 * The total energy consumption at the time of the previous sample (for
+		 * the interval consumption metric)
+		 */
+		private double prevEnergy;
+		/**
+		 * Where do we write the data? Only one of the two writers is used
+		 * depending on the output format.
+		 */
+		final Writer out;
+		final BinarySeriesWriter binOut;
+		/**
+		 * The formatted but not yet written samples
+		 */
+		final StringBuilder formatted = new StringBuilder(writeBatchSize + 256);
+
+		Sampler(final MonitoringConfiguration.Group group, final String outFile, final boolean binary)
+				throws IOException {
+			this.group = group;
+			final ArrayList<String> header = new ArrayList<String>();
+			final ArrayList<Boolean> isIntegral = new ArrayList<Boolean>();
+			for (MonitoringConfiguration.Metric m : group.metrics) {
+				switch (m) {
+				case FINISHED:
+					header.add("NrFinished");
+					isIntegral.add(true);
+					break;
+				case QUEUED:
+					header.add("NrQueued");
+					isIntegral.add(true);
+					break;
+				case QUEUE_PER_CLOUD:
+					for (int i = 0; i < iaasList.size(); i++) {
+						header.add("NrQueued-" + i);
+						isIntegral.add(true);
+					}
+					break;
+				case VMS:
+					header.add("VMNum");
+					isIntegral.add(true);
+					break;
+				case CORES:
+					header.add("UsedCores");
+					isIntegral.add(true);
+					break;
+				case ONPMS:
+					header.add("OnPMs");
+					isIntegral.add(true);
+					break;
+				case PMSTATES:
+					for (PhysicalMachine.State st : PhysicalMachine.State.values()) {
+						header.add("PMs-" + st);
+						isIntegral.add(true);
+					}
+					break;
+				case REPOTX:
+					header.add("CentralRepoTX");
+					isIntegral.add(true);
+					break;
+				case REPORX:
+					header.add("CentralRepoRX");
+					isIntegral.add(true);
+					break;
+				case REPOBW:
+					header.add("CentralRepoInBW");
+					header.add("CentralRepoOutBW");
+					isIntegral.add(false);
+					isIntegral.add(false);
+					prevRx = getRepoTraffic(true);
+					prevTx = getRepoTraffic(false);
+					prevTime = Timed.getFireCount();
+					break;
+				case ENERGY:
+					header.add("TotalConsumption");
+					isIntegral.add(false);
+					break;
+				case ENERGY_INTERVAL:
+					header.add("IntervalConsumption");
+					isIntegral.add(false);
+					prevEnergy = getTotalConsumption();
+					break;
+				}
+			}
+			integral = new boolean[isIntegral.size()];
+			for (int i = 0; i < integral.length; i++) {
+				integral[i] = isIntegral.get(i);
+			}
+			nextDue = Timed.getFireCount() + group.period;
+			if (binary) {
+				out = null;
+				binOut = new BinarySeriesWriter(outFile + ".dcfts", header.toArray(new String[header.size()]),
+						integral, nextDue, group.period);
+			} else {
+				binOut = null;
+				out = new FileWriter(outFile);
+				final StringBuilder sb = new StringBuilder("UnixTime*1000");
+				for (String column : header) {
+					sb.append(',').append(column);
+				}
+				out.write(sb.append('\n').toString());
+			}
+		}
+
+		/**
+		 * Collects the values of all metrics of the group.
+		 * 
+		 * @param current
+		 *            the already collected overall state of the clouds
+		 */
+		double[] sample(final OverallSystemState current) {
+			final double[] values = new double[integral.length];
+			int col = 0;
+			for (MonitoringConfiguration.Metric m : group.metrics) {
+				switch (m) {
+				case FINISHED:
+					values[col++] = current.finishedVMs;
+					break;
+				case QUEUED:
+					values[col++] = current.queueLen;
+					break;
+				case QUEUE_PER_CLOUD:
+					for (IaaSService iaas : iaasList) {
+						values[col++] = iaas.sched.getQueueLength();
+					}
+					break;
+				case VMS:
+					values[col++] = current.runningVMs;
+					break;
+				case CORES:
+					values[col++] = current.usedCores;
+					break;
+				case ONPMS:
+					values[col++] = current.runningPMs;
+					break;
+				case PMSTATES:
+					for (PhysicalMachine.State st : PhysicalMachine.State.values()) {
+						values[col++] = machineTracker.getPMCount(st);
+					}
+					break;
+				case REPOTX:
+					values[col++] = (long) getRepoTraffic(false);
+					break;
+				case REPORX:
+					values[col++] = (long) getRepoTraffic(true);
+					break;
+				case REPOBW:
+					final double rx = getRepoTraffic(true);
+					final double tx = getRepoTraffic(false);
+					final long elapsed = current.timeStamp - prevTime;
+					values[col++] = elapsed == 0 ? 0 : (rx - prevRx) / elapsed;
+					values[col++] = elapsed == 0 ? 0 : (tx - prevTx) / elapsed;
+					prevRx = rx;
+					prevTx = tx;
+					prevTime = current.timeStamp;
+					break;
+				case ENERGY:
+					values[col++] = getTotalConsumption();
+					break;
+				case ENERGY_INTERVAL:
+					final double energy = getTotalConsumption();
+					values[col++] = energy - prevEnergy;
+					prevEnergy = energy;
+					break;
+				}
+			}
+			return values;
+		}
+
+		void format(final Sample s) {
+			formatted.append(s.timeStamp);
+			for (int i = 0; i < integral.length; i++) {
+				formatted.append(',');
+				if (integral[i]) {
+					formatted.append((long) s.values[i]);
+				} else {
+					formatted.append(s.values[i]);
+				}
+			}
+			formatted.append('\n');
+		}
+	}
 
 	class DataFlusherThread extends Thread {
 		/**
-		 * Where do we write the data? Allows to have a threshold on the
-		 * monitoring database and in the future it can be used to continuously
-		 * empty the database to the disk.
+		 * The samples taken from the queue in a single go
 		 */
-		private BufferedWriter bw;
+		private final ArrayList<Sample> batch = new ArrayList<Sample>(queueCapacity);
+		private char[] outBuffer = new char[writeBatchSize + 256];
 
-		public DataFlusherThread(String traceFile) throws IOException {
+		public DataFlusherThread() {
 			if (MultiIaaSJobDispatcher.verbosity) {
 				System.err.println("Data flusher thread starts");
 			}
-			bw = new BufferedWriter(new FileWriter(traceFile + ".converted"));
-			bw.write("UnixTime*1000" + ",NrFinished,NrQueued,VMNum,UsedCores,OnPMs,CentralRepoTX\n");
 			start();
 		}
 
+		private void flush(final Sampler s) throws IOException {
+			final int len = s.formatted.length();
+			if (outBuffer.length < len) {
+				outBuffer = new char[len];
+			}
+			s.formatted.getChars(0, len, outBuffer, 0);
+			s.out.write(outBuffer, 0, len);
+			s.formatted.setLength(0);
+		}
+
 		@Override
 		public void run() {
 			try {
+				boolean finished = false;
 				do {
-					while (monitoringDataQueue.peek() == null && continueRunning) {
-						try {
-							sleep(50);
-						} catch (InterruptedException ie) {
-
-						}
+					try {
+						// Blocks until there is something to write
+						batch.add(monitoringDataQueue.take());
+					} catch (InterruptedException ie) {
+						continue;
 					}
-					OverallSystemState st = null;
-					while ((st = monitoringDataQueue.poll()) != null) {
+					monitoringDataQueue.drainTo(batch);
+					for (Sample st : batch) {
+						if (st == endOfData) {
+							finished = true;
+							break;
+						}
 						// Afterwards we write out the collected statistics to
-						// the
-						// output csv file
-						bw.write(st.toString());
+						// the output file
+						if (st.sampler.binOut != null) {
+							st.sampler.binOut.append(st.timeStamp, st.values);
+						} else {
+							st.sampler.format(st);
+							if (st.sampler.formatted.length() >= writeBatchSize) {
+								flush(st.sampler);
+							}
+						}
+					}
+					batch.clear();
+				} while (!finished);
+				for (Sampler s : samplers) {
+					if (s.binOut != null) {
+						s.binOut.close();
+					} else {
+						flush(s);
+						s.out.close();
 					}
-				} while (continueRunning);
-				bw.close();
+				}
 			} catch (IOException e) {
 				throw new RuntimeException("Problem with writing out the monitoring database", e);
 			}
@@ -100,6 +361,40 @@ class StateMonitor extends Timed {
 		}
 	}
 
+	/**
+	 * Hands over a sample to the flusher thread, waits if the flusher thread
+	 * is too much behind. If the flusher thread is no longer alive (e.g.,
+	 * because of a write error) the sample is dropped.
+	 */
+	private void record(Sample st) {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					if (monitoringDataQueue.offer(st, 100, TimeUnit.MILLISECONDS) || !flusher.isAlive()) {
+						return;
+					}
+				} catch (InterruptedException ie) {
+					interrupted = true;
+				}
+			}
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Writes the collected samples to the disk
+	 */
+	private final DataFlusherThread flusher;
+	private boolean stopped = false;
+	/**
+	 * The metric groups collected, in the order of the monitoring
+	 * configuration
+	 */
+	private final ArrayList<Sampler> samplers = new ArrayList<Sampler>();
 	/**
 	 * The list of energy meters controlled by this state monitor. During a
 	 * regular runtime, here we will have a meter for every physical machine in
@@ -107,6 +402,11 @@ class StateMonitor extends Timed {
 	 * in the set of PMs in an IaaSService.
 	 */
 	private ArrayList<IaaSEnergyMeter> meters = new ArrayList<IaaSEnergyMeter>();
+	/**
+	 * Collects the energy consumption without periodic metering if the
+	 * periodic meters are not requested, null otherwise.
+	 */
+	private final EnergyAccountant energyAccountant;
 	/**
 	 * The dispatcher which sends the jobs to the actual clouds in some VMs. The
 	 * dispatcher is expected to unsubscribe from timing events if it is no
@@ -121,15 +421,22 @@ class StateMonitor extends Timed {
 	 * monitor.
 	 */
 	final List<IaaSService> iaasList;
+	/**
+	 * Maintains the PM related parts of the collected state
+	 */
+	private final MachineStateTracker machineTracker;
 
 	/**
-	 * Initiates the state monitoring process by setting up the energy meters,
-	 * creating the output csv file (called [tracefile].converted) and
-	 * subscribing to periodic timing events (for every 5 minutes) so the
-	 * metering queires can be made automatically.
+	 * Initiates the state monitoring process by setting up the energy
+	 * accounting (either with the event driven {@link EnergyAccountant} or with
+	 * periodic energy meters),
+	 * creating the output csv files (the first group of the configuration is
+	 * written to [tracefile].converted, the others to
+	 * [tracefile].converted.[period]ms) and subscribing to periodic timing
+	 * events so the metering queires can be made automatically.
 	 * 
-	 * WARNING: this function keeps a file open until the dispatcher terminates
-	 * its operation!
+	 * WARNING: this function keeps the files open until the dispatcher
+	 * terminates its operation!
 	 * 
 	 * @param traceFile
 	 *            the name of the output csv (without the .converted extension)
@@ -138,66 +445,134 @@ class StateMonitor extends Timed {
 	 * @param iaasList
 	 *            the clouds that needs to be monitored
 	 * @param interval
-	 *            the energy metering interval to be applied
+	 *            the energy metering interval to be applied (only used with
+	 *            periodic meters)
+	 * @param config
+	 *            the metrics to collect and their sampling periods
 	 * @throws IOException
 	 *             if there was a output file creation error
 	 */
-	public StateMonitor(String traceFile, MultiIaaSJobDispatcher dispatcher, List<IaaSService> iaasList, int interval)
-			throws IOException {
-		System.err.println("Power metering started with delay " + interval);
-		new DataFlusherThread(traceFile);
+	public StateMonitor(String traceFile, MultiIaaSJobDispatcher dispatcher, List<IaaSService> iaasList, int interval,
+			MonitoringConfiguration config) throws IOException {
 		this.iaasList = iaasList;
 		this.dispatcher = dispatcher;
-		for (IaaSService iaas : iaasList) {
-			IaaSEnergyMeter iaasMeter = new IaaSEnergyMeter(iaas);
-			iaasMeter.startMeter(interval, false);
-			meters.add(iaasMeter);
+		machineTracker = new MachineStateTracker(iaasList);
+		dispatcher.addVMObserver(machineTracker);
+		if (config.periodicMeters) {
+			System.err.println("Power metering started with delay " + interval);
+			energyAccountant = null;
+			for (IaaSService iaas : iaasList) {
+				IaaSEnergyMeter iaasMeter = new IaaSEnergyMeter(iaas);
+				iaasMeter.startMeter(interval, false);
+				meters.add(iaasMeter);
+			}
+		} else {
+			System.err.println("Event driven energy accounting started");
+			energyAccountant = new EnergyAccountant(iaasList);
+		}
+		for (MonitoringConfiguration.Group g : config.groups) {
+			samplers.add(new Sampler(g, traceFile + ".converted" + (samplers.isEmpty() ? "" : "." + g.period + "ms"),
+					config.binaryOutput));
 		}
-		subscribe(300000); // 5 minutes in ms
+		flusher = new DataFlusherThread();
+		subscribe(config.getShortestPeriod());
+	}
+
+	/**
+	 * Determines the energy consumed by all clouds so far (the total of the
+	 * complete simulation once the monitoring terminated)
+	 * 
+	 * @return the consumption in W*ms
+	 */
+	public double getTotalConsumption() {
+		if (energyAccountant != null) {
+			return energyAccountant.getTotalConsumption();
+		}
+		double sum = 0;
+		for (IaaSEnergyMeter m : meters) {
+			sum += m.getTotalConsumption();
+		}
+		return sum;
+	}
+
+	/**
+	 * Sums up the traffic of the central repositories of all clouds
+	 * 
+	 * @param incoming
+	 *            should we sum the received or the sent bytes?
+	 */
+	private double getRepoTraffic(final boolean incoming) {
+		double sum = 0;
+		final int iaasCount = iaasList.size();
+		for (int i = 0; i < iaasCount; i++) {
+			final Repository r = iaasList.get(i).repositories.get(0);
+			sum += (incoming ? r.inbws : r.outbws).getTotalProcessed();
+		}
+		return sum;
 	}
 
 	/**
 	 * The main event handling mechanism in this periodic state monitor. This
-	 * function is called in every 5 simulated minutes.
+	 * function is called whenever one of the metric groups is due to be
+	 * sampled.
 	 */
 	@Override
 	public void tick(long fires) {
-		// Collecting the monitoring data
+		// Collecting the monitoring data needed by all groups
 		OverallSystemState current = new OverallSystemState();
+		// Only the PMs that changed since the last tick are queried
+		machineTracker.update();
+		machineTracker.fillIn(current);
 		final int iaasCount = iaasList.size();
 		for (int i = 0; i < iaasCount; i++) {
-			IaaSService iaas = iaasList.get(i);
-			int msize = iaas.machines.size();
-			for (int j = 0; j < msize; j++) {
-				PhysicalMachine pm = iaas.machines.get(j);
-				current.finishedVMs += pm.getCompletedVMs();
-				current.runningVMs += pm.numofCurrentVMs();
-				current.usedCores += pm.getCapacities().getRequiredCPUs() - pm.freeCapacities.getRequiredCPUs();
-				current.runningPMs += pm.isRunning() ? 1 : 0;
-			}
-			current.queueLen += iaas.sched.getQueueLength();
-			current.totalTransferredData += iaas.repositories.get(0).outbws.getTotalProcessed();
+			current.queueLen += iaasList.get(i).sched.getQueueLength();
 		}
 		current.timeStamp = Timed.getFireCount();
-		// Recording it
-		monitoringDataQueue.add(current);
+		// Recording the groups that are due
+		long nextDue = Long.MAX_VALUE;
+		for (Sampler s : samplers) {
+			if (s.nextDue <= fires) {
+				record(new Sample(s, current.timeStamp, s.sample(current)));
+				s.nextDue += s.group.period;
+			}
+			nextDue = Math.min(nextDue, s.nextDue);
+		}
 
 		// Checking for termination conditions:
-		if (!dispatcher.isSubscribed() && current.queueLen == 0 && current.runningVMs == 0) {
+		if (!dispatcher.isSubscribed() && current.queueLen == 0 && current.runningVMs == 0
+				&& dispatcher.getWaitingJobs() == 0) {
 			// We now terminate
-			unsubscribe(); // first we cancel our future events
-			// then we cancel the future energy monitoring of all PMs
-			for (IaaSEnergyMeter em : meters) {
-				em.stopMeter();
-			}
-			continueRunning = false;
-			double sum = 0;
-			// finally we collect and aggregate the energy consumption data
-			for (IaaSEnergyMeter m : meters) {
-				sum += m.getTotalConsumption();
-			}
-			// Warning! assuming ms base.
-			System.err.println("Total power consumption: " + sum / 1000 / 3600000 + " kWh");
+			stop();
+		} else if (nextDue - fires != getFrequency()) {
+			updateFrequency(nextDue - fires);
+		}
+	}
+
+	/**
+	 * Stops the monitoring: no more samples are taken, the energy metering is
+	 * cancelled and the flusher thread is told to complete the output files.
+	 * Called automatically when all activities in the clouds are finished,
+	 * but it can also be used to end the monitoring of a simulation that is
+	 * stopped early (e.g., after a snapshot). Only the first call has any
+	 * effect.
+	 */
+	void stop() {
+		if (stopped) {
+			return;
+		}
+		stopped = true;
+		unsubscribe(); // first we cancel our future events
+		// then we cancel the future energy monitoring of all PMs
+		for (IaaSEnergyMeter em : meters) {
+			em.stopMeter();
+		}
+		if (energyAccountant != null) {
+			energyAccountant.stop();
 		}
+		record(endOfData);
+		// finally we collect and aggregate the energy consumption data
+		final double sum = getTotalConsumption();
+		// Warning! assuming ms base.
+		System.err.println("Total power consumption: " + sum / 1000 / 3600000 + " kWh");
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,141 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  (C) Copyright 2017, Gabor Kecskemeti (g.kecskemeti@ljmu.ac.uk)
+ */
+package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
+
+import hu.mta.sztaki.lpds.cloud.simulator.helpers.job.Job;
+
+/**
+ * Groups the jobs of a trace (already ordered by their submission time) into
+ * buckets of jobs that share the very same submission time. The dispatcher
+ * can then process a complete bucket in every tick without comparing the
+ * submission time of the individual jobs with the current time.
+ *
+ * @author "Gabor Kecskemeti, Department of Computer Science, Liverpool John
+ *         Moores University, (c) 2017"
+ */
+public class SubmissionIndex {
+	/**
+	 * The index of the first job of every bucket in the job array. The last
+	 * item of this array is a sentinel holding the length of the job array.
+	 */
+	private final int[] bucketStarts;
+	/**
+	 * The common submission time (in seconds) of the jobs in each bucket
+	 */
+	private final long[] submitTimes;
+
+	/**
+	 * Builds the index in a single pass over the job array.
+	 *
+	 * @param jobs
+	 *            the jobs to be indexed, they must be sorted by their
+	 *            submission time
+	 */
+	public SubmissionIndex(final Job[] jobs) {
+		this(collectSubmitTimes(jobs), jobs.length);
+	}
+
+	/**
+	 * Builds the index in a single pass over the job table.
+	 *
+	 * @param jobs
+	 *            the jobs to be indexed, they must be sorted by their
+	 *            submission time
+	 */
+	public SubmissionIndex(final JobTable jobs) {
+		this(jobs.submit, jobs.size());
+	}
+
+	private static long[] collectSubmitTimes(final Job[] jobs) {
+		final long[] submits = new long[jobs.length];
+		for (int i = 0; i < jobs.length; i++) {
+			submits[i] = jobs[i].getSubmittimeSecs();
+		}
+		return submits;
+	}
+
+	private SubmissionIndex(final long[] submits, final int length) {
+		int bucketCount = 0;
+		for (int i = 0; i < length; i++) {
+			if (i == 0 || submits[i] != submits[i - 1]) {
+				bucketCount++;
+			}
+		}
+		bucketStarts = new int[bucketCount + 1];
+		submitTimes = new long[bucketCount];
+		int bucket = 0;
+		for (int i = 0; i < length; i++) {
+			final long submit = submits[i];
+			if (i == 0 || submit != submitTimes[bucket - 1]) {
+				if (i != 0 && submit < submitTimes[bucket - 1]) {
+					throw new IllegalArgumentException("The jobs are not in submission order at index " + i);
+				}
+				bucketStarts[bucket] = i;
+				submitTimes[bucket++] = submit;
+			}
+		}
+		bucketStarts[bucketCount] = length;
+	}
+
+	/**
+	 * Tells how many distinct submission times are there in the trace
+	 *
+	 * @return the number of buckets
+	 */
+	public int size() {
+		return submitTimes.length;
+	}
+
+	/**
+	 * The submission time shared by all jobs in a bucket
+	 *
+	 * @param bucket
+	 *            the index of the bucket
+	 * @return the submission time in seconds
+	 */
+	public long getSubmitTimeSecs(final int bucket) {
+		return submitTimes[bucket];
+	}
+
+	/**
+	 * Determines where the bucket starts in the indexed job array
+	 *
+	 * @param bucket
+	 *            the index of the bucket
+	 * @return the index of the first job in the bucket
+	 */
+	public int getBucketStart(final int bucket) {
+		return bucketStarts[bucket];
+	}
+
+	/**
+	 * Determines where the bucket ends in the indexed job array
+	 *
+	 * @param bucket
+	 *            the index of the bucket
+	 * @return the index of the first job after the bucket
+	 */
+	public int getBucketEnd(final int bucket) {
+		return bucketStarts[bucket + 1];
+	}
+}
@@ -0,0 +1,300 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  (C) Copyright 2017, Gabor Kecskemeti (g.kecskemeti@ljmu.ac.uk)
+ */
+package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
+
+import java.util.ArrayList;
+
+import hu.mta.sztaki.lpds.cloud.simulator.Timed;
+
+/**
+ * A hierarchical timer wheel that drives any number of one-shot timers with a
+ * single subscription to the simulator's timing events. Useful when lots of
+ * timers are set (and cancelled) far in advance, like the billing period
+ * timers of the kept VMs.
+ * 
+ * The wheel has 11 levels of 64 slots each. A timer is placed on the level
+ * of the highest 6 bit digit where its deadline differs from the time the
+ * wheel was last advanced to, in the slot of that digit. Setting and
+ * cancelling timers are constant time operations. When the wheel is
+ * advanced, the slots passed are cascaded to the lower levels (or fired if
+ * they are due). The occupied slots of a level are recorded in a bit mask,
+ * so the next deadline is found without walking through empty slots.
+ * 
+ * The wheel is only subscribed while it has timers, and it is always woken
+ * up at the earliest deadline (or a bit earlier if the earliest timer was
+ * cancelled).
+ * 
+ * @author "Gabor Kecskemeti, Department of Computer Science, Liverpool John
+ *         Moores University, (c) 2017"
+ */
+public class TimerWheel extends Timed {
+	/**
+	 * A timer that can be set on a wheel. The same timer object can be set
+	 * again after it fired or was cancelled.
+	 */
+	public static abstract class Entry {
+		private TimerWheel wheel = null;
+		private long deadline;
+		/**
+		 * The position of the entry in the wheel, level -1 marks entries that
+		 * are due in the current tick
+		 */
+		private int level, slot;
+		private Entry prev, next;
+
+		/**
+		 * Tells if the timer is set on a wheel and did not fire yet
+		 */
+		public boolean isScheduled() {
+			return wheel != null;
+		}
+
+		/**
+		 * The time the timer fires (or fired)
+		 */
+		public long getDeadline() {
+			return deadline;
+		}
+
+		/**
+		 * Called when the deadline of the timer is reached
+		 * 
+		 * @param fires
+		 *            the current time
+		 */
+		protected abstract void expired(long fires);
+	}
+
+	private static final int slotBits = 6;
+	private static final int slots = 1 << slotBits;
+	private static final int levels = (Long.SIZE + slotBits - 1) / slotBits;
+
+	private final Entry[][] heads = new Entry[levels][slots];
+	/**
+	 * The occupied slots of the levels
+	 */
+	private final long[] occupied = new long[levels];
+	/**
+	 * The time the wheel was last advanced to. The entries are placed relative
+	 * to this time.
+	 */
+	private long current = Timed.getFireCount();
+	/**
+	 * The number of timers set
+	 */
+	private int size = 0;
+	/**
+	 * The time the wheel is woken up next
+	 */
+	private long wakeAt = -1;
+	private boolean ticking = false;
+	/**
+	 * The entries firing in the current tick
+	 */
+	private final ArrayList<Entry> due = new ArrayList<Entry>();
+
+	/**
+	 * Sets a timer on the wheel. If the timer was already set, it is
+	 * cancelled first.
+	 * 
+	 * @param e
+	 *            the timer to set
+	 * @param delay
+	 *            the time from now when the timer should fire
+	 */
+	public void schedule(final Entry e, final long delay) {
+		if (delay < 0) {
+			throw new IllegalArgumentException("Timers cannot be set for the past");
+		}
+		if (e.wheel != null) {
+			e.wheel.cancel(e);
+		}
+		e.deadline = Timed.getFireCount() + delay;
+		place(e);
+		size++;
+		if (!ticking && (!isSubscribed() || e.deadline < wakeAt)) {
+			wake(e.deadline);
+		}
+	}
+
+	/**
+	 * Cancels a timer if it is set on this wheel.
+	 * 
+	 * @param e
+	 *            the timer to cancel
+	 */
+	public void cancel(final Entry e) {
+		if (e.wheel != this) {
+			return;
+		}
+		if (e.level >= 0) {
+			unlink(e);
+		}
+		e.wheel = null;
+		size--;
+		if (size == 0 && !ticking && isSubscribed()) {
+			unsubscribe();
+		}
+	}
+
+	/**
+	 * Tells how many timers are set on the wheel
+	 */
+	public int size() {
+		return size;
+	}
+
+	private void place(final Entry e) {
+		final long diff = e.deadline ^ current;
+		final int level = diff == 0 ? 0 : (Long.SIZE - 1 - Long.numberOfLeadingZeros(diff)) / slotBits;
+		final int slot = (int) (e.deadline >>> (level * slotBits)) & (slots - 1);
+		e.wheel = this;
+		e.level = level;
+		e.slot = slot;
+		e.prev = null;
+		e.next = heads[level][slot];
+		if (e.next != null) {
+			e.next.prev = e;
+		}
+		heads[level][slot] = e;
+		occupied[level] |= 1L << slot;
+	}
+
+	private void unlink(final Entry e) {
+		if (e.prev == null) {
+			heads[e.level][e.slot] = e.next;
+			if (e.next == null) {
+				occupied[e.level] &= ~(1L << e.slot);
+			}
+		} else {
+			e.prev.next = e.next;
+		}
+		if (e.next != null) {
+			e.next.prev = e.prev;
+		}
+		e.prev = e.next = null;
+	}
+
+	/**
+	 * Moves the wheel to the given time: the slots passed are cascaded to the
+	 * lower levels and the timers due are collected.
+	 */
+	private void advance(final long now) {
+		final long old = current;
+		current = now;
+		for (int level = levels - 1; level >= 0; level--) {
+			if (occupied[level] == 0) {
+				continue;
+			}
+			final int highShift = (level + 1) * slotBits;
+			long pending = occupied[level];
+			if (highShift >= Long.SIZE || (now >>> highShift) == (old >>> highShift)) {
+				// Only the slots up to the current digit were passed
+				final int digit = (int) (now >>> (level * slotBits)) & (slots - 1);
+				pending &= digit == slots - 1 ? -1L : (1L << (digit + 1)) - 1;
+			}
+			while (pending != 0) {
+				final int slot = Long.numberOfTrailingZeros(pending);
+				pending &= pending - 1;
+				Entry e = heads[level][slot];
+				heads[level][slot] = null;
+				occupied[level] &= ~(1L << slot);
+				while (e != null) {
+					final Entry next = e.next;
+					e.prev = e.next = null;
+					if (e.deadline <= now) {
+						e.level = -1;
+						due.add(e);
+					} else {
+						place(e);
+					}
+					e = next;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Determines the earliest deadline on the wheel
+	 */
+	private long nextDeadline() {
+		for (int level = 0; level < levels; level++) {
+			if (occupied[level] != 0) {
+				final int slot = Long.numberOfTrailingZeros(occupied[level]);
+				if (level == 0) {
+					return (current & ~(long) (slots - 1)) | slot;
+				}
+				// The slot spans a range of times, we look for its earliest
+				// timer
+				long min = Long.MAX_VALUE;
+				for (Entry e = heads[level][slot]; e != null; e = e.next) {
+					min = Math.min(min, e.deadline);
+				}
+				return min;
+			}
+		}
+		return -1;
+	}
+
+	private void wake(final long at) {
+		final long delay = Math.max(0, at - Timed.getFireCount());
+		if (isSubscribed()) {
+			updateFrequency(delay);
+		} else {
+			subscribe(delay);
+		}
+		wakeAt = at;
+	}
+
+	/**
+	 * Fires the timers due and schedules the next wake up.
+	 */
+	@Override
+	public void tick(final long fires) {
+		ticking = true;
+		try {
+			// timers set for now by the fired ones are also fired in this tick
+			do {
+				due.clear();
+				advance(fires);
+				for (int i = 0; i < due.size(); i++) {
+					final Entry e = due.get(i);
+					// the entry could have been cancelled by an earlier timer
+					if (e.wheel == this && e.level == -1) {
+						e.wheel = null;
+						size--;
+						e.expired(fires);
+					}
+				}
+			} while (!due.isEmpty());
+		} finally {
+			due.clear();
+			ticking = false;
+		}
+		if (size == 0) {
+			unsubscribe();
+		} else {
+			wake(nextDeadline());
+		}
+	}
+}
@@ -0,0 +1,161 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  (C) Copyright 2017, Gabor Kecskemeti (g.kecskemeti@ljmu.ac.uk)
+ */
+package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import hu.mta.sztaki.lpds.cloud.simulator.helpers.job.Job;
+import hu.mta.sztaki.lpds.cloud.simulator.helpers.trace.GenericTraceProducer;
+import hu.mta.sztaki.lpds.cloud.simulator.helpers.trace.TraceManagementException;
+
+/**
+ * Reads a trace in fixed sized windows in the background so the dispatcher
+ * never has to hold the complete trace in memory. Only a bounded number of
+ * windows are read ahead, if the dispatcher does not consume them, the reader
+ * thread blocks until a window is taken.
+ *
+ * The producer must only return fewer jobs than requested at the end of the
+ * trace, as such a window is treated as the last one.
+ *
+ * @author "Gabor Kecskemeti, Department of Computer Science, Liverpool John
+ *         Moores University, (c) 2017"
+ */
+public class TracePrefetcher extends Thread {
+	/**
+	 * The number of windows read ahead by default
+	 */
+	public static final int defaultDepth = 2;
+
+	/**
+	 * The trace to read
+	 */
+	private final GenericTraceProducer producer;
+	/**
+	 * The number of jobs to be read in a single window
+	 */
+	private final int windowSize;
+	/**
+	 * The windows read but not yet taken by the dispatcher. An empty window
+	 * marks the end of the trace.
+	 */
+	private final ArrayBlockingQueue<List<Job>> windows;
+	/**
+	 * The reason why the trace could not be read further (if any)
+	 */
+	private volatile TraceManagementException failure = null;
+	/**
+	 * Set once the empty window marking the end of the trace was taken
+	 */
+	private boolean exhausted = false;
+
+	/**
+	 * Starts reading the trace right away.
+	 *
+	 * @param producer
+	 *            the trace to read
+	 * @param windowSize
+	 *            the number of jobs requested from the producer at once
+	 * @param depth
+	 *            the maximum number of windows read ahead
+	 */
+	public TracePrefetcher(final GenericTraceProducer producer, final int windowSize, final int depth) {
+		super("TracePrefetcher");
+		if (windowSize <= 0 || depth <= 0) {
+			throw new IllegalArgumentException("Window size and depth must be positive");
+		}
+		this.producer = producer;
+		this.windowSize = windowSize;
+		windows = new ArrayBlockingQueue<List<Job>>(depth);
+		setDaemon(true);
+		start();
+	}
+
+	@Override
+	public void run() {
+		try {
+			List<Job> window;
+			do {
+				try {
+					window = producer.getJobs(windowSize);
+				} catch (TraceManagementException e) {
+					failure = e;
+					window = new ArrayList<Job>(0);
+				}
+				if (window == null) {
+					window = new ArrayList<Job>(0);
+				}
+				windows.put(window);
+				if (!window.isEmpty() && window.size() < windowSize) {
+					// A partial window means we have reached the end. This
+					// assumes the producer fills every window as long as the
+					// trace has jobs left: a producer returning fewer jobs in
+					// the middle of the trace would have the rest of the
+					// trace silently dropped here.
+					windows.put(new ArrayList<Job>(0));
+					break;
+				}
+			} while (!window.isEmpty());
+		} catch (InterruptedException e) {
+			// The dispatcher no longer needs the trace
+		}
+		if (MultiIaaSJobDispatcher.verbosity) {
+			System.err.println("Trace prefetcher terminates");
+		}
+	}
+
+	/**
+	 * Takes the next window of the trace. Blocks until the window is read.
+	 *
+	 * @return the next jobs of the trace or an empty list if the trace is over
+	 * @throws TraceManagementException
+	 *             if the producer failed to read the trace
+	 */
+	public List<Job> nextWindow() throws TraceManagementException {
+		if (exhausted) {
+			return new ArrayList<Job>(0);
+		}
+		try {
+			final List<Job> window = windows.take();
+			if (window.isEmpty()) {
+				exhausted = true;
+				if (failure != null) {
+					throw failure;
+				}
+			}
+			return window;
+		} catch (InterruptedException e) {
+			throw new TraceManagementException("Interrupted while waiting for the next trace window", e);
+		}
+	}
+
+	/**
+	 * Stops reading the trace.
+	 */
+	public void shutdown() {
+		exhausted = true;
+		interrupt();
+		windows.clear();
+	}
+}
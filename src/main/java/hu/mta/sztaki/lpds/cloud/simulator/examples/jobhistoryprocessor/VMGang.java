@@ -0,0 +1,252 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  (C) Copyright 2017, Gabor Kecskemeti (g.kecskemeti@ljmu.ac.uk)
+ */
+package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+import hu.mta.sztaki.lpds.cloud.simulator.Timed;
+
+/**
+ * Tracks the billing period of a set of VMs requested together (e.g., all
+ * the new VMs of a single wide job, even if they are spread across several
+ * clouds). As the VMs of the gang share their billing period, a single timer
+ * is enough to terminate all the unused ones at the end of the period. The
+ * timer is set on a {@link TimerWheel} only while the gang has at least one
+ * free member. All members share the release listener of the gang.
+ * 
+ * The gang does not arm its timer until it is sealed, so the members can be
+ * created and handed over to their first user without any timing events.
+ * 
+ * Gangs can be pooled: once all VMs of a sealed gang are terminated, the gang
+ * returns to the idle pool it was created for and it can be restarted for a
+ * later set of VMs (see {@link #restart()}). The terminated keepers still
+ * refer to the gang, but they never signal it again.
+ * 
+ * @author "Gabor Kecskemeti, Department of Computer Science, Liverpool John
+ *         Moores University, (c) 2017"
+ */
+public class VMGang {
+	/**
+	 * The length of the billing period
+	 */
+	final long billingPeriod;
+	/**
+	 * When did the billing period of all members start
+	 */
+	long startTime;
+	/**
+	 * The listener used by all members
+	 */
+	final VMKeeper.ReleaseListener listener;
+	/**
+	 * Should the members keep their VMs after they are released (see
+	 * {@link VMKeeper#keepVMs})
+	 */
+	boolean keepVMs = VMKeeper.keepVMs;
+	/**
+	 * The wheel to set the billing period timer on
+	 */
+	private final TimerWheel wheel;
+	/**
+	 * Fires just before the billing period expires, all unused VMs are
+	 * terminated then.
+	 */
+	private final TimerWheel.Entry billingEnd = new TimerWheel.Entry() {
+		@Override
+		protected void expired(final long fires) {
+			expiring = true;
+			// The members still alive are compacted to the front of the list
+			int kept = 0;
+			for (int i = 0; i < members.size(); i++) {
+				final VMKeeper k = members.get(i);
+				if (k.isFree()) {
+					k.expire();
+				} else if (k.isAlive()) {
+					members.set(kept++, k);
+				}
+			}
+			for (int i = members.size() - 1; i >= kept; i--) {
+				members.remove(i);
+			}
+			expiring = false;
+			if (liveMembers == 0) {
+				finish();
+			}
+		}
+	};
+	/**
+	 * The keepers whose VMs were not yet terminated (at the last billing
+	 * period end)
+	 */
+	private final ArrayList<VMKeeper> members = new ArrayList<VMKeeper>();
+	/**
+	 * The number of members whose VMs are not used at the moment
+	 */
+	private int freeMembers = 0;
+	/**
+	 * The number of members whose VMs were not yet terminated
+	 */
+	private int liveMembers = 0;
+	private boolean sealed = false;
+	/**
+	 * Shows if the billing period timer is terminating the free members
+	 */
+	private boolean expiring = false;
+	/**
+	 * The pool the gang returns to once all its VMs are terminated, null if
+	 * the gang is not pooled
+	 */
+	private final ArrayDeque<VMGang> idleGangs;
+
+	/**
+	 * Starts a new gang with its billing period starting now
+	 * 
+	 * @param billingPeriod
+	 *            the length of the billing period
+	 * @param listener
+	 *            the release listener to be used by all members (can be null)
+	 * @param wheel
+	 *            the wheel to set the billing period timer on
+	 */
+	public VMGang(final long billingPeriod, final VMKeeper.ReleaseListener listener, final TimerWheel wheel) {
+		this(billingPeriod, listener, wheel, null);
+	}
+
+	/**
+	 * Starts a new pooled gang with its billing period starting now
+	 * 
+	 * @param billingPeriod
+	 *            the length of the billing period
+	 * @param listener
+	 *            the release listener to be used by all members (can be null)
+	 * @param wheel
+	 *            the wheel to set the billing period timer on
+	 * @param idleGangs
+	 *            the pool to return to once all VMs of the gang are
+	 *            terminated
+	 */
+	public VMGang(final long billingPeriod, final VMKeeper.ReleaseListener listener, final TimerWheel wheel,
+			final ArrayDeque<VMGang> idleGangs) {
+		this.billingPeriod = billingPeriod;
+		this.listener = listener;
+		this.wheel = wheel;
+		this.idleGangs = idleGangs;
+		startTime = Timed.getFireCount();
+	}
+
+	/**
+	 * Prepares an idle gang taken from its pool for a new set of VMs, their
+	 * billing period starts now.
+	 */
+	public void restart() {
+		startTime = Timed.getFireCount();
+		sealed = false;
+	}
+
+	/**
+	 * Registers a new member, called by the keeper's constructor.
+	 */
+	void add(final VMKeeper member) {
+		members.add(member);
+		if (member.isAlive()) {
+			liveMembers++;
+		}
+	}
+
+	/**
+	 * One of the members terminated its VM, called by the keeper after it
+	 * stopped using the gang.
+	 */
+	void left() {
+		liveMembers--;
+		if (liveMembers == 0 && sealed && !expiring) {
+			finish();
+		}
+	}
+
+	/**
+	 * Signals that all members were added and have been handed over to their
+	 * first users. Free members are kept until the end of the billing period
+	 * from now on.
+	 */
+	public void seal() {
+		sealed = true;
+		if (liveMembers == 0) {
+			finish();
+		} else {
+			arm();
+		}
+	}
+
+	/**
+	 * All VMs of the gang are terminated, the gang can be used again
+	 */
+	private void finish() {
+		wheel.cancel(billingEnd);
+		members.clear();
+		freeMembers = 0;
+		if (idleGangs != null) {
+			idleGangs.addLast(this);
+		}
+	}
+
+	/**
+	 * One of the members became free
+	 */
+	void freed() {
+		freeMembers++;
+		arm();
+	}
+
+	/**
+	 * One of the members is used or terminated
+	 */
+	void taken() {
+		freeMembers--;
+		if (freeMembers == 0) {
+			wheel.cancel(billingEnd);
+		}
+	}
+
+	private void arm() {
+		if (sealed && freeMembers > 0 && !billingEnd.isScheduled()) {
+			wheel.schedule(billingEnd, VMKeeper.timeToBillingEnd(startTime, billingPeriod));
+		}
+	}
+
+	/**
+	 * Decides if the members keep their VMs after they are released, instead
+	 * of following {@link VMKeeper#keepVMs}
+	 */
+	public void setKeepVMs(final boolean keepVMs) {
+		this.keepVMs = keepVMs;
+	}
+
+	/**
+	 * Tells how many VMs of the gang are not used at the moment
+	 */
+	public int getFreeMembers() {
+		return freeMembers;
+	}
+}
@@ -22,8 +22,6 @@
  */
 package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
 
-import java.util.Comparator;
-
 import hu.mta.sztaki.lpds.cloud.simulator.Timed;
 import hu.mta.sztaki.lpds.cloud.simulator.iaas.IaaSService;
 import hu.mta.sztaki.lpds.cloud.simulator.iaas.PhysicalMachine;
@@ -37,41 +35,27 @@ import hu.mta.sztaki.lpds.cloud.simulator.iaas.constraints.ResourceConstraints;
  * This class could receive VMs to be kept for longer periods of time even if
  * they are not used at the moment. Useful to match billing periods
  * 
+ * Keepers can either track the billing period of their VM on their own, or
+ * they can be members of a {@link VMGang} which tracks a single billing period
+ * for all VMs requested together. In both cases, the end of the billing period
+ * is set as a timer on a {@link TimerWheel} shared by many keepers, so the
+ * keepers do not subscribe to timing events on their own.
  * 
  * @author "Gabor Kecskemeti, Department of Computer Science, Liverpool John
  *         Moores University, (c) 2017"
  */
-public class VMKeeper extends Timed implements VirtualMachine.StateChange {
-	/**
-	 * Allows ordering the keeper objects based on the VM's size they host.
-	 * 
-	 * @author "Gabor Kecskemeti, Department of Computer Science, Liverpool John
-	 *         Moores University, (c) 2017"
-	 *
-	 */
-	private static class KeeperComparator implements Comparator<VMKeeper> {
-		@Override
-		public int compare(VMKeeper o1, VMKeeper o2) {
-			PhysicalMachine.ResourceAllocation ra1 = o1.vm.getResourceAllocation();
-			PhysicalMachine.ResourceAllocation ra2 = o2.vm.getResourceAllocation();
-			if (ra1 == null) {
-				if (ra2 == null) {
-					return 0;
-				} else {
-					return -1;
-				}
-			} else {
-				if (ra2 == null) {
-					return 1;
-				} else {
-					return ra1.allocated.compareTo(ra2.allocated);
-				}
-			}
-		}
-	}
-
+public class VMKeeper implements VirtualMachine.StateChange {
 	public static interface ReleaseListener {
 		void released(VMKeeper me);
+
+		/**
+		 * Called just before the keeper destroys its unused VM at the end of its
+		 * billing period (or prematurely)
+		 * 
+		 * @param me
+		 *            the keeper that is about to destroy its VM
+		 */
+		void expired(VMKeeper me);
 	}
 
 	public static final boolean keepVMs;
@@ -84,11 +68,6 @@ public class VMKeeper extends Timed implements VirtualMachine.StateChange {
 			System.err.println("VMKeeper is switched on!");
 	}
 
-	/**
-	 * Allows sorting keepers based on their VM's resource size
-	 */
-	public static KeeperComparator compareKeepers = new KeeperComparator();
-
 	/**
 	 * The VM kept by this VMKeeper
 	 */
@@ -105,20 +84,87 @@ public class VMKeeper extends Timed implements VirtualMachine.StateChange {
 	 * When did we start the VM's billing period
 	 */
 	private final long startTime;
+	/**
+	 * The gang that tracks the billing period of this keeper, null if the
+	 * keeper tracks it on its own
+	 */
+	private final VMGang gang;
+	/**
+	 * The wheel to set the billing period timer on (only used without a gang)
+	 */
+	private final TimerWheel wheel;
+	/**
+	 * Fires just before the billing period expires (only used without a gang)
+	 */
+	private final TimerWheel.Entry billingEnd;
 
 	private boolean alive;
+	/**
+	 * Shows if the VM is not used by anyone at the moment
+	 */
+	private boolean free = false;
 
 	private ReleaseListener listener;
 
-	public VMKeeper(IaaSService onCloud, VirtualMachine vm, long billingPeriod) {
+	public VMKeeper(IaaSService onCloud, VirtualMachine vm, long billingPeriod, TimerWheel wheel) {
 		this.onCloud = onCloud;
 		this.vm = vm;
 		this.billingPeriod = billingPeriod;
+		this.wheel = wheel;
+		gang = null;
+		billingEnd = new TimerWheel.Entry() {
+			/**
+			 * We receive this event just before the billing period expires and
+			 * terminate the VM immediately as the VM is unused at the moment.
+			 */
+			@Override
+			protected void expired(long fires) {
+				expire();
+			}
+		};
 		alive = isServable();
 		startTime = Timed.getFireCount();
 		startSubscription();
 	}
 
+	/**
+	 * Creates a keeper which leaves the tracking of the billing period to the
+	 * gang. The keeper uses the release listener of the gang.
+	 * 
+	 * @param onCloud
+	 *            the IaaS that hosts the VM
+	 * @param vm
+	 *            the VM to keep
+	 * @param gang
+	 *            the set of VMs requested together with this one
+	 */
+	public VMKeeper(IaaSService onCloud, VirtualMachine vm, VMGang gang) {
+		this.onCloud = onCloud;
+		this.vm = vm;
+		this.gang = gang;
+		wheel = null;
+		billingEnd = null;
+		billingPeriod = gang.billingPeriod;
+		listener = gang.listener;
+		alive = isServable();
+		startTime = gang.startTime;
+		gang.add(this);
+		startSubscription();
+	}
+
+	/**
+	 * Determines how much time is left until just before the end of the
+	 * current billing period
+	 * 
+	 * @param startTime
+	 *            the start of the first billing period
+	 * @param billingPeriod
+	 *            the length of the billing periods
+	 */
+	static long timeToBillingEnd(final long startTime, final long billingPeriod) {
+		return Math.max(0, billingPeriod - (Timed.getFireCount() - startTime) % billingPeriod - 1);
+	}
+
 	/**
 	 * Tells if the VM is ready to be used
 	 * 
@@ -151,6 +197,17 @@ public class VMKeeper extends Timed implements VirtualMachine.StateChange {
 		return ra != null && rc.compareTo(vm.getResourceAllocation().allocated) <= 0;
 	}
 
+	/**
+	 * Determines the size of the kept VM
+	 * 
+	 * @return the resources allocated for the VM or null if the VM is not yet
+	 *         placed on a PM
+	 */
+	public ResourceConstraints getAllocatedResources() {
+		PhysicalMachine.ResourceAllocation ra = vm.getResourceAllocation();
+		return ra == null ? null : ra.allocated;
+	}
+
 	/**
 	 * Provides access to the VM kept by this keeper. The VM will not be destroyed
 	 * by this VMKeeper before it is released.
@@ -159,21 +216,30 @@ public class VMKeeper extends Timed implements VirtualMachine.StateChange {
 	 *         in use by someone else)
 	 */
 	public VirtualMachine acquire() {
-		if (isSubscribed()) {
-			unsubscribe();
+		if (free) {
+			stopSubscription();
 			return vm;
 		} else {
 			return null;
 		}
 	}
 
+	/**
+	 * Allows looking at the kept VM without acquiring it
+	 * 
+	 * @return the virtual machine kept by this keeper
+	 */
+	public VirtualMachine getVM() {
+		return vm;
+	}
+
 	/**
 	 * Determines if the VM behind this keeper is used by someone else or not
 	 * 
 	 * @return true if the VM is not used, false otherwise
 	 */
 	public boolean isFree() {
-		return isSubscribed();
+		return free;
 	}
 
 	/**
@@ -186,13 +252,14 @@ public class VMKeeper extends Timed implements VirtualMachine.StateChange {
 	 */
 	public void release(VirtualMachine vm) {
 		if (vm == this.vm) {
-			if (VMKeeper.keepVMs) {
+			if (gang == null ? VMKeeper.keepVMs : gang.keepVMs) {
 				startSubscription();
 				if (listener != null) {
 					listener.released(this);
 				}
 			} else {
 				destroyMyVM();
+				leaveGang();
 			}
 		} else {
 			throw new RuntimeException("Tried to release a VM which is not kept by this VMKeeper");
@@ -203,7 +270,25 @@ public class VMKeeper extends Timed implements VirtualMachine.StateChange {
 	 * Keeps the VM so it stays alive until the latest billing period is over
 	 */
 	private void startSubscription() {
-		subscribe(Math.max(0, billingPeriod - (Timed.getFireCount() - startTime) % billingPeriod - 1));
+		free = true;
+		if (gang == null) {
+			wheel.schedule(billingEnd, timeToBillingEnd(startTime, billingPeriod));
+		} else {
+			gang.freed();
+		}
+	}
+
+	/**
+	 * The VM is either taken or destroyed, its billing period does not need
+	 * to be tracked anymore
+	 */
+	private void stopSubscription() {
+		free = false;
+		if (gang == null) {
+			wheel.cancel(billingEnd);
+		} else {
+			gang.taken();
+		}
 	}
 
 	/**
@@ -213,9 +298,9 @@ public class VMKeeper extends Timed implements VirtualMachine.StateChange {
 	 * Note: this operation is only possible if the VM is not acquired at the moment
 	 */
 	public void prematureDestroy() {
-		if (isSubscribed()) {
+		if (free) {
 			prematureVMs++;
-			tick(Timed.getFireCount());
+			expire();
 		} else {
 			throw new RuntimeException("The VM is in use, it must be released before destruction");
 		}
@@ -257,14 +342,26 @@ public class VMKeeper extends Timed implements VirtualMachine.StateChange {
 	}
 
 	/**
-	 * We receive this tick just before the billing period expires and terminate the
-	 * VM immediately as the VM is unused at the moment.
+	 * Terminates the unused VM
 	 */
-	@Override
-	public void tick(long fires) {
+	void expire() {
 		expiredVMs++;
+		if (listener != null) {
+			listener.expired(this);
+		}
 		destroyMyVM();
-		unsubscribe();
+		stopSubscription();
+		leaveGang();
+	}
+
+	/**
+	 * Lets the gang know that the VM is terminated, the keeper must not use
+	 * the gang afterwards (as it could be reused for other VMs)
+	 */
+	private void leaveGang() {
+		if (gang != null) {
+			gang.left();
+		}
 	}
 
 	public void setListener(ReleaseListener listener) {
@@ -0,0 +1,130 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  (C) Copyright 2017, Gabor Kecskemeti (g.kecskemeti@ljmu.ac.uk)
+ */
+package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.constraints.ResourceConstraints;
+
+/**
+ * The set of free VMs that are kept alive by their VMKeepers until their
+ * billing period ends. The free keepers are indexed by the size of the
+ * resources allocated for their VMs, thus the smallest VM that could still
+ * host a particular resource request can be found in logarithmic time.
+ *
+ * The pool listens to the keepers it holds: they enter the pool when they are
+ * released and they leave it as soon as their billing period expires.
+ *
+ * @author "Gabor Kecskemeti, Department of Computer Science, Liverpool John
+ *         Moores University, (c) 2017"
+ */
+public class VMPool implements VMKeeper.ReleaseListener {
+	/**
+	 * The free keepers grouped by the size of their VMs. Keepers in the same
+	 * size class are kept in their release order.
+	 */
+	private final TreeMap<ResourceConstraints, LinkedHashSet<VMKeeper>> freeKeepers = new TreeMap<ResourceConstraints, LinkedHashSet<VMKeeper>>();
+	/**
+	 * The number of keepers in the pool
+	 */
+	private int size = 0;
+
+	/**
+	 * Makes the freshly released keeper available for later VM requests.
+	 */
+	@Override
+	public void released(final VMKeeper me) {
+		final ResourceConstraints sizeClass = me.getAllocatedResources();
+		if (sizeClass == null) {
+			// The VM was never placed on a PM, it cannot host anything
+			return;
+		}
+		LinkedHashSet<VMKeeper> keepers = freeKeepers.get(sizeClass);
+		if (keepers == null) {
+			keepers = new LinkedHashSet<VMKeeper>();
+			freeKeepers.put(sizeClass, keepers);
+		}
+		if (keepers.add(me)) {
+			size++;
+		}
+	}
+
+	/**
+	 * Drops the keeper from the pool as its VM is about to be destroyed.
+	 */
+	@Override
+	public void expired(final VMKeeper me) {
+		final ResourceConstraints sizeClass = me.getAllocatedResources();
+		if (sizeClass == null) {
+			return;
+		}
+		final LinkedHashSet<VMKeeper> keepers = freeKeepers.get(sizeClass);
+		if (keepers != null && keepers.remove(me)) {
+			size--;
+			if (keepers.isEmpty()) {
+				freeKeepers.remove(sizeClass);
+			}
+		}
+	}
+
+	/**
+	 * Looks for the smallest free VM that could host a VM with the given
+	 * resource constraints and removes its keeper from the pool.
+	 *
+	 * @param rc
+	 *            the resources needed
+	 * @return the keeper of the best fitting VM or null if there are no free
+	 *         VMs big enough
+	 */
+	public VMKeeper acquireFitting(final ResourceConstraints rc) {
+		Map.Entry<ResourceConstraints, LinkedHashSet<VMKeeper>> sizeClass;
+		while ((sizeClass = freeKeepers.ceilingEntry(rc)) != null) {
+			final Iterator<VMKeeper> it = sizeClass.getValue().iterator();
+			while (it.hasNext()) {
+				final VMKeeper current = it.next();
+				it.remove();
+				size--;
+				if (current.isAlive() && current.isFree()) {
+					if (!it.hasNext()) {
+						freeKeepers.remove(sizeClass.getKey());
+					}
+					return current;
+				}
+			}
+			freeKeepers.remove(sizeClass.getKey());
+		}
+		return null;
+	}
+
+	/**
+	 * Tells how many free VMs are in the pool
+	 *
+	 * @return the number of keepers in the pool
+	 */
+	public int size() {
+		return size;
+	}
+}
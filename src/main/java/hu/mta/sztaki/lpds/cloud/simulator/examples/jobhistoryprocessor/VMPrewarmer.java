@@ -0,0 +1,234 @@
+/*
+ *  ========================================================================
+ *  DISSECT-CF Examples
+ *  ========================================================================
+ *
+ *  This file is part of DISSECT-CF Examples.
+ *
+ *  DISSECT-CF Examples is free software: you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License as published
+ *  by the Free Software Foundation, either version 3 of the License, or (at
+ *  your option) any later version.
+ *
+ *  DISSECT-CF Examples is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with DISSECT-CF Examples.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  (C) Copyright 2017, Gabor Kecskemeti (g.kecskemeti@ljmu.ac.uk)
+ */
+package hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+import hu.mta.sztaki.lpds.cloud.simulator.Timed;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.VirtualMachine;
+
+/**
+ * Holds the VMs that were requested in advance for the jobs expected in the
+ * near future, and collects statistics about their usefulness. The VMs are
+ * grouped by the processor count of the job they were requested for, so
+ * later jobs with the same shape can pick them up.
+ * 
+ * The prewarmer acts as the release listener of the prewarmed VMs: after
+ * their first use they are handed over to the regular VM pool, while the
+ * ones that were never used are accounted as wasted when their billing
+ * period expires.
+ * 
+ * @author "Gabor Kecskemeti, Department of Computer Science, Liverpool John
+ *         Moores University, (c) 2017"
+ */
+class VMPrewarmer implements VMKeeper.ReleaseListener {
+	/**
+	 * The startup related timings of a prewarmed VM that was not yet used by
+	 * a job
+	 */
+	private static class Prewarmed implements VirtualMachine.StateChange {
+		final int nprocs;
+		final long requested = Timed.getFireCount();
+		long running = -1;
+
+		Prewarmed(final int nprocs) {
+			this.nprocs = nprocs;
+		}
+
+		@Override
+		public void stateChanged(final VirtualMachine vm, final VirtualMachine.State oldState,
+				final VirtualMachine.State newState) {
+			if (VirtualMachine.State.RUNNING.equals(newState)) {
+				running = Timed.getFireCount();
+				vm.unsubscribeStateChange(this);
+			}
+		}
+	}
+
+	/**
+	 * The pool that receives the prewarmed VMs after their first use
+	 */
+	private final VMPool pool;
+	/**
+	 * The unused prewarmed VMs grouped by the processor count of the job they
+	 * were requested for (in the order of their requests)
+	 */
+	private final HashMap<Integer, LinkedHashSet<VMKeeper>> unused = new HashMap<Integer, LinkedHashSet<VMKeeper>>();
+	private final IdentityHashMap<VMKeeper, Prewarmed> timings = new IdentityHashMap<VMKeeper, Prewarmed>();
+	/**
+	 * The smallest head start of the VMs in the last {@link #take} call
+	 */
+	private long lastHeadStart;
+
+	long requestedVMs = 0;
+	long usedVMs = 0;
+	long wastedVMs = 0;
+	long helpedJobs = 0;
+	/**
+	 * The sum of the estimated queueing time reduction of the jobs that were
+	 * served by prewarmed VMs (in ms)
+	 */
+	long savedQueueTime = 0;
+	/**
+	 * The time the prewarmed VMs were running without a job (in ms)
+	 */
+	long extraVMTime = 0;
+
+	VMPrewarmer(final VMPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Registers a freshly requested VM
+	 * 
+	 * @param nprocs
+	 *            the processor count of the job the VM was requested for
+	 */
+	void add(final int nprocs, final VMKeeper keeper, final VirtualMachine vm) {
+		if (!keeper.isServable()) {
+			return;
+		}
+		final Prewarmed p = new Prewarmed(nprocs);
+		if (VirtualMachine.State.RUNNING.equals(vm.getState())) {
+			p.running = p.requested;
+		} else {
+			vm.subscribeStateChange(p);
+		}
+		LinkedHashSet<VMKeeper> keepers = unused.get(nprocs);
+		if (keepers == null) {
+			keepers = new LinkedHashSet<VMKeeper>();
+			unused.put(nprocs, keepers);
+		}
+		keepers.add(keeper);
+		timings.put(keeper, p);
+		requestedVMs++;
+	}
+
+	/**
+	 * Hands out the prewarmed VMs of a particular job shape
+	 * 
+	 * @param nprocs
+	 *            the processor count of the job
+	 * @param into
+	 *            the keeper array of the job
+	 * @param from
+	 *            the first free position in the array
+	 * @param to
+	 *            the position after the last keeper of the job in the array
+	 * @return the number of keepers placed in the array
+	 */
+	int take(final int nprocs, final VMKeeper[] into, final int from, final int to) {
+		final LinkedHashSet<VMKeeper> keepers = unused.get(nprocs);
+		lastHeadStart = Long.MAX_VALUE;
+		if (keepers == null) {
+			return 0;
+		}
+		final long now = Timed.getFireCount();
+		int pos = from;
+		final Iterator<VMKeeper> it = keepers.iterator();
+		while (pos < to && it.hasNext()) {
+			final VMKeeper k = it.next();
+			it.remove();
+			final Prewarmed p = timings.remove(k);
+			if (!k.isAlive() || !k.isFree()) {
+				// Lost before any job could use it
+				wasted(k, p, now);
+				continue;
+			}
+			into[pos++] = k;
+			usedVMs++;
+			// The VM saved its startup time (or the part of it that already
+			// passed) for the job
+			final long headStart;
+			if (p.running >= 0) {
+				headStart = p.running - p.requested;
+				extraVMTime += now - p.running;
+			} else {
+				headStart = now - p.requested;
+			}
+			lastHeadStart = Math.min(lastHeadStart, headStart);
+		}
+		if (keepers.isEmpty()) {
+			unused.remove(nprocs);
+		}
+		return pos - from;
+	}
+
+	/**
+	 * Records the queueing time reduction of a job that received some
+	 * prewarmed VMs in the last {@link #take} call. A job only starts when all
+	 * its VMs are running, so it only benefits if none of its VMs had to be
+	 * requested from scratch.
+	 * 
+	 * @param hadNewVMs
+	 *            did the job need freshly requested VMs as well?
+	 */
+	void jobServed(final boolean hadNewVMs) {
+		if (!hadNewVMs && lastHeadStart != Long.MAX_VALUE) {
+			helpedJobs++;
+			savedQueueTime += lastHeadStart;
+		}
+	}
+
+	/**
+	 * Accounts a prewarmed VM that will never be used by a job
+	 * 
+	 * @param k
+	 *            the keeper of the VM
+	 * @param p
+	 *            the timings of the VM (already removed from the timings map)
+	 * @param now
+	 *            the current time
+	 */
+	private void wasted(final VMKeeper k, final Prewarmed p, final long now) {
+		wastedVMs++;
+		extraVMTime += now - p.requested;
+		if (p.running < 0) {
+			// We still wait for the VM to start
+			k.getVM().unsubscribeStateChange(p);
+		}
+	}
+
+	@Override
+	public void released(final VMKeeper me) {
+		pool.released(me);
+	}
+
+	@Override
+	public void expired(final VMKeeper me) {
+		pool.expired(me);
+		final Prewarmed p = timings.remove(me);
+		if (p != null) {
+			// Never used
+			wasted(me, p, Timed.getFireCount());
+			final LinkedHashSet<VMKeeper> keepers = unused.get(p.nprocs);
+			keepers.remove(me);
+			if (keepers.isEmpty()) {
+				unused.remove(p.nprocs);
+			}
+		}
+	}
+}
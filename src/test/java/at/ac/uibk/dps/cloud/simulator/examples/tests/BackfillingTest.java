@@ -0,0 +1,86 @@
+package at.ac.uibk.dps.cloud.simulator.examples.tests;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import at.ac.uibk.dps.cloud.simulator.test.IaaSRelatedFoundation;
+import hu.mta.sztaki.lpds.cloud.simulator.Timed;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.CloudBuilder;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.DCFJob;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.JobTable;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.MultiIaaSJobDispatcher;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.SingleJobRunner;
+import hu.mta.sztaki.lpds.cloud.simulator.helpers.job.Job;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.pmscheduling.SchedulingDependentMachines;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.vmscheduling.FirstFitScheduler;
+
+public class BackfillingTest extends IaaSRelatedFoundation {
+	private static Job job(final String id, final long submit, final long exec, final int procs) {
+		return new DCFJob(id, submit, 0, exec, procs, -1, -1, "u", "g", "e", null, 0);
+	}
+
+	private static HashSet<String> activeJobs(final MultiIaaSJobDispatcher dispatcher) {
+		final HashSet<String> ids = new HashSet<String>();
+		for (SingleJobRunner r : dispatcher.listActiveRunners()) {
+			ids.add(r.getJob().getId());
+		}
+		return ids;
+	}
+
+	@Test(timeout = 10000)
+	public void testShadowTimeAndExtraProcessors() throws Exception {
+		// 16 processors: the head of the queue (head, 14 procs) has to wait
+		// for first (12 procs) to complete, leaving 2 extra processors at its
+		// reservation
+		final List<Job> jobs = new ArrayList<Job>();
+		jobs.add(job("first", 10, 1000, 12));
+		jobs.add(job("head", 11, 100, 14));
+		// Completes before the reservation
+		jobs.add(job("short", 12, 500, 1));
+		// Free processors are there, but it would delay the head
+		jobs.add(job("wide", 13, 5000, 3));
+		// Fits into the extra processors
+		jobs.add(job("narrow", 14, 5000, 2));
+		final MultiIaaSJobDispatcher dispatcher = new MultiIaaSJobDispatcher(JobTable.fromJobs(jobs),
+				new CloudBuilder(FirstFitScheduler.class, SchedulingDependentMachines.class, 1, 2, 8).build());
+		dispatcher.enableBackfilling();
+		Timed.simulateUntil(20000);
+
+		Assert.assertEquals(2, dispatcher.getBackfilledJobs());
+		Assert.assertEquals(2, dispatcher.getWaitingJobs());
+		final HashSet<String> active = activeJobs(dispatcher);
+		Assert.assertEquals(3, active.size());
+		Assert.assertTrue(active.contains("first"));
+		Assert.assertTrue(active.contains("short"));
+		Assert.assertTrue(active.contains("narrow"));
+
+		Timed.simulateUntilLastEvent();
+		Assert.assertEquals(0, dispatcher.getWaitingJobs());
+		Assert.assertEquals(jobs.size(), dispatcher.getCompletedJobs());
+	}
+
+	@Test(timeout = 10000)
+	public void testNoBackfillingWithoutReservation() throws Exception {
+		// The queue is processed in order as long as its head can start
+		final List<Job> jobs = new ArrayList<Job>();
+		jobs.add(job("a", 10, 100, 8));
+		jobs.add(job("b", 11, 100, 8));
+		jobs.add(job("c", 12, 100, 8));
+		final MultiIaaSJobDispatcher dispatcher = new MultiIaaSJobDispatcher(JobTable.fromJobs(jobs),
+				new CloudBuilder(FirstFitScheduler.class, SchedulingDependentMachines.class, 1, 2, 8).build());
+		dispatcher.enableBackfilling();
+		Timed.simulateUntil(20000);
+
+		Assert.assertEquals(0, dispatcher.getBackfilledJobs());
+		Assert.assertEquals(1, dispatcher.getWaitingJobs());
+		Assert.assertFalse(activeJobs(dispatcher).contains("c"));
+
+		Timed.simulateUntilLastEvent();
+		Assert.assertEquals(0, dispatcher.getBackfilledJobs());
+		Assert.assertEquals(jobs.size(), dispatcher.getCompletedJobs());
+	}
+}
@@ -0,0 +1,62 @@
+package at.ac.uibk.dps.cloud.simulator.examples.tests;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.BinarySeriesReader;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.BinarySeriesWriter;
+
+public class BinarySeriesTest {
+	File series;
+
+	@Before
+	public void prepareFile() throws IOException {
+		series = File.createTempFile("dcfseries", ".dcfts");
+	}
+
+	@After
+	public void cleanup() {
+		series.delete();
+	}
+
+	private static double[] row(int i) {
+		return new double[] { 1000 + i / 10, i % 7, i * 1000000007L, Long.MIN_VALUE + i, i / 3.0 };
+	}
+
+	@Test(timeout = 5000)
+	public void testRoundTrip() throws IOException {
+		final int rows = 10000;
+		BinarySeriesWriter w = new BinarySeriesWriter(series.getPath(),
+				new String[] { "Slow", "Cyclic", "Huge", "Extreme", "Fraction" },
+				new boolean[] { true, true, true, true, false }, 300000, 300000);
+		for (int i = 0; i < rows; i++) {
+			// a single sample arrives late
+			w.append(300000 + i * 300000L + (i == 5000 ? 17 : 0), row(i));
+		}
+		w.close();
+		BinarySeriesReader r = new BinarySeriesReader(series.getPath());
+		Assert.assertEquals(rows, r.getRowCount());
+		Assert.assertEquals(5, r.getColumnCount());
+		Assert.assertEquals("Cyclic", r.getColumnName(1));
+		Assert.assertFalse(r.isIntegral(4));
+		for (int i = 0; i < rows; i++) {
+			final double[] expected = row(i);
+			Assert.assertEquals(300000 + i * 300000L + (i == 5000 ? 17 : 0), r.getTime(i));
+			for (int c = 0; c < 4; c++) {
+				Assert.assertEquals((long) expected[c], r.getLong(i, c));
+			}
+			Assert.assertEquals(expected[4], r.getDouble(i, 4), 0);
+		}
+	}
+
+	@Test(timeout = 1000)
+	public void testEmptySeries() throws IOException {
+		new BinarySeriesWriter(series.getPath(), new String[] { "A" }, new boolean[] { true }, 0, 10).close();
+		Assert.assertEquals(0, new BinarySeriesReader(series.getPath()).getRowCount());
+	}
+}
@@ -0,0 +1,76 @@
+package at.ac.uibk.dps.cloud.simulator.examples.tests;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.BinaryTraceCache;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.DCFJob;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.JobTable;
+import hu.mta.sztaki.lpds.cloud.simulator.helpers.job.Job;
+
+public class BinaryTraceCacheTest {
+	File trace;
+	JobTable table;
+
+	@Before
+	public void prepareTrace() throws IOException {
+		trace = File.createTempFile("dcftrace", ".swf");
+		FileWriter fw = new FileWriter(trace);
+		fw.write("; a trace that is never parsed in this test\n");
+		fw.close();
+		List<Job> jobs = new ArrayList<Job>();
+		jobs.add(new DCFJob("1", 10, 0, 50, 1, -1, -1, "bob", "staff", "sim.exe", null, 0));
+		jobs.add(new DCFJob("0042", 20, 1, 70, 16, 2.5, 2048, "alice", "guests", "other.exe", null, 0));
+		jobs.add(new DCFJob("job-x", 30, 2, 100, 4, 1.5, 1024, "alice", "staff", "sim.exe", null, 0));
+		table = JobTable.fromJobs(jobs);
+	}
+
+	@After
+	public void cleanup() {
+		BinaryTraceCache.cacheFileFor(trace.getPath(), 0, 3).delete();
+		trace.delete();
+	}
+
+	@Test(timeout = 1000)
+	public void testRoundTrip() throws IOException {
+		BinaryTraceCache.store(trace.getPath(), 0, 3, 64, table);
+		JobTable loaded = BinaryTraceCache.load(trace.getPath(), 0, 3, 64);
+		Assert.assertNotNull(loaded);
+		Assert.assertEquals(table.size(), loaded.size());
+		for (int i = 0; i < table.size(); i++) {
+			DCFJob orig = table.createView(i);
+			DCFJob copy = loaded.createView(i);
+			Assert.assertEquals(orig.getId(), copy.getId());
+			Assert.assertEquals(orig.getSubmittimeSecs(), copy.getSubmittimeSecs());
+			Assert.assertEquals(orig.getQueuetimeSecs(), copy.getQueuetimeSecs());
+			Assert.assertEquals(orig.getExectimeSecs(), copy.getExectimeSecs());
+			Assert.assertEquals(orig.nprocs, copy.nprocs);
+			Assert.assertEquals(orig.perProcCPUTime, copy.perProcCPUTime, 0);
+			Assert.assertEquals(orig.usedMemory, copy.usedMemory);
+			Assert.assertEquals(orig.user, copy.user);
+			Assert.assertEquals(orig.group, copy.group);
+			Assert.assertEquals(orig.executable, copy.executable);
+		}
+	}
+
+	@Test(timeout = 1000)
+	public void testInvalidation() throws IOException {
+		BinaryTraceCache.store(trace.getPath(), 0, 3, 64, table);
+		// Different processor limit or range
+		Assert.assertNull(BinaryTraceCache.load(trace.getPath(), 0, 3, 32));
+		Assert.assertNull(BinaryTraceCache.load(trace.getPath(), 0, 2, 64));
+		// Changed source trace
+		FileWriter fw = new FileWriter(trace, true);
+		fw.write("; appended line\n");
+		fw.close();
+		Assert.assertNull(BinaryTraceCache.load(trace.getPath(), 0, 3, 64));
+	}
+}
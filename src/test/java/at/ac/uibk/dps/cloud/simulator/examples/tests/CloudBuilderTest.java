@@ -0,0 +1,62 @@
+package at.ac.uibk.dps.cloud.simulator.examples.tests;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import at.ac.uibk.dps.cloud.simulator.test.IaaSRelatedFoundation;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.CloudBuilder;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.IaaSService;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.PhysicalMachine;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.pmscheduling.SchedulingDependentMachines;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.vmscheduling.FirstFitScheduler;
+
+public class CloudBuilderTest extends IaaSRelatedFoundation {
+	// More machines than a single construction task handles
+	private static final int nodes = 2500;
+
+	private static List<String> buildWithThreads(final String threads) throws Exception {
+		final String before = System.getProperty(CloudBuilder.threadsProperty);
+		System.setProperty(CloudBuilder.threadsProperty, threads);
+		try {
+			final List<IaaSService> clouds = new CloudBuilder(FirstFitScheduler.class,
+					SchedulingDependentMachines.class, 2, nodes, 8).build();
+			Assert.assertEquals(2, clouds.size());
+			final ArrayList<String> ids = new ArrayList<String>();
+			for (int c = 0; c < clouds.size(); c++) {
+				final IaaSService iaas = clouds.get(c);
+				Assert.assertEquals(1, iaas.repositories.size());
+				Assert.assertEquals(c + "VHStorageDell", iaas.repositories.get(0).getName());
+				Assert.assertEquals(nodes, iaas.machines.size());
+				for (PhysicalMachine pm : iaas.machines) {
+					Assert.assertEquals(8, pm.getCapacities().getRequiredCPUs(), 0);
+					ids.add(pm.localDisk.getName());
+				}
+			}
+			return ids;
+		} finally {
+			if (before == null) {
+				System.clearProperty(CloudBuilder.threadsProperty);
+			} else {
+				System.setProperty(CloudBuilder.threadsProperty, before);
+			}
+		}
+	}
+
+	@Test(timeout = 20000)
+	public void testSequentialBuild() throws Exception {
+		final List<String> ids = buildWithThreads("1");
+		Assert.assertEquals(2 * nodes, ids.size());
+		Assert.assertEquals("0VHNode1", ids.get(0));
+		Assert.assertEquals("0VHNode" + nodes, ids.get(nodes - 1));
+		Assert.assertEquals("1VHNode1", ids.get(nodes));
+		Assert.assertEquals("1VHNode" + nodes, ids.get(2 * nodes - 1));
+	}
+
+	@Test(timeout = 20000)
+	public void testParallelBuildMatchesSequential() throws Exception {
+		Assert.assertEquals(buildWithThreads("1"), buildWithThreads("4"));
+	}
+}
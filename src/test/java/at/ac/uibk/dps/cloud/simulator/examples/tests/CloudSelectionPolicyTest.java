@@ -0,0 +1,150 @@
+package at.ac.uibk.dps.cloud.simulator.examples.tests;
+
+import java.util.BitSet;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import at.ac.uibk.dps.cloud.simulator.test.IaaSRelatedFoundation;
+import hu.mta.sztaki.lpds.cloud.simulator.Timed;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.CloudBuilder;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.CloudSelectionPolicy;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.IaaSService;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.constraints.ConstantConstraints;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.pmscheduling.AlwaysOnMachines;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.vmscheduling.FirstFitScheduler;
+import hu.mta.sztaki.lpds.cloud.simulator.io.VirtualAppliance;
+
+public class CloudSelectionPolicyTest extends IaaSRelatedFoundation {
+	// Whole PM sized VMs: every cloud hosts two of them
+	private static final ConstantConstraints pmSized = new ConstantConstraints(4, 0.001, 512000000);
+	private final VirtualAppliance va = new VirtualAppliance("test", 30, 0, false, 100000000);
+	private List<IaaSService> clouds;
+
+	@Before
+	public void buildFederation() throws Exception {
+		// Three clouds with two 4 core PMs each, the PMs are still switching
+		// on so all requests are queued first
+		clouds = new CloudBuilder(FirstFitScheduler.class, AlwaysOnMachines.class, 3, 2, 4).build();
+		for (IaaSService iaas : clouds) {
+			iaas.repositories.get(0).registerObject(va);
+		}
+	}
+
+	private void load(final int cloud, final int vms) throws Exception {
+		final IaaSService iaas = clouds.get(cloud);
+		for (int i = 0; i < vms; i++) {
+			iaas.requestVM(va, pmSized, iaas.repositories.get(0), 1);
+		}
+	}
+
+	private int selectAndRequest(final CloudSelectionPolicy policy, final BitSet excluded) throws Exception {
+		final int cloud = policy.select(pmSized, 1, excluded);
+		load(cloud, 1);
+		policy.requested(cloud, pmSized, 1);
+		return cloud;
+	}
+
+	private static BitSet excluding(final int cloud) {
+		final BitSet excluded = new BitSet();
+		excluded.set(cloud);
+		return excluded;
+	}
+
+	@Test(timeout = 1000)
+	public void testForName() {
+		Assert.assertTrue(
+				CloudSelectionPolicy.forName("roundrobin", clouds) instanceof CloudSelectionPolicy.RoundRobin);
+		Assert.assertTrue(
+				CloudSelectionPolicy.forName("leastqueued", clouds) instanceof CloudSelectionPolicy.LeastQueued);
+		Assert.assertTrue(
+				CloudSelectionPolicy.forName("mostfree", clouds) instanceof CloudSelectionPolicy.MostFreeCapacity);
+		Assert.assertTrue(
+				CloudSelectionPolicy.forName("twochoices", clouds) instanceof CloudSelectionPolicy.TwoChoices);
+		try {
+			CloudSelectionPolicy.forName("nosuchpolicy", clouds);
+			Assert.fail("Unknown policies should be rejected");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+	}
+
+	@Test(timeout = 1000)
+	public void testRoundRobin() throws Exception {
+		final CloudSelectionPolicy policy = new CloudSelectionPolicy.RoundRobin(clouds);
+		Assert.assertEquals(0, selectAndRequest(policy, null));
+		Assert.assertEquals(2, selectAndRequest(policy, excluding(1)));
+		Assert.assertEquals(0, selectAndRequest(policy, null));
+		Assert.assertEquals(1, selectAndRequest(policy, null));
+	}
+
+	@Test(timeout = 10000)
+	public void testLeastQueued() throws Exception {
+		final CloudSelectionPolicy policy = new CloudSelectionPolicy.LeastQueued(clouds);
+		// Requests from others are noticed when the queues start
+		load(0, 1);
+		load(2, 1);
+		Assert.assertEquals(1, selectAndRequest(policy, null));
+		// All queues have a single request, the least recently used cloud
+		// with the lowest index comes next
+		Assert.assertEquals(0, selectAndRequest(policy, null));
+		Assert.assertEquals(2, selectAndRequest(policy, null));
+		// Cloud 1 has the shortest queue, but it is excluded
+		Assert.assertEquals(0, policy.select(pmSized, 1, excluding(1)));
+
+		// The PMs switch on and place all queued VMs
+		Timed.simulateUntilLastEvent();
+		for (IaaSService iaas : clouds) {
+			Assert.assertEquals(0, iaas.sched.getQueueLength());
+		}
+		// Cloud 1 was used the longest time ago
+		Assert.assertEquals(1, policy.select(pmSized, 1, null));
+	}
+
+	@Test(timeout = 10000)
+	public void testMostFreeCapacitySpreadsBursts() throws Exception {
+		final CloudSelectionPolicy policy = new CloudSelectionPolicy.MostFreeCapacity(clouds);
+		// The requests of the burst are queued, their cores are reserved in
+		// the cloud they were sent to
+		Assert.assertEquals(0, selectAndRequest(policy, null));
+		Assert.assertEquals(1, selectAndRequest(policy, null));
+		Assert.assertEquals(2, selectAndRequest(policy, null));
+		Assert.assertEquals(0, selectAndRequest(policy, null));
+
+		// Once placed, the VMs use the cores instead of the reservations
+		Timed.simulateUntilLastEvent();
+		Assert.assertEquals(1, policy.select(pmSized, 1, null));
+		Assert.assertEquals(2, policy.select(pmSized, 1, excluding(1)));
+		load(1, 1);
+		Timed.simulateUntilLastEvent();
+		Assert.assertEquals(2, policy.select(pmSized, 1, null));
+	}
+
+	@Test(timeout = 10000)
+	public void testDetachedPolicyIgnoresChanges() throws Exception {
+		final CloudSelectionPolicy followed = new CloudSelectionPolicy.MostFreeCapacity(clouds);
+		final CloudSelectionPolicy detached = new CloudSelectionPolicy.MostFreeCapacity(clouds);
+		detached.detach();
+		load(0, 2);
+		load(1, 1);
+		Timed.simulateUntilLastEvent();
+		Assert.assertEquals(2, followed.select(pmSized, 1, null));
+		Assert.assertEquals(0, detached.select(pmSized, 1, null));
+	}
+
+	@Test(timeout = 1000)
+	public void testTwoChoicesAvoidsLongestQueue() throws Exception {
+		final CloudSelectionPolicy policy = new CloudSelectionPolicy.TwoChoices(clouds);
+		load(0, 2);
+		load(1, 1);
+		for (int i = 0; i < 50; i++) {
+			// The longest queue loses against any other cloud
+			Assert.assertTrue(policy.select(pmSized, 1, null) != 0);
+			// Only two clouds remain, so both of them are compared
+			Assert.assertEquals(2, policy.select(pmSized, 1, excluding(1)));
+			Assert.assertEquals(1, policy.select(pmSized, 1, excluding(2)));
+		}
+	}
+}
@@ -0,0 +1,43 @@
+package at.ac.uibk.dps.cloud.simulator.examples.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Properties;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.ConsolidatorConfiguration;
+
+public class ConsolidatorConfigurationTest {
+	@Test(timeout = 1000)
+	public void testXMLRoundTrip() throws Exception {
+		ConsolidatorConfiguration conf = ConsolidatorConfiguration.defaults.toBuilder().setPso(7, 13, 3, 5)
+				.setGa(11, 17, 19).setMutationProb(0.3).setDoLocalSearch2(true).setOther("custom", "x").build();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		conf.storeToXML(out, null);
+		ConsolidatorConfiguration back = ConsolidatorConfiguration
+				.loadFromXML(new ByteArrayInputStream(out.toByteArray()));
+		Assert.assertEquals(conf.toProperties(), back.toProperties());
+		Assert.assertEquals(7, back.psoSwarmSize);
+		Assert.assertEquals(19, back.gaNrCrossovers);
+		Assert.assertEquals(0.3, back.mutationProb, 0);
+		Assert.assertTrue(back.doLocalSearch2);
+		Assert.assertEquals("x", back.others.get("custom"));
+	}
+
+	@Test(timeout = 100)
+	public void testBuilderLeavesTheOriginalIntact() {
+		ConsolidatorConfiguration changed = ConsolidatorConfiguration.defaults.toBuilder().setAbc(1, 2, 3).build();
+		Assert.assertEquals(10, ConsolidatorConfiguration.defaults.abcPopulationSize);
+		Assert.assertEquals(1, changed.abcPopulationSize);
+		Assert.assertEquals(ConsolidatorConfiguration.defaults.psoSwarmSize, changed.psoSwarmSize);
+	}
+
+	@Test(expected = IllegalArgumentException.class, timeout = 100)
+	public void testMalformedValue() {
+		Properties props = new Properties();
+		props.setProperty("psoC1", "two");
+		ConsolidatorConfiguration.fromProperties(props);
+	}
+}
@@ -0,0 +1,103 @@
+package at.ac.uibk.dps.cloud.simulator.examples.tests;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import at.ac.uibk.dps.cloud.simulator.test.IaaSRelatedFoundation;
+import hu.mta.sztaki.lpds.cloud.simulator.DeferredEvent;
+import hu.mta.sztaki.lpds.cloud.simulator.Timed;
+import hu.mta.sztaki.lpds.cloud.simulator.energy.specialized.IaaSEnergyMeter;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.CloudBuilder;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.EnergyAccountant;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.IaaSService;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.VMManager.VMManagementException;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.VirtualMachine;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.constraints.ConstantConstraints;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.pmscheduling.SchedulingDependentMachines;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.resourcemodel.ResourceConsumption;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.vmscheduling.FirstFitScheduler;
+import hu.mta.sztaki.lpds.cloud.simulator.io.Repository;
+import hu.mta.sztaki.lpds.cloud.simulator.io.VirtualAppliance;
+
+public class EnergyAccountantTest extends IaaSRelatedFoundation {
+	private static final long hourMs = 3600000;
+
+	/**
+	 * Runs a task on the VM and destroys the VM once the task is complete (so
+	 * its PM can be switched off)
+	 */
+	private static void runAndDestroy(final VirtualMachine vm, final double cores, final double procPower,
+			final long duration) throws Exception {
+		vm.newComputeTask(cores * procPower * duration, ResourceConsumption.unlimitedProcessing,
+				new ResourceConsumption.ConsumptionEvent() {
+					@Override
+					public void conComplete() {
+						try {
+							vm.destroy(false);
+						} catch (VMManagementException e) {
+							throw new RuntimeException(e);
+						}
+					}
+
+					@Override
+					public void conCancelled(final ResourceConsumption problematic) {
+						// not expected
+					}
+				});
+	}
+
+	@Test(timeout = 20000)
+	public void testMatchesPeriodicMeters() throws Exception {
+		final List<IaaSService> clouds = new CloudBuilder(FirstFitScheduler.class,
+				SchedulingDependentMachines.class, 1, 3, 8).build();
+		final IaaSService cloud = clouds.get(0);
+		final EnergyAccountant accountant = new EnergyAccountant(clouds);
+		final IaaSEnergyMeter meter = new IaaSEnergyMeter(cloud);
+		meter.startMeter(100, false);
+
+		final Repository repo = cloud.repositories.get(0);
+		final VirtualAppliance va = new VirtualAppliance("energytest", 30, 0, false, 100000000);
+		repo.registerObject(va);
+		final double procPower = cloud.machines.get(0).getCapacities().getRequiredProcessingPower();
+		final VirtualMachine partial = cloud.requestVM(va, new ConstantConstraints(4, procPower, 512000000), repo,
+				1)[0];
+		final VirtualMachine full = cloud.requestVM(va, new ConstantConstraints(8, procPower, 512000000), repo,
+				1)[0];
+		// Waiting for the VMs, the meters keep the simulation going so we
+		// cannot wait for the last event
+		final double[] readings = new double[2];
+		new DeferredEvent(hourMs / 2) {
+			@Override
+			protected void eventAction() {
+				try {
+					Assert.assertEquals(VirtualMachine.State.RUNNING, partial.getState());
+					Assert.assertEquals(VirtualMachine.State.RUNNING, full.getState());
+					// Half loaded PM for an hour, fully loaded one for two
+					runAndDestroy(partial, 4, procPower, hourMs);
+					runAndDestroy(full, 8, procPower, 2 * hourMs);
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		new DeferredEvent(4 * hourMs) {
+			@Override
+			protected void eventAction() {
+				readings[0] = meter.getTotalConsumption();
+				readings[1] = accountant.getTotalConsumption();
+				meter.stopMeter();
+				accountant.stop();
+			}
+		};
+		Timed.simulateUntilLastEvent();
+
+		Assert.assertTrue("The PMs consumed energy", readings[0] > 0);
+		// The segments are integrated exactly for the linear power models,
+		// the meter's readings lag by at most one of its 100 ms periods
+		Assert.assertEquals(readings[0], readings[1], readings[0] * 0.01);
+		// Stopped accountants no longer change
+		Assert.assertEquals(readings[1], accountant.getTotalConsumption(), 0);
+	}
+}
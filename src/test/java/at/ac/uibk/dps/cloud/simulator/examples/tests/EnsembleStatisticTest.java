@@ -0,0 +1,56 @@
+package at.ac.uibk.dps.cloud.simulator.examples.tests;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.DispatchingEnsemble;
+
+public class EnsembleStatisticTest {
+	@Test(timeout = 100)
+	public void testMeanAndDeviation() {
+		DispatchingEnsemble.Statistic s = new DispatchingEnsemble.Statistic();
+		for (int i = 1; i <= 5; i++) {
+			s.add(i);
+		}
+		Assert.assertEquals(5, s.getCount());
+		Assert.assertEquals(3, s.getMean(), 1e-12);
+		Assert.assertEquals(Math.sqrt(2.5), s.getStandardDeviation(), 1e-12);
+		// t(0.975, 4 dof) = 2.776
+		Assert.assertEquals(2.776 * Math.sqrt(2.5) / Math.sqrt(5), s.getHalfWidth(0.95), 0.01);
+	}
+
+	@Test(timeout = 100)
+	public void testPrecision() {
+		DispatchingEnsemble.Statistic s = new DispatchingEnsemble.Statistic();
+		s.add(100);
+		Assert.assertFalse("A single sample has no confidence interval", s.isPrecise(0.5, 0.95));
+		for (int i = 0; i < 9; i++) {
+			s.add(i % 2 == 0 ? 101 : 99);
+		}
+		Assert.assertTrue(s.isPrecise(0.01, 0.95));
+		Assert.assertFalse(s.isPrecise(0.001, 0.95));
+	}
+
+	@Test(timeout = 1000)
+	public void testStudentQuantiles() {
+		// Reference values from the t-distribution tables
+		final double[][] known = { { 0.975, 1, 12.7062 }, { 0.975, 2, 4.3027 }, { 0.975, 3, 3.1824 },
+				{ 0.975, 4, 2.7764 }, { 0.975, 10, 2.2281 }, { 0.975, 30, 2.0423 }, { 0.975, 31, 2.0395 },
+				{ 0.975, 120, 1.9799 }, { 0.995, 1, 63.6567 }, { 0.995, 5, 4.0321 }, { 0.995, 60, 2.6603 },
+				{ 0.95, 2, 2.9200 }, { 0.95, 30, 1.6973 }, { 0.9, 1, 3.0777 } };
+		for (double[] k : known) {
+			Assert.assertEquals("p=" + k[0] + " dof=" + k[1], k[2],
+					DispatchingEnsemble.studentQuantile(k[0], (long) k[1]), 1e-4 * k[2]);
+		}
+		Assert.assertEquals(-2.7764, DispatchingEnsemble.studentQuantile(0.025, 4), 1e-3);
+	}
+
+	@Test(timeout = 100)
+	public void testHalfWidthOfTwoSamples() {
+		DispatchingEnsemble.Statistic s = new DispatchingEnsemble.Statistic();
+		s.add(1);
+		s.add(3);
+		// t(0.975, 1 dof) * sd / sqrt(2) with sd = sqrt(2)
+		Assert.assertEquals(12.7062, s.getHalfWidth(0.95), 1e-3);
+	}
+}
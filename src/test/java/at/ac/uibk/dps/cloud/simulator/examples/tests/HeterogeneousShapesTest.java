@@ -0,0 +1,81 @@
+package at.ac.uibk.dps.cloud.simulator.examples.tests;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import at.ac.uibk.dps.cloud.simulator.test.IaaSRelatedFoundation;
+import hu.mta.sztaki.lpds.cloud.simulator.Timed;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.CloudBuilder;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.DCFJob;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.JobTable;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.MultiIaaSJobDispatcher;
+import hu.mta.sztaki.lpds.cloud.simulator.helpers.job.Job;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.IaaSService;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.VirtualMachine;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.pmscheduling.SchedulingDependentMachines;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.vmscheduling.FirstFitScheduler;
+
+public class HeterogeneousShapesTest extends IaaSRelatedFoundation {
+	// Long enough for any of the jobs below to complete with its VM startup
+	private static final long gap = 2000;
+
+	@Test(timeout = 10000)
+	public void testVMsShapedForTheirClouds() throws Exception {
+		// Cloud 0 has four 4 core PMs, cloud 1 has a single 16 core PM: 32
+		// cores in the federation
+		final List<IaaSService> clouds = new ArrayList<IaaSService>();
+		clouds.addAll(new CloudBuilder(FirstFitScheduler.class, SchedulingDependentMachines.class, 1, 4, 4).build());
+		clouds.addAll(new CloudBuilder(FirstFitScheduler.class, SchedulingDependentMachines.class, 1, 1, 16).build());
+		// The last job needs more cores than the federation has
+		final int[] procs = { 8, 24, 32, 40 };
+		final List<Job> jobs = new ArrayList<Job>();
+		for (int i = 0; i < procs.length; i++) {
+			jobs.add(new DCFJob("job" + i, 10 + i * gap, 0, 300, procs[i], -1, -1, "u", "g", "e", null, 0));
+		}
+		final MultiIaaSJobDispatcher dispatcher = new MultiIaaSJobDispatcher(JobTable.fromJobs(jobs), clouds);
+		dispatcher.enableHeterogeneousShapes();
+
+		// The core counts of the VMs started in each cloud
+		@SuppressWarnings("unchecked")
+		final List<Double>[] shapes = new List[] { new ArrayList<Double>(), new ArrayList<Double>() };
+		dispatcher.addVMObserver(new VirtualMachine.StateChange() {
+			@Override
+			public void stateChanged(final VirtualMachine vm, final VirtualMachine.State oldState,
+					final VirtualMachine.State newState) {
+				if (VirtualMachine.State.RUNNING.equals(newState)) {
+					final int cloud = clouds.get(0).machines.contains(vm.getResourceAllocation().getHost()) ? 0 : 1;
+					shapes[cloud].add(vm.getResourceAllocation().allocated.getRequiredCPUs());
+				}
+			}
+		});
+
+		// The clouds are picked in round robin order, every cloud receives
+		// VMs of its own PM size until the job is covered
+		final double[][][] expected = {
+				// 8 procs: two VMs fill two PMs of cloud 0
+				{ { 4, 4 }, {} },
+				// 24 procs: the big PM first, the rest spread in cloud 0
+				{ { 4, 4 }, { 16 } },
+				// 32 procs: the whole federation
+				{ { 4, 4, 4, 4 }, { 16 } },
+				// 40 procs: not even requested
+				{ {}, {} } };
+		for (int i = 0; i < procs.length; i++) {
+			Timed.simulateUntil((10 + i * gap + gap / 2) * 1000);
+			for (int c = 0; c < shapes.length; c++) {
+				Assert.assertEquals("Job " + i + " in cloud " + c, expected[i][c].length, shapes[c].size());
+				for (double cores : expected[i][c]) {
+					Assert.assertEquals(cores, shapes[c].remove(0), 1e-9);
+				}
+			}
+		}
+		Timed.simulateUntilLastEvent();
+		Assert.assertEquals(procs.length - 1, dispatcher.getCompletedJobs());
+		Assert.assertEquals(1, dispatcher.getIgnorecounter());
+		// All PMs have the same per core processing power
+		Assert.assertEquals(1, dispatcher.getShapedProcPowerRatio(), 1e-9);
+	}
+}
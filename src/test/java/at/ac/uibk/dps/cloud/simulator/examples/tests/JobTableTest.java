@@ -0,0 +1,64 @@
+package at.ac.uibk.dps.cloud.simulator.examples.tests;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.DCFJob;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.JobTable;
+import hu.mta.sztaki.lpds.cloud.simulator.helpers.job.Job;
+
+public class JobTableTest {
+	List<Job> jobs;
+
+	@Before
+	public void setupJobs() {
+		jobs = new ArrayList<Job>();
+		jobs.add(new DCFJob("12", 30, 2, 100, 4, 1.5, 1024, "alice", "staff", "sim.exe", null, 0));
+		jobs.add(new DCFJob("007", 10, 0, 50, 1, -1, -1, "bob", "staff", "sim.exe", null, 0));
+		jobs.add(new DCFJob("job-x", 20, 1, 70, 16, 2, 2048, "alice", "guests", "other.exe", null, 0));
+		jobs.add(new DCFJob("13", 10, 3, 40, 2, -1, -1, "bob", "staff", "sim.exe", null, 0));
+	}
+
+	@Test(timeout = 100)
+	public void testViewsMatchOriginals() {
+		JobTable table = JobTable.fromJobs(jobs);
+		Assert.assertEquals(jobs.size(), table.size());
+		for (int i = 0; i < jobs.size(); i++) {
+			Job original = jobs.get(i);
+			DCFJob view = table.createView(i);
+			Assert.assertEquals(original.getId(), view.getId());
+			Assert.assertEquals(original.getSubmittimeSecs(), view.getSubmittimeSecs());
+			Assert.assertEquals(original.getQueuetimeSecs(), view.getQueuetimeSecs());
+			Assert.assertEquals(original.getExectimeSecs(), view.getExectimeSecs());
+			Assert.assertEquals(original.nprocs, view.nprocs);
+			Assert.assertEquals(original.perProcCPUTime, view.perProcCPUTime, 0);
+			Assert.assertEquals(original.usedMemory, view.usedMemory);
+			Assert.assertEquals(original.user, view.user);
+			Assert.assertEquals(original.group, view.group);
+			Assert.assertEquals(original.executable, view.executable);
+		}
+	}
+
+	@Test(timeout = 100)
+	public void testSortKeepsOrderOfEqualSubmissions() {
+		JobTable sorted = JobTable.fromJobs(jobs).sortBySubmitTime();
+		Assert.assertEquals("007", sorted.getId(0));
+		Assert.assertEquals("13", sorted.getId(1));
+		Assert.assertEquals("job-x", sorted.getId(2));
+		Assert.assertEquals("12", sorted.getId(3));
+		Assert.assertEquals(16, sorted.getNprocs(2));
+		Assert.assertSame(sorted, sorted.sortBySubmitTime());
+	}
+
+	@Test(timeout = 100)
+	public void testAdjust() {
+		JobTable table = JobTable.fromJobs(jobs);
+		table.adjust(5);
+		Assert.assertEquals(35, table.getSubmittimeSecs(0));
+		Assert.assertEquals(15, table.createView(1).getSubmittimeSecs());
+	}
+}
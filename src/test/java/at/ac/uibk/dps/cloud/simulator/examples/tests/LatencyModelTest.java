@@ -0,0 +1,89 @@
+package at.ac.uibk.dps.cloud.simulator.examples.tests;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import hu.mta.sztaki.lpds.cloud.simulator.examples.LatencyModel;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.LatencyModel.NodeIndex;
+
+public class LatencyModelTest {
+	@Test(timeout = 100)
+	public void testNumberedNodes() {
+		NodeIndex nodes = LatencyModel.numberedNodes("VHNode", 1, 10);
+		Assert.assertEquals(0, nodes.indexOf("VHNode1"));
+		Assert.assertEquals(9, nodes.indexOf("VHNode10"));
+		Assert.assertEquals("VHNode10", nodes.nameOf(9));
+		Assert.assertEquals(-1, nodes.indexOf("VHNode0"));
+		Assert.assertEquals(-1, nodes.indexOf("VHNode11"));
+		Assert.assertEquals(-1, nodes.indexOf("VHNode"));
+		Assert.assertEquals(-1, nodes.indexOf("VHNodeX"));
+		Assert.assertEquals(-1, nodes.indexOf("VHNode1a"));
+		Assert.assertEquals(-1, nodes.indexOf("Node1"));
+		Assert.assertEquals(-1, nodes.indexOf(null));
+	}
+
+	@Test(timeout = 100)
+	public void testNumberedNodesLeadingZerosAndOverflow() {
+		NodeIndex nodes = LatencyModel.numberedNodes("n", 0, Integer.MAX_VALUE);
+		Assert.assertEquals(0, nodes.indexOf("n0"));
+		// nameOf never produces leading zeros, so such names are not ours
+		Assert.assertEquals(-1, nodes.indexOf("n01"));
+		Assert.assertEquals(-1, nodes.indexOf("n00"));
+		Assert.assertEquals(999999999, nodes.indexOf("n999999999"));
+		// would overflow an int while parsing
+		Assert.assertEquals(-1, nodes.indexOf("n4294967297"));
+		Assert.assertEquals(-1, nodes.indexOf("n99999999999999999999"));
+	}
+
+	@Test(timeout = 100)
+	public void testCombinedNodesWithEmptyParts() {
+		NodeIndex nodes = LatencyModel.combinedNodes(LatencyModel.listedNodes(),
+				LatencyModel.listedNodes("repo", "storage"), LatencyModel.numberedNodes("pm", 0, 0),
+				LatencyModel.listedNodes(), LatencyModel.numberedNodes("pm", 0, 3), LatencyModel.listedNodes());
+		Assert.assertEquals(5, nodes.size());
+		final String[] expected = { "repo", "storage", "pm0", "pm1", "pm2" };
+		for (int i = 0; i < expected.length; i++) {
+			Assert.assertEquals(expected[i], nodes.nameOf(i));
+			Assert.assertEquals(i, nodes.indexOf(expected[i]));
+		}
+		Assert.assertEquals(-1, nodes.indexOf("pm3"));
+	}
+
+	@Test(timeout = 100)
+	public void testRacksAndMapView() {
+		NodeIndex nodes = LatencyModel.combinedNodes(LatencyModel.listedNodes("repo"),
+				LatencyModel.numberedNodes("pm", 0, 4));
+		LatencyModel model = LatencyModel.perRack(nodes, 1, 5, 0, 1, 3);
+		Assert.assertEquals(1, model.getLatency("pm0", "pm1"));
+		Assert.assertEquals(5, model.getLatency("pm1", "pm2"));
+		Assert.assertEquals(5, model.getLatency("repo", "pm3"));
+		Assert.assertEquals(-1, model.getLatency("repo", "pm4"));
+		Map<String, Integer> fromPm2 = model.latenciesFrom(nodes.indexOf("pm2"));
+		Map<String, Integer> expected = new HashMap<String, Integer>();
+		expected.put("repo", 5);
+		expected.put("pm0", 5);
+		expected.put("pm1", 5);
+		expected.put("pm2", 1);
+		expected.put("pm3", 1);
+		Assert.assertEquals(expected, new HashMap<String, Integer>(fromPm2));
+		Assert.assertNull(fromPm2.get("pm4"));
+	}
+
+	@Test(timeout = 100)
+	public void testUnreachableGroups() {
+		NodeIndex nodes = LatencyModel.listedNodes("a", "b", "c");
+		LatencyModel model = LatencyModel.matrix(nodes, new int[][] { { 0, -1 }, { -1, 2 } }, 0, 1);
+		Map<String, Integer> fromA = model.latenciesFrom(0);
+		Assert.assertEquals(1, fromA.size());
+		Assert.assertFalse(fromA.containsKey("b"));
+		Assert.assertEquals(2, (int) model.latenciesFrom(1).get("c"));
+	}
+
+	@Test(timeout = 100, expected = IllegalArgumentException.class)
+	public void testNonSquareMatrix() {
+		LatencyModel.matrix(LatencyModel.listedNodes("a", "b"), new int[][] { { 0, 1 } }, 0, 1);
+	}
+}
@@ -0,0 +1,92 @@
+package at.ac.uibk.dps.cloud.simulator.examples.tests;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import at.ac.uibk.dps.cloud.simulator.test.IaaSRelatedFoundation;
+import hu.mta.sztaki.lpds.cloud.simulator.Timed;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.CloudBuilder;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.DCFJob;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.JobTable;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.MachineStateTracker;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.MultiIaaSJobDispatcher;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.OverallSystemState;
+import hu.mta.sztaki.lpds.cloud.simulator.helpers.job.Job;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.IaaSService;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.PhysicalMachine;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.pmscheduling.SchedulingDependentMachines;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.vmscheduling.FirstFitScheduler;
+
+public class MachineStateTrackerTest extends IaaSRelatedFoundation {
+	private static final long samplePeriod = 5000;
+
+	/**
+	 * Compares the tracked aggregates with the ones collected by walking
+	 * through all PMs
+	 */
+	private static void assertMatchesSweep(final List<IaaSService> clouds, final MachineStateTracker tracker) {
+		tracker.update();
+		final OverallSystemState tracked = new OverallSystemState();
+		tracker.fillIn(tracked);
+		int finished = 0, running = 0, runningPMs = 0;
+		double usedCores = 0;
+		final int[] states = new int[PhysicalMachine.State.values().length];
+		for (IaaSService iaas : clouds) {
+			for (PhysicalMachine pm : iaas.machines) {
+				finished += pm.getCompletedVMs();
+				running += pm.numofCurrentVMs();
+				usedCores += pm.getCapacities().getRequiredCPUs() - pm.freeCapacities.getRequiredCPUs();
+				runningPMs += pm.isRunning() ? 1 : 0;
+				states[pm.getState().ordinal()]++;
+			}
+		}
+		final String at = "At " + Timed.getFireCount();
+		Assert.assertEquals(at, finished, tracked.finishedVMs);
+		Assert.assertEquals(at, running, tracked.runningVMs);
+		Assert.assertEquals(at, (int) usedCores, tracked.usedCores);
+		Assert.assertEquals(at, runningPMs, tracked.runningPMs);
+		for (PhysicalMachine.State st : PhysicalMachine.State.values()) {
+			Assert.assertEquals(at + " " + st, states[st.ordinal()], tracker.getPMCount(st));
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void testAggregatesMatchSweep() throws Exception {
+		// Overlapping jobs of different sizes: the PMs are switched on and
+		// off, the VMs complete and are destroyed while others still run
+		final int[] procs = { 1, 4, 2, 8, 3, 1, 4, 6 };
+		final List<Job> jobs = new ArrayList<Job>();
+		for (int i = 0; i < procs.length; i++) {
+			jobs.add(new DCFJob("job" + i, 10 + i * 150, 0, 200 + (i % 3) * 100, procs[i], -1, -1, "u", "g", "e",
+					null, 0));
+		}
+		final List<IaaSService> clouds = new CloudBuilder(FirstFitScheduler.class,
+				SchedulingDependentMachines.class, 1, 3, 4).build();
+		final MachineStateTracker tracker = new MachineStateTracker(clouds);
+		final MultiIaaSJobDispatcher dispatcher = new MultiIaaSJobDispatcher(JobTable.fromJobs(jobs), clouds);
+		dispatcher.addVMObserver(tracker);
+
+		assertMatchesSweep(clouds, tracker);
+		long finishedVMs = 0;
+		while (dispatcher.getCompletedJobs() + dispatcher.getIgnorecounter() < jobs.size()) {
+			Timed.simulateUntil(Timed.getFireCount() + samplePeriod);
+			assertMatchesSweep(clouds, tracker);
+			final OverallSystemState st = new OverallSystemState();
+			tracker.fillIn(st);
+			Assert.assertTrue("VMs cannot be undone", st.finishedVMs >= finishedVMs);
+			finishedVMs = st.finishedVMs;
+		}
+		Assert.assertEquals(0, dispatcher.getIgnorecounter());
+		// The PMs are switched off at the end
+		Timed.simulateUntilLastEvent();
+		assertMatchesSweep(clouds, tracker);
+		final OverallSystemState st = new OverallSystemState();
+		tracker.fillIn(st);
+		Assert.assertEquals(0, st.runningVMs);
+		Assert.assertEquals(0, st.usedCores);
+		Assert.assertTrue("All VMs of the jobs were destroyed", st.finishedVMs >= jobs.size());
+	}
+}
@@ -0,0 +1,41 @@
+package at.ac.uibk.dps.cloud.simulator.examples.tests;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.MonitoringConfiguration;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.MonitoringConfiguration.Metric;
+
+public class MonitoringConfigurationTest {
+	@Test(timeout = 100)
+	public void testDefaultIsTheClassicOutput() {
+		MonitoringConfiguration conf = MonitoringConfiguration.parse(MonitoringConfiguration.defaultSpec);
+		Assert.assertEquals(1, conf.groups.size());
+		Assert.assertEquals(300000, conf.groups.get(0).period);
+		Assert.assertEquals(
+				Arrays.asList(Metric.FINISHED, Metric.QUEUED, Metric.VMS, Metric.CORES, Metric.ONPMS, Metric.REPOTX),
+				conf.groups.get(0).metrics);
+	}
+
+	@Test(timeout = 100)
+	public void testGroupsWithTheSamePeriodMerge() {
+		MonitoringConfiguration conf = MonitoringConfiguration
+				.parse("queued,energy@3600000; pmstates,queue.percloud@1000;energy,repobw@3600000");
+		Assert.assertEquals(2, conf.groups.size());
+		Assert.assertEquals(Arrays.asList(Metric.QUEUED, Metric.ENERGY, Metric.REPOBW), conf.groups.get(0).metrics);
+		Assert.assertEquals(Arrays.asList(Metric.PMSTATES, Metric.QUEUE_PER_CLOUD), conf.groups.get(1).metrics);
+		Assert.assertEquals(1000, conf.getShortestPeriod());
+	}
+
+	@Test(expected = IllegalArgumentException.class, timeout = 100)
+	public void testUnknownMetric() {
+		MonitoringConfiguration.parse("finished,nosuchmetric@1000");
+	}
+
+	@Test(expected = IllegalArgumentException.class, timeout = 100)
+	public void testMissingPeriod() {
+		MonitoringConfiguration.parse("finished");
+	}
+}
@@ -0,0 +1,88 @@
+package at.ac.uibk.dps.cloud.simulator.examples.tests;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import at.ac.uibk.dps.cloud.simulator.test.IaaSRelatedFoundation;
+import hu.mta.sztaki.lpds.cloud.simulator.Timed;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.CloudBuilder;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.DCFJob;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.JobTable;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.MultiIaaSJobDispatcher;
+import hu.mta.sztaki.lpds.cloud.simulator.helpers.job.Job;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.pmscheduling.SchedulingDependentMachines;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.vmscheduling.FirstFitScheduler;
+
+public class PrewarmingTest extends IaaSRelatedFoundation {
+	// Enough for booting a PM and starting a VM on it
+	private static final long lead = 600000;
+
+	@Test(timeout = 10000)
+	public void testPrewarmedBeforePooledVMs() throws Exception {
+		// Two bursts of two single VM jobs, separated by more than the lead
+		// time but well within the billing period of the first burst's VMs
+		final List<Job> jobs = new ArrayList<Job>();
+		for (long submit : new long[] { 1000, 2000 }) {
+			for (int i = 0; i < 2; i++) {
+				jobs.add(new DCFJob("job" + submit + "-" + i, submit, 0, 300, 4, -1, -1, "u", "g", "e", null, 0));
+			}
+		}
+		// Four PMs with 4 cores: the VMs of both bursts fit at the same time
+		final MultiIaaSJobDispatcher dispatcher = new MultiIaaSJobDispatcher(JobTable.fromJobs(jobs),
+				new CloudBuilder(FirstFitScheduler.class, SchedulingDependentMachines.class, 1, 4, 4).build());
+		dispatcher.enableVMKeeping();
+		dispatcher.enablePrewarming(lead);
+
+		// The VMs of the first burst are requested in advance
+		Timed.simulateUntil(1000000 - lead + 1);
+		Assert.assertEquals(2, dispatcher.getPrewarmedVMs());
+		Assert.assertEquals(0, dispatcher.getUsedPrewarmedVMs());
+
+		// The first burst completed, its VMs are kept in the pool
+		Timed.simulateUntil(2000000 - lead - 1);
+		Assert.assertEquals(2, dispatcher.getCompletedJobs());
+		Assert.assertEquals(2, dispatcher.getUsedPrewarmedVMs());
+		final long firstReduction = dispatcher.getPrewarmQueueTimeReduction();
+		Assert.assertTrue(firstReduction > 0);
+
+		Timed.simulateUntilLastEvent();
+		Assert.assertEquals(jobs.size(), dispatcher.getCompletedJobs());
+		Assert.assertEquals(4, dispatcher.getPrewarmedVMs());
+		Assert.assertEquals(4, dispatcher.getUsedPrewarmedVMs());
+		Assert.assertEquals(0, dispatcher.getWastedPrewarmedVMs());
+		// The second burst got its own prewarmed VMs, not the pooled ones
+		Assert.assertEquals(0, dispatcher.reuseCounter);
+		Assert.assertTrue(dispatcher.getPrewarmQueueTimeReduction() > firstReduction);
+		// The prewarmed VMs were waiting for their jobs for a while
+		Assert.assertTrue(dispatcher.getPrewarmExtraVMHours() > 0);
+	}
+
+	@Test(timeout = 10000)
+	public void testExpiredPrewarmedVMsAreWasted() throws Exception {
+		// The VM is requested so early that its billing period ends before
+		// its job arrives
+		final long submit = 20000;
+		final long earlyLead = 4 * MultiIaaSJobDispatcher.baseBillingPeriod;
+		final List<Job> jobs = new ArrayList<Job>();
+		jobs.add(new DCFJob("job", submit, 0, 300, 4, -1, -1, "u", "g", "e", null, 0));
+		final MultiIaaSJobDispatcher dispatcher = new MultiIaaSJobDispatcher(JobTable.fromJobs(jobs),
+				new CloudBuilder(FirstFitScheduler.class, SchedulingDependentMachines.class, 1, 2, 4).build());
+		dispatcher.enablePrewarming(earlyLead);
+
+		Timed.simulateUntil(submit * 1000 - 1);
+		Assert.assertEquals(1, dispatcher.getPrewarmedVMs());
+		Assert.assertEquals(1, dispatcher.getWastedPrewarmedVMs());
+		// The whole billing period is accounted for the wasted VM
+		Assert.assertTrue(dispatcher.getPrewarmExtraVMHours() > 0.99);
+
+		// The job had to request its VM from scratch
+		Timed.simulateUntilLastEvent();
+		Assert.assertEquals(1, dispatcher.getCompletedJobs());
+		Assert.assertEquals(0, dispatcher.getUsedPrewarmedVMs());
+		Assert.assertEquals(1, dispatcher.getWastedPrewarmedVMs());
+		Assert.assertEquals(0, dispatcher.getPrewarmQueueTimeReduction());
+	}
+}
@@ -0,0 +1,75 @@
+package at.ac.uibk.dps.cloud.simulator.examples.tests;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import at.ac.uibk.dps.cloud.simulator.test.IaaSRelatedFoundation;
+import hu.mta.sztaki.lpds.cloud.simulator.Timed;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.CloudBuilder;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.DCFJob;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.JobTable;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.MultiIaaSJobDispatcher;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.SingleJobRunner;
+import hu.mta.sztaki.lpds.cloud.simulator.helpers.job.Job;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.pmscheduling.SchedulingDependentMachines;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.vmscheduling.FirstFitScheduler;
+
+public class RunnerPoolTest extends IaaSRelatedFoundation {
+	// Long enough for any of the jobs below to complete with its VM startup
+	private static final long gap = 2000;
+	private static final long exec = 300;
+
+	private static MultiIaaSJobDispatcher dispatch(final List<Job> jobs) throws Exception {
+		// Two PMs with 4 cores each
+		return new MultiIaaSJobDispatcher(JobTable.fromJobs(jobs),
+				new CloudBuilder(FirstFitScheduler.class, SchedulingDependentMachines.class, 1, 2, 4).build());
+	}
+
+	@Test(timeout = 10000)
+	public void testRecycledRunnerStartsClean() throws Exception {
+		// The jobs never overlap, so a single runner handles all of them. Its
+		// arrays have to grow for the jobs that need two VMs.
+		final int[] procs = { 1, 4, 8, 4, 1, 8 };
+		final List<Job> jobs = new ArrayList<Job>();
+		for (int i = 0; i < 2 * procs.length; i++) {
+			jobs.add(new DCFJob("job" + i, 10 + i * gap, 0, exec, procs[i % procs.length], -1, -1, "u", "g", "e",
+					null, 0));
+		}
+		final MultiIaaSJobDispatcher dispatcher = dispatch(jobs);
+		for (int i = 0; i < jobs.size(); i++) {
+			final long submit = (10 + i * gap) * 1000;
+			Timed.simulateUntil(submit + 10000);
+			final List<SingleJobRunner> active = dispatcher.listActiveRunners();
+			Assert.assertEquals(1, active.size());
+			Assert.assertEquals("job" + i, active.get(0).getJob().getId());
+			Assert.assertTrue("The VMs of the job cannot be running yet", active.get(0).getStartTime() < 0);
+			Timed.simulateUntil(submit + (gap - 10) * 1000);
+			Assert.assertTrue(dispatcher.listActiveRunners().isEmpty());
+			Assert.assertEquals(i + 1, dispatcher.getCompletedJobs());
+		}
+		Assert.assertEquals(1, dispatcher.getCreatedRunners());
+		Assert.assertEquals(0, dispatcher.getIgnorecounter());
+	}
+
+	@Test(timeout = 10000)
+	public void testRunnersBoundedByConcurrency() throws Exception {
+		// Bursts of ten jobs: more than the PMs can run at once, so some of
+		// them wait for their VMs in the queue of the cloud
+		final int bursts = 4, burstSize = 10;
+		final List<Job> jobs = new ArrayList<Job>();
+		for (int b = 0; b < bursts; b++) {
+			for (int i = 0; i < burstSize; i++) {
+				jobs.add(new DCFJob("job" + b + "-" + i, 10 + b * gap, 0, exec, 1, -1, -1, "u", "g", "e", null,
+						0));
+			}
+		}
+		final MultiIaaSJobDispatcher dispatcher = dispatch(jobs);
+		Timed.simulateUntilLastEvent();
+		Assert.assertEquals(jobs.size(), dispatcher.getCompletedJobs());
+		Assert.assertEquals(burstSize, dispatcher.getCreatedRunners());
+		Assert.assertTrue(dispatcher.listActiveRunners().isEmpty());
+	}
+}
@@ -0,0 +1,145 @@
+package at.ac.uibk.dps.cloud.simulator.examples.tests;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import at.ac.uibk.dps.cloud.simulator.test.IaaSRelatedFoundation;
+import hu.mta.sztaki.lpds.cloud.simulator.Timed;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.CloudBuilder;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.DCFJob;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.JobTable;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.MultiIaaSJobDispatcher;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.SimulationSnapshot;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.SingleJobRunner;
+import hu.mta.sztaki.lpds.cloud.simulator.helpers.job.Job;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.IaaSService;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.pmscheduling.SchedulingDependentMachines;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.vmscheduling.FirstFitScheduler;
+
+public class SimulationSnapshotTest extends IaaSRelatedFoundation {
+	private static final long hour = 3600;
+
+	@Test(timeout = 1000)
+	public void testRoundTrip() throws Exception {
+		final List<Job> jobs = new ArrayList<Job>();
+		jobs.add(new DCFJob("1", 10, 2, 100, 4, 1.5, 1024, "alice", "staff", "sim.exe", null, 0));
+		jobs.add(new DCFJob("2", 20, 0, 50, 1, -1, -1, null, null, null, null, 0));
+		final File f = File.createTempFile("snapshot", ".dcfsnap");
+		f.deleteOnExit();
+		final MultiIaaSJobDispatcher dispatcher = new MultiIaaSJobDispatcher(JobTable.fromJobs(jobs),
+				new CloudBuilder(FirstFitScheduler.class, SchedulingDependentMachines.class, 1, 2, 4).build());
+		final SimulationSnapshot original = SimulationSnapshot.capture(dispatcher);
+		original.write(f);
+		final SimulationSnapshot back = SimulationSnapshot.read(f);
+		Assert.assertEquals(original.time, back.time);
+		Assert.assertEquals(original.completedJobs, back.completedJobs);
+		Assert.assertEquals(original.startTime, back.startTime);
+		Assert.assertTrue(Double.isNaN(back.consumedEnergy));
+		Assert.assertEquals(2, back.jobs.size());
+		for (int i = 0; i < jobs.size(); i++) {
+			final Job expected = jobs.get(i);
+			final DCFJob job = back.jobs.createView(i);
+			Assert.assertEquals(expected.getId(), job.getId());
+			Assert.assertEquals(expected.getSubmittimeSecs(), job.getSubmittimeSecs());
+			Assert.assertEquals(expected.getQueuetimeSecs(), job.getQueuetimeSecs());
+			Assert.assertEquals(expected.getExectimeSecs(), job.getExectimeSecs());
+			Assert.assertEquals(expected.nprocs, job.nprocs);
+			Assert.assertEquals(expected.perProcCPUTime, job.perProcCPUTime, 0);
+			Assert.assertEquals(expected.usedMemory, job.usedMemory);
+			Assert.assertEquals(expected.user, job.user);
+			Assert.assertEquals(expected.group, job.group);
+			Assert.assertEquals(expected.executable, job.executable);
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void testResumedTotals() throws Exception {
+		// The first job completes before the first snapshot, the second
+		// before the second one
+		final List<Job> jobs = new ArrayList<Job>();
+		jobs.add(new DCFJob("early", 10, 0, 100, 1, -1, -1, "u", "g", "e", null, 0));
+		jobs.add(new DCFJob("late", 2 * hour, 0, 100, 1, -1, -1, "u", "g", "e", null, 0));
+		final MultiIaaSJobDispatcher first = new MultiIaaSJobDispatcher(JobTable.fromJobs(jobs),
+				new CloudBuilder(FirstFitScheduler.class, SchedulingDependentMachines.class, 1, 2, 4).build());
+		Timed.simulateUntil(hour * 1000);
+		final SimulationSnapshot prefix = SimulationSnapshot.capture(first, null, 5);
+		Assert.assertEquals(1, prefix.completedJobs);
+		Assert.assertEquals(10000, prefix.startTime);
+		Assert.assertEquals(5, prefix.consumedEnergy, 0);
+		Assert.assertEquals(1, prefix.jobs.size());
+
+		// Resuming on fresh clouds
+		first.stopTraceProcessing();
+		final MultiIaaSJobDispatcher resumed = new MultiIaaSJobDispatcher(prefix.jobs,
+				new CloudBuilder(FirstFitScheduler.class, SchedulingDependentMachines.class, 1, 2, 4).build());
+		Timed.simulateUntil(3 * hour * 1000);
+		Assert.assertEquals(1, resumed.getCompletedJobs());
+		final SimulationSnapshot whole = SimulationSnapshot.capture(resumed, prefix, 3);
+		Assert.assertEquals(2, whole.completedJobs);
+		Assert.assertEquals(prefix.startTime, whole.startTime);
+		Assert.assertEquals(8, whole.consumedEnergy, 0);
+		Assert.assertEquals(0, whole.jobs.size());
+		// Unknown consumption spoils the total
+		Assert.assertTrue(Double.isNaN(SimulationSnapshot.capture(resumed, prefix, Double.NaN).consumedEnergy));
+	}
+
+	@Test(timeout = 10000)
+	public void testCaptureOfRunningAndWaitingJobs() throws Exception {
+		// Two PMs with 4 cores: the first two jobs run, the third waits for
+		// its VM, the fourth is not yet submitted at the snapshot
+		final List<Job> jobs = new ArrayList<Job>();
+		jobs.add(new DCFJob("running1", 10, 0, 2 * hour, 4, -1, -1, "u", "g", "e", null, 0));
+		jobs.add(new DCFJob("running2", 10, 0, 3 * hour, 4, -1, -1, "u", "g", "e", null, 0));
+		jobs.add(new DCFJob("waiting", 20, 0, 4 * hour, 4, -1, -1, "u", "g", "e", null, 0));
+		jobs.add(new DCFJob("later", 10 * hour, 0, hour, 4, -1, -1, "u", "g", "e", null, 0));
+		final List<IaaSService> clouds = new CloudBuilder(FirstFitScheduler.class,
+				SchedulingDependentMachines.class, 1, 2, 4).build();
+		final MultiIaaSJobDispatcher dispatcher = new MultiIaaSJobDispatcher(JobTable.fromJobs(jobs), clouds);
+		Timed.simulateUntil(hour * 1000 + 1);
+
+		final HashMap<String, Long> expectedExec = new HashMap<String, Long>();
+		final long now = Timed.getFireCount();
+		int running = 0, waiting = 0;
+		for (SingleJobRunner r : dispatcher.listActiveRunners()) {
+			final Job job = r.getJob();
+			if (r.getStartTime() >= 0) {
+				running++;
+				expectedExec.put(job.getId(), job.getExectimeSecs() - (now - r.getStartTime()) / 1000);
+			} else {
+				waiting++;
+				expectedExec.put(job.getId(), job.getExectimeSecs());
+			}
+		}
+		Assert.assertEquals(2, running);
+		Assert.assertEquals(1, waiting);
+		Assert.assertEquals(4 * hour, (long) expectedExec.get("waiting"));
+
+		final SimulationSnapshot snapshot = SimulationSnapshot.capture(dispatcher);
+		Assert.assertEquals(now, snapshot.time);
+		Assert.assertEquals(0, snapshot.completedJobs);
+		Assert.assertEquals(4, snapshot.jobs.size());
+		// The resubmissions are rounded up to the next second
+		final long resubmit = snapshot.jobs.getSubmittimeSecs(0);
+		Assert.assertTrue(resubmit * 1000 >= snapshot.time);
+		Assert.assertTrue(resubmit * 1000 - snapshot.time < 1000);
+		for (int i = 0; i < snapshot.jobs.size(); i++) {
+			final String id = snapshot.jobs.getId(i);
+			final DCFJob job = snapshot.jobs.createView(i);
+			if (id.equals("later")) {
+				Assert.assertEquals(10 * hour, job.getSubmittimeSecs());
+				Assert.assertEquals(hour, job.getExectimeSecs());
+			} else {
+				Assert.assertEquals(resubmit, job.getSubmittimeSecs());
+				Assert.assertEquals((long) expectedExec.get(id), job.getExectimeSecs());
+			}
+		}
+		// Running jobs only keep the part of their execution still ahead
+		Assert.assertTrue(expectedExec.get("running1") < 2 * hour);
+		Assert.assertTrue(expectedExec.get("running2") < 3 * hour);
+	}
+}
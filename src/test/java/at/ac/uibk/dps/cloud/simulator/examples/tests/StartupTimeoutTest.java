@@ -0,0 +1,76 @@
+package at.ac.uibk.dps.cloud.simulator.examples.tests;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import at.ac.uibk.dps.cloud.simulator.test.IaaSRelatedFoundation;
+import hu.mta.sztaki.lpds.cloud.simulator.Timed;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.CloudBuilder;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.DCFJob;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.JobTable;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.MultiIaaSJobDispatcher;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.SingleJobRunner;
+import hu.mta.sztaki.lpds.cloud.simulator.helpers.job.Job;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.pmscheduling.SchedulingDependentMachines;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.vmscheduling.FirstFitScheduler;
+
+public class StartupTimeoutTest extends IaaSRelatedFoundation {
+	private static final long timeout = SingleJobRunner.startupTimeout;
+
+	private static Job job(final String id, final long submit, final long exec) {
+		return new DCFJob(id, submit, 0, exec, 4, -1, -1, "u", "g", "e", null, 0);
+	}
+
+	private static MultiIaaSJobDispatcher dispatch(final List<Job> jobs) throws Exception {
+		// A single PM with 4 cores: only one job runs at a time
+		return new MultiIaaSJobDispatcher(JobTable.fromJobs(jobs),
+				new CloudBuilder(FirstFitScheduler.class, SchedulingDependentMachines.class, 1, 1, 4).build());
+	}
+
+	private static HashSet<String> activeJobs(final MultiIaaSJobDispatcher dispatcher) {
+		final HashSet<String> ids = new HashSet<String>();
+		for (SingleJobRunner r : dispatcher.listActiveRunners()) {
+			ids.add(r.getJob().getId());
+		}
+		return ids;
+	}
+
+	@Test(timeout = 10000)
+	public void testCancelledTimeoutDoesNotKeepSimulationAlive() throws Exception {
+		final List<Job> jobs = new ArrayList<Job>();
+		jobs.add(job("quick", 10, 3600));
+		final MultiIaaSJobDispatcher dispatcher = dispatch(jobs);
+		Timed.simulateUntilLastEvent();
+		Assert.assertEquals(1, dispatcher.getCompletedJobs());
+		Assert.assertTrue("The simulation should end with the job, not with its cancelled timeout",
+				Timed.getFireCount() < timeout);
+	}
+
+	@Test(timeout = 10000)
+	public void testTimeoutBehindCancelledOne() throws Exception {
+		// The timeout of the first job is cancelled once its VM runs, but it
+		// stays at the head of the queue until the wake up for its deadline
+		final List<Job> jobs = new ArrayList<Job>();
+		jobs.add(job("running", 10, 2 * timeout / 1000));
+		jobs.add(job("blocked", 20, 3600));
+		final MultiIaaSJobDispatcher dispatcher = dispatch(jobs);
+
+		Timed.simulateUntil(timeout + 15000);
+		HashSet<String> active = activeJobs(dispatcher);
+		Assert.assertTrue(active.contains("running"));
+		Assert.assertTrue("Should not time out at the deadline of the cancelled timeout",
+				active.contains("blocked"));
+
+		Timed.simulateUntil(timeout + 25000);
+		active = activeJobs(dispatcher);
+		Assert.assertTrue(active.contains("running"));
+		Assert.assertFalse("Should time out at its own deadline", active.contains("blocked"));
+
+		Timed.simulateUntilLastEvent();
+		Assert.assertEquals(1, dispatcher.getCompletedJobs());
+	}
+}
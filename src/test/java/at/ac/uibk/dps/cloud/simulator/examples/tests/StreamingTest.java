@@ -0,0 +1,78 @@
+package at.ac.uibk.dps.cloud.simulator.examples.tests;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import at.ac.uibk.dps.cloud.simulator.test.IaaSRelatedFoundation;
+import hu.mta.sztaki.lpds.cloud.simulator.Timed;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.CloudBuilder;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.DCFJob;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.MultiIaaSJobDispatcher;
+import hu.mta.sztaki.lpds.cloud.simulator.helpers.job.Job;
+import hu.mta.sztaki.lpds.cloud.simulator.helpers.trace.GenericTraceProducer;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.pmscheduling.SchedulingDependentMachines;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.vmscheduling.FirstFitScheduler;
+
+public class StreamingTest extends IaaSRelatedFoundation {
+	private static final int window = 5;
+
+	/**
+	 * Serves a prepared job list, windows are only short at the end of the
+	 * list
+	 */
+	private static class ListProducer extends GenericTraceProducer {
+		private final List<Job> jobs;
+		private int next = 0;
+		int requests = 0;
+
+		ListProducer(final List<Job> jobs) {
+			this.jobs = jobs;
+		}
+
+		@Override
+		public List<Job> getAllJobs() {
+			return getJobs(jobs.size() - next);
+		}
+
+		@Override
+		public List<Job> getJobs(final int num) {
+			requests++;
+			final int end = Math.min(jobs.size(), next + num);
+			final List<Job> part = new ArrayList<Job>(jobs.subList(next, end));
+			next = end;
+			return part;
+		}
+	}
+
+	private static void streamAll(final int count) throws Exception {
+		// Single core jobs, the ones at the end of a window share their
+		// submission time with the first ones of the next window
+		final List<Job> jobs = new ArrayList<Job>();
+		for (int i = 0; i < count; i++) {
+			jobs.add(new DCFJob("job" + i, 10 + (i / 2) * 200, 0, 100, 1, -1, -1, "u", "g", "e", null, 0));
+		}
+		final ListProducer producer = new ListProducer(jobs);
+		final MultiIaaSJobDispatcher dispatcher = new MultiIaaSJobDispatcher(producer,
+				new CloudBuilder(FirstFitScheduler.class, SchedulingDependentMachines.class, 1, 2, 4).build(),
+				window);
+		Assert.assertTrue(dispatcher.isStreaming());
+		Timed.simulateUntilLastEvent();
+		Assert.assertEquals(count, dispatcher.getCompletedJobs());
+		Assert.assertEquals(0, dispatcher.getIgnorecounter());
+		// Full windows are followed by a request that finds the trace over
+		Assert.assertEquals(count / window + 1, producer.requests);
+	}
+
+	@Test(timeout = 10000)
+	public void testPartialLastWindow() throws Exception {
+		streamAll(4 * window + 3);
+	}
+
+	@Test(timeout = 10000)
+	public void testFullLastWindow() throws Exception {
+		streamAll(4 * window);
+	}
+}
@@ -0,0 +1,70 @@
+package at.ac.uibk.dps.cloud.simulator.examples.tests;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.DCFJob;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.SubmissionIndex;
+import hu.mta.sztaki.lpds.cloud.simulator.helpers.job.Job;
+
+public class SubmissionIndexTest {
+
+	private static Job[] generateTrace(final int jobCount, final int jobsPerSecond) {
+		Job[] jobs = new Job[jobCount];
+		for (int i = 0; i < jobCount; i++) {
+			jobs[i] = new DCFJob("" + i, i / jobsPerSecond, 0, 10, 1, -1, -1, "", "", "", null, 0);
+		}
+		return jobs;
+	}
+
+	@Test(timeout = 100)
+	public void testBucketing() {
+		Job[] jobs = new Job[] { new DCFJob("0", 5, 0, 10, 1, -1, -1, "", "", "", null, 0),
+				new DCFJob("1", 5, 0, 10, 1, -1, -1, "", "", "", null, 0),
+				new DCFJob("2", 7, 0, 10, 1, -1, -1, "", "", "", null, 0),
+				new DCFJob("3", 9, 0, 10, 1, -1, -1, "", "", "", null, 0),
+				new DCFJob("4", 9, 0, 10, 1, -1, -1, "", "", "", null, 0),
+				new DCFJob("5", 9, 0, 10, 1, -1, -1, "", "", "", null, 0) };
+		SubmissionIndex index = new SubmissionIndex(jobs);
+		Assert.assertEquals(3, index.size());
+		Assert.assertEquals(5, index.getSubmitTimeSecs(0));
+		Assert.assertEquals(0, index.getBucketStart(0));
+		Assert.assertEquals(2, index.getBucketEnd(0));
+		Assert.assertEquals(7, index.getSubmitTimeSecs(1));
+		Assert.assertEquals(3, index.getBucketEnd(1));
+		Assert.assertEquals(9, index.getSubmitTimeSecs(2));
+		Assert.assertEquals(3, index.getBucketStart(2));
+		Assert.assertEquals(jobs.length, index.getBucketEnd(2));
+	}
+
+	@Test(timeout = 100)
+	public void testEmptyTrace() {
+		Assert.assertEquals(0, new SubmissionIndex(new Job[0]).size());
+	}
+
+	@Test(timeout = 100, expected = IllegalArgumentException.class)
+	public void testUnorderedTrace() {
+		new SubmissionIndex(new Job[] { new DCFJob("0", 5, 0, 10, 1, -1, -1, "", "", "", null, 0),
+				new DCFJob("1", 3, 0, 10, 1, -1, -1, "", "", "", null, 0) });
+	}
+
+	@Test(timeout = 1000)
+	public void testSyntheticTrace() {
+		final int jobCount = 5000;
+		final int jobsPerSecond = 7;
+		Job[] jobs = generateTrace(jobCount, jobsPerSecond);
+		SubmissionIndex index = new SubmissionIndex(jobs);
+		// Every job must be visited exactly once when walking the buckets in
+		// the same way as the dispatcher does
+		long visited = 0;
+		for (int b = 0; b < index.size(); b++) {
+			final long submit = index.getSubmitTimeSecs(b);
+			for (int i = index.getBucketStart(b); i < index.getBucketEnd(b); i++) {
+				Assert.assertEquals(submit, jobs[i].getSubmittimeSecs());
+				visited++;
+			}
+		}
+		Assert.assertEquals(jobCount, visited);
+		Assert.assertEquals((jobCount + jobsPerSecond - 1) / jobsPerSecond, index.size());
+	}
+}
@@ -0,0 +1,57 @@
+package at.ac.uibk.dps.cloud.simulator.examples.tests;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import at.ac.uibk.dps.cloud.simulator.test.IaaSRelatedFoundation;
+import hu.mta.sztaki.lpds.cloud.simulator.Timed;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.TimerWheel;
+
+public class TimerWheelTest extends IaaSRelatedFoundation {
+	private static class RecordingEntry extends TimerWheel.Entry {
+		final ArrayList<Long> firings;
+
+		RecordingEntry(final ArrayList<Long> firings) {
+			this.firings = firings;
+		}
+
+		@Override
+		protected void expired(final long fires) {
+			firings.add(fires);
+		}
+	}
+
+	@Test(timeout = 1000)
+	public void testFiresAtDeadlines() {
+		final TimerWheel wheel = new TimerWheel();
+		final ArrayList<Long> firings = new ArrayList<Long>();
+		final long[] delays = { 3600000 - 1, 5, 64, 63, 4096 * 64 + 17, 5 };
+		for (long d : delays) {
+			wheel.schedule(new RecordingEntry(firings), d);
+		}
+		Timed.simulateUntilLastEvent();
+		Assert.assertEquals(Arrays.asList(5L, 5L, 63L, 64L, 4096L * 64 + 17, 3600000L - 1), firings);
+		Assert.assertEquals(0, wheel.size());
+		Assert.assertFalse(wheel.isSubscribed());
+	}
+
+	@Test(timeout = 1000)
+	public void testCancelAndReschedule() {
+		final TimerWheel wheel = new TimerWheel();
+		final ArrayList<Long> firings = new ArrayList<Long>();
+		final RecordingEntry cancelled = new RecordingEntry(firings);
+		final RecordingEntry moved = new RecordingEntry(firings);
+		wheel.schedule(cancelled, 100);
+		wheel.schedule(moved, 1000000);
+		wheel.cancel(cancelled);
+		wheel.schedule(moved, 200);
+		Assert.assertEquals(1, wheel.size());
+		Timed.simulateUntilLastEvent();
+		Assert.assertEquals(1, firings.size());
+		Assert.assertEquals(200L, (long) firings.get(0));
+		Assert.assertFalse(moved.isScheduled());
+	}
+}
@@ -0,0 +1,144 @@
+package at.ac.uibk.dps.cloud.simulator.examples.tests;
+
+import java.util.ArrayDeque;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import at.ac.uibk.dps.cloud.simulator.test.IaaSRelatedFoundation;
+import hu.mta.sztaki.lpds.cloud.simulator.Timed;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.CloudBuilder;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.TimerWheel;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.VMGang;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.VMKeeper;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.IaaSService;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.VirtualMachine;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.constraints.ConstantConstraints;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.pmscheduling.SchedulingDependentMachines;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.vmscheduling.FirstFitScheduler;
+import hu.mta.sztaki.lpds.cloud.simulator.io.Repository;
+import hu.mta.sztaki.lpds.cloud.simulator.io.VirtualAppliance;
+
+public class VMGangTest extends IaaSRelatedFoundation {
+	private static final long billingPeriod = 3600000;
+	IaaSService cloud;
+	Repository repo;
+	VirtualAppliance va;
+	TimerWheel wheel;
+	ArrayDeque<VMGang> idleGangs;
+	int released, expired;
+	VMGang gang;
+	long start;
+
+	@Before
+	public void setupCloud() throws Exception {
+		cloud = new CloudBuilder(FirstFitScheduler.class, SchedulingDependentMachines.class, 1, 2, 8).build()
+				.get(0);
+		repo = cloud.repositories.get(0);
+		va = new VirtualAppliance("gangtest", 30, 0, false, 100000000);
+		repo.registerObject(va);
+		wheel = new TimerWheel();
+		idleGangs = new ArrayDeque<VMGang>();
+		released = expired = 0;
+	}
+
+	/**
+	 * Starts the given number of VMs and puts their keepers in a new gang,
+	 * the billing period of the gang starts when the VMs are running
+	 */
+	private VMKeeper[] gangOf(final int count) throws Exception {
+		final VirtualMachine[] vms = cloud.requestVM(va,
+				new ConstantConstraints(2, cloud.machines.get(0).getCapacities().getRequiredProcessingPower(),
+						512000000),
+				repo, count);
+		Timed.simulateUntilLastEvent();
+		start = Timed.getFireCount();
+		gang = new VMGang(billingPeriod, new VMKeeper.ReleaseListener() {
+			@Override
+			public void released(final VMKeeper me) {
+				released++;
+			}
+
+			@Override
+			public void expired(final VMKeeper me) {
+				expired++;
+			}
+		}, wheel, idleGangs);
+		gang.setKeepVMs(true);
+		final VMKeeper[] keepers = new VMKeeper[count];
+		for (int i = 0; i < count; i++) {
+			Assert.assertEquals(VirtualMachine.State.RUNNING, vms[i].getState());
+			keepers[i] = new VMKeeper(cloud, vms[i], gang);
+		}
+		return keepers;
+	}
+
+	/**
+	 * Advances the simulation just beyond the end of the given billing period
+	 * of the gang
+	 */
+	private void passBillingPeriod(final int period) {
+		Timed.simulateUntil(start + period * billingPeriod + 1000);
+	}
+
+	@Test(timeout = 10000)
+	public void testOnlyFreeMembersExpire() throws Exception {
+		final VMKeeper[] keepers = gangOf(4);
+		Assert.assertEquals(4, gang.getFreeMembers());
+		// Not sealed yet: the free members survive the billing period end
+		passBillingPeriod(1);
+		Assert.assertEquals(0, expired);
+		for (VMKeeper k : keepers) {
+			Assert.assertTrue(k.isAlive());
+		}
+
+		// Two members are taken, one of them is released again
+		final VirtualMachine used = keepers[0].acquire();
+		final VirtualMachine usedBriefly = keepers[1].acquire();
+		Assert.assertEquals(2, gang.getFreeMembers());
+		gang.seal();
+		keepers[1].release(usedBriefly);
+		Assert.assertEquals(1, released);
+		Assert.assertEquals(3, gang.getFreeMembers());
+
+		passBillingPeriod(2);
+		Assert.assertEquals(3, expired);
+		Assert.assertTrue("The member in use is kept", keepers[0].isAlive());
+		for (int i = 1; i < keepers.length; i++) {
+			Assert.assertFalse(keepers[i].isAlive());
+		}
+		Assert.assertEquals(0, gang.getFreeMembers());
+		Assert.assertTrue("The gang still has a member", idleGangs.isEmpty());
+
+		// The last member expires at the next billing period end
+		keepers[0].release(used);
+		passBillingPeriod(3);
+		Assert.assertEquals(4, expired);
+		Assert.assertFalse(keepers[0].isAlive());
+		Assert.assertSame("All VMs are gone, the gang can be reused", gang, idleGangs.peekLast());
+	}
+
+	@Test(timeout = 10000)
+	public void testDisarmedWithoutFreeMembers() throws Exception {
+		final VMKeeper[] keepers = gangOf(2);
+		gang.seal();
+		// All members are in use: the timer is cancelled
+		final VirtualMachine first = keepers[0].acquire();
+		keepers[1].acquire();
+		Assert.assertEquals(0, gang.getFreeMembers());
+		passBillingPeriod(1);
+		Assert.assertEquals(0, expired);
+		Assert.assertTrue(keepers[0].isAlive());
+		Assert.assertTrue(keepers[1].isAlive());
+
+		// A released member arms the timer again
+		keepers[0].release(first);
+		Assert.assertEquals(1, gang.getFreeMembers());
+		passBillingPeriod(2);
+		Assert.assertEquals(1, expired);
+		Assert.assertFalse(keepers[0].isAlive());
+		Assert.assertTrue(keepers[1].isAlive());
+		Assert.assertTrue(idleGangs.isEmpty());
+	}
+}
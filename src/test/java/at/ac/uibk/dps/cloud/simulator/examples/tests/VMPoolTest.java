@@ -0,0 +1,99 @@
+package at.ac.uibk.dps.cloud.simulator.examples.tests;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import at.ac.uibk.dps.cloud.simulator.test.IaaSRelatedFoundation;
+import hu.mta.sztaki.lpds.cloud.simulator.Timed;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.CloudBuilder;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.TimerWheel;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.VMKeeper;
+import hu.mta.sztaki.lpds.cloud.simulator.examples.jobhistoryprocessor.VMPool;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.IaaSService;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.VirtualMachine;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.constraints.ConstantConstraints;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.pmscheduling.SchedulingDependentMachines;
+import hu.mta.sztaki.lpds.cloud.simulator.iaas.vmscheduling.FirstFitScheduler;
+import hu.mta.sztaki.lpds.cloud.simulator.io.Repository;
+import hu.mta.sztaki.lpds.cloud.simulator.io.VirtualAppliance;
+
+public class VMPoolTest extends IaaSRelatedFoundation {
+	private static final long billingPeriod = 3600000;
+	IaaSService cloud;
+	Repository repo;
+	VirtualAppliance va;
+	TimerWheel wheel;
+	VMPool pool;
+
+	@Before
+	public void setupCloud() throws Exception {
+		cloud = new CloudBuilder(FirstFitScheduler.class, SchedulingDependentMachines.class, 1, 2, 8).build()
+				.get(0);
+		repo = cloud.repositories.get(0);
+		va = new VirtualAppliance("pooltest", 30, 0, false, 100000000);
+		repo.registerObject(va);
+		wheel = new TimerWheel();
+		pool = new VMPool();
+	}
+
+	private ConstantConstraints cores(final double cores) {
+		return new ConstantConstraints(cores, cloud.machines.get(0).getCapacities().getRequiredProcessingPower(),
+				512000000);
+	}
+
+	/**
+	 * Starts VMs of the given sizes, keeps them and puts their keepers in the
+	 * pool
+	 */
+	private VMKeeper[] pooledKeepers(final double... sizes) throws Exception {
+		final VirtualMachine[] vms = new VirtualMachine[sizes.length];
+		for (int i = 0; i < sizes.length; i++) {
+			vms[i] = cloud.requestVM(va, cores(sizes[i]), repo, 1)[0];
+		}
+		Timed.simulateUntilLastEvent();
+		final VMKeeper[] keepers = new VMKeeper[sizes.length];
+		for (int i = 0; i < sizes.length; i++) {
+			Assert.assertEquals(VirtualMachine.State.RUNNING, vms[i].getState());
+			keepers[i] = new VMKeeper(cloud, vms[i], billingPeriod, wheel);
+			keepers[i].setListener(pool);
+			pool.released(keepers[i]);
+		}
+		return keepers;
+	}
+
+	@Test(timeout = 10000)
+	public void testAcquiresSmallestFitting() throws Exception {
+		final VMKeeper[] keepers = pooledKeepers(1, 4, 2);
+		Assert.assertEquals(3, pool.size());
+		Assert.assertSame(keepers[2], pool.acquireFitting(cores(1.5)));
+		Assert.assertSame(keepers[0], pool.acquireFitting(cores(1)));
+		Assert.assertNull("No free VM is big enough", pool.acquireFitting(cores(6)));
+		Assert.assertEquals(1, pool.size());
+		Assert.assertSame(keepers[1], pool.acquireFitting(cores(1)));
+		Assert.assertEquals(0, pool.size());
+		Assert.assertNull(pool.acquireFitting(cores(1)));
+	}
+
+	@Test(timeout = 10000)
+	public void testSkipsKeepersTakenElsewhere() throws Exception {
+		final VMKeeper[] keepers = pooledKeepers(2, 2);
+		// Taken without asking the pool, the pool notices it on acquisition
+		Assert.assertNotNull(keepers[0].acquire());
+		Assert.assertSame(keepers[1], pool.acquireFitting(cores(2)));
+		Assert.assertEquals(0, pool.size());
+	}
+
+	@Test(timeout = 10000)
+	public void testExpiredKeepersLeaveThePool() throws Exception {
+		final VMKeeper[] keepers = pooledKeepers(1, 2);
+		Assert.assertEquals(2, pool.size());
+		// The billing periods end, the keepers destroy their VMs
+		Timed.simulateUntilLastEvent();
+		Assert.assertEquals(0, pool.size());
+		Assert.assertNull(pool.acquireFitting(cores(1)));
+		for (VMKeeper k : keepers) {
+			Assert.assertFalse(k.isAlive());
+		}
+	}
+}